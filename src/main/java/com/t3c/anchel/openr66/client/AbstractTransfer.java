@@ -36,6 +36,7 @@ import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.context.R66Session;
 import com.t3c.anchel.openr66.context.filesystem.R66File;
+import com.t3c.anchel.openr66.context.filesystem.R66Stripe;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
 import com.t3c.anchel.openr66.database.DbConstant;
 import com.t3c.anchel.openr66.database.data.DbRule;
@@ -85,6 +86,11 @@ public abstract class AbstractTransfer implements Runnable {
 
     protected boolean normalInfoAsWarn = true;
 
+    /**
+     * Stripe to send if this transfer is one stripe of a striped transfer
+     */
+    protected R66Stripe stripe = null;
+
     /**
      * @param clasz
      *            Class of Client Transfer
@@ -124,6 +130,18 @@ public abstract class AbstractTransfer implements Runnable {
      * @return null if an error occurs or a DbTaskRunner
      */
     protected DbTaskRunner initRequest() {
+        return initRequest(true);
+    }
+
+    /**
+     * Initiate the Request and return a potential DbTaskRunner
+     * 
+     * @param create
+     *            True to create a new DbTaskRunner in database now, else it is to be submitted
+     *            later through DbTaskRunner.submitBatch
+     * @return null if an error occurs or a DbTaskRunner
+     */
+    protected DbTaskRunner initRequest(boolean create) {
         DbRule rule;
         try {
             rule = new DbRule(DbConstant.admin.getSession(), rulename);
@@ -159,37 +177,21 @@ public abstract class AbstractTransfer implements Runnable {
                 taskRunner.setStart(startTime);
             }
         } else {
-            long originalSize = -1;
-            if (RequestPacket.isSendMode(mode) && !RequestPacket.isThroughMode(mode)) {
-                File file = new File(filename);
-                // Change dir
-                try {
-                    R66Session session = new R66Session();
-                    session.getAuth().specialNoSessionAuth(false, Configuration.configuration.getHOST_ID());
-                    session.getDir().changeDirectory(rule.getSendPath());
-                    R66File filer66 = FileUtils.getFile(logger, session, filename, true, true, false, null);
-                    file = filer66.getTrueFile();
-                } catch (CommandAbstractException e) {
-                } catch (OpenR66RunnerErrorException e) {
-                }
-                if (file.canRead()) {
-                    originalSize = file.length();
-                    if (originalSize == 0) {
-                        originalSize = -1;
-                    }
-                }
-            }
+            long originalSize = getOriginalSize(rule, mode);
             logger.debug("Filesize: " + originalSize);
             String sep = PartnerConfiguration.getSeparator(remoteHost);
             RequestPacket request = new RequestPacket(rulename,
-                    mode, filename, blocksize, 0,
+                    mode, filename, blocksize, stripe != null ? stripe.getStartRank(blocksize) : 0,
                     id, fileinfo, originalSize, sep);
+            if (stripe != null) {
+                request.setStripe(stripe.toString());
+            }
             // Not isRecv since it is the requester, so send => isRetrieve is true
             boolean isRetrieve = !RequestPacket.isRecvMode(request.getMode());
             try {
                 taskRunner =
                         new DbTaskRunner(DbConstant.admin.getSession(), rule, isRetrieve, request,
-                                remoteHost, startTime);
+                                remoteHost, startTime, create);
             } catch (WaarpDatabaseException e) {
                 logger.error("Cannot get task", e);
                 future.setResult(new R66Result(new OpenR66DatabaseGlobalException(e), null, true,
@@ -201,6 +203,54 @@ public abstract class AbstractTransfer implements Runnable {
         return taskRunner;
     }
 
+    /**
+     * 
+     * @param rule
+     * @param mode
+     * @return the size of the file to send, -1 if unknown or not a send mode
+     */
+    protected long getOriginalSize(DbRule rule, int mode) {
+        long originalSize = -1;
+        if (RequestPacket.isSendMode(mode) && !RequestPacket.isThroughMode(mode)) {
+            File file = getLocalFile(rule);
+            if (file.canRead()) {
+                originalSize = file.length();
+                if (originalSize == 0) {
+                    originalSize = -1;
+                }
+            }
+        }
+        return originalSize;
+    }
+
+    /**
+     * 
+     * @param rule
+     * @return the local file to send, as found from the send path of the rule
+     */
+    protected File getLocalFile(DbRule rule) {
+        File file = new File(filename);
+        // Change dir
+        try {
+            R66Session session = new R66Session();
+            session.getAuth().specialNoSessionAuth(false, Configuration.configuration.getHOST_ID());
+            session.getDir().changeDirectory(rule.getSendPath());
+            R66File filer66 = FileUtils.getFile(logger, session, filename, true, true, false, null);
+            file = filer66.getTrueFile();
+        } catch (CommandAbstractException e) {
+        } catch (OpenR66RunnerErrorException e) {
+        }
+        return file;
+    }
+
+    /**
+     * @param stripe
+     *            the stripe to send by this transfer
+     */
+    protected void setStripe(R66Stripe stripe) {
+        this.stripe = stripe;
+    }
+
     static protected String rhost = null;
     static protected String localFilename = null;
     static protected String rule = null;
@@ -18,12 +18,18 @@
 package com.t3c.anchel.openr66.client;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
 
 import com.t3c.anchel.AnchelSlf4jLoggerFactory;
 import com.t3c.anchel.openr66.client.utils.OutputFormat;
@@ -40,6 +46,7 @@ import com.t3c.anchel.openr66.protocol.localhandler.packet.InformationPacket;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.ValidPacket;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
+import com.t3c.anchel.openr66.protocol.utils.FileBundle;
 import com.t3c.anchel.openr66.protocol.utils.R66Future;
 
 /**
@@ -55,6 +62,16 @@ import com.t3c.anchel.openr66.protocol.utils.R66Future;
  * -to host2 -file file2<br>
  * -to host3 -file file1<br>
  * -to host3 -file file2<br>
+ * <br>
+ * By default, transfers are done one at a time. Extra options "-parallel n" and "-parallelByHost m"
+ * allow up to n transfers at once, with at most m (default n) at once with one host, all transfers
+ * with one host sharing its network connection. Results are aggregated as transfers complete.<br>
+ * <br>
+ * Extra options "-bundle n" and "-bundleSize size" (default 1048576) send the files smaller than
+ * size in bundles of up to n files, each bundle being one transfer (see FileBundle), to be
+ * extracted by the rule on the receiver through the UNBUNDLE task. Bundles and their index are
+ * created in the send directory of the rule, one set of bundles by host; they are deleted once
+ * transferred, a bundle in error being kept with the error status in its index for a restart.<br>
  * 
  * @author Frederic Bregier
  * 
@@ -63,6 +80,17 @@ public class MultipleDirectTransfer extends DirectTransfer {
     private int errorMultiple = 0;
     private int doneMultiple = 0;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    private boolean inError = false;
+    private R66Result resultError = null;
+    private int parallel = 1;
+    private int parallelByHost = 1;
+    private int bundle = 0;
+    private long bundleSize = DEFAULT_BUNDLE_SIZE;
+
+    /**
+     * Default maximum size of one file to be bundled
+     */
+    public static final long DEFAULT_BUNDLE_SIZE = 1024 * 1024;
 
     public MultipleDirectTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
@@ -137,12 +165,102 @@ public class MultipleDirectTransfer extends DirectTransfer {
         return files;
     }
 
+    /**
+     * Replace the small files by bundles of them, created in the send directory of the rule
+     * 
+     * @param dbrule
+     * @param files
+     * @param host
+     *            the host to which the bundles are sent (each bundle is sent to one host only)
+     * @param bundle
+     *            maximum number of files in one bundle
+     * @param bundleSize
+     *            maximum size of one file to be bundled
+     * @return the files to transfer, bundles then files too big to be bundled (the files unchanged
+     *         if the send directory of the rule cannot be used)
+     */
+    public static List<String> getBundles(DbRule dbrule, List<String> files, String host, int bundle,
+            long bundleSize) {
+        R66Session session = new R66Session();
+        session.getAuth().specialNoSessionAuth(false, Configuration.configuration.getHOST_ID());
+        R66Dir dir = new R66Dir(session);
+        try {
+            dir.changeDirectory(dbrule.getSendPath());
+        } catch (CommandAbstractException e) {
+            logger.error("Cannot use the send directory of the rule " + dbrule.getIdRule()
+                    + ", files sent one by one: " + e.getMessage());
+            return files;
+        }
+        File sendDir = new File(dir.getFullPath());
+        List<String> result = new ArrayList<String>();
+        List<File> small = new ArrayList<File>();
+        for (String filename : files) {
+            filename = filename.trim();
+            if (filename.isEmpty()) {
+                continue;
+            }
+            File file = new File(filename);
+            if (!file.isFile()) {
+                file = new File(sendDir, filename);
+            }
+            if (file.isFile() && file.length() <= bundleSize) {
+                small.add(file);
+            } else {
+                result.add(filename);
+            }
+        }
+        String prefix = "bundle_" + Configuration.configuration.getHOST_ID() + "_" + host + "_"
+                + System.currentTimeMillis() + "_";
+        List<String> bundles = new ArrayList<String>();
+        for (int i = 0; i < small.size(); i += bundle) {
+            File bundleFile = new File(sendDir, prefix + bundles.size() + FileBundle.EXTENSION);
+            List<File> content = small.subList(i, Math.min(small.size(), i + bundle));
+            try {
+                FileBundle.create(bundleFile, content);
+                bundles.add(bundleFile.getAbsolutePath());
+            } catch (IOException e) {
+                logger.error("Cannot create the bundle " + bundleFile + ", files sent one by one", e);
+                for (File file : content) {
+                    result.add(file.getAbsolutePath());
+                }
+            }
+        }
+        logger.info("Bundles: " + small.size() + " files in " + bundles.size() + " bundles, " + result.size()
+                + " files not bundled");
+        bundles.addAll(result);
+        return bundles;
+    }
+
+    /**
+     * Send the small files in bundles
+     * 
+     * @param bundle
+     *            maximum number of files in one bundle (bundles not used if less than 2)
+     * @param bundleSize
+     *            maximum size of one file to be bundled
+     */
+    public void setBundle(int bundle, long bundleSize) {
+        this.bundle = bundle;
+        this.bundleSize = bundleSize;
+    }
+
+    /**
+     * Set the concurrency of the transfers, all transfers being done one at a time by default
+     * 
+     * @param parallel
+     *            maximum number of transfers at once
+     * @param parallelByHost
+     *            maximum number of transfers at once with one host
+     */
+    public void setParallel(int parallel, int parallelByHost) {
+        this.parallel = Math.max(1, parallel);
+        this.parallelByHost = Math.max(1, Math.min(this.parallel, parallelByHost));
+    }
+
     @Override
     public void run() {
         String[] localfilenames = filename.split(",");
         String[] rhosts = remoteHost.split(",");
-        boolean inError = false;
-        R66Result resultError = null;
         // first check if filenames contains wildcards
         DbRule dbrule = null;
         try {
@@ -156,111 +274,37 @@ public class MultipleDirectTransfer extends DirectTransfer {
         if (dbrule.isSendMode()) {
             files = getLocalFiles(dbrule, localfilenames);
         }
+        List<HostTransfers> hostTransfers = new ArrayList<HostTransfers>();
+        int total = 0;
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
+                List<String> hostFiles = files;
                 if (dbrule.isRecvMode()) {
-                    files = getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
+                    hostFiles = getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
+                } else if (bundle > 1) {
+                    hostFiles = getBundles(dbrule, files, host, bundle, bundleSize);
                 }
-                for (String filename : files) {
+                HostTransfers transfers = new HostTransfers(host);
+                for (String filename : hostFiles) {
                     filename = filename.trim();
                     if (filename != null && !filename.isEmpty()) {
-                        logger.info("Launch transfer to " + host + " with file " + filename);
-                        long time1 = System.currentTimeMillis();
-                        R66Future future = new R66Future(true);
-                        DirectTransfer transaction = new DirectTransfer(future,
-                                host, filename, rule, fileInfo, ismd5, block, idt,
-                                networkTransaction);
-                        transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        long time2 = System.currentTimeMillis();
-                        logger.debug("finish transfer: " + future.isSuccess());
-                        long delay = time2 - time1;
-                        R66Result result = future.getResult();
-                        OutputFormat outputFormat = new OutputFormat("Unique "
-                                + MultipleDirectTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 0);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
-                                    : "no file"));
-                            outputFormat.setValue("delay", delay);
-                            getResults().add(outputFormat);
-                            setDoneMultiple(getDoneMultiple() + 1);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            if (nolog || result.getRunner().shallIgnoreSave()) {
-                                // In case of success, delete the runner
-                                try {
-                                    result.getRunner().delete();
-                                } catch (WaarpDatabaseException e) {
-                                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
-                                            e);
-                                }
-                            }
+                        if (parallel <= 1) {
+                            runTransfer(host, filename);
                         } else {
-                            if (result == null || result.getRunner() == null) {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat.setValue(FIELDS.statusTxt.name(),
-                                        Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                                outputFormat.sysout();
-                                networkTransaction.closeAll();
-                                System.exit(ErrorCode.Unknown.ordinal());
-                            }
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                logger.warn(outputFormat.loggerOut(), future.getCause());
-                            } else {
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                            }
-                            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            inError = true;
-                            if (result != null) {
-                                inError = true;
-                                resultError = result;
-                            }
+                            transfers.filenames.add(filename);
                         }
                     }
                 }
+                if (!transfers.filenames.isEmpty()) {
+                    hostTransfers.add(transfers);
+                    total += transfers.filenames.size();
+                }
             }
         }
+        if (total > 0) {
+            runParallel(hostTransfers, total);
+        }
         if (inError) {
             if (resultError != null) {
                 this.future.setResult(resultError);
@@ -271,12 +315,232 @@ public class MultipleDirectTransfer extends DirectTransfer {
         }
     }
 
+    /**
+     * Files to transfer with one host
+     */
+    private static class HostTransfers {
+        private final String host;
+        private final ConcurrentLinkedQueue<String> filenames = new ConcurrentLinkedQueue<String>();
+
+        private HostTransfers(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * Run all transfers with at most parallel transfers at once, and parallelByHost with one host.<br>
+     * Each host has up to parallelByHost lanes, each lane doing one transfer then going back to the
+     * end of the queue of the executor if its host has still files to transfer, so that all hosts
+     * are served in turn. All transfers with one host share its network connection.
+     * 
+     * @param hostTransfers
+     * @param total
+     *            total number of transfers
+     */
+    private void runParallel(List<HostTransfers> hostTransfers, int total) {
+        logger.info("Launch " + total + " transfers with " + hostTransfers.size() + " hosts, " + parallel
+                + " at once and " + parallelByHost + " by host");
+        final ExecutorService executorService = Executors.newFixedThreadPool(parallel,
+                new WaarpThreadFactory("MultipleDirectTransfer"));
+        final CountDownLatch latch = new CountDownLatch(total);
+        List<Runnable> lanes = new ArrayList<Runnable>();
+        for (int i = 0; i < parallelByHost; i++) {
+            for (final HostTransfers transfers : hostTransfers) {
+                if (i >= transfers.filenames.size()) {
+                    continue;
+                }
+                lanes.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        String filename = transfers.filenames.poll();
+                        if (filename == null) {
+                            return;
+                        }
+                        try {
+                            runTransfer(transfers.host, filename);
+                        } catch (RuntimeException e) {
+                            logger.error("Transfer in error with " + transfers.host + " of " + filename, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                        if (!transfers.filenames.isEmpty()) {
+                            executorService.execute(this);
+                        }
+                    }
+                });
+            }
+        }
+        for (Runnable lane : lanes) {
+            executorService.execute(lane);
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Run one transfer and wait for its end
+     * 
+     * @param host
+     * @param filename
+     */
+    private void runTransfer(String host, String filename) {
+        logger.info("Launch transfer to " + host + " with file " + filename);
+        long time1 = System.currentTimeMillis();
+        R66Future future = new R66Future(true);
+        DirectTransfer transaction = new DirectTransfer(future,
+                host, filename, rule, fileInfo, ismd5, block, idt,
+                networkTransaction);
+        transaction.normalInfoAsWarn = normalInfoAsWarn;
+        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
+        transaction.run();
+        future.awaitUninterruptibly();
+        long time2 = System.currentTimeMillis();
+        logger.debug("finish transfer: " + future.isSuccess());
+        if (filename.endsWith(FileBundle.EXTENSION)) {
+            if (future.isSuccess()) {
+                FileBundle.delete(new File(filename));
+            } else {
+                FileBundle.setStatus(new File(filename), FileBundle.ERROR);
+            }
+        }
+        addResult(host, future, time2 - time1);
+    }
+
+    /**
+     * Aggregate the result of one transfer as soon as it is done
+     * 
+     * @param host
+     * @param future
+     * @param delay
+     */
+    private synchronized void addResult(String host, R66Future future, long delay) {
+        R66Result result = future.getResult();
+        OutputFormat outputFormat = new OutputFormat("Unique "
+                + MultipleDirectTransfer.class.getSimpleName(), null);
+        if (future.isSuccess()) {
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                outputFormat.setValue(FIELDS.status.name(), 1);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+            }
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(result.getRunner().getJson());
+            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
+                    : "no file"));
+            outputFormat.setValue("delay", delay);
+            getResults().add(outputFormat);
+            setDoneMultiple(getDoneMultiple() + 1);
+            if (normalInfoAsWarn) {
+                logger.warn(outputFormat.loggerOut());
+            } else {
+                logger.info(outputFormat.loggerOut());
+            }
+            if (nolog || result.getRunner().shallIgnoreSave()) {
+                // In case of success, delete the runner
+                try {
+                    result.getRunner().delete();
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
+                            e);
+                }
+            }
+            return;
+        }
+        if (result == null || result.getRunner() == null) {
+            outputFormat.setValue(FIELDS.status.name(), 2);
+            outputFormat.setValue(FIELDS.statusTxt.name(),
+                    Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            logger.error(outputFormat.loggerOut(), future.getCause());
+            if (future.getCause() != null) {
+                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+            }
+            if (parallel <= 1) {
+                outputFormat.sysout();
+                networkTransaction.closeAll();
+                System.exit(ErrorCode.Unknown.ordinal());
+            }
+            // other transfers are still running: only account this one in error
+            getResults().add(outputFormat);
+            setErrorMultiple(getErrorMultiple() + 1);
+            inError = true;
+            return;
+        }
+        if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+            outputFormat.setValue(FIELDS.status.name(), 1);
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+        } else {
+            outputFormat.setValue(FIELDS.status.name(), 2);
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+        }
+        outputFormat.setValue(FIELDS.remote.name(), host);
+        outputFormat.setValueString(result.getRunner().getJson());
+        if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+            logger.warn(outputFormat.loggerOut(), future.getCause());
+        } else {
+            logger.error(outputFormat.loggerOut(), future.getCause());
+        }
+        if (future.getCause() != null) {
+            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+        }
+        getResults().add(outputFormat);
+        setErrorMultiple(getErrorMultiple() + 1);
+        inError = true;
+        resultError = result;
+    }
+
     public static void main(String[] args) {
         WaarpLoggerFactory.setDefaultFactory(new AnchelSlf4jLoggerFactory(null));
         if (logger == null) {
             logger = WaarpLoggerFactory.getLogger(MultipleDirectTransfer.class);
         }
-        if (!getParams(args, false)) {
+        int parallel = 1;
+        int parallelByHost = -1;
+        int bundle = 0;
+        long bundleSize = DEFAULT_BUNDLE_SIZE;
+        boolean correct = getParams(args, false);
+        if (correct) {
+            int i = 1;
+            try {
+                for (i = 1; i < args.length; i++) {
+                    if (args[i].equalsIgnoreCase("-parallel")) {
+                        i++;
+                        parallel = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-parallelByHost")) {
+                        i++;
+                        parallelByHost = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-bundle")) {
+                        i++;
+                        bundle = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-bundleSize")) {
+                        i++;
+                        bundleSize = Long.parseLong(args[i]);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                logger.error(Messages.getString("AbstractTransfer.20") + i); //$NON-NLS-1$
+                correct = false;
+            }
+        }
+        if (!correct) {
             logger.error(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
             if (!OutputFormat.isQuiet()) {
                 System.out.println(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
@@ -287,6 +551,9 @@ public class MultipleDirectTransfer extends DirectTransfer {
             ChannelUtils.stopLogger();
             System.exit(2);
         }
+        if (parallelByHost <= 0) {
+            parallelByHost = parallel;
+        }
 
         Configuration.configuration.pipelineInit();
         NetworkTransaction networkTransaction = new NetworkTransaction();
@@ -298,6 +565,8 @@ public class MultipleDirectTransfer extends DirectTransfer {
                             rule, fileInfo, ismd5, block, idt,
                             networkTransaction);
             multipleDirectTransfer.normalInfoAsWarn = snormalInfoAsWarn;
+            multipleDirectTransfer.setParallel(parallel, parallelByHost);
+            multipleDirectTransfer.setBundle(bundle, bundleSize);
             multipleDirectTransfer.run();
             future.awaitUninterruptibly();
             long time2 = System.currentTimeMillis();
@@ -19,7 +19,10 @@ package com.t3c.anchel.openr66.client;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -27,12 +30,15 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import com.t3c.anchel.AnchelSlf4jLoggerFactory;
 import com.t3c.anchel.openr66.client.utils.OutputFormat;
 import com.t3c.anchel.openr66.client.utils.OutputFormat.FIELDS;
+import com.t3c.anchel.openr66.commander.InternalRunner;
+import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.database.DbConstant;
 import com.t3c.anchel.openr66.database.data.DbRule;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.configuration.Messages;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66DatabaseGlobalException;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
 import com.t3c.anchel.openr66.protocol.utils.R66Future;
@@ -53,6 +59,12 @@ import com.t3c.anchel.openr66.protocol.utils.R66Future;
  * <br>
  * <br>
  * Extra option is -client which allows the filename resolution on remote (recv files) when using wildcards.<br>
+ * <br>
+ * New transfers are inserted in database in one batch once all of them are prepared.<br>
+ * <br>
+ * Extra options "-bundle n" and "-bundleSize size" send the small files in bundles, as in
+ * MultipleDirectTransfer, one set of bundles by host. A submitted bundle and its index are deleted
+ * by the server once its transfer is all done.<br>
  * 
  * @author Frederic Bregier
  * 
@@ -63,6 +75,8 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
     protected boolean submit = false;
     protected NetworkTransaction networkTransaction = null;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    private int bundle = 0;
+    private long bundleSize = MultipleDirectTransfer.DEFAULT_BUNDLE_SIZE;
 
     public MultipleSubmitTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
@@ -72,6 +86,19 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         this.networkTransaction = networkTransaction;
     }
 
+    /**
+     * Send the small files in bundles
+     * 
+     * @param bundle
+     *            maximum number of files in one bundle (bundles not used if less than 2)
+     * @param bundleSize
+     *            maximum size of one file to be bundled
+     */
+    public void setBundle(int bundle, long bundleSize) {
+        this.bundle = bundle;
+        this.bundleSize = bundleSize;
+    }
+
     @Override
     public void run() {
         String[] localfilenames = filename.split(",");
@@ -101,13 +128,20 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                 files.add(string);
             }
         }
+        // new transfers are submitted in one batch, resubmitted ones one by one
+        boolean batch = idt == DbConstant.ILLEGALVALUE && DbConstant.admin.isActive();
+        List<PendingSubmit> pendings = new ArrayList<PendingSubmit>();
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
+                List<String> hostFiles = files;
                 if (!submit && dbrule.isRecvMode()) {
-                    files = MultipleDirectTransfer.getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
+                    hostFiles = MultipleDirectTransfer.getRemoteFiles(dbrule, localfilenames, host,
+                            networkTransaction);
+                } else if (dbrule.isSendMode() && bundle > 1) {
+                    hostFiles = MultipleDirectTransfer.getBundles(dbrule, files, host, bundle, bundleSize);
                 }
-                for (String filename : files) {
+                for (String filename : hostFiles) {
                     filename = filename.trim();
                     if (filename != null && !filename.isEmpty()) {
                         R66Future future = new R66Future(true);
@@ -115,53 +149,50 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                                 host, filename, rule, fileInfo, ismd5, block, idt,
                                 ttimestart);
                         transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        DbTaskRunner runner = future.getResult().getRunner();
-                        OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            outputFormat.setValue(FIELDS.status.name(), 0);
-                            outputFormat
-                                    .setValue(
-                                            FIELDS.statusTxt.name(),
-                                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(runner.getJson());
-                            getResults().add(outputFormat);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            setDoneMultiple(getDoneMultiple() + 1);
-                        } else {
-                            outputFormat.setValue(FIELDS.status.name(), 2);
-                            if (runner == null) {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                            } else {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                outputFormat.setValueString(runner.getJson());
-                            }
-                            logger.error(outputFormat.loggerOut(), future.getCause());
-                            if (future.getCause() != null) {
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+                        if (!batch) {
+                            transaction.run();
+                            future.awaitUninterruptibly();
+                            resultError = addResult(host, future, transaction.normalInfoAsWarn, resultError);
+                            continue;
+                        }
+                        DbTaskRunner runner = transaction.initRequest(false);
+                        if (runner == null) {
+                            if (!future.isDone()) {
+                                R66Result result = new R66Result(new OpenR66DatabaseGlobalException(), null, true,
+                                        ErrorCode.Internal, null);
+                                future.setResult(result);
+                                future.setFailure(result.getException());
                             }
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            resultError = future.getResult();
+                            resultError = addResult(host, future, transaction.normalInfoAsWarn, resultError);
+                            continue;
                         }
+                        pendings.add(new PendingSubmit(host, future, runner, transaction.normalInfoAsWarn));
                     }
                 }
             }
         }
+        if (!pendings.isEmpty()) {
+            List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>(pendings.size());
+            for (PendingSubmit pending : pendings) {
+                runners.add(pending.runner);
+            }
+            Set<DbTaskRunner> submitted = Collections.newSetFromMap(new IdentityHashMap<DbTaskRunner, Boolean>());
+            submitted.addAll(DbTaskRunner.submitBatch(DbConstant.admin.getSession(), runners));
+            for (PendingSubmit pending : pendings) {
+                if (submitted.contains(pending.runner)) {
+                    // start it now if submitted within the server
+                    InternalRunner.signalSubmit(pending.runner);
+                    pending.future.setResult(new R66Result(null, false, ErrorCode.InitOk, pending.runner));
+                    pending.future.setSuccess();
+                } else {
+                    R66Result result = new R66Result(new OpenR66DatabaseGlobalException("Cannot prepare Task"), null,
+                            true, ErrorCode.Internal, pending.runner);
+                    pending.future.setResult(result);
+                    pending.future.setFailure(result.getException());
+                }
+                resultError = addResult(pending.host, pending.future, pending.normalInfoAsWarn, resultError);
+            }
+        }
         if (getErrorMultiple() > 0) {
             if (resultError != null) {
                 this.future.setResult(resultError);
@@ -172,6 +203,77 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         }
     }
 
+    /**
+     * One transfer to submit in batch
+     */
+    private static class PendingSubmit {
+        private final String host;
+        private final R66Future future;
+        private final DbTaskRunner runner;
+        private final boolean normalInfoAsWarn;
+
+        private PendingSubmit(String host, R66Future future, DbTaskRunner runner, boolean normalInfoAsWarn) {
+            this.host = host;
+            this.future = future;
+            this.runner = runner;
+            this.normalInfoAsWarn = normalInfoAsWarn;
+        }
+    }
+
+    /**
+     * Add the result of one submission
+     * 
+     * @param host
+     * @param future
+     * @param normalInfoAsWarn
+     * @param resultError
+     *            the current result in error
+     * @return the new result in error
+     */
+    private R66Result addResult(String host, R66Future future, boolean normalInfoAsWarn, R66Result resultError) {
+        DbTaskRunner runner = future.getResult().getRunner();
+        OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
+        if (future.isSuccess()) {
+            outputFormat.setValue(FIELDS.status.name(), 0);
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(runner.getJson());
+            getResults().add(outputFormat);
+            if (normalInfoAsWarn) {
+                logger.warn(outputFormat.loggerOut());
+            } else {
+                logger.info(outputFormat.loggerOut());
+            }
+            setDoneMultiple(getDoneMultiple() + 1);
+            return resultError;
+        }
+        outputFormat.setValue(FIELDS.status.name(), 2);
+        if (runner == null) {
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+            outputFormat.setValue(FIELDS.remote.name(), host);
+        } else {
+            outputFormat
+                    .setValue(
+                            FIELDS.statusTxt.name(),
+                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(runner.getJson());
+        }
+        logger.error(outputFormat.loggerOut(), future.getCause());
+        if (future.getCause() != null) {
+            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+        }
+        getResults().add(outputFormat);
+        setErrorMultiple(getErrorMultiple() + 1);
+        return future.getResult();
+    }
+
     /**
      * 
      * @param args
@@ -185,12 +287,27 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
             logger = WaarpLoggerFactory.getLogger(MultipleSubmitTransfer.class);
         }
         boolean submit = true;
-        for (String string : args) {
-            if (string.equalsIgnoreCase("-client")) {
-                submit = false;
+        int bundle = 0;
+        long bundleSize = MultipleDirectTransfer.DEFAULT_BUNDLE_SIZE;
+        boolean correct = true;
+        int i = 1;
+        try {
+            for (i = 1; i < args.length; i++) {
+                if (args[i].equalsIgnoreCase("-client")) {
+                    submit = false;
+                } else if (args[i].equalsIgnoreCase("-bundle")) {
+                    i++;
+                    bundle = Integer.parseInt(args[i]);
+                } else if (args[i].equalsIgnoreCase("-bundleSize")) {
+                    i++;
+                    bundleSize = Long.parseLong(args[i]);
+                }
             }
+        } catch (NumberFormatException e) {
+            logger.error(Messages.getString("AbstractTransfer.20") + i); //$NON-NLS-1$
+            correct = false;
         }
-        if (!getParams(args, submit)) {
+        if (!correct || !getParams(args, submit)) {
             logger.error(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
             if (!OutputFormat.isQuiet()) {
                 System.out.println(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
@@ -212,6 +329,7 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                     rhost, localFilename, rule, fileInfo, ismd5, block, idt,
                     ttimestart, networkTransaction);
             transaction.normalInfoAsWarn = snormalInfoAsWarn;
+            transaction.setBundle(bundle, bundleSize);
             transaction.run();
             future.awaitUninterruptibly();
             OutputFormat outputFormat = new OutputFormat("Unique " + MultipleSubmitTransfer.class.getSimpleName(), args);
@@ -90,6 +90,8 @@ import com.t3c.anchel.openr66.protocol.utils.R66ShutdownHook;
  * -limitParallel limit to specify the number of concurrent actions in -direct mode only<br>
  * -minimalSize limit to specify the minimal size of each file that will be transferred (default: no limit)<br>
  * -notlogWarn | -logWarn to deactivate or activate (default) the logging in Warn mode of Send/Remove information of the spool<br>
+ * -watch to list again only the changed directories, with an append-only status journal (see SpooledDirectoryWatcher)<br>
+ * -reconcile elapse (elapse time in ms between 2 full scans in -watch mode, default: 60000ms)<br>
  * 
  * @author Frederic Bregier
  * 
@@ -152,8 +154,14 @@ public class SpooledDirectoryTransfer implements Runnable {
 
     protected final NetworkTransaction networkTransaction;
 
+    protected final boolean watch;
+
+    protected final long reconcileTime;
+
     protected FileMonitor monitor = null;
 
+    protected SpooledDirectoryWatcher watcher = null;
+
     private long sent = 0;
     private long error = 0;
 
@@ -186,6 +194,45 @@ public class SpooledDirectoryTransfer implements Runnable {
             long elapse, boolean submit, boolean nolog, boolean recursive,
             long elapseWaarp, boolean parallel, int limitParallel,
             List<String> waarphost, long minimalSize, boolean logWarn, NetworkTransaction networkTransaction) {
+        this(future, name, directory, statusfile, stopfile, rulename, fileinfo, isMD5, remoteHosts, blocksize, regex,
+                elapse, submit, nolog, recursive, elapseWaarp, parallel, limitParallel, waarphost, minimalSize,
+                logWarn, false, 60000, networkTransaction);
+    }
+
+    /**
+     * @param future
+     * @param name
+     * @param directory
+     * @param statusfile
+     * @param stopfile
+     * @param rulename
+     * @param fileinfo
+     * @param isMD5
+     * @param remoteHosts
+     * @param blocksize
+     * @param regex
+     * @param elapse
+     * @param submit
+     * @param nolog
+     * @param recursive
+     * @param elapseWaarp
+     * @param parallel
+     * @param waarphost
+     * @param minimalSize
+     * @param watch
+     *            True to use SpooledDirectoryWatcher instead of FileMonitor
+     * @param reconcile
+     *            time between 2 full scans in watch mode
+     * @param networkTransaction
+     */
+    public SpooledDirectoryTransfer(R66Future future, String name, List<String> directory,
+            String statusfile, String stopfile, String rulename,
+            String fileinfo, boolean isMD5,
+            List<String> remoteHosts, int blocksize, String regex,
+            long elapse, boolean submit, boolean nolog, boolean recursive,
+            long elapseWaarp, boolean parallel, int limitParallel,
+            List<String> waarphost, long minimalSize, boolean logWarn, boolean watch, long reconcile,
+            NetworkTransaction networkTransaction) {
         if (logger == null) {
             logger = WaarpLoggerFactory.getLogger(SpooledDirectoryTransfer.class);
         }
@@ -215,6 +262,8 @@ public class SpooledDirectoryTransfer implements Runnable {
         this.waarpHosts = waarphost;
         this.minimalSize = minimalSize;
         this.normalInfoAsWarn = logWarn;
+        this.watch = watch;
+        this.reconcileTime = reconcile;
         this.networkTransaction = networkTransaction;
     }
 
@@ -293,6 +342,10 @@ public class SpooledDirectoryTransfer implements Runnable {
                 return;
             }
         }
+        if (watch) {
+            runWatcher();
+            return;
+        }
         FileFilter filter = null;
         if (regexFilter != null) {
             filter = new RegexFileFilter(regexFilter, minimalSize);
@@ -343,48 +396,8 @@ public class SpooledDirectoryTransfer implements Runnable {
                 public void run(FileItem notused) {
                     try {
                         Thread.currentThread().setName("FileMonitorInformation_" + name);
-                        if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
-                            DbConstant.admin.getSession().checkConnectionNoException();
-                        }
-                        String status = monitorArg.getStatus();
-                        if (normalInfoAsWarn) {
-                            logger.warn("Will inform back Waarp hosts of current history: "
-                                    + monitorArg.getCurrentHistoryNb());
-                        } else {
-                            logger.info("Will inform back Waarp hosts of current history: "
-                                    + monitorArg.getCurrentHistoryNb());
-                        }
-                        for (String host : waarpHosts) {
-                            host = host.trim();
-                            if (host != null && !host.isEmpty()) {
-                                R66Future future = new R66Future(true);
-                                BusinessRequestPacket packet =
-                                        new BusinessRequestPacket(SpooledInformTask.class.getName() + " " + status, 0);
-                                BusinessRequest transaction = new BusinessRequest(networkTransaction, future, host,
-                                        packet);
-                                transaction.run();
-                                future.awaitUninterruptibly(Configuration.configuration.getTIMEOUTCON(),
-                                        TimeUnit.MILLISECONDS);
-                                while (!future.isDone()) {
-                                    logger.warn("Out of time during information to Waarp server: " + host);
-                                    future.awaitUninterruptibly(Configuration.configuration.getTIMEOUTCON(),
-                                            TimeUnit.MILLISECONDS);
-                                }
-                                if (!future.isSuccess()) {
-                                    logger.info("Can't inform Waarp server: " + host + " since " + future.getCause());
-                                } else {
-                                    R66Result result = future.getResult();
-                                    if (result == null) {
-                                        monitorArg.setNextAsFullStatus();
-                                    } else {
-                                        status = (String) result.getOther();
-                                        if (status == null || status.equalsIgnoreCase(NEEDFULL)) {
-                                            monitorArg.setNextAsFullStatus();
-                                        }
-                                    }
-                                    logger.debug("Inform back Waarp hosts over for: " + host);
-                                }
-                            }
+                        if (informWaarpHosts(monitorArg.getStatus(), monitorArg.getCurrentHistoryNb())) {
+                            monitorArg.setNextAsFullStatus();
                         }
                     } catch (Throwable e) {
                         logger.error("Issue during Waarp information", e);
@@ -414,8 +427,132 @@ public class SpooledDirectoryTransfer implements Runnable {
         }
     }
 
+    /**
+     * Inform the Waarp hosts of the status of the spool
+     * 
+     * @param status
+     * @param historyNb
+     * @return True if the next status shall be full
+     */
+    private boolean informWaarpHosts(String status, long historyNb) {
+        if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
+            DbConstant.admin.getSession().checkConnectionNoException();
+        }
+        if (normalInfoAsWarn) {
+            logger.warn("Will inform back Waarp hosts of current history: " + historyNb);
+        } else {
+            logger.info("Will inform back Waarp hosts of current history: " + historyNb);
+        }
+        boolean needFull = false;
+        for (String host : waarpHosts) {
+            host = host.trim();
+            if (host != null && !host.isEmpty()) {
+                R66Future future = new R66Future(true);
+                BusinessRequestPacket packet =
+                        new BusinessRequestPacket(SpooledInformTask.class.getName() + " " + status, 0);
+                BusinessRequest transaction = new BusinessRequest(networkTransaction, future, host,
+                        packet);
+                transaction.run();
+                future.awaitUninterruptibly(Configuration.configuration.getTIMEOUTCON(),
+                        TimeUnit.MILLISECONDS);
+                while (!future.isDone()) {
+                    logger.warn("Out of time during information to Waarp server: " + host);
+                    future.awaitUninterruptibly(Configuration.configuration.getTIMEOUTCON(),
+                            TimeUnit.MILLISECONDS);
+                }
+                if (!future.isSuccess()) {
+                    logger.info("Can't inform Waarp server: " + host + " since " + future.getCause());
+                } else {
+                    R66Result result = future.getResult();
+                    if (result == null) {
+                        needFull = true;
+                    } else {
+                        status = (String) result.getOther();
+                        if (status == null || status.equalsIgnoreCase(NEEDFULL)) {
+                            needFull = true;
+                        }
+                    }
+                    logger.debug("Inform back Waarp hosts over for: " + host);
+                }
+            }
+        }
+        return needFull;
+    }
+
+    /**
+     * Run the spool through SpooledDirectoryWatcher
+     */
+    private void runWatcher() {
+        SpooledDirectoryWatcher.SpooledCommand command = new SpooledDirectoryWatcher.SpooledCommand() {
+            @Override
+            public boolean transfer(SpooledDirectoryWatcher.SpooledFile file) {
+                SpooledRunner runner = new SpooledRunner(null);
+                runner.specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : file.specialId;
+                boolean status = runner.send(file.file);
+                file.specialId = runner.specialId;
+                return status;
+            }
+
+            @Override
+            public void removed(SpooledDirectoryWatcher.SpooledFile file) {
+                if (normalInfoAsWarn) {
+                    logger.warn("File removed: {}", file.file);
+                } else {
+                    logger.info("File removed: {}", file.file);
+                }
+            }
+        };
+        watcher = new SpooledDirectoryWatcher(name, new File(statusFile), new File(stopFile),
+                new File(directory.get(0)), elapseTime, reconcileTime, regexFilter, minimalSize, recurs, command,
+                parallel, limitParallelTasks);
+        for (int i = 1; i < directory.size(); i++) {
+            watcher.addDirectory(new File(directory.get(i)));
+        }
+        if (!watcher.initialized()) {
+            // wrong
+            logger.error(Messages.getString("Configuration.WrongInit") + " : already running");
+            this.future.cancel();
+            if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
+                Configuration.configuration.getShutdownConfiguration().serviceFuture.setFailure(new Exception(Messages
+                        .getString("Configuration.WrongInit") + " : already running"));
+            }
+            return;
+        }
+        if (waarpHosts != null && !waarpHosts.isEmpty()) {
+            final SpooledDirectoryWatcher watcherArg = watcher;
+            watcher.setCheckIteration(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (informWaarpHosts(watcherArg.getStatus(), watcherArg.getCurrentHistoryNb())) {
+                            watcherArg.setNextAsFullStatus();
+                        }
+                    } catch (Throwable e) {
+                        logger.error("Issue during Waarp information", e);
+                        // ignore
+                    }
+                }
+            }, elapseWaarpTime);
+        }
+        logger.warn("SpooledDirectoryTransfer starts watching name:" + name + " directory:" + directory
+                + " statusFile:" + statusFile + SpooledDirectoryWatcher.JOURNAL_EXTENSION + " stopFile:" + stopFile
+                + " rulename:" + rulename + " fileinfo:" + fileinfo + " hosts:" + remoteHosts + " regex:"
+                + regexFilter + " minimalSize:" + minimalSize + " waarp:" + waarpHosts + " elapse:" + elapseTime
+                + " reconcile:" + reconcileTime + " waarpElapse:" + elapseWaarpTime + " parallel:" + parallel
+                + " limitParallel:" + limitParallelTasks + " submit:" + submit + " recursive:" + recurs);
+        watcher.waitForStopFile();
+        this.future.setSuccess();
+        if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
+            Configuration.configuration.getShutdownConfiguration().serviceFuture.setSuccess();
+        }
+    }
+
     public void stop() {
-        if (monitor != null) {
+        if (watcher != null) {
+            logger.info("Stop Watcher");
+            watcher.stop();
+            logger.info("Watcher Stopped");
+        } else if (monitor != null) {
             logger.info("Stop Monitor");
             monitor.stop();
             logger.info("Monitor Stopped");
@@ -425,23 +562,36 @@ public class SpooledDirectoryTransfer implements Runnable {
     }
 
     public class SpooledRunner extends FileMonitorCommandRunnableFuture {
+        protected long specialId = DbConstant.ILLEGALVALUE;
+
         public SpooledRunner(FileItem fileItem) {
             super(fileItem);
         }
 
         public void run(FileItem fileItem) {
             this.setFileItem(fileItem);
+            specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : fileItem.specialId;
+            boolean finalStatus = send(fileItem.file);
+            finalize(finalStatus, specialId);
+        }
+
+        /**
+         * Send one file to all remote hosts, from specialId if restarted
+         * 
+         * @param file
+         * @return True if the file is sent to all remote hosts
+         */
+        protected boolean send(File file) {
             if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
                 DbConstant.admin.getSession().checkConnectionNoException();
             }
             boolean finalStatus = false;
             int ko = 0;
-            long specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : fileItem.specialId;
             try {
                 for (String host : remoteHosts) {
                     host = host.trim();
                     if (host != null && !host.isEmpty()) {
-                        String filename = fileItem.file.getAbsolutePath();
+                        String filename = file.getAbsolutePath();
                         logger.info("Launch transfer to " + host + " with file " + filename);
                         R66Future future = new R66Future(true);
                         String text = null;
@@ -633,7 +783,7 @@ public class SpooledDirectoryTransfer implements Runnable {
                 // If at least one is in error, the transfer is in error so should be redone
                 finalStatus = false;
             }
-            finalize(finalStatus, specialId);
+            return finalStatus;
         }
     }
 
@@ -664,6 +814,8 @@ public class SpooledDirectoryTransfer implements Runnable {
         protected int limitParallel = 0;
         protected long minimalSize = 0;
         protected boolean logWarn = true;
+        protected boolean watch = false;
+        protected long reconcile = 60000;
     }
 
     protected static final List<Arguments> arguments = new ArrayList<Arguments>();
@@ -690,6 +842,8 @@ public class SpooledDirectoryTransfer implements Runnable {
     private static final String XML_elapseWaarp = "elapseWaarp";
     private static final String XML_minimalSize = "minimalSize";
     private static final String XML_logWarn = "logWarn";
+    private static final String XML_watch = "watch";
+    private static final String XML_reconcile = "reconcile";
 
     private static final XmlDecl[] subSpooled = {
             new XmlDecl(XmlType.STRING, XML_name),
@@ -709,7 +863,9 @@ public class SpooledDirectoryTransfer implements Runnable {
             new XmlDecl(XmlType.BOOLEAN, XML_nolog),
             new XmlDecl(XML_waarp, XmlType.STRING, XML_waarp, true),
             new XmlDecl(XmlType.LONG, XML_elapseWaarp),
-            new XmlDecl(XmlType.LONG, XML_minimalSize)
+            new XmlDecl(XmlType.LONG, XML_minimalSize),
+            new XmlDecl(XmlType.BOOLEAN, XML_watch),
+            new XmlDecl(XmlType.LONG, XML_reconcile)
     };
     private static final XmlDecl[] spooled = {
             new XmlDecl(XmlType.STRING, XML_stopfile),
@@ -862,6 +1018,14 @@ public class SpooledDirectoryTransfer implements Runnable {
                 if (value != null && (!value.isEmpty())) {
                     arg.minimalSize = value.getLong();
                 }
+                value = subHash.get(XML_watch);
+                if (value != null && (!value.isEmpty())) {
+                    arg.watch = value.getBoolean();
+                }
+                value = subHash.get(XML_reconcile);
+                if (value != null && (!value.isEmpty())) {
+                    arg.reconcile = value.getLong();
+                }
                 arguments.add(arg);
             }
         }
@@ -989,6 +1153,11 @@ public class SpooledDirectoryTransfer implements Runnable {
                         arg.isparallel = true;
                     } else if (args[i].equalsIgnoreCase("-sequential")) {
                         arg.isparallel = false;
+                    } else if (args[i].equalsIgnoreCase("-watch")) {
+                        arg.watch = true;
+                    } else if (args[i].equalsIgnoreCase("-reconcile")) {
+                        i++;
+                        arg.reconcile = Long.parseLong(args[i]);
                     }
                 }
             } catch (NumberFormatException e) {
@@ -1064,7 +1233,7 @@ public class SpooledDirectoryTransfer implements Runnable {
                                 arg.rule, arg.fileInfo, arg.ismd5, arg.rhosts, arg.block, arg.regex, arg.elapsed,
                                 arg.tosubmit, arg.noLog, arg.recursive,
                                 arg.elapsedWaarp, arg.isparallel, arg.limitParallel, arg.waarphosts, arg.minimalSize,
-                                arg.logWarn,
+                                arg.logWarn, arg.watch, arg.reconcile,
                                 networkTransactionStatic);
                 executorService.submit(spooled);
                 list.add(spooled);
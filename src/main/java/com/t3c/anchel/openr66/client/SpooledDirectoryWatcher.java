@@ -0,0 +1,864 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.t3c.anchel.openr66.database.DbConstant;
+
+/**
+ * Monitor of spooled directories without a full scan at each check, used by
+ * SpooledDirectoryTransfer with "-watch" instead of FileMonitor.<br>
+ * <br>
+ * Java 6 has no WatchService, so changes are found through the modification time of the
+ * directories: a directory is listed again only if its modification time changed (one file was
+ * added, removed or renamed in it) or is too recent to be trusted, other directories being skipped.
+ * A full reconciliation scan is done every reconcile period as a safety net (for instance for a
+ * file updated after being sent).<br>
+ * A new file is checked (size and modification time) only while waiting to be stable, so files
+ * already sent are not checked again until the next reconciliation.<br>
+ * <br>
+ * The status is an append-only journal (one line by sent, failed or removed file) instead of the
+ * whole status written again at each check, compacted at start and when it grows too much. If the
+ * journal does not exist yet, the files already sent are taken from the previous status file of
+ * FileMonitor. The journal is locked while running, so that one spool is not run twice.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class SpooledDirectoryWatcher {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(SpooledDirectoryWatcher.class);
+
+    /**
+     * Extension of the journal, next to the status file
+     */
+    public static final String JOURNAL_EXTENSION = ".journal";
+
+    /**
+     * Directory modification time too recent to be trusted (one second resolution on some file
+     * systems and JVMs)
+     */
+    private static final long RACY_DELAY = 2000;
+
+    private static final char USED = 'U';
+    private static final char ERROR = 'E';
+    private static final char REMOVED = 'R';
+
+    /**
+     * One file of the spool
+     */
+    public static class SpooledFile {
+        public final File file;
+        public volatile long specialId = DbConstant.ILLEGALVALUE;
+        public volatile boolean used = false;
+        public volatile long timeUsed = 0;
+        volatile boolean running = false;
+        // size and modification time: last check while waiting, else when sent
+        long length = -1;
+        long lastModified = 0;
+
+        SpooledFile(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Actions on the files of the spool
+     */
+    public static interface SpooledCommand {
+        /**
+         * Transfer one stable file, setting its specialId if any
+         *
+         * @param file
+         * @return True if the file is sent
+         */
+        boolean transfer(SpooledFile file);
+
+        /**
+         * One file is no more in the spool
+         *
+         * @param file
+         */
+        void removed(SpooledFile file);
+    }
+
+    /**
+     * Known content of one directory
+     */
+    private static class DirectoryState {
+        private long lastModified = 0;
+        private final Set<String> files = new HashSet<String>();
+        private final Set<String> directories = new HashSet<String>();
+        private final Set<String> ignored = new HashSet<String>();
+    }
+
+    private final String name;
+    private final File statusFile;
+    private final File journalFile;
+    private final File stopFile;
+    private final List<File> directories = new ArrayList<File>();
+    private final long elapseTime;
+    private final long reconcileTime;
+    private final Pattern pattern;
+    private final long minimalSize;
+    private final boolean recursive;
+    private final SpooledCommand command;
+    private final ExecutorService executor;
+
+    private final ConcurrentHashMap<String, SpooledFile> files = new ConcurrentHashMap<String, SpooledFile>();
+    // Following fields are only used by the checking thread
+    private final Map<File, DirectoryState> states = new HashMap<File, DirectoryState>();
+    private final Map<String, SpooledFile> waiting = new LinkedHashMap<String, SpooledFile>();
+    private final ConcurrentLinkedQueue<SpooledFile> retries = new ConcurrentLinkedQueue<SpooledFile>();
+    private long nextReconcile = 0;
+    private Runnable checkIteration = null;
+    private long elapseCheckIteration = 0;
+    private long nextCheckIteration = 0;
+
+    private final List<String> removedSinceStatus = new ArrayList<String>();
+    private volatile boolean nextFullStatus = true;
+    private volatile boolean stopped = false;
+    private final AtomicLong nbSent = new AtomicLong();
+    private final AtomicLong nbError = new AtomicLong();
+
+    private RandomAccessFile lockFile = null;
+    private FileLock lock = null;
+    private Writer journal = null;
+    private long journalLines = 0;
+
+    /**
+     * @param name
+     * @param statusFile
+     *            the journal being this file with JOURNAL_EXTENSION
+     * @param stopFile
+     * @param directory
+     * @param elapseTime
+     *            time between 2 checks
+     * @param reconcileTime
+     *            time between 2 full scans
+     * @param regex
+     *            regular expression of the file names, null for all
+     * @param minimalSize
+     * @param recursive
+     * @param command
+     * @param parallel
+     *            True to transfer files in parallel of the checks
+     * @param limitParallel
+     *            maximum number of transfers at once if parallel (0 for no limit)
+     */
+    public SpooledDirectoryWatcher(String name, File statusFile, File stopFile, File directory,
+            long elapseTime, long reconcileTime, String regex, long minimalSize, boolean recursive,
+            SpooledCommand command, boolean parallel, int limitParallel) {
+        this.name = name;
+        this.statusFile = statusFile;
+        this.journalFile = new File(statusFile.getPath() + JOURNAL_EXTENSION);
+        this.stopFile = stopFile;
+        this.directories.add(directory);
+        this.elapseTime = elapseTime;
+        this.reconcileTime = Math.max(reconcileTime, elapseTime);
+        this.pattern = regex != null ? Pattern.compile(regex) : null;
+        this.minimalSize = minimalSize;
+        this.recursive = recursive;
+        this.command = command;
+        if (!parallel) {
+            this.executor = null;
+        } else if (limitParallel > 0) {
+            this.executor = Executors.newFixedThreadPool(limitParallel, new WaarpThreadFactory("SpooledWatcher_"
+                    + name));
+        } else {
+            this.executor = Executors.newCachedThreadPool(new WaarpThreadFactory("SpooledWatcher_" + name));
+        }
+    }
+
+    /**
+     * @param directory
+     *            one more directory to monitor
+     */
+    public void addDirectory(File directory) {
+        directories.add(directory);
+    }
+
+    /**
+     * @param command
+     *            called every elapse time between 2 checks
+     * @param elapse
+     */
+    public void setCheckIteration(Runnable command, long elapse) {
+        this.checkIteration = command;
+        this.elapseCheckIteration = elapse;
+    }
+
+    /**
+     * Lock the journal, then load it
+     *
+     * @return False if the spool is already running (or the journal cannot be written)
+     */
+    public boolean initialized() {
+        try {
+            lockFile = new RandomAccessFile(journalFile.getPath() + ".lock", "rw");
+            lock = lockFile.getChannel().tryLock();
+        } catch (IOException e) {
+            logger.error("Cannot lock the journal: " + journalFile, e);
+        } catch (OverlappingFileLockException e) {
+            // already locked by this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            closeLock();
+            return false;
+        }
+        if (journalFile.exists()) {
+            loadJournal();
+        } else if (statusFile.exists()) {
+            loadStatus();
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.error("Cannot write the journal: " + journalFile, e);
+            closeLock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check the spool until the stop file exists or stop is called
+     */
+    public void waitForStopFile() {
+        ExecutorService informer = null;
+        if (checkIteration != null && executor != null) {
+            informer = Executors.newSingleThreadExecutor(new WaarpThreadFactory("SpooledInform_" + name));
+        }
+        while (!stopped) {
+            if (stopFile.exists()) {
+                logger.warn("Stop file found: " + stopFile);
+                break;
+            }
+            try {
+                check();
+            } catch (RuntimeException e) {
+                logger.error("Issue while checking the spool " + name, e);
+            }
+            if (checkIteration != null && System.currentTimeMillis() >= nextCheckIteration) {
+                nextCheckIteration = System.currentTimeMillis() + elapseCheckIteration;
+                if (informer != null) {
+                    informer.execute(checkIteration);
+                } else {
+                    checkIteration.run();
+                }
+            }
+            try {
+                Thread.sleep(elapseTime);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (informer != null) {
+            informer.shutdownNow();
+        }
+        stop();
+    }
+
+    /**
+     * Stop the checks, waiting for the current transfers
+     */
+    public void stop() {
+        stopped = true;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(elapseTime * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+            }
+        }
+        synchronized (this) {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                }
+                journal = null;
+            }
+        }
+        closeLock();
+    }
+
+    private void closeLock() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+        } catch (IOException e) {
+        }
+        lock = null;
+        if (lockFile != null) {
+            try {
+                lockFile.close();
+            } catch (IOException e) {
+            }
+            lockFile = null;
+        }
+    }
+
+    /**
+     * One check of all directories
+     */
+    void check() {
+        long now = System.currentTimeMillis();
+        boolean full = now >= nextReconcile;
+        if (full) {
+            nextReconcile = now + reconcileTime;
+        }
+        for (File directory : directories) {
+            checkDirectory(directory, now, full, true);
+        }
+        if (full) {
+            forgetMissing();
+        }
+        checkWaiting();
+        synchronized (this) {
+            if (journalLines > 2 * files.size() + 10000) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.warn("Cannot compact the journal: " + journalFile + " : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * List the directory again if needed, then check its sub directories
+     *
+     * @param directory
+     * @param now
+     * @param full
+     *            True for a full reconciliation scan
+     * @param root
+     */
+    private void checkDirectory(File directory, long now, boolean full, boolean root) {
+        DirectoryState state = states.get(directory);
+        long lastModified = directory.lastModified();
+        if (state == null || full || lastModified != state.lastModified || now - lastModified < RACY_DELAY) {
+            if (state == null) {
+                state = new DirectoryState();
+                states.put(directory, state);
+            }
+            state.lastModified = lastModified;
+            if (!listDirectory(directory, state, full)) {
+                if (!root) {
+                    forgetDirectory(directory);
+                }
+                return;
+            }
+        }
+        if (recursive) {
+            for (String subdir : state.directories) {
+                checkDirectory(new File(directory, subdir), now, full, false);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param directory
+     * @param state
+     * @param full
+     * @return False if the directory does not exist anymore
+     */
+    private boolean listDirectory(File directory, DirectoryState state, boolean full) {
+        String[] names = directory.list();
+        if (names == null) {
+            return false;
+        }
+        Set<String> current = new HashSet<String>(names.length * 2);
+        for (String filename : names) {
+            current.add(filename);
+            if (state.files.contains(filename)) {
+                if (full) {
+                    checkUsed(new File(directory, filename));
+                }
+                continue;
+            }
+            if (state.directories.contains(filename) || (!full && state.ignored.contains(filename))) {
+                continue;
+            }
+            File file = new File(directory, filename);
+            if (file.isDirectory()) {
+                state.ignored.remove(filename);
+                if (recursive) {
+                    state.directories.add(filename);
+                } else {
+                    state.ignored.add(filename);
+                }
+            } else if (pattern == null || pattern.matcher(filename).matches()) {
+                state.files.add(filename);
+                found(file);
+            } else {
+                state.ignored.add(filename);
+            }
+        }
+        for (Iterator<String> iterator = state.files.iterator(); iterator.hasNext();) {
+            String filename = iterator.next();
+            if (!current.contains(filename)) {
+                iterator.remove();
+                removed(new File(directory, filename).getPath());
+            }
+        }
+        for (Iterator<String> iterator = state.directories.iterator(); iterator.hasNext();) {
+            String filename = iterator.next();
+            if (!current.contains(filename)) {
+                iterator.remove();
+                forgetDirectory(new File(directory, filename));
+            }
+        }
+        state.ignored.retainAll(current);
+        return true;
+    }
+
+    /**
+     * Forget a directory no more there, and all its files
+     *
+     * @param directory
+     */
+    private void forgetDirectory(File directory) {
+        DirectoryState state = states.remove(directory);
+        if (state == null) {
+            return;
+        }
+        for (String filename : state.files) {
+            removed(new File(directory, filename).getPath());
+        }
+        for (String subdir : state.directories) {
+            forgetDirectory(new File(directory, subdir));
+        }
+    }
+
+    /**
+     * A file is found in a directory
+     *
+     * @param file
+     */
+    private void found(File file) {
+        String path = file.getPath();
+        SpooledFile spooledFile = files.get(path);
+        if (spooledFile == null) {
+            spooledFile = new SpooledFile(file);
+            files.put(path, spooledFile);
+        }
+        if (!spooledFile.used && !spooledFile.running) {
+            waiting.put(path, spooledFile);
+        }
+    }
+
+    /**
+     * During reconciliation, a file already sent and updated since is to be sent again
+     *
+     * @param file
+     */
+    private void checkUsed(File file) {
+        SpooledFile spooledFile = files.get(file.getPath());
+        if (spooledFile == null || !spooledFile.used || spooledFile.running) {
+            return;
+        }
+        if (file.length() != spooledFile.length || file.lastModified() != spooledFile.lastModified) {
+            logger.info("File updated since sent: " + file);
+            spooledFile.used = false;
+            spooledFile.specialId = DbConstant.ILLEGALVALUE;
+            spooledFile.length = -1;
+            waiting.put(file.getPath(), spooledFile);
+        }
+    }
+
+    /**
+     * A file is no more in its directory
+     *
+     * @param path
+     */
+    private void removed(String path) {
+        waiting.remove(path);
+        SpooledFile spooledFile = files.remove(path);
+        if (spooledFile == null) {
+            return;
+        }
+        synchronized (this) {
+            removedSinceStatus.add(path);
+            if (spooledFile.used || spooledFile.specialId != DbConstant.ILLEGALVALUE) {
+                append(REMOVED + " " + path);
+            }
+        }
+        command.removed(spooledFile);
+    }
+
+    /**
+     * After a full scan, forget the files of the journal not found anymore
+     */
+    private void forgetMissing() {
+        Set<String> found = new HashSet<String>(files.size() * 2);
+        for (Map.Entry<File, DirectoryState> entry : states.entrySet()) {
+            for (String filename : entry.getValue().files) {
+                found.add(new File(entry.getKey(), filename).getPath());
+            }
+        }
+        for (String path : new ArrayList<String>(files.keySet())) {
+            if (!found.contains(path) && !files.get(path).running) {
+                removed(path);
+            }
+        }
+    }
+
+    /**
+     * Check the files waiting to be stable, and launch the stable ones
+     */
+    private void checkWaiting() {
+        SpooledFile retry;
+        while ((retry = retries.poll()) != null) {
+            if (files.get(retry.file.getPath()) == retry) {
+                waiting.put(retry.file.getPath(), retry);
+            }
+        }
+        for (Iterator<SpooledFile> iterator = waiting.values().iterator(); iterator.hasNext();) {
+            if (stopped) {
+                return;
+            }
+            SpooledFile spooledFile = iterator.next();
+            long length = spooledFile.file.length();
+            long lastModified = spooledFile.file.lastModified();
+            if (lastModified == 0) {
+                // removed meanwhile, forgotten at the next listing of its directory
+                continue;
+            }
+            if (length != spooledFile.length || lastModified != spooledFile.lastModified
+                    || length < minimalSize) {
+                spooledFile.length = length;
+                spooledFile.lastModified = lastModified;
+                continue;
+            }
+            iterator.remove();
+            launch(spooledFile);
+        }
+    }
+
+    private void launch(final SpooledFile spooledFile) {
+        spooledFile.running = true;
+        if (executor == null) {
+            transfer(spooledFile);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    transfer(spooledFile);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // in stop
+            spooledFile.running = false;
+        }
+    }
+
+    private void transfer(SpooledFile spooledFile) {
+        boolean status = false;
+        try {
+            status = command.transfer(spooledFile);
+        } catch (RuntimeException e) {
+            logger.error("Error in spooled transfer of " + spooledFile.file, e);
+        }
+        synchronized (this) {
+            if (status) {
+                nbSent.incrementAndGet();
+                spooledFile.used = true;
+                spooledFile.timeUsed = System.currentTimeMillis();
+                append(USED + " " + spooledFile.specialId + " " + spooledFile.timeUsed + " "
+                        + spooledFile.length + " " + spooledFile.lastModified + " " + spooledFile.file.getPath());
+            } else {
+                nbError.incrementAndGet();
+                append(ERROR + " " + spooledFile.specialId + " " + spooledFile.file.getPath());
+            }
+        }
+        spooledFile.running = false;
+        if (!status) {
+            // retried once stable again
+            spooledFile.length = -1;
+            retries.add(spooledFile);
+        }
+    }
+
+    /**
+     * Append one line to the journal
+     *
+     * @param line
+     */
+    private void append(String line) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(line);
+            journal.write('\n');
+            journal.flush();
+            journalLines++;
+        } catch (IOException e) {
+            logger.error("Cannot write the journal: " + journalFile, e);
+        }
+    }
+
+    /**
+     * Write the journal again with only the current known files, then append to it
+     *
+     * @throws IOException
+     */
+    private synchronized void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                WaarpStringUtils.UTF8));
+        long lines = 0;
+        try {
+            for (SpooledFile spooledFile : files.values()) {
+                if (spooledFile.used) {
+                    writer.write(USED + " " + spooledFile.specialId + " " + spooledFile.timeUsed + " "
+                            + spooledFile.length + " " + spooledFile.lastModified + " "
+                            + spooledFile.file.getPath() + "\n");
+                    lines++;
+                } else if (spooledFile.specialId != DbConstant.ILLEGALVALUE) {
+                    writer.write(ERROR + " " + spooledFile.specialId + " " + spooledFile.file.getPath() + "\n");
+                    lines++;
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            tmp.delete();
+            throw new IOException("Cannot replace the journal");
+        }
+        if (!tmp.renameTo(journalFile)) {
+            throw new IOException("Cannot rename the journal");
+        }
+        journalLines = lines;
+        journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true),
+                WaarpStringUtils.UTF8));
+    }
+
+    /**
+     * Load the journal, ignoring incomplete lines (as the last one after a crash)
+     */
+    private void loadJournal() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile),
+                    WaarpStringUtils.UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    loadLine(line);
+                } catch (RuntimeException e) {
+                    logger.debug("Ignore journal line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read the journal: " + journalFile + " : " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        logger.info("Journal loaded: " + journalFile + " with " + files.size() + " files");
+    }
+
+    private void loadLine(String line) {
+        if (line.length() < 3 || line.charAt(1) != ' ') {
+            return;
+        }
+        String[] fields;
+        switch (line.charAt(0)) {
+            case USED: {
+                fields = line.substring(2).split(" ", 5);
+                SpooledFile spooledFile = new SpooledFile(new File(fields[4]));
+                spooledFile.specialId = Long.parseLong(fields[0]);
+                spooledFile.timeUsed = Long.parseLong(fields[1]);
+                spooledFile.length = Long.parseLong(fields[2]);
+                spooledFile.lastModified = Long.parseLong(fields[3]);
+                spooledFile.used = true;
+                files.put(fields[4], spooledFile);
+                break;
+            }
+            case ERROR: {
+                fields = line.substring(2).split(" ", 2);
+                SpooledFile spooledFile = new SpooledFile(new File(fields[1]));
+                spooledFile.specialId = Long.parseLong(fields[0]);
+                files.put(fields[1], spooledFile);
+                break;
+            }
+            case REMOVED:
+                files.remove(line.substring(2));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Take the files already sent from the status file of FileMonitor
+     */
+    private void loadStatus() {
+        try {
+            ObjectNode node = JsonHandler.getFromString(WaarpStringUtils.readFileException(statusFile.getPath()));
+            JsonNode items = node == null ? null : node.get("fileItems");
+            if (items == null) {
+                return;
+            }
+            Iterator<JsonNode> iterator = items.elements();
+            while (iterator.hasNext()) {
+                JsonNode item = iterator.next();
+                JsonNode path = item.get("file");
+                if (path == null || !item.path("used").asBoolean(false)) {
+                    continue;
+                }
+                SpooledFile spooledFile = new SpooledFile(new File(path.asText()));
+                spooledFile.used = true;
+                spooledFile.specialId = item.path("specialId").asLong(DbConstant.ILLEGALVALUE);
+                spooledFile.timeUsed = item.path("timeUsed").asLong(0);
+                spooledFile.length = spooledFile.file.length();
+                spooledFile.lastModified = spooledFile.file.lastModified();
+                files.put(spooledFile.file.getPath(), spooledFile);
+            }
+            logger.warn("Previous status loaded: " + statusFile + " with " + files.size() + " files");
+        } catch (Exception e) {
+            logger.warn("Cannot load the previous status: " + statusFile + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Next status will be full
+     */
+    public void setNextAsFullStatus() {
+        nextFullStatus = true;
+    }
+
+    /**
+     *
+     * @return the number of known files
+     */
+    public long getCurrentHistoryNb() {
+        return files.size();
+    }
+
+    /**
+     *
+     * @return the number of files sent
+     */
+    public long getSent() {
+        return nbSent.get();
+    }
+
+    /**
+     *
+     * @return the number of transfers in error
+     */
+    public long getError() {
+        return nbError.get();
+    }
+
+    /**
+     *
+     * @return the status of the spool as expected by SpooledInformTask (as for FileMonitor):
+     *         full, or only the removed files and the files still in the spool
+     */
+    public String getStatus() {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("name", name);
+        synchronized (this) {
+            if (!nextFullStatus && !removedSinceStatus.isEmpty()) {
+                ArrayNode removedNode = node.putArray("removedFileItems");
+                for (String path : removedSinceStatus) {
+                    removedNode.add(path);
+                }
+            }
+            removedSinceStatus.clear();
+            nextFullStatus = false;
+        }
+        ObjectNode items = node.putObject("fileItems");
+        for (Map.Entry<String, SpooledFile> entry : files.entrySet()) {
+            SpooledFile spooledFile = entry.getValue();
+            ObjectNode item = items.putObject(entry.getKey());
+            item.put("file", entry.getKey());
+            item.put("lastTime", spooledFile.lastModified);
+            item.put("timeUsed", spooledFile.timeUsed);
+            item.put("used", spooledFile.used);
+            item.put("specialId", spooledFile.specialId);
+        }
+        ArrayNode dirs = node.putArray("directories");
+        for (File directory : directories) {
+            dirs.add(directory.getPath());
+        }
+        node.put("stopFile", stopFile.getPath());
+        node.put("statusFile", journalFile.getPath());
+        node.put("elapseTime", elapseTime);
+        node.put("scanSubDir", recursive);
+        return JsonHandler.writeAsString(node);
+    }
+}
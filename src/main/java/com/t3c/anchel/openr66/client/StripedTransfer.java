@@ -0,0 +1,264 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.client;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.t3c.anchel.AnchelSlf4jLoggerFactory;
+import com.t3c.anchel.openr66.client.utils.OutputFormat;
+import com.t3c.anchel.openr66.client.utils.OutputFormat.FIELDS;
+import com.t3c.anchel.openr66.context.ErrorCode;
+import com.t3c.anchel.openr66.context.R66Result;
+import com.t3c.anchel.openr66.context.filesystem.R66Stripe;
+import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.data.DbRule;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.configuration.Messages;
+import com.t3c.anchel.openr66.protocol.configuration.PartnerConfiguration;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.TestPacket;
+import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
+import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
+import com.t3c.anchel.openr66.protocol.utils.R66Future;
+
+/**
+ * Direct Transfer of one file split in several stripes sent in parallel, each stripe on its own
+ * transfer (and so its own LocalChannel and TCP flow).<br>
+ * <br>
+ * The receiver writes all stripes in the same file, the last received stripe checking the final
+ * size and the hash of the whole file (computed here when the global digest is used), then moving
+ * the file and running the post tasks. Only send rules are striped, and only
+ * with partners accepting stripes; otherwise a standard DirectTransfer is done.<br>
+ * <br>
+ * Same arguments as DirectTransfer plus "-stripes n" (default 4).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class StripedTransfer extends DirectTransfer {
+    protected final int nbStripes;
+
+    public StripedTransfer(R66Future future, String remoteHost, String filename, String rulename,
+            String fileinfo, boolean isMD5, int blocksize, int nbStripes,
+            NetworkTransaction networkTransaction) {
+        super(future, remoteHost, filename, rulename, fileinfo, isMD5, blocksize, DbConstant.ILLEGALVALUE,
+                networkTransaction);
+        this.nbStripes = nbStripes;
+    }
+
+    /**
+     *
+     * @return True if the remote host accepts striped transfers (the partner configuration is
+     *         exchanged once connected, so a simple message is sent first if needed)
+     */
+    private boolean isStripeAccepted() {
+        PartnerConfiguration partner = Configuration.configuration.getVersions().get(remoteHost);
+        if (partner == null) {
+            R66Future futureMsg = new R66Future(true);
+            Message message = new Message(networkTransaction, futureMsg, remoteHost,
+                    new TestPacket("MSG", "Stripe", 100));
+            message.run();
+            futureMsg.awaitUninterruptibly();
+            partner = Configuration.configuration.getVersions().get(remoteHost);
+        }
+        return partner != null && partner.useStripe();
+    }
+
+    /**
+     *
+     * @return the stripes to send, null if the transfer cannot be striped
+     */
+    private R66Stripe[] getStripes() {
+        if (nbStripes <= 1) {
+            return null;
+        }
+        DbRule dbRule;
+        try {
+            dbRule = new DbRule(DbConstant.admin.getSession(), rulename);
+        } catch (WaarpDatabaseException e) {
+            return null;
+        }
+        int mode = dbRule.getMode();
+        if (!RequestPacket.isSendMode(mode) || RequestPacket.isThroughMode(mode)) {
+            return null;
+        }
+        long size = getOriginalSize(dbRule, mode);
+        if (size < 2L * blocksize) {
+            return null;
+        }
+        if (!isStripeAccepted()) {
+            logger.info("Remote host does not accept striped transfers: " + remoteHost);
+            return null;
+        }
+        long parent;
+        try {
+            parent = DbConstant.admin.getSession().getAdmin().getDbModel()
+                    .nextSequence(DbConstant.admin.getSession());
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot get an id for the striped transfer: " + e.getMessage());
+            return null;
+        }
+        // hash of the whole file, checked by the receiver once all stripes are written
+        DigestAlgo algo = null;
+        String hash = null;
+        if (Configuration.configuration.isGlobalDigest()) {
+            algo = Configuration.configuration.getDigest();
+            try {
+                hash = FilesystemBasedDigest.getHex(FilesystemBasedDigest.getHash(getLocalFile(dbRule), true, algo));
+            } catch (IOException e) {
+                logger.warn("Cannot compute the hash of the file, only each stripe will be checked: "
+                        + e.getMessage());
+            }
+        }
+        R66Stripe[] stripes = R66Stripe.split(parent, size, blocksize, nbStripes, algo, hash);
+        if (stripes.length <= 1) {
+            return null;
+        }
+        return stripes;
+    }
+
+    @Override
+    public void run() {
+        R66Stripe[] stripes = getStripes();
+        if (stripes == null) {
+            super.run();
+            return;
+        }
+        logger.info("Striped transfer of " + filename + " in " + stripes.length + " stripes to " + remoteHost);
+        final R66Future[] futures = new R66Future[stripes.length];
+        ExecutorService executorService = Executors.newFixedThreadPool(stripes.length,
+                new WaarpThreadFactory("StripedTransfer"));
+        for (int i = 0; i < stripes.length; i++) {
+            futures[i] = new R66Future(true);
+            DirectTransfer transfer = new DirectTransfer(futures[i], remoteHost, filename, rulename, fileinfo,
+                    isMD5, blocksize, DbConstant.ILLEGALVALUE, networkTransaction);
+            transfer.normalInfoAsWarn = normalInfoAsWarn;
+            transfer.setStripe(stripes[i]);
+            executorService.execute(transfer);
+        }
+        executorService.shutdown();
+        R66Future failed = null;
+        R66Future last = null;
+        for (R66Future stripeFuture : futures) {
+            stripeFuture.awaitUninterruptibly();
+            if (!stripeFuture.isSuccess()) {
+                if (failed == null) {
+                    failed = stripeFuture;
+                }
+            } else {
+                last = stripeFuture;
+            }
+        }
+        try {
+            executorService.awaitTermination(Configuration.configuration.getTIMEOUTCON(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        }
+        if (failed != null) {
+            future.setResult(failed.getResult());
+            future.setFailure(failed.getCause());
+        } else {
+            future.setResult(last.getResult());
+            future.setSuccess();
+        }
+    }
+
+    public static void main(String[] args) {
+        WaarpLoggerFactory.setDefaultFactory(new AnchelSlf4jLoggerFactory(null));
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(StripedTransfer.class);
+        }
+        if (!getParams(args, false)) {
+            logger.error(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
+            if (!OutputFormat.isQuiet()) {
+                System.out.println(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
+            }
+            if (DbConstant.admin != null && DbConstant.admin.isActive()) {
+                DbConstant.admin.close();
+            }
+            ChannelUtils.stopLogger();
+            System.exit(2);
+        }
+        int stripes = 4;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("-stripes")) {
+                i++;
+                stripes = Integer.parseInt(args[i]);
+            }
+        }
+        long time1 = System.currentTimeMillis();
+        R66Future future = new R66Future(true);
+
+        Configuration.configuration.pipelineInit();
+        NetworkTransaction networkTransaction = new NetworkTransaction();
+        int value = 66;
+        try {
+            StripedTransfer transaction = new StripedTransfer(future, rhost, localFilename, rule, fileInfo,
+                    ismd5, block, stripes, networkTransaction);
+            transaction.normalInfoAsWarn = snormalInfoAsWarn;
+            transaction.run();
+            future.awaitUninterruptibly();
+            long delay = System.currentTimeMillis() - time1;
+            R66Result result = future.getResult();
+            OutputFormat outputFormat = new OutputFormat(StripedTransfer.class.getSimpleName(), args);
+            outputFormat.setValue(FIELDS.remote.name(), rhost);
+            if (future.isSuccess()) {
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat.setValue(FIELDS.statusTxt.name(),
+                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+                outputFormat.setValueString(result.getRunner().getJson());
+                outputFormat.setValue("delay", delay);
+                if (transaction.normalInfoAsWarn) {
+                    logger.warn(outputFormat.loggerOut());
+                } else {
+                    logger.info(outputFormat.loggerOut());
+                }
+                value = 0;
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                outputFormat.setValue(FIELDS.statusTxt.name(),
+                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+                if (result != null && result.getRunner() != null) {
+                    outputFormat.setValueString(result.getRunner().getJson());
+                }
+                if (future.getCause() != null) {
+                    outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+                }
+                logger.error(outputFormat.loggerOut(), future.getCause());
+                value = (result != null) ? result.getCode().ordinal() : ErrorCode.Unknown.ordinal();
+            }
+            if (!OutputFormat.isQuiet()) {
+                outputFormat.sysout();
+            }
+        } catch (Throwable e) {
+            logger.error("Exception", e);
+        } finally {
+            networkTransaction.closeAll();
+            System.exit(value);
+        }
+    }
+
+}
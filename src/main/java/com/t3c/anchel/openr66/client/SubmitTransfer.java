@@ -26,6 +26,7 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import com.t3c.anchel.AnchelSlf4jLoggerFactory;
 import com.t3c.anchel.openr66.client.utils.OutputFormat;
 import com.t3c.anchel.openr66.client.utils.OutputFormat.FIELDS;
+import com.t3c.anchel.openr66.commander.InternalRunner;
 import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.database.DbConstant;
@@ -112,6 +113,8 @@ public class SubmitTransfer extends AbstractTransfer {
                 return;
             }
         }
+        // start it now if submitted within the server
+        InternalRunner.signalSubmit(taskRunner);
         R66Result result = new R66Result(null, false, ErrorCode.InitOk, taskRunner);
         future.setResult(result);
         future.setSuccess();
@@ -17,7 +17,10 @@
  */
 package com.t3c.anchel.openr66.commander;
 
+import java.util.List;
+
 import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -28,18 +31,22 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 
 import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.DbSessionPool;
 import com.t3c.anchel.openr66.database.data.DbConfiguration;
 import com.t3c.anchel.openr66.database.data.DbHostAuth;
 import com.t3c.anchel.openr66.database.data.DbHostConfiguration;
 import com.t3c.anchel.openr66.database.data.DbMultipleMonitor;
 import com.t3c.anchel.openr66.database.data.DbRule;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+import com.t3c.anchel.openr66.database.model.DbModelRunnerClaim;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.utils.R66ShutdownHook;
 
 /**
  * Commander is responsible to read from database updated data from time to time in order to achieve
- * new runner or new configuration updates.
+ * new runner or new configuration updates.<br>
+ * Runners submitted within this server are launched directly through InternalRunner.signalSubmit,
+ * so the runner part acts as a recovery sweep.
  * 
  * @author Frederic Bregier
  * 
@@ -60,6 +67,10 @@ public class Commander implements CommanderInterface {
     private DbPreparedStatement preparedStatementHost = null;
     private DbPreparedStatement preparedStatementRule = null;
     private DbPreparedStatement preparedStatementRunner = null;
+    /**
+     * Dedicated session for bulk claim of Runners, null if not used
+     */
+    private DbSession claimSession = null;
 
     /**
      * Prepare requests that will be executed from time to time
@@ -113,6 +124,22 @@ public class Commander implements CommanderInterface {
                     DbTaskRunner.getSelectFromInfoPrepareStatement(DbConstant.admin.getSession(),
                             UpdatedInfo.TOSUBMIT, false, LIMITSUBMIT);
 
+            if (Configuration.configuration.isCommanderBulkClaim()
+                    && DbConstant.admin.getDbModel() instanceof DbModelRunnerClaim) {
+                try {
+                    claimSession = DbSessionPool.lease();
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    logger.warn("Cannot use bulk claim of Runners: " + e.getMessage());
+                    claimSession = null;
+                }
+                if (claimSession != null && !((DbModelRunnerClaim) DbConstant.admin.getDbModel())
+                        .isRunnerClaimSupported(claimSession)) {
+                    logger.warn("Database version without bulk claim of Runners, back to standard mode");
+                    DbSessionPool.release(claimSession);
+                    claimSession = null;
+                }
+            }
+
             // Clean tasks (CompleteOK and ALLDONE => DONE)
             DbTaskRunner.changeFinishedToDone(DbConstant.admin.getSession());
             internalRunner = runner;
@@ -137,6 +164,10 @@ public class Commander implements CommanderInterface {
                 if (preparedStatementRunner != null) {
                     preparedStatementRunner.realClose();
                 }
+                if (claimSession != null) {
+                    DbSessionPool.release(claimSession);
+                    claimSession = null;
+                }
             } else {
                 if (preparedStatementLock != null) {
                     DbConstant.noCommitAdmin.getSession()
@@ -196,11 +227,58 @@ public class Commander implements CommanderInterface {
             preparedStatementRunner.realClose();
             DbConstant.admin.getSession().removeLongTermPreparedStatements(preparedStatementRunner);
         }
+        if (claimSession != null) {
+            DbSessionPool.release(claimSession);
+            claimSession = null;
+        }
         // DbConstant.admin.session.removeLongTermPreparedStatements();
     }
 
     public void run() {
         Thread.currentThread().setName("OpenR66Commander");
+        runUnderLock();
+        if (claimSession != null && !R66ShutdownHook.isShutdownStarting()) {
+            // Runners are claimed once the HA lock is released
+            claimRunners();
+        }
+    }
+
+    /**
+     * Claim and launch Runners to submit by batch of LIMITSUBMIT, each batch being claimed by one
+     * statement so that other servers sharing the database never get the same Runners
+     */
+    private void claimRunners() {
+        try {
+            List<DbTaskRunner> runners;
+            do {
+                runners = DbTaskRunner.claimToSubmit(claimSession, LIMITSUBMIT);
+                if (runners == null) {
+                    return;
+                }
+                for (DbTaskRunner taskRunner : runners) {
+                    logger.debug("claim a task: {}", taskRunner);
+                    internalRunner.launchTaskRunner(taskRunner, true);
+                }
+            } while (runners.size() >= LIMITSUBMIT && !R66ShutdownHook.isShutdownStarting());
+        } catch (WaarpDatabaseNoConnectionException e) {
+            try {
+                DbConstant.admin.getDbModel().validConnection(claimSession);
+            } catch (WaarpDatabaseNoConnectionException e1) {
+            }
+            logger.error("Database No Connection Error: Cannot execute Commander", e);
+        } catch (WaarpDatabaseSqlException e) {
+            // the version is supported (checked at startup), so retried at next run
+            try {
+                DbConstant.admin.getDbModel().validConnection(claimSession);
+            } catch (WaarpDatabaseNoConnectionException e1) {
+            }
+            logger.error("Database SQL Error: Cannot claim Runners", e);
+        } catch (WaarpDatabaseException e) {
+            logger.error("Database Error: Cannot execute Commander", e);
+        }
+    }
+
+    private void runUnderLock() {
         if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
             DbConstant.admin.getSession().checkConnectionNoException();
         }
@@ -395,6 +473,8 @@ public class Commander implements CommanderInterface {
                 boolean mm = false;
                 boolean lastUpdate = false;
                 while (preparedStatementRule.getNext()) {
+                    // updated rule with its tasks resolved again, replacing the cached one
+                    // (so its task plans and compiled arguments) for the next transfers
                     DbRule rule = DbRule.getFromStatement(preparedStatementRule);
                     if (multipleMonitor != null) {
                         if (!mm) {
@@ -454,6 +534,10 @@ public class Commander implements CommanderInterface {
                 // no more task to submit
                 return;
             }
+            if (claimSession != null) {
+                // Runners claimed after the lock is released
+                return;
+            }
             //logger.debug("start runner");
             // Check TaskRunner
             try {
@@ -478,23 +562,8 @@ public class Commander implements CommanderInterface {
                         throw e;
                     }
                     logger.debug("get a task: {}", taskRunner);
-                    // Launch if possible this task
-                    String key = taskRunner.getRequested() + " " + taskRunner.getRequester() +
-                            " " + taskRunner.getSpecialId();
-                    if (Configuration.configuration.getLocalTransaction().
-                            getFromRequest(key) != null) {
-                        // already running
-                        continue;
-                    }
-                    if (taskRunner.isSelfRequested()) {
-                        // cannot schedule a request where the host is the requested host
-                        taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
-                        taskRunner.update();
-                        continue;
-                    }
-                    taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
-                    taskRunner.forceSaveStatus();
-                    internalRunner.submitTaskRunner(taskRunner);
+                    // Launch if possible this task (unless already launched from submission queue)
+                    internalRunner.launchTaskRunner(taskRunner);
                     taskRunner = null;
                 }
             } catch (WaarpDatabaseNoConnectionException e) {
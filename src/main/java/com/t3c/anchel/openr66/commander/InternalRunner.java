@@ -19,13 +19,18 @@ package com.t3c.anchel.openr66.commander;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.logging.WaarpLogger;
@@ -36,9 +41,14 @@ import com.t3c.anchel.openr66.database.DbConstant;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
+import com.t3c.anchel.openr66.protocol.utils.R66ShutdownHook;
 
 /**
- * This class launch and control the Commander and enable TaskRunner job submissions
+ * This class launch and control the Commander and enable TaskRunner job submissions<br>
+ * <br>
+ * New submissions done within this server (SubmitTransfer, REST, TransferRequestJsonPacket) are
+ * signaled through an in-memory queue and started immediately, while the Commander polling remains
+ * as a recovery sweep (submissions from other processes, restart after a crash, delayed start).
  * 
  * @author Frederic Bregier
  * 
@@ -56,6 +66,22 @@ public class InternalRunner {
     private volatile boolean isRunning = true;
     private final ThreadPoolExecutor threadPoolExecutor;
     private final NetworkTransaction networkTransaction;
+    /**
+     * Runners signaled as submitted, waiting to be launched
+     */
+    private final BlockingQueue<DbTaskRunner> submitQueue = new LinkedBlockingQueue<DbTaskRunner>();
+    /**
+     * Keys of Runners currently launched, to prevent the polling and the queue to start the same
+     */
+    private final ConcurrentHashMap<String, DbTaskRunner> launchedRunners =
+            new ConcurrentHashMap<String, DbTaskRunner>();
+    private final Thread submitDispatcher;
+    /**
+     * Submit to start latency statistics (in ms)
+     */
+    private final AtomicLong nbLaunched = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
 
     /**
      * Create the structure to enable submission by database
@@ -78,6 +104,92 @@ public class InternalRunner {
                 Configuration.configuration.getDelayCommander(),
                 Configuration.configuration.getDelayCommander(), TimeUnit.MILLISECONDS);
         networkTransaction = new NetworkTransaction();
+        submitDispatcher = new WaarpThreadFactory("SubmitDispatcher").newThread(new SubmitDispatcher());
+        submitDispatcher.setDaemon(true);
+        submitDispatcher.start();
+    }
+
+    /**
+     * Signal a new Runner to submit (already saved as TOSUBMIT) so that it is started without
+     * waiting for the next Commander polling. Runners with a delayed start are left to the
+     * Commander.
+     * 
+     * @param taskRunner
+     * @return True if the Runner is queued for immediate launch
+     */
+    public static boolean signalSubmit(DbTaskRunner taskRunner) {
+        InternalRunner internalRunner = Configuration.configuration.getInternalRunner();
+        if (internalRunner == null || !internalRunner.isRunning || taskRunner == null
+                || !DbConstant.admin.isActive()) {
+            return false;
+        }
+        if (taskRunner.getUpdatedInfo() != UpdatedInfo.TOSUBMIT) {
+            return false;
+        }
+        if (taskRunner.getStart() != null && taskRunner.getStart().getTime() > System.currentTimeMillis()) {
+            return false;
+        }
+        return internalRunner.submitQueue.offer(taskRunner);
+    }
+
+    /**
+     * Launch a Runner found as TOSUBMIT (by polling or by signal) if not already running
+     * 
+     * @param taskRunner
+     * @return True if launched
+     * @throws WaarpDatabaseException
+     */
+    public boolean launchTaskRunner(DbTaskRunner taskRunner) throws WaarpDatabaseException {
+        return launchTaskRunner(taskRunner, false);
+    }
+
+    /**
+     * Launch a Runner found as TOSUBMIT (by polling or by signal) or already claimed as RUNNING in
+     * the database (bulk claim) if not already running
+     * 
+     * @param taskRunner
+     * @param claimed
+     *            True if the Runner is already RUNNING in the database
+     * @return True if launched
+     * @throws WaarpDatabaseException
+     */
+    public boolean launchTaskRunner(DbTaskRunner taskRunner, boolean claimed) throws WaarpDatabaseException {
+        String key = taskRunner.getKey();
+        if (launchedRunners.putIfAbsent(key, taskRunner) != null) {
+            // already launched by the other path
+            return false;
+        }
+        if (Configuration.configuration.getLocalTransaction().getFromRequest(key) != null) {
+            // already running
+            launchedRunners.remove(key);
+            return false;
+        }
+        if (taskRunner.isSelfRequested()) {
+            // cannot schedule a request where the host is the requested host
+            launchedRunners.remove(key);
+            taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+            taskRunner.update();
+            return false;
+        }
+        if (!claimed && !taskRunner.claimToRun()) {
+            // no more TOSUBMIT in the database: stale copy or launched by another server
+            launchedRunners.remove(key);
+            return false;
+        }
+        if (taskRunner.getStart() != null) {
+            long latency = System.currentTimeMillis() - taskRunner.getStart().getTime();
+            if (latency >= 0) {
+                nbLaunched.incrementAndGet();
+                totalLatency.addAndGet(latency);
+                long max = maxLatency.get();
+                while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                    max = maxLatency.get();
+                }
+                logger.debug("Submit to start latency: {} ms for {}", latency, key);
+            }
+        }
+        submitTaskRunner(taskRunner);
+        return true;
     }
 
     public NetworkTransaction getNetworkTransaction() {
@@ -91,14 +203,16 @@ public class InternalRunner {
      */
     public void submitTaskRunner(DbTaskRunner taskRunner) {
         if (isRunning || !Configuration.configuration.isShutdown()) {
+            final String key = taskRunner.getKey();
             if (threadPoolExecutor.getActiveCount() > Configuration.configuration.getRUNNER_THREAD()) {
                 // too many current active threads
                 taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
                 taskRunner.forceSaveStatus();
+                launchedRunners.remove(key);
                 return;
             }
             logger.debug("Will run {}", taskRunner);
-            ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, null);
+            final ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, null);
             if (taskRunner.isSendThrough() && (taskRunner.isRescheduledTransfer()
                     || taskRunner.isPreTaskStarting())) {
                 runner.setSendThroughMode();
@@ -106,8 +220,88 @@ public class InternalRunner {
             }
             runner.setDaemon(true);
             // create the client, connect and run
-            threadPoolExecutor.execute(runner);
-            runner = null;
+            try {
+                threadPoolExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runner.run();
+                        } finally {
+                            launchedRunners.remove(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                launchedRunners.remove(key);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the number of Runners launched with a known submit to start latency
+     */
+    public long getNbLaunched() {
+        return nbLaunched.get();
+    }
+
+    /**
+     * 
+     * @return the average submit to start latency in ms
+     */
+    public long getAverageSubmitLatency() {
+        long nb = nbLaunched.get();
+        return nb > 0 ? totalLatency.get() / nb : 0;
+    }
+
+    /**
+     * 
+     * @return the maximum submit to start latency in ms
+     */
+    public long getMaxSubmitLatency() {
+        return maxLatency.get();
+    }
+
+    public String hashStatus() {
+        return "InternalRunner: [submitQueue: " + submitQueue.size() + " launched: " + launchedRunners.size()
+                + " nbLaunched: " + getNbLaunched() + " avgLatency: " + getAverageSubmitLatency()
+                + " maxLatency: " + getMaxSubmitLatency() + "]";
+    }
+
+    /**
+     * Launch the Runners signaled as submitted as soon as they arrive
+     */
+    private class SubmitDispatcher implements Runnable {
+        @Override
+        public void run() {
+            while (isRunning) {
+                DbTaskRunner taskRunner;
+                try {
+                    taskRunner = submitQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (R66ShutdownHook.isShutdownStarting()) {
+                    // no more task to submit, Runner remains TOSUBMIT
+                    break;
+                }
+                try {
+                    // reload a private copy, the signaled one being still owned by the submitter
+                    DbTaskRunner reloaded = new DbTaskRunner(DbConstant.admin.getSession(),
+                            taskRunner.getSpecialId(), taskRunner.getRequester(), taskRunner.getRequested(),
+                            taskRunner.getOwnerRequest());
+                    if (reloaded.getUpdatedInfo() == UpdatedInfo.TOSUBMIT) {
+                        launchTaskRunner(reloaded);
+                    }
+                } catch (WaarpDatabaseException e) {
+                    // Runner remains TOSUBMIT and will be found by the Commander
+                    logger.warn("Cannot launch submitted Runner: {}", e.getMessage());
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Cannot launch submitted Runner: {}", e.getMessage());
+                }
+            }
+            submitQueue.clear();
         }
     }
 
@@ -116,6 +310,7 @@ public class InternalRunner {
      */
     public void prepareStopInternalRunner() {
         isRunning = false;
+        submitDispatcher.interrupt();
         scheduledFuture.cancel(false);
         scheduledExecutorService.shutdown();
         threadPoolExecutor.shutdown();
@@ -128,6 +323,7 @@ public class InternalRunner {
     public void stopInternalRunner() {
         isRunning = false;
         logger.info("Stopping Commander and Runner Tasks");
+        submitDispatcher.interrupt();
         scheduledFuture.cancel(false);
         scheduledExecutorService.shutdownNow();
         threadPoolExecutor.shutdownNow();
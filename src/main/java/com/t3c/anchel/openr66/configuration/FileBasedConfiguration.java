@@ -464,6 +464,14 @@ public class FileBasedConfiguration {
 	 * Global digest by transfer enable
 	 */
 	private static final String XML_GLOBALDIGEST = "globaldigest";
+	/**
+	 * Use pooled buffers for packet headers and keys
+	 */
+	private static final String XML_POOLEDBUFFER = "pooledbuffer";
+	/**
+	 * Use direct buffers for packet headers and keys
+	 */
+	private static final String XML_DIRECTBUFFER = "directbuffer";
 
 	/**
 	 * SERVER REST interface SHA address usage (and not all available IPs)
@@ -587,7 +595,8 @@ public class FileBasedConfiguration {
 			new XmlDecl(XmlType.INTEGER, XML_DIGEST), new XmlDecl(XmlType.BOOLEAN, XML_USEFASTMD5),
 			new XmlDecl(XmlType.STRING, XML_FASTMD5), new XmlDecl(XmlType.INTEGER, XML_GAPRESTART),
 			new XmlDecl(XmlType.INTEGER, XML_BLOCKSIZE), new XmlDecl(XmlType.INTEGER, XML_USETHRIFT),
-			new XmlDecl(XmlType.BOOLEAN, XML_CHECKVERSION), new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST) };
+			new XmlDecl(XmlType.BOOLEAN, XML_CHECKVERSION), new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST),
+			new XmlDecl(XmlType.BOOLEAN, XML_POOLEDBUFFER), new XmlDecl(XmlType.BOOLEAN, XML_DIRECTBUFFER) };
 	/**
 	 * Structure of the Configuration file
 	 * 
@@ -1348,6 +1357,18 @@ public class FileBasedConfiguration {
 			if (value != null && (!value.isEmpty())) {
 				config.setGlobalDigest(value.getBoolean());
 			}
+			boolean pooled = false;
+			value = hashConfig.get(XML_POOLEDBUFFER);
+			if (value != null && (!value.isEmpty())) {
+				pooled = value.getBoolean();
+			}
+			boolean direct = false;
+			value = hashConfig.get(XML_DIRECTBUFFER);
+			if (value != null && (!value.isEmpty())) {
+				direct = value.getBoolean();
+			}
+			config.setByteBufAllocator(pooled, direct);
+			logger.info("Buffers for packets: pooled=" + pooled + " direct=" + direct);
 			alreadySetLimit = true;
 			return true;
 		} finally {
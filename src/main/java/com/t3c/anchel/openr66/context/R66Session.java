@@ -35,6 +35,7 @@ import org.waarp.common.state.MachineState;
 import com.t3c.anchel.openr66.context.authentication.R66Auth;
 import com.t3c.anchel.openr66.context.filesystem.R66Dir;
 import com.t3c.anchel.openr66.context.filesystem.R66File;
+import com.t3c.anchel.openr66.context.filesystem.R66Manifest;
 import com.t3c.anchel.openr66.context.filesystem.R66Restart;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
@@ -99,6 +100,11 @@ public class R66Session implements SessionInterface {
 	 */
 	private final R66Restart restart;
 
+	/**
+	 * Manifest of the block hashes of the current transfer if used
+	 */
+	private R66Manifest manifest = null;
+
 	/**
 	 * DbTaskRunner
 	 */
@@ -222,6 +228,7 @@ public class R66Session implements SessionInterface {
 			}
 			// R66FiniteDualStates.endSessionMachineSate(state);
 		}
+		releaseManifest();
 		// No clean of file since it can be used after channel is closed
 		isReady = false;
 		if (businessObject != null) {
@@ -230,6 +237,20 @@ public class R66Session implements SessionInterface {
 		}
 	}
 
+	/**
+	 * Delete the manifest if the transfer is over, else only close it for a later restart
+	 */
+	private void releaseManifest() {
+		if (manifest != null) {
+			if (runner != null && runner.isAllDone()) {
+				manifest.delete();
+			} else {
+				manifest.close();
+			}
+			manifest = null;
+		}
+	}
+
 	public void partialClear() {
 		// First check if a transfer was on going
 		if (runner != null && (!runner.isFinished()) && (!runner.continueTransfer())) {
@@ -252,6 +273,7 @@ public class R66Session implements SessionInterface {
 		 * if (dir != null) { dir.clear(); } if (auth != null) { auth.clear(); }
 		 * if (runner != null) { runner.clear(); }
 		 */
+		releaseManifest();
 		// No clean of file since it can be used after channel is closed
 		isReady = false;
 		if (businessObject != null) {
@@ -288,6 +310,14 @@ public class R66Session implements SessionInterface {
 		return restart;
 	}
 
+	/**
+	 * 
+	 * @return the manifest of the block hashes of the current transfer, null if not used
+	 */
+	public R66Manifest getManifest() {
+		return manifest;
+	}
+
 	/**
 	 * 
 	 * @return True if the connection is currently authenticated
@@ -465,6 +495,17 @@ public class R66Session implements SessionInterface {
 			} catch (CommandAbstractException e) {
 				throw new OpenR66RunnerErrorException(e);
 			}
+		} else if (runner.getStripe() != null && !runner.isRecvThrough() && !runner.isFileMoved()) {
+			// All stripes of the same transfer write into the same file
+			String newfilename = this.runner.getOriginalFilename();
+			if (newfilename.charAt(1) == ':') {
+				// Windows path
+				newfilename = newfilename.substring(2);
+			}
+			file = dir.setStripeFile(runner.getRequester(), runner.getStripe().getParent(), newfilename);
+			if (!file.canWrite()) {
+				throw new OpenR66RunnerErrorException("File cannot be write");
+			}
 		} else {
 			// File should not exist except if restart
 			if (runner.getRank() > 0) {
@@ -635,6 +676,9 @@ public class R66Session implements SessionInterface {
 	 * @throws OpenR66RunnerErrorException
 	 */
 	public void startup(boolean checkNotExternal) throws OpenR66RunnerErrorException {
+		if (manifest == null) {
+			manifest = R66Manifest.open(this);
+		}
 		if (runner.getRank() > 0) {
 			logger.debug("restart at " + runner.getRank() + " {}", runner);
 			logger.debug("restart at " + runner.getRank() + " {}", dir);
@@ -738,7 +782,16 @@ public class R66Session implements SessionInterface {
 					try {
 						long oldPosition = restart.getPosition();
 						restart.setSet(true);
-						if (oldPosition > length) {
+						if (manifest != null) {
+							// Only blocks matching the manifest are kept
+							int newRank = manifest.verify(file.getTrueFile(), runner.getRank(),
+									this.runner.getBlocksize());
+							if (newRank < runner.getRank()) {
+								logger.warn("Verified Rank Restart for {} at " + newRank, runner);
+								runner.setTransferTask(newRank);
+								restart.restartMarker(this.runner.getBlocksize() * this.runner.getRank());
+							}
+						} else if (oldPosition > length && runner.getStripe() == null) {
 							int newRank = ((int) (length / this.runner.getBlocksize()))
 									- Configuration.getRANKRESTART();
 							if (newRank <= 0) {
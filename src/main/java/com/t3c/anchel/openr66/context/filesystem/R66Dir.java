@@ -86,6 +86,38 @@ public class R66Dir extends FilesystemBasedDirImpl {
         return newFile(normalizePath(currentFile), false);
     }
 
+    /**
+     * Create (if needed) the file shared by all stripes of the same striped transfer
+     * 
+     * @param requester
+     *            the requester host id, since parent transfer ids are only unique by requester
+     * @param parent
+     *            the parent transfer id
+     * @param filename
+     * @return the R66File
+     * @throws CommandAbstractException
+     */
+    public synchronized R66File setStripeFile(String requester, long parent, String filename)
+            throws CommandAbstractException {
+        checkIdentify();
+        String prefix = requester + "_" + parent + "_stripe_";
+        String basename = R66File.getBasename(filename);
+        int max = Math.max(1, Configuration.configuration.getMaxfilenamelength() - prefix.length() - 35);
+        if (basename.length() > max) {
+            basename = basename.substring(basename.length() - max);
+        }
+        File file = new File(getFileFromPath(currentDir), prefix + basename +
+                Configuration.EXT_R66);
+        try {
+            file.createNewFile();
+        } catch (IOException e) {
+            throw new Reply550Exception("Cannot create stripe file from " +
+                    basename);
+        }
+        String currentFile = getRelativePath(file);
+        return newFile(normalizePath(currentFile), true);
+    }
+
     /**
      * 
      * @param file
@@ -25,9 +25,15 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.ssl.SslHandler;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.digest.FilesystemBasedDigest;
@@ -49,8 +55,10 @@ import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 import com.t3c.anchel.openr66.protocol.localhandler.RetrieveRunner;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
 import com.t3c.anchel.openr66.protocol.utils.FileUtils;
+import com.t3c.anchel.openr66.protocol.utils.R66Future;
 
 /**
  * File representation
@@ -70,6 +78,13 @@ public class R66File extends FilesystemBasedFileImpl {
      */
     private boolean isExternal = false;
 
+    /**
+     * Channel used for positional writes of a received stripe
+     */
+    private FileChannel stripeChannel = null;
+
+    private long stripePosition = 0;
+
     /**
      * @param session
      * @param dir
@@ -113,7 +128,14 @@ public class R66File extends FilesystemBasedFileImpl {
             if (!isReady) {
                 return;
             }
+            if (!Configuration.configuration.isGlobalDigest() && canUseFileRegion(localChannelReference)) {
+                retrieveDone = retrieveFileRegion(running, localChannelReference);
+                return;
+            }
             DataBlock block = null;
+            // A stripe stops at its last byte
+            R66Stripe stripe = getSession().getRunner().getStripe();
+            long position = getPosition();
             try {
                 block = readDataBlock();
             } catch (FileEndOfTransferException e) {
@@ -126,63 +148,51 @@ public class R66File extends FilesystemBasedFileImpl {
                 retrieveDone = true;
                 return;
             }
-            if (Configuration.configuration.isGlobalDigest()) {
-                try {
-                    digest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                } catch (NoSuchAlgorithmException e2) {
-                    // ignore
-                }
-            }
-            ChannelFuture future1 = null, future2 = null;
-            if ((block != null && (running.get()))) {
-                block.getBlock().retain();
-                future1 = RetrieveRunner.writeWhenPossible(
-                        block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
-                }
-            }
+            digest = newGlobalDigest();
+            position += block.getByteCount();
+            R66Manifest manifest = getSession().getManifest();
+            // Up to sendWindow blocks could be in flight, the oldest one is awaited when the window
+            // is full or when the network channel is no more writable (backpressure)
+            int sendWindow = Configuration.configuration.getSendWindow();
+            Channel networkChannel = localChannelReference.getNetworkChannel();
+            ArrayDeque<ChannelFuture> window = new ArrayDeque<ChannelFuture>(sendWindow);
+            // Data blocks are only flushed every flushEvery blocks or when the channel is not writable
+            int flushEvery = Configuration.configuration.getFlushDataEvery();
+            int unflushed = 0;
             // While not last block
-            while (block != null && (!block.isEOF()) && (running.get())) {
-                try {
-                    future1.await();
-                } catch (InterruptedException e) {
+            while (block != null && (running.get())) {
+                unflushed++;
+                boolean flush = unflushed >= flushEvery || !networkChannel.isWritable();
+                if (flush) {
+                    unflushed = 0;
                 }
-                if (!future1.isSuccess()) {
-                    return;
+                window.addLast(writeDataBlock(block, localChannelReference, flush, manifest, digest));
+                if (block.isEOF() || (stripe != null && position >= stripe.getEnd())) {
+                    break;
+                }
+                while (!window.isEmpty() &&
+                        (window.size() >= sendWindow || !networkChannel.isWritable())) {
+                    if (!awaitOldestWrite(window, networkChannel)) {
+                        return;
+                    }
                 }
                 try {
                     block = readDataBlock();
                 } catch (FileEndOfTransferException e) {
-                    // Wait for last write
-                    try {
-                        future1.await();
-                    } catch (InterruptedException e1) {
-                    }
-                    if (future1.isSuccess()) {
-                        retrieveDone = true;
-                    }
-                    return;
+                    // Last block already sent
+                    break;
                 }
-                block.getBlock().retain();
-                future2 = RetrieveRunner.writeWhenPossible(
-                        block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
+                if (block != null) {
+                    position += block.getByteCount();
                 }
-                future1 = future2;
             }
             if (!running.get()) {
                 // stopped
                 return;
             }
-            // Wait for last write
-            if (future1 != null) {
-                try {
-                    future1.await();
-                } catch (InterruptedException e) {
-                }
-                if (!future1.isSuccess()) {
+            // Wait for last writes
+            while (!window.isEmpty()) {
+                if (!awaitOldestWrite(window, networkChannel)) {
                     return;
                 }
             }
@@ -208,33 +218,208 @@ public class R66File extends FilesystemBasedFileImpl {
                             new R66Result(e, getSession(), false,
                                     ErrorCode.Internal, getSession().getRunner()));
         } finally {
-            if (retrieveDone) {
-                String hash = null;
-                if (digest != null) {
-                    hash = FilesystemBasedDigest.getHex(digest.Final());
-                }
-                try {
-                    if (hash == null) {
-                        ChannelUtils.writeEndTransfer(localChannelReference);
-                    } else {
-                        ChannelUtils.writeEndTransfer(localChannelReference, hash);
-                    }
-                } catch (OpenR66ProtocolPacketException e) {
-                    // An error occurs!
-                    getSession().setFinalizeTransfer(
-                            false,
-                            new R66Result(e, getSession(), false,
-                                    ErrorCode.Internal, getSession().getRunner()));
+            endRetrieve(retrieveDone, digest, localChannelReference);
+        }
+    }
+
+    /**
+     * Start the retrieve (send to the remote host the local file) without blocking the caller:
+     * blocks are read and written by the executor while the send window is not full and the
+     * network channel is writable, then again when a write is done or when the network channel
+     * becomes writable.
+     * 
+     * @param running
+     *            When false, should stop the send
+     * @param executor
+     *            where blocks are read and written
+     * @param future
+     *            set to success once the EndTransfer is sent (or the transfer finalized in error),
+     *            or to failure with the cause if the retrieve could not go on
+     */
+    public void retrieveAsync(AtomicBoolean running, Executor executor, R66Future future) {
+        new R66FileSender(this, running, executor, future).start();
+    }
+
+    /**
+     * 
+     * @return True if the file is ready to be retrieved or stored
+     */
+    boolean isFileReady() {
+        return isReady;
+    }
+
+    /**
+     * 
+     * @return a new global digest if used
+     */
+    FilesystemBasedDigest newGlobalDigest() {
+        if (Configuration.configuration.isGlobalDigest()) {
+            try {
+                return new FilesystemBasedDigest(Configuration.configuration.getDigest());
+            } catch (NoSuchAlgorithmException e2) {
+                // ignore
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write one block, updating the manifest and the global digest
+     * 
+     * @param block
+     * @param localChannelReference
+     * @param flush
+     * @param manifest
+     *            might be null
+     * @param digest
+     *            might be null
+     * @return the ChannelFuture on the write operation
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolSystemException
+     */
+    ChannelFuture writeDataBlock(DataBlock block, LocalChannelReference localChannelReference, boolean flush,
+            R66Manifest manifest, FilesystemBasedDigest digest)
+            throws OpenR66ProtocolPacketException, OpenR66RunnerErrorException, OpenR66ProtocolSystemException {
+        block.getBlock().retain();
+        if (manifest != null) {
+            manifest.setBlockHash(getSession().getRunner().getRank(), manifest.hash(block.getBlock()));
+        }
+        ChannelFuture future = RetrieveRunner.writeWhenPossible(block, localChannelReference, flush);
+        if (digest != null) {
+            FileUtils.computeGlobalHash(digest, block.getBlock());
+        }
+        return future;
+    }
+
+    /**
+     * Send the EndTransfer if the retrieve is done, else finalize the transfer in error
+     * 
+     * @param retrieveDone
+     * @param digest
+     *            might be null
+     * @param localChannelReference
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolSystemException
+     */
+    void endRetrieve(boolean retrieveDone, FilesystemBasedDigest digest,
+            LocalChannelReference localChannelReference)
+            throws OpenR66RunnerErrorException, OpenR66ProtocolSystemException {
+        if (retrieveDone) {
+            String hash = null;
+            if (getSession().getManifest() != null) {
+                // root hash of all blocks, even those sent before a restart
+                hash = getSession().getManifest().getRootHash(getSession().getRunner().getRank());
+            }
+            if (hash == null && digest != null) {
+                hash = FilesystemBasedDigest.getHex(digest.Final());
+            }
+            try {
+                if (hash == null) {
+                    ChannelUtils.writeEndTransfer(localChannelReference);
+                } else {
+                    ChannelUtils.writeEndTransfer(localChannelReference, hash);
                 }
-            } else {
+            } catch (OpenR66ProtocolPacketException e) {
                 // An error occurs!
                 getSession().setFinalizeTransfer(
                         false,
-                        new R66Result(new OpenR66ProtocolSystemException("Transfer in error"),
-                                getSession(), false, ErrorCode.TransferError, getSession()
-                                        .getRunner()));
+                        new R66Result(e, getSession(), false,
+                                ErrorCode.Internal, getSession().getRunner()));
+            }
+        } else {
+            // An error occurs!
+            getSession().setFinalizeTransfer(
+                    false,
+                    new R66Result(new OpenR66ProtocolSystemException("Transfer in error"),
+                            getSession(), false, ErrorCode.TransferError, getSession()
+                                    .getRunner()));
+        }
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return True if the data could be sent directly from the file (no MD5 per block, no SSL)
+     */
+    boolean canUseFileRegion(LocalChannelReference localChannelReference) {
+        return Configuration.configuration.isSendFileRegion() &&
+                !RequestPacket.isMD5Mode(getSession().getRunner().getMode()) &&
+                localChannelReference.getNetworkChannel().pipeline().get(SslHandler.class) == null;
+    }
+
+    /**
+     * Send the file from the current position using one FileRegion (sendfile) per block
+     * 
+     * @param running
+     *            When false, should stop the runner
+     * @param localChannelReference
+     * @return True if all blocks were successfully written
+     * @throws OpenR66ProtocolPacketException
+     */
+    private boolean retrieveFileRegion(AtomicBoolean running,
+            LocalChannelReference localChannelReference) throws OpenR66ProtocolPacketException {
+        File trueFile = getTrueFile();
+        long length = trueFile.length();
+        R66Stripe stripe = getSession().getRunner().getStripe();
+        if (stripe != null && stripe.getEnd() < length) {
+            length = stripe.getEnd();
+        }
+        long position = getPosition();
+        int blocksize = getSession().getBlockSize();
+        int sendWindow = Configuration.configuration.getSendWindow();
+        Channel networkChannel = localChannelReference.getNetworkChannel();
+        ArrayDeque<ChannelFuture> window = new ArrayDeque<ChannelFuture>(sendWindow);
+        int flushEvery = Configuration.configuration.getFlushDataEvery();
+        int unflushed = 0;
+        while (position < length && running.get()) {
+            int count = (int) Math.min(blocksize, length - position);
+            unflushed++;
+            boolean flush = unflushed >= flushEvery || !networkChannel.isWritable();
+            if (flush) {
+                unflushed = 0;
+            }
+            window.addLast(ChannelUtils.writeBackDataRegion(localChannelReference,
+                    new DefaultFileRegion(trueFile, position, count), flush));
+            position += count;
+            while (!window.isEmpty() &&
+                    (window.size() >= sendWindow || !networkChannel.isWritable())) {
+                if (!awaitOldestWrite(window, networkChannel)) {
+                    return false;
+                }
+            }
+        }
+        if (!running.get()) {
+            // stopped
+            return false;
+        }
+        // Wait for last writes
+        while (!window.isEmpty()) {
+            if (!awaitOldestWrite(window, networkChannel)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Wait for the oldest write of the window, flushing the network channel if this write is not
+     * done yet (since data blocks might not be flushed)
+     * 
+     * @param window
+     * @param networkChannel
+     * @return True if this write was successful
+     */
+    private static boolean awaitOldestWrite(ArrayDeque<ChannelFuture> window, Channel networkChannel) {
+        ChannelFuture future = window.pollFirst();
+        if (!future.isDone()) {
+            networkChannel.flush();
+        }
+        try {
+            future.await();
+        } catch (InterruptedException e) {
+        }
+        return future.isSuccess();
     }
 
     /**
@@ -635,8 +820,61 @@ public class R66File extends FilesystemBasedFileImpl {
         isReady = true;
     }
 
+    /**
+     * 
+     * @return True if this file is received as one stripe of a striped transfer
+     */
+    private boolean isReceivedStripe() {
+        DbTaskRunner runner = getSession().getRunner();
+        return runner != null && !runner.isSender() && runner.getStripe() != null;
+    }
+
+    @Override
+    public void writeDataBlock(DataBlock dataBlock) throws FileTransferException {
+        if (!isReceivedStripe()) {
+            super.writeDataBlock(dataBlock);
+            return;
+        }
+        if (!isReady) {
+            throw new FileTransferException("No file is ready");
+        }
+        // Other stripes write into the same file: positional write, no truncation
+        try {
+            if (stripeChannel == null) {
+                @SuppressWarnings("resource")
+                RandomAccessFile raf = new RandomAccessFile(getTrueFile(), "rw");
+                stripeChannel = raf.getChannel();
+                stripePosition = getPosition();
+            }
+            ByteBuf buffer = dataBlock.getBlock();
+            while (buffer.isReadable()) {
+                stripePosition += buffer.readBytes(stripeChannel, stripePosition, buffer.readableBytes());
+            }
+        } catch (IOException e) {
+            logger.error("Error during write:", e);
+            try {
+                closeFile();
+            } catch (CommandAbstractException e1) {
+            }
+            throw new FileTransferException("Internal error, file is not ready");
+        }
+        if (dataBlock.isEOF()) {
+            try {
+                closeFile();
+            } catch (CommandAbstractException e) {
+            }
+        }
+    }
+
     @Override
     public boolean closeFile() throws CommandAbstractException {
+        if (stripeChannel != null) {
+            try {
+                stripeChannel.close();
+            } catch (IOException e) {
+            }
+            stripeChannel = null;
+        }
         boolean status = super.closeFile();
         // FORCE re-open file
         isReady = true;
@@ -0,0 +1,345 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.filesystem;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.DefaultFileRegion;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.exception.FileEndOfTransferException;
+import org.waarp.common.exception.FileTransferException;
+import org.waarp.common.file.DataBlock;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.t3c.anchel.openr66.context.ErrorCode;
+import com.t3c.anchel.openr66.context.R66Result;
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66Exception;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
+import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
+import com.t3c.anchel.openr66.protocol.utils.R66Future;
+
+/**
+ * Non blocking send of one file: same blocks, window and flush policy as
+ * R66File.retrieveBlocking, but no thread waits for the writes.<br>
+ * <br>
+ * Each step runs in the executor, reading and writing blocks while the send window is not full
+ * and the network channel is writable. A step is scheduled again when one write is done or when
+ * the network channel becomes writable again, at most one step running at a time. Once all
+ * blocks are written, the EndTransfer is sent and the future is done.
+ *
+ * @author Frederic Bregier
+ *
+ */
+class R66FileSender implements Runnable {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(R66FileSender.class);
+
+    private final R66File file;
+    private final R66Session session;
+    private final LocalChannelReference localChannelReference;
+    private final Channel networkChannel;
+    private final AtomicBoolean running;
+    private final Executor executor;
+    private final R66Future future;
+    private final int sendWindow;
+    private final int flushEvery;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean failed = false;
+
+    private final ChannelFutureListener writeListener = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture channelFuture) {
+            if (!channelFuture.isSuccess()) {
+                failed = true;
+            }
+            inFlight.decrementAndGet();
+            schedule();
+        }
+    };
+
+    private final Runnable scheduler = new Runnable() {
+        @Override
+        public void run() {
+            schedule();
+        }
+    };
+
+    // Following fields are only used by the current step
+    private boolean started = false;
+    private boolean eof = false;
+    private boolean finished = false;
+    private boolean fileRegion = false;
+    private File trueFile = null;
+    private long length = 0;
+    private int blocksize = 0;
+    private R66Stripe stripe = null;
+    private long position = 0;
+    private R66Manifest manifest = null;
+    private FilesystemBasedDigest digest = null;
+    private DataBlock lastBlock = null;
+    private int unflushed = 0;
+
+    R66FileSender(R66File file, AtomicBoolean running, Executor executor, R66Future future) {
+        this.file = file;
+        this.session = file.getSession();
+        this.localChannelReference = session.getLocalChannelReference();
+        this.networkChannel = localChannelReference.getNetworkChannel();
+        this.running = running;
+        this.executor = executor;
+        this.future = future;
+        this.sendWindow = Configuration.configuration.getSendWindow();
+        this.flushEvery = Configuration.configuration.getFlushDataEvery();
+    }
+
+    /**
+     * Start the send
+     */
+    void start() {
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // in shutdown
+                scheduled.set(false);
+                failed = true;
+                future.setFailure(new OpenR66ProtocolSystemException("Send executor stopped", e));
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            step();
+        } catch (FileTransferException e) {
+            finish(false, new R66Result(new OpenR66ProtocolSystemException(e), session, false,
+                    ErrorCode.TransferError, session.getRunner()));
+        } catch (OpenR66ProtocolPacketException e) {
+            finish(false, new R66Result(e, session, false, ErrorCode.Internal, session.getRunner()));
+        } catch (OpenR66Exception e) {
+            // runner or system error: the caller handles it
+            fail(e);
+        } catch (RuntimeException e) {
+            logger.error("Send in error", e);
+            fail(new OpenR66ProtocolSystemException(e));
+        } finally {
+            scheduled.set(false);
+        }
+        if (!finished && canStep()) {
+            // an event could have been missed while this step was running
+            schedule();
+        }
+    }
+
+    /**
+     *
+     * @return True if a step has something to do now
+     */
+    private boolean canStep() {
+        if (!running.get() || failed || !started) {
+            return true;
+        }
+        if (eof) {
+            return inFlight.get() == 0;
+        }
+        return inFlight.get() < sendWindow && networkChannel.isWritable();
+    }
+
+    private void step() throws FileTransferException, OpenR66Exception {
+        if (finished) {
+            return;
+        }
+        if (!started) {
+            started = true;
+            if (!file.isFileReady()) {
+                finish(false, null);
+                return;
+            }
+            init();
+        }
+        if (!running.get() || failed) {
+            // stopped or write in error
+            finish(false, null);
+            return;
+        }
+        while (!eof && inFlight.get() < sendWindow && networkChannel.isWritable() && running.get()) {
+            writeNext();
+        }
+        if (!eof) {
+            if (inFlight.get() > 0) {
+                // blocks might not be flushed yet
+                networkChannel.flush();
+            }
+            if (!networkChannel.isWritable()) {
+                localChannelReference.getNetworkChannelObject().whenWritable(scheduler);
+            }
+            return;
+        }
+        if (inFlight.get() > 0) {
+            // wait for last writes
+            networkChannel.flush();
+            return;
+        }
+        if (lastBlock != null) {
+            lastBlock.getBlock().release();
+            lastBlock.clear();
+        }
+        finish(true, null);
+    }
+
+    private void init() {
+        stripe = session.getRunner().getStripe();
+        position = file.getPosition();
+        manifest = session.getManifest();
+        if (!Configuration.configuration.isGlobalDigest() && file.canUseFileRegion(localChannelReference)) {
+            fileRegion = true;
+            trueFile = file.getTrueFile();
+            length = trueFile.length();
+            if (stripe != null && stripe.getEnd() < length) {
+                length = stripe.getEnd();
+            }
+            blocksize = session.getBlockSize();
+            eof = position >= length;
+        }
+    }
+
+    private boolean nextFlush() {
+        unflushed++;
+        boolean flush = unflushed >= flushEvery || !networkChannel.isWritable();
+        if (flush) {
+            unflushed = 0;
+        }
+        return flush;
+    }
+
+    private void track(ChannelFuture channelFuture) {
+        inFlight.incrementAndGet();
+        channelFuture.addListener(writeListener);
+    }
+
+    private void writeNext() throws FileTransferException, OpenR66Exception {
+        if (fileRegion) {
+            int count = (int) Math.min(blocksize, length - position);
+            track(ChannelUtils.writeBackDataRegion(localChannelReference,
+                    new DefaultFileRegion(trueFile, position, count), nextFlush()));
+            position += count;
+            eof = position >= length;
+            return;
+        }
+        DataBlock block;
+        try {
+            block = file.readDataBlock();
+        } catch (FileEndOfTransferException e) {
+            // Last block already sent (or no data to read)
+            eof = true;
+            return;
+        }
+        if (block == null) {
+            eof = true;
+            return;
+        }
+        if (lastBlock == null) {
+            digest = file.newGlobalDigest();
+        }
+        lastBlock = block;
+        position += block.getByteCount();
+        track(file.writeDataBlock(block, localChannelReference, nextFlush(), manifest, digest));
+        if (block.isEOF() || (stripe != null && position >= stripe.getEnd())) {
+            eof = true;
+        }
+    }
+
+    /**
+     * End of the send: EndTransfer if done, else finalize in error
+     *
+     * @param retrieveDone
+     * @param error
+     *            the error result if any
+     */
+    private void finish(boolean retrieveDone, R66Result error) {
+        finished = true;
+        OpenR66Exception cause = null;
+        if (error != null) {
+            try {
+                session.setFinalizeTransfer(false, error);
+            } catch (OpenR66RunnerErrorException e) {
+                cause = e;
+            } catch (OpenR66ProtocolSystemException e) {
+                cause = e;
+            }
+        }
+        OpenR66Exception endCause = endRetrieve(retrieveDone);
+        if (cause == null) {
+            cause = endCause;
+        }
+        if (cause != null) {
+            // runner or system error: the caller handles it
+            future.setFailure(cause);
+        } else {
+            future.setSuccess();
+        }
+    }
+
+    private void fail(OpenR66Exception e) {
+        finished = true;
+        OpenR66Exception endCause = endRetrieve(false);
+        if (endCause != null) {
+            logger.debug("Finalize in error after " + e.getMessage(), endCause);
+        }
+        future.setFailure(e);
+    }
+
+    /**
+     * EndTransfer if done, else finalize in error
+     *
+     * @param retrieveDone
+     * @return the error of the finalization if any, else null
+     */
+    private OpenR66Exception endRetrieve(boolean retrieveDone) {
+        try {
+            file.endRetrieve(retrieveDone, digest, localChannelReference);
+        } catch (OpenR66RunnerErrorException e) {
+            return e;
+        } catch (OpenR66ProtocolSystemException e) {
+            return e;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,498 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.filesystem;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.configuration.PartnerConfiguration;
+import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
+
+/**
+ * Manifest of the hash of each block of one transfer, kept on both sides in a sidecar file of the
+ * working directory while the blocks are sent or received.<br>
+ * <br>
+ * On restart, the receiver checks the last blocks of the partial file against its manifest and
+ * restarts from the first block not matching, instead of blindly going back a few blocks. At the
+ * end of the transfer, the sender sends the root hash (hash of all block hashes in rank order)
+ * computed from its manifest, and the receiver compares it with its own, so the whole file is
+ * checked even after a restart, without reading the file once more.<br>
+ * Each entry has the fixed length of the digest, at the position of its rank; an entry full of 0
+ * is a missing one.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66Manifest {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(R66Manifest.class);
+
+    /**
+     * Prefix of a root hash in the EndTransfer packet (not an hexadecimal character)
+     */
+    public static final String ROOT_PREFIX = "M:";
+
+    private static final String EXTENSION = ".manifest";
+
+    /**
+     * Maximum size mapped at once by one check task
+     */
+    private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Threads checking files against their manifest
+     */
+    private static ExecutorService checkExecutor = null;
+
+    private final File file;
+    private final DigestAlgo algo;
+    private final int entryLength;
+    private RandomAccessFile access;
+
+    /**
+     * @param file
+     *            the manifest file
+     * @param algo
+     *            the digest algorithm of each block
+     * @throws IOException
+     */
+    public R66Manifest(File file, DigestAlgo algo) throws IOException {
+        this.file = file;
+        this.algo = algo;
+        this.entryLength = FilesystemBasedDigest.getHash(Unpooled.EMPTY_BUFFER, algo).length;
+        this.access = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     *
+     * @param session
+     * @return True if this transfer shall keep a manifest (both partners using manifests, global
+     *         digest, neither through mode nor stripe)
+     */
+    public static boolean isActive(R66Session session) {
+        if (!Configuration.configuration.isTransferManifest() || !Configuration.configuration.isGlobalDigest()) {
+            return false;
+        }
+        DbTaskRunner runner = session.getRunner();
+        LocalChannelReference localChannelReference = session.getLocalChannelReference();
+        if (runner == null || localChannelReference == null || localChannelReference.getPartner() == null) {
+            return false;
+        }
+        return localChannelReference.getPartner().useManifest() && !runner.isRecvThrough()
+                && !runner.isSendThrough() && runner.getStripe() == null;
+    }
+
+    /**
+     * The sender hashes blocks with its own algorithm, which is the one used by the receiver for
+     * the global digest when the partner gives it.
+     *
+     * @param session
+     * @return the digest algorithm for the blocks of this transfer
+     */
+    public static DigestAlgo getAlgo(R66Session session) {
+        if (session.getRunner().isSender()) {
+            return Configuration.configuration.getDigest();
+        }
+        PartnerConfiguration partner = session.getLocalChannelReference().getPartner();
+        if (partner.useFinalHash()) {
+            return partner.getDigestAlgo();
+        }
+        return Configuration.configuration.getDigest();
+    }
+
+    /**
+     *
+     * @param session
+     * @return the manifest of the current transfer of this session, null if not active or in
+     *         error
+     */
+    public static R66Manifest open(R66Session session) {
+        if (!isActive(session)) {
+            return null;
+        }
+        DbTaskRunner runner = session.getRunner();
+        File dir = new File(Configuration.configuration.getBaseDirectory(),
+                Configuration.configuration.getWorkingPath());
+        String name = runner.getSpecialId() + "_" + runner.getRequester() + "_" + runner.getRequested()
+                + (runner.isSender() ? ".send" : ".recv") + EXTENSION;
+        try {
+            return new R66Manifest(new File(dir, name), getAlgo(session));
+        } catch (IOException e) {
+            logger.warn("Cannot open manifest: " + name + " since " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param block
+     *            not consumed
+     * @return the hash of this block, null if it cannot be computed
+     */
+    public byte[] hash(ByteBuf block) {
+        try {
+            return FilesystemBasedDigest.getHash(block, algo);
+        } catch (IOException e) {
+            logger.warn("Cannot compute block hash for manifest: " + file + " since " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Record the hash of one block
+     *
+     * @param rank
+     * @param hash
+     */
+    public synchronized void setBlockHash(int rank, byte[] hash) {
+        if (access == null || hash == null) {
+            return;
+        }
+        try {
+            access.seek((long) rank * entryLength);
+            access.write(hash, 0, entryLength);
+        } catch (IOException e) {
+            logger.warn("Cannot write manifest: " + file + " since " + e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @param rank
+     * @return the recorded hash of this block, null if missing
+     */
+    public synchronized byte[] getBlockHash(int rank) {
+        if (access == null) {
+            return null;
+        }
+        byte[] hash = new byte[entryLength];
+        try {
+            if ((long) (rank + 1) * entryLength > access.length()) {
+                return null;
+            }
+            access.seek((long) rank * entryLength);
+            access.readFully(hash);
+        } catch (IOException e) {
+            return null;
+        }
+        if (Arrays.equals(hash, new byte[entryLength])) {
+            return null;
+        }
+        return hash;
+    }
+
+    /**
+     *
+     * @return the number of entries (possibly missing ones) of this manifest
+     */
+    public synchronized int getNbBlocks() {
+        if (access == null) {
+            return 0;
+        }
+        try {
+            return (int) (access.length() / entryLength);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     *
+     * @param nbBlocks
+     *            the number of blocks of the file
+     * @return the root hash (prefixed by ROOT_PREFIX) of the nbBlocks first blocks, null if one is
+     *         missing
+     */
+    public synchronized String getRootHash(int nbBlocks) {
+        if (nbBlocks > getNbBlocks()) {
+            return null;
+        }
+        FilesystemBasedDigest digest;
+        try {
+            digest = new FilesystemBasedDigest(algo);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        for (int rank = 0; rank < nbBlocks; rank++) {
+            byte[] hash = getBlockHash(rank);
+            if (hash == null) {
+                return null;
+            }
+            digest.Update(hash, 0, entryLength);
+        }
+        return ROOT_PREFIX + FilesystemBasedDigest.getHex(digest.Final());
+    }
+
+    /**
+     * Root hash of the received file, the missing entries of this manifest (blocks received
+     * before a restart without manifest for instance) being computed again from the file itself
+     *
+     * @param received
+     *            the received file
+     * @param nbBlocks
+     *            the number of blocks of the file
+     * @param blocksize
+     * @return the root hash (prefixed by ROOT_PREFIX), null if the file cannot be read
+     */
+    public synchronized String getRootHash(File received, int nbBlocks, int blocksize) {
+        RandomAccessFile reader = null;
+        try {
+            long length = received.length();
+            byte[] buffer = new byte[blocksize];
+            for (int rank = 0; rank < nbBlocks; rank++) {
+                if (getBlockHash(rank) != null) {
+                    continue;
+                }
+                if (reader == null) {
+                    reader = new RandomAccessFile(received, "r");
+                }
+                long start = (long) rank * blocksize;
+                int size = (int) Math.min(blocksize, length - start);
+                if (size <= 0) {
+                    return null;
+                }
+                reader.seek(start);
+                reader.readFully(buffer, 0, size);
+                setBlockHash(rank, hash(Unpooled.wrappedBuffer(buffer, 0, size)));
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot compute block hash for manifest: " + file + " since " + e.getMessage());
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return getRootHash(nbBlocks);
+    }
+
+    /**
+     * Check the last blocks (up to RANKRESTART) before rank of the partial file against this
+     * manifest
+     *
+     * @param partial
+     *            the partial file
+     * @param rank
+     *            the rank from where the transfer should restart
+     * @param blocksize
+     * @return the rank of the first block to send again (at most rank)
+     */
+    public synchronized int verify(File partial, int rank, int blocksize) {
+        long limit = Math.min(rank, Math.min(getNbBlocks(), partial.length() / blocksize));
+        int first = (int) Math.max(0, limit - Configuration.getRANKRESTART());
+        RandomAccessFile reader = null;
+        try {
+            reader = new RandomAccessFile(partial, "r");
+            byte[] buffer = new byte[blocksize];
+            for (int current = first; current < limit; current++) {
+                byte[] expected = getBlockHash(current);
+                if (expected == null) {
+                    return current;
+                }
+                reader.seek((long) current * blocksize);
+                reader.readFully(buffer);
+                FilesystemBasedDigest digest = new FilesystemBasedDigest(algo);
+                digest.Update(buffer, 0, blocksize);
+                if (!Arrays.equals(expected, digest.Final())) {
+                    logger.info("Block " + current + " not matching its manifest entry: " + file);
+                    return current;
+                }
+            }
+            return (int) limit;
+        } catch (IOException e) {
+            return first;
+        } catch (NoSuchAlgorithmException e) {
+            return first;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Check the whole file against this manifest, the blocks being hashed in parallel from memory
+     * mapped parts of the file
+     *
+     * @param received
+     *            the received file
+     * @param nbBlocks
+     *            the number of blocks of the file
+     * @param blocksize
+     * @return True if each block of the file matches its manifest entry
+     * @throws IOException
+     */
+    public boolean check(File received, int nbBlocks, int blocksize) throws IOException {
+        long length = received.length();
+        if ((length + blocksize - 1) / blocksize != nbBlocks || nbBlocks > getNbBlocks()) {
+            logger.info("File size not matching its manifest: " + length + " for " + nbBlocks + " blocks");
+            return false;
+        }
+        if (nbBlocks == 0) {
+            return true;
+        }
+        int nbTasks = Math.min(nbBlocks, Runtime.getRuntime().availableProcessors());
+        int blocksPerTask = (nbBlocks + nbTasks - 1) / nbTasks;
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(nbTasks);
+        ExecutorService executor = getCheckExecutor();
+        for (int first = 0; first < nbBlocks; first += blocksPerTask) {
+            futures.add(executor.submit(new CheckTask(received, first, Math.min(nbBlocks, first + blocksPerTask),
+                    blocksize, length)));
+        }
+        boolean valid = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get()) {
+                    valid = false;
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Check interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Check in error", e.getCause());
+            }
+        }
+        return valid;
+    }
+
+    private static synchronized ExecutorService getCheckExecutor() {
+        if (checkExecutor == null) {
+            checkExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new WaarpThreadFactory("ManifestCheck"));
+        }
+        return checkExecutor;
+    }
+
+    /**
+     * Check of a range of blocks against the manifest
+     */
+    private class CheckTask implements Callable<Boolean> {
+        private final File received;
+        private final int first;
+        private final int last;
+        private final int blocksize;
+        private final long length;
+
+        private CheckTask(File received, int first, int last, int blocksize, long length) {
+            this.received = received;
+            this.first = first;
+            this.last = last;
+            this.blocksize = blocksize;
+            this.length = length;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            RandomAccessFile reader = new RandomAccessFile(received, "r");
+            try {
+                FileChannel channel = reader.getChannel();
+                int blocksPerMap = (int) Math.max(1, MAP_SIZE / blocksize);
+                for (int rank = first; rank < last; rank += blocksPerMap) {
+                    int lastRank = Math.min(last, rank + blocksPerMap);
+                    long start = (long) rank * blocksize;
+                    long size = Math.min((long) lastRank * blocksize, length) - start;
+                    MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, size);
+                    for (int current = rank; current < lastRank; current++) {
+                        int offset = (current - rank) * blocksize;
+                        buffer.limit((int) Math.min(offset + blocksize, size));
+                        buffer.position(offset);
+                        byte[] expected = getBlockHash(current);
+                        if (expected == null || !Arrays.equals(expected, hash(Unpooled.wrappedBuffer(buffer.slice())))) {
+                            logger.info("Block " + current + " not matching its manifest entry: " + file);
+                            return false;
+                        }
+                        buffer.limit(buffer.capacity());
+                    }
+                }
+                return true;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Close the manifest, keeping it for a later restart
+     */
+    public synchronized void close() {
+        if (access != null) {
+            try {
+                access.close();
+            } catch (IOException e) {
+            }
+            access = null;
+        }
+    }
+
+    /**
+     * Close and delete the manifest
+     */
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            logger.debug("Cannot delete manifest: " + file);
+        }
+    }
+
+    /**
+     * @return the manifest file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "Manifest: " + file + " (" + algo.name + ")";
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+
+/**
+ * One stripe (byte range) of a file sent through several transfers in parallel.<br>
+ * <br>
+ * Each stripe is a standard transfer, starting at the rank of its first byte and stopping at its
+ * last byte, and all stripes of the same parent transfer are written by the receiver in the same
+ * file using positional writes. The last received stripe checks the final size and the hash of
+ * the whole file (when given by the sender), then moves the file and runs the post tasks once for
+ * the whole file.<br>
+ * The received stripes are recorded in a sidecar file of the shared file (one byte by stripe), so
+ * that a restart of the server or a retry of one stripe does not lose them.<br>
+ * Boundaries are always a multiple of the block size.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class R66Stripe {
+    private static final String SEPARATOR = ":";
+
+    /**
+     * Extension of the sidecar file of the received stripes
+     */
+    public static final String RECEIVED_EXTENSION = ".stripes";
+
+    private final long parent;
+    private final int index;
+    private final int count;
+    private final long start;
+    private final long end;
+    private final DigestAlgo algo;
+    private final String hash;
+
+    /**
+     * @param parent
+     *            the id of the parent transfer (the one of the first stripe)
+     * @param index
+     *            from 0 to count - 1
+     * @param count
+     *            number of stripes
+     * @param start
+     *            first byte of this stripe
+     * @param end
+     *            last byte (excluded) of this stripe
+     */
+    public R66Stripe(long parent, int index, int count, long start, long end) {
+        this(parent, index, count, start, end, null, null);
+    }
+
+    /**
+     * @param parent
+     *            the id of the parent transfer (the one of the first stripe)
+     * @param index
+     *            from 0 to count - 1
+     * @param count
+     *            number of stripes
+     * @param start
+     *            first byte of this stripe
+     * @param end
+     *            last byte (excluded) of this stripe
+     * @param algo
+     *            the digest algorithm of hash, might be null
+     * @param hash
+     *            the hash of the whole file, might be null
+     */
+    public R66Stripe(long parent, int index, int count, long start, long end, DigestAlgo algo, String hash) {
+        this.parent = parent;
+        this.index = index;
+        this.count = count;
+        this.start = start;
+        this.end = end;
+        this.algo = hash != null ? algo : null;
+        this.hash = algo != null ? hash : null;
+    }
+
+    /**
+     *
+     * @param stripe
+     *            as given by toString()
+     * @return the corresponding R66Stripe or null if not a valid one
+     */
+    public static R66Stripe fromString(String stripe) {
+        if (stripe == null || stripe.isEmpty()) {
+            return null;
+        }
+        String[] values = stripe.split(SEPARATOR);
+        if (values.length != 5 && values.length != 7) {
+            return null;
+        }
+        try {
+            DigestAlgo algo = null;
+            String hash = null;
+            if (values.length == 7) {
+                algo = DigestAlgo.valueOf(values[5]);
+                hash = values[6];
+            }
+            R66Stripe r66Stripe = new R66Stripe(Long.parseLong(values[0]), Integer.parseInt(values[1]),
+                    Integer.parseInt(values[2]), Long.parseLong(values[3]), Long.parseLong(values[4]), algo, hash);
+            if (r66Stripe.index < 0 || r66Stripe.index >= r66Stripe.count || r66Stripe.start < 0
+                    || r66Stripe.end <= r66Stripe.start) {
+                return null;
+            }
+            return r66Stripe;
+        } catch (IllegalArgumentException e) {
+            // including NumberFormatException
+            return null;
+        }
+    }
+
+    /**
+     * Split a file in stripes, each boundary being a multiple of blocksize
+     *
+     * @param parent
+     * @param size
+     *            the size of the file
+     * @param blocksize
+     * @param count
+     *            the wanted number of stripes
+     * @return the stripes (possibly less than count for small files)
+     */
+    public static R66Stripe[] split(long parent, long size, int blocksize, int count) {
+        return split(parent, size, blocksize, count, null, null);
+    }
+
+    /**
+     * Split a file in stripes, each boundary being a multiple of blocksize
+     *
+     * @param parent
+     * @param size
+     *            the size of the file
+     * @param blocksize
+     * @param count
+     *            the wanted number of stripes
+     * @param algo
+     *            the digest algorithm of hash, might be null
+     * @param hash
+     *            the hash of the whole file checked by the receiver once all stripes are received,
+     *            might be null
+     * @return the stripes (possibly less than count for small files)
+     */
+    public static R66Stripe[] split(long parent, long size, int blocksize, int count, DigestAlgo algo,
+            String hash) {
+        long nbBlocks = (size + blocksize - 1) / blocksize;
+        if (count > nbBlocks) {
+            count = (int) nbBlocks;
+        }
+        if (count < 1) {
+            count = 1;
+        }
+        long blocksPerStripe = nbBlocks / count;
+        R66Stripe[] stripes = new R66Stripe[count];
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            long end = (i == count - 1) ? size : start + blocksPerStripe * blocksize;
+            stripes[i] = new R66Stripe(parent, i, count, start, end, algo, hash);
+            start = end;
+        }
+        return stripes;
+    }
+
+    /**
+     *
+     * @param stripeFile
+     *            the file shared by all stripes
+     * @return the sidecar file of the received stripes
+     */
+    public static File getReceivedFile(File stripeFile) {
+        return new File(stripeFile.getPath() + RECEIVED_EXTENSION);
+    }
+
+    /**
+     * Register this stripe as fully received in the sidecar file of the stripe file
+     *
+     * @param stripeFile
+     *            the file shared by all stripes
+     * @return True if all stripes of the parent transfer are now received
+     * @throws IOException
+     */
+    public boolean received(File stripeFile) throws IOException {
+        byte[] flags = new byte[count];
+        synchronized (R66Stripe.class) {
+            RandomAccessFile access = new RandomAccessFile(getReceivedFile(stripeFile), "rw");
+            try {
+                if (access.length() < count) {
+                    access.setLength(count);
+                }
+                access.seek(index);
+                access.write(1);
+                access.getFD().sync();
+                access.seek(0);
+                access.readFully(flags);
+            } finally {
+                access.close();
+            }
+        }
+        for (byte flag : flags) {
+            if (flag == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete the sidecar file of the received stripes, once the whole file is moved
+     *
+     * @param stripeFile
+     *            the file shared by all stripes
+     */
+    public static void clearReceived(File stripeFile) {
+        synchronized (R66Stripe.class) {
+            File file = getReceivedFile(stripeFile);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the parent transfer id
+     */
+    public long getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the index of this stripe
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of stripes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first byte of this stripe
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the last byte (excluded) of this stripe
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     *
+     * @param blocksize
+     * @return the rank of the first block of this stripe
+     */
+    public int getStartRank(int blocksize) {
+        return (int) (start / blocksize);
+    }
+
+    /**
+     *
+     * @param blocksize
+     * @return True if this stripe starts on a block boundary
+     */
+    public boolean isAligned(int blocksize) {
+        return start % blocksize == 0;
+    }
+
+    /**
+     * @return the digest algorithm of the hash of the whole file, null if none
+     */
+    public DigestAlgo getAlgo() {
+        return algo;
+    }
+
+    /**
+     * @return the hash of the whole file, null if none
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        String value = parent + SEPARATOR + index + SEPARATOR + count + SEPARATOR + start + SEPARATOR + end;
+        if (hash != null) {
+            value += SEPARATOR + algo.name() + SEPARATOR + hash;
+        }
+        return value;
+    }
+}
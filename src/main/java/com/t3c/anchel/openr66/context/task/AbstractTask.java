@@ -17,23 +17,12 @@
  */
 package com.t3c.anchel.openr66.context.task;
 
-import java.io.File;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpStringUtils;
 
-import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Session;
-import com.t3c.anchel.openr66.context.filesystem.R66Dir;
-import com.t3c.anchel.openr66.context.filesystem.R66File;
+import com.t3c.anchel.openr66.database.data.DbRule;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
-import com.t3c.anchel.openr66.protocol.configuration.Configuration;
-import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import com.t3c.anchel.openr66.protocol.utils.R66Future;
 
 /**
@@ -221,6 +210,10 @@ public abstract class AbstractTask implements Runnable {
      * Do we need to use LocalExec for an Exec Task ? Default = False
      */
     boolean useLocalExec = false;
+    /**
+     * Compiled argument from Rule, set by TaskPlan
+     */
+    TaskTemplate template = null;
 
     /**
      * Constructor
@@ -281,186 +274,42 @@ public abstract class AbstractTask implements Runnable {
      * @return The string with replaced values from context and second argument
      */
     protected String getReplacedValue(String arg, Object[] argFormat) {
-        StringBuilder builder = new StringBuilder(arg);
+        TaskTemplate template = getTemplate(arg);
         // check NOWAIT and LOCALEXEC
-        if (arg.contains(NOWAIT)) {
+        if (template.isNoWait()) {
             waitForValidation = false;
-            WaarpStringUtils.replaceAll(builder, NOWAIT, "");
         }
-        if (arg.contains(LOCALEXEC)) {
+        if (template.isLocalExec()) {
             useLocalExec = true;
-            WaarpStringUtils.replaceAll(builder, LOCALEXEC, "");
-        }
-        File trueFile = null;
-        if (session.getFile() != null) {
-            trueFile = session.getFile().getTrueFile();
-        }
-        if (trueFile != null) {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, trueFile.getAbsolutePath());
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, R66Dir
-                    .getFinalUniqueFilename(session.getFile()));
-            WaarpStringUtils.replaceAll(builder, FILESIZE, Long.toString(trueFile.length()));
-        } else {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, "nofile");
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, "nofile");
-            WaarpStringUtils.replaceAll(builder, FILESIZE, "0");
-        }
-        DbTaskRunner runner = session.getRunner();
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, ORIGINALFULLPATH, runner
-                    .getOriginalFilename());
-            WaarpStringUtils.replaceAll(builder, ORIGINALFILENAME,
-                    R66File.getBasename(runner
-                            .getOriginalFilename()));
-            WaarpStringUtils.replaceAll(builder, RULE, runner
-                    .getRuleId());
-        }
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date date = new Date();
-        WaarpStringUtils.replaceAll(builder, DATE, dateFormat.format(date));
-        dateFormat = new SimpleDateFormat("HHmmss");
-        WaarpStringUtils.replaceAll(builder, HOUR, dateFormat.format(date));
-        if (session.getAuth() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOST, session.getAuth().getUser());
-            try {
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHostId(session.getAuth().isSsl()));
-            } catch (OpenR66ProtocolNoSslException e) {
-                // replace by standard name
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHOST_ID());
-            }
-        }
-        if (session.getRemoteAddress() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, session.getRemoteAddress()
-                    .toString());
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, session.getLocalAddress()
-                    .toString());
-        } else {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, "unknown");
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, "unknown");
-        }
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, TRANSFERID, Long.toString(runner.getSpecialId()));
-            String requester = runner.getRequester();
-            WaarpStringUtils.replaceAll(builder, REQUESTERHOST, requester);
-            String requested = runner.getRequested();
-            WaarpStringUtils.replaceAll(builder, REQUESTEDHOST, requested);
-            WaarpStringUtils.replaceAll(builder, FULLTRANSFERID,
-                    runner.getSpecialId() + "_" + requester + "_" + requested);
-            WaarpStringUtils.replaceAll(builder, RANKTRANSFER, Integer.toString(runner.getRank()));
-        }
-        WaarpStringUtils.replaceAll(builder, BLOCKSIZE, Integer.toString(session
-                .getBlockSize()));
-        R66Dir dir = new R66Dir(session);
-        if (runner != null) {
-            if (runner.isRecvThrough() || runner.isSendThrough()) {
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-            } else {
-                try {
-                    dir.changeDirectory(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
-                }
-            }
-        } else {
-            try {
-                dir.changeDirectory(Configuration.configuration.getInPath());
-                WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getOutPath());
-                WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getWorkingPath());
-                WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getArchivePath());
-                WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-        }
-        WaarpStringUtils.replaceAll(builder, HOMEPATH, Configuration.configuration.getBaseDirectory());
-        if (session.getLocalChannelReference() == null) {
-            WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-        } else {
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, session.getLocalChannelReference()
-                        .getErrorMessage());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, session.getLocalChannelReference()
-                        .getCurrentCode().getCode());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, session
-                        .getLocalChannelReference().getCurrentCode().name());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-            }
         }
+        String value = template.expand(session);
         // finalname
         if (argFormat != null && argFormat.length > 0)
             try {
-                return String.format(builder.toString(), argFormat);
+                return String.format(value, argFormat);
             } catch (Exception e) {
                 // ignored error since bad argument in static rule info
-                logger.error("Bad format in Rule: {"+builder.toString()+"} " + e.getMessage());
+                logger.error("Bad format in Rule: {"+value+"} " + e.getMessage());
             }
-        return builder.toString();
+        return value;
+    }
+
+    /**
+     * 
+     * @param arg
+     * @return the compiled argument, cached with the rule of the current transfer if any
+     */
+    private TaskTemplate getTemplate(String arg) {
+        if (template != null && template.getArg().equals(arg)) {
+            return template;
+        }
+        DbTaskRunner runner = session.getRunner();
+        if (runner != null) {
+            DbRule rule = runner.getRule();
+            if (rule != null) {
+                return rule.getTaskTemplate(arg);
+            }
+        }
+        return new TaskTemplate(arg);
     }
 }
@@ -17,6 +17,7 @@
  */
 package com.t3c.anchel.openr66.context.task;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -39,6 +40,11 @@ import com.t3c.anchel.openr66.context.R66Session;
 public class ExecJavaTask extends AbstractTask {
     protected boolean businessRequest = false;
 
+    /**
+     * Classes already resolved
+     */
+    private static final ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
     /**
      * Internal Logger
      */
@@ -56,6 +62,21 @@ public class ExecJavaTask extends AbstractTask {
         super(TaskType.EXECJAVA, delay, argRule, argTransfer, session);
     }
 
+    /**
+     * 
+     * @param className
+     * @return the class, resolved once
+     * @throws ClassNotFoundException
+     */
+    static Class<?> forName(String className) throws ClassNotFoundException {
+        Class<?> clasz = classes.get(className);
+        if (clasz == null) {
+            clasz = Class.forName(className);
+            classes.put(className, clasz);
+        }
+        return clasz;
+    }
+
     /**
      * Set the type
      * 
@@ -90,7 +111,7 @@ public class ExecJavaTask extends AbstractTask {
         }
         R66Runnable runnable = null;
         try {
-            runnable = (R66Runnable) Class.forName(className).newInstance();
+            runnable = (R66Runnable) forName(className).newInstance();
         } catch (Exception e) {
             logger.error("ExecJava command is not available: " + className, e);
             R66Result result = new R66Result(session, false,
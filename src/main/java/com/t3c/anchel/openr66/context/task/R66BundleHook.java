@@ -0,0 +1,49 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.task;
+
+import java.io.File;
+
+import com.t3c.anchel.openr66.context.R66Session;
+
+/**
+ * Post-task hook called by UnbundleTask for each file extracted from a bundle
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public interface R66BundleHook {
+
+    /**
+     * The way the parameter will be set, once by bundle
+     * 
+     * @param session
+     *            The current R66Session (of the bundle transfer)
+     * @param arg
+     *            arguments of the hook in the rule
+     */
+    public void setArgs(R66Session session, String arg);
+
+    /**
+     * 
+     * @param file
+     *            one extracted file
+     * @return True if the file is correctly handled
+     */
+    public boolean run(File file);
+}
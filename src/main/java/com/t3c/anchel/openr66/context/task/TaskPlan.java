@@ -0,0 +1,123 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.task;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
+import com.t3c.anchel.openr66.database.data.DbRule;
+
+/**
+ * Tasks of one step of a rule (pre, post or error tasks) resolved once: type, delay and compiled
+ * argument of each task, so that running the chain only creates the tasks.<br>
+ * <br>
+ * A malformed task (unknown type or wrong delay) is only in error when reached, as before.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TaskPlan {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(TaskPlan.class);
+
+    private final String[][] tasks;
+    private final TaskType[] types;
+    private final String[] args;
+    private final int[] delays;
+    private final TaskTemplate[] templates;
+    private final String[] errors;
+
+    /**
+     * 
+     * @param tasks
+     *            the tasks as in the rule (type, argument, delay)
+     * @param rule
+     *            the rule caching the compiled arguments, might be null
+     */
+    public TaskPlan(String[][] tasks, DbRule rule) {
+        this.tasks = tasks;
+        int size = tasks == null ? 0 : tasks.length;
+        types = new TaskType[size];
+        args = new String[size];
+        delays = new int[size];
+        templates = new TaskTemplate[size];
+        errors = new String[size];
+        for (int i = 0; i < size; i++) {
+            String[] task = tasks[i];
+            String name = task[0];
+            args[i] = task[1];
+            try {
+                delays[i] = Integer.parseInt(task[2]);
+            } catch (NumberFormatException e) {
+                errors[i] = "Malformed task so stop the execution";
+                continue;
+            }
+            try {
+                types[i] = TaskType.valueOf(name);
+            } catch (NullPointerException e) {
+                errors[i] = "Unvalid Task: " + name;
+                continue;
+            } catch (IllegalArgumentException e) {
+                errors[i] = "Unvalid Task: " + name;
+                continue;
+            }
+            if (args[i] != null) {
+                templates[i] = rule != null ? rule.getTaskTemplate(args[i]) : new TaskTemplate(args[i]);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the tasks of this plan
+     */
+    public String[][] getTasks() {
+        return tasks;
+    }
+
+    /**
+     * 
+     * @return the number of tasks
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * 
+     * @param step
+     * @param session
+     * @return a new task for this step
+     * @throws OpenR66RunnerErrorException
+     *             if the task is malformed
+     */
+    public AbstractTask newTask(int step, R66Session session) throws OpenR66RunnerErrorException {
+        if (types[step] == null) {
+            logger.error(errors[step]);
+            throw new OpenR66RunnerErrorException(errors[step]);
+        }
+        AbstractTask task = TaskType.getTaskFromId(types[step], args[step], delays[step], session);
+        task.template = templates[step];
+        return task;
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.task;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.waarp.common.command.exception.CommandAbstractException;
+
+import com.t3c.anchel.openr66.context.ErrorCode;
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.filesystem.R66Dir;
+import com.t3c.anchel.openr66.context.filesystem.R66File;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolNoSslException;
+
+/**
+ * Argument of a task compiled once into literal and variable segments (see the replacements of
+ * AbstractTask), so that its expansion is done in one pass, evaluating only the referenced
+ * variables.<br>
+ * <br>
+ * A variable without value in the current context (for instance without runner) is kept as is,
+ * as when replaced one after the other.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TaskTemplate {
+    /**
+     * Variables of a task argument
+     */
+    static enum Variable {
+        TRUEFULLPATH(AbstractTask.TRUEFULLPATH),
+        TRUEFILENAME(AbstractTask.TRUEFILENAME),
+        ORIGINALFULLPATH(AbstractTask.ORIGINALFULLPATH),
+        ORIGINALFILENAME(AbstractTask.ORIGINALFILENAME),
+        FILESIZE(AbstractTask.FILESIZE),
+        RULE(AbstractTask.RULE),
+        DATE(AbstractTask.DATE),
+        HOUR(AbstractTask.HOUR),
+        REMOTEHOST(AbstractTask.REMOTEHOST),
+        REMOTEHOSTADDR(AbstractTask.REMOTEHOSTADDR),
+        LOCALHOST(AbstractTask.LOCALHOST),
+        LOCALHOSTADDR(AbstractTask.LOCALHOSTADDR),
+        TRANSFERID(AbstractTask.TRANSFERID),
+        REQUESTERHOST(AbstractTask.REQUESTERHOST),
+        REQUESTEDHOST(AbstractTask.REQUESTEDHOST),
+        FULLTRANSFERID(AbstractTask.FULLTRANSFERID),
+        RANKTRANSFER(AbstractTask.RANKTRANSFER),
+        BLOCKSIZE(AbstractTask.BLOCKSIZE),
+        INPATH(AbstractTask.INPATH),
+        OUTPATH(AbstractTask.OUTPATH),
+        WORKPATH(AbstractTask.WORKPATH),
+        ARCHPATH(AbstractTask.ARCHPATH),
+        HOMEPATH(AbstractTask.HOMEPATH),
+        ERRORMSG(AbstractTask.ERRORMSG),
+        ERRORCODE(AbstractTask.ERRORCODE),
+        ERRORSTRCODE(AbstractTask.ERRORSTRCODE),
+        NOWAIT(AbstractTask.NOWAIT),
+        LOCALEXEC(AbstractTask.LOCALEXEC);
+
+        final String token;
+
+        private Variable(String token) {
+            this.token = token;
+        }
+    }
+
+    private final String arg;
+    /**
+     * Literal segments as String, variable ones as Variable
+     */
+    private final Object[] segments;
+    private final boolean noWait;
+    private final boolean localExec;
+
+    /**
+     * 
+     * @param arg
+     *            the argument of the task
+     */
+    public TaskTemplate(String arg) {
+        this.arg = arg;
+        List<Object> list = new ArrayList<Object>();
+        Variable[] variables = Variable.values();
+        boolean nowait = false;
+        boolean localexec = false;
+        int start = 0;
+        int pos = arg.indexOf('#');
+        while (pos >= 0) {
+            Variable found = null;
+            for (Variable variable : variables) {
+                if (arg.startsWith(variable.token, pos)) {
+                    found = variable;
+                    break;
+                }
+            }
+            if (found == null) {
+                pos = arg.indexOf('#', pos + 1);
+                continue;
+            }
+            if (pos > start) {
+                list.add(arg.substring(start, pos));
+            }
+            if (found == Variable.NOWAIT) {
+                nowait = true;
+            } else if (found == Variable.LOCALEXEC) {
+                localexec = true;
+            } else {
+                list.add(found);
+            }
+            start = pos + found.token.length();
+            pos = arg.indexOf('#', start);
+        }
+        if (start < arg.length()) {
+            list.add(arg.substring(start));
+        }
+        this.segments = list.toArray();
+        this.noWait = nowait;
+        this.localExec = localexec;
+    }
+
+    /**
+     * 
+     * @return the argument of the task
+     */
+    public String getArg() {
+        return arg;
+    }
+
+    /**
+     * 
+     * @return True if the argument contains NOWAIT
+     */
+    public boolean isNoWait() {
+        return noWait;
+    }
+
+    /**
+     * 
+     * @return True if the argument contains LOCALEXEC
+     */
+    public boolean isLocalExec() {
+        return localExec;
+    }
+
+    /**
+     * 
+     * @param session
+     * @return the argument with the variables replaced by their value in this session
+     */
+    public String expand(R66Session session) {
+        StringBuilder builder = new StringBuilder(arg.length() + 64);
+        Expansion expansion = null;
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                builder.append((String) segment);
+                continue;
+            }
+            if (expansion == null) {
+                expansion = new Expansion(session);
+            }
+            Variable variable = (Variable) segment;
+            String value = expansion.value(variable);
+            builder.append(value != null ? value : variable.token);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Values of the variables during one expansion
+     */
+    private static class Expansion {
+        private final R66Session session;
+        private final DbTaskRunner runner;
+        private File trueFile = null;
+        private boolean trueFileDone = false;
+        private Date date = null;
+
+        private Expansion(R66Session session) {
+            this.session = session;
+            this.runner = session.getRunner();
+        }
+
+        private File getTrueFile() {
+            if (!trueFileDone) {
+                trueFileDone = true;
+                if (session.getFile() != null) {
+                    trueFile = session.getFile().getTrueFile();
+                }
+            }
+            return trueFile;
+        }
+
+        private Date getDate() {
+            if (date == null) {
+                date = new Date();
+            }
+            return date;
+        }
+
+        /**
+         * 
+         * @param variable
+         * @return the value of the variable, null if none in this context
+         */
+        private String value(Variable variable) {
+            switch (variable) {
+                case TRUEFULLPATH:
+                    return getTrueFile() != null ? trueFile.getAbsolutePath() : "nofile";
+                case TRUEFILENAME:
+                    return getTrueFile() != null ? R66Dir.getFinalUniqueFilename(session.getFile()) : "nofile";
+                case FILESIZE:
+                    return getTrueFile() != null ? Long.toString(trueFile.length()) : "0";
+                case ORIGINALFULLPATH:
+                    return runner != null ? runner.getOriginalFilename() : null;
+                case ORIGINALFILENAME:
+                    return runner != null ? R66File.getBasename(runner.getOriginalFilename()) : null;
+                case RULE:
+                    return runner != null ? runner.getRuleId() : null;
+                case DATE:
+                    return new SimpleDateFormat("yyyyMMdd").format(getDate());
+                case HOUR:
+                    return new SimpleDateFormat("HHmmss").format(getDate());
+                case REMOTEHOST:
+                    return session.getAuth() != null ? session.getAuth().getUser() : null;
+                case LOCALHOST:
+                    if (session.getAuth() == null) {
+                        return null;
+                    }
+                    try {
+                        return Configuration.configuration.getHostId(session.getAuth().isSsl());
+                    } catch (OpenR66ProtocolNoSslException e) {
+                        // replace by standard name
+                        return Configuration.configuration.getHOST_ID();
+                    }
+                case REMOTEHOSTADDR:
+                    return session.getRemoteAddress() != null ? session.getRemoteAddress().toString() : "unknown";
+                case LOCALHOSTADDR:
+                    return session.getRemoteAddress() != null ? session.getLocalAddress().toString() : "unknown";
+                case TRANSFERID:
+                    return runner != null ? Long.toString(runner.getSpecialId()) : null;
+                case REQUESTERHOST:
+                    return runner != null ? runner.getRequester() : null;
+                case REQUESTEDHOST:
+                    return runner != null ? runner.getRequested() : null;
+                case FULLTRANSFERID:
+                    return runner != null ? runner.getSpecialId() + "_" + runner.getRequester() + "_"
+                            + runner.getRequested() : null;
+                case RANKTRANSFER:
+                    return runner != null ? Integer.toString(runner.getRank()) : null;
+                case BLOCKSIZE:
+                    return Integer.toString(session.getBlockSize());
+                case INPATH:
+                    return getPath(runner != null ? runner.getRule().getRecvPath()
+                            : Configuration.configuration.getInPath());
+                case OUTPATH:
+                    return getPath(runner != null ? runner.getRule().getSendPath()
+                            : Configuration.configuration.getOutPath());
+                case WORKPATH:
+                    return getPath(runner != null ? runner.getRule().getWorkPath()
+                            : Configuration.configuration.getWorkingPath());
+                case ARCHPATH:
+                    return getPath(runner != null ? runner.getRule().getArchivePath()
+                            : Configuration.configuration.getArchivePath());
+                case HOMEPATH:
+                    return Configuration.configuration.getBaseDirectory();
+                case ERRORMSG:
+                    try {
+                        String message = session.getLocalChannelReference().getErrorMessage();
+                        return message != null ? message : "NoError";
+                    } catch (NullPointerException e) {
+                        return "NoError";
+                    }
+                case ERRORCODE:
+                    try {
+                        return session.getLocalChannelReference().getCurrentCode().getCode();
+                    } catch (NullPointerException e) {
+                        return "-";
+                    }
+                case ERRORSTRCODE:
+                    try {
+                        return session.getLocalChannelReference().getCurrentCode().name();
+                    } catch (NullPointerException e) {
+                        return ErrorCode.Unknown.name();
+                    }
+                default:
+                    return "";
+            }
+        }
+
+        /**
+         * 
+         * @param path
+         *            path from the rule or the configuration
+         * @return the full path, null if not valid
+         */
+        private String getPath(String path) {
+            R66Dir dir = new R66Dir(session);
+            try {
+                if (runner != null && (runner.isRecvThrough() || runner.isSendThrough())) {
+                    dir.changeDirectoryNotChecked(path);
+                } else {
+                    dir.changeDirectory(path);
+                }
+            } catch (CommandAbstractException e) {
+                return null;
+            }
+            return dir.getFullPath();
+        }
+    }
+}
@@ -34,7 +34,7 @@ import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException
 public enum TaskType {
     LOG, MOVE, MOVERENAME, COPY, COPYRENAME, EXEC, EXECMOVE, LINKRENAME, TRANSFER,
     VALIDFILEPATH, DELETE, TAR, ZIP, EXECOUTPUT, RESCHEDULE, EXECJAVA, TRANSCODE, SNMP, FTP,
-    RENAME, RESTART, UNZEROED, CHMOD, CHKFILE;
+    RENAME, RESTART, UNZEROED, CHMOD, CHKFILE, UNBUNDLE;
 
     int type;
 
@@ -135,6 +135,9 @@ public enum TaskType {
             case CHKFILE:
                 return new FileCheckTask(argRule, delay, session.getRunner().
                         getFileInformation(), session);
+            case UNBUNDLE:
+                return new UnbundleTask(argRule, delay, session.getRunner().
+                        getFileInformation(), session);
             default:
                 logger.error("name unknown: " + type.name);
                 throw new OpenR66RunnerErrorException("Unvalid Task: " +
@@ -228,6 +231,7 @@ public enum TaskType {
             case UNZEROED:
             case CHMOD:
             case CHKFILE:
+            case UNBUNDLE:
                 throw new OpenR66RunnerErrorException("Unvalid Task: " +
                         type.name);
             default:
@@ -0,0 +1,127 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.context.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerException;
+import com.t3c.anchel.openr66.protocol.utils.FileBundle;
+import com.t3c.anchel.openr66.protocol.utils.FileBundle.Entry;
+
+/**
+ * This task extracts the current file, a bundle of small files (see FileBundle), in a
+ * directory.<br>
+ * <br>
+ * 
+ * The PATH is "directory [class [arguments]]", where the optional class implements R66BundleHook
+ * and is called for each extracted file with the arguments.<br>
+ * The result of each file is written in the index of the bundle in the directory; if the task is
+ * run again, only the files not yet correctly handled are extracted again. The task is in error if
+ * the bundle cannot be extracted or if one file is in error.<br>
+ * 
+ * delay >= 1 will delete the bundle and its index once all its files are correctly handled.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class UnbundleTask extends AbstractTask {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(UnbundleTask.class);
+
+    /**
+     * @param argRule
+     * @param delay
+     * @param argTransfer
+     * @param session
+     */
+    public UnbundleTask(String argRule, int delay, String argTransfer,
+            R66Session session) {
+        super(TaskType.UNBUNDLE, delay, argRule, argTransfer, session);
+    }
+
+    @Override
+    public void run() {
+        logger.info("UNBUNDLE with " + argRule + ":" + argTransfer + ":" + delay + " and {}",
+                session);
+        String finalname = argRule;
+        finalname = getReplacedValue(finalname, argTransfer.split(" "));
+        String[] args = finalname.split(" ", 3);
+        File bundle = session.getFile().getTrueFile();
+        File directory = new File(args[0]);
+        R66BundleHook hook = null;
+        if (args.length > 1) {
+            try {
+                hook = (R66BundleHook) ExecJavaTask.forName(args[1]).newInstance();
+            } catch (Exception e) {
+                logger.error("Bundle hook is not available: " + args[1], e);
+                futureCompletion.setFailure(new OpenR66RunnerException("Bundle hook not available"));
+                return;
+            }
+            hook.setArgs(session, args.length > 2 ? args[2] : "");
+        }
+        final R66BundleHook entryHook = hook;
+        List<Entry> entries;
+        try {
+            entries = FileBundle.extract(bundle, directory, entryHook == null ? null
+                    : new FileBundle.EntryHandler() {
+                        @Override
+                        public boolean handle(Entry entry) {
+                            return entryHook.run(new File(entry.path));
+                        }
+                    });
+        } catch (IOException e) {
+            logger.error("Cannot unbundle " + bundle + " in " + directory + " from " + session, e);
+            futureCompletion.setFailure(new OpenR66RunnerException("Bundle not extracted"));
+            return;
+        }
+        int errors = 0;
+        for (Entry entry : entries) {
+            if (entry.status != FileBundle.DONE) {
+                errors++;
+            }
+        }
+        if (errors > 0) {
+            logger.error("Unbundle of " + bundle + " with " + errors + " files in error over "
+                    + entries.size() + " (see " + FileBundle.getIndexFile(new File(directory, bundle.getName()))
+                    + ") from " + session);
+            futureCompletion.setFailure(new OpenR66RunnerException("Files in error in bundle"));
+            return;
+        }
+        logger.info("Unbundle of " + bundle + ": " + entries.size() + " files in " + directory);
+        if (delay > 0) {
+            if (!bundle.delete()) {
+                logger.warn("Cannot delete the bundle: " + bundle);
+            }
+            File index = FileBundle.getIndexFile(new File(directory, bundle.getName()));
+            if (index.exists() && !index.delete()) {
+                logger.warn("Cannot delete the index: " + index);
+            }
+        }
+        futureCompletion.setSuccess();
+    }
+
+}
@@ -0,0 +1,331 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.database;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+
+/**
+ * Bounded pool of database sessions, leased by each transfer (LocalChannelReference) and by the
+ * Commander instead of opening and closing one session for each of them.<br>
+ * <br>
+ * A free session is checked before being leased again, an invalid one being closed and replaced.
+ * When all sessions are leased, the caller waits up to the configured time (or not at all with
+ * tryLease, for the network threads), then gets the default session of DbConstant.admin (as when a
+ * new session cannot be opened). The exhaustion of the pool is logged once until a session is
+ * released.<br>
+ * Without pool (size 0), lease opens a new session and release closes it, as before.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DbSessionPool {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(DbSessionPool.class);
+
+    private static DbSessionPool pool = null;
+
+    private final int maxSize;
+    private final long maxWait;
+    private final ArrayDeque<DbSession> idle = new ArrayDeque<DbSession>();
+    private int size = 0;
+    private boolean closed = false;
+    private boolean exhausted = false;
+
+    private final AtomicLong nbLeased = new AtomicLong();
+    private final AtomicLong nbCreated = new AtomicLong();
+    private final AtomicLong nbInvalid = new AtomicLong();
+    private final AtomicLong nbWaited = new AtomicLong();
+    private final AtomicLong nbTimeout = new AtomicLong();
+
+    /**
+     * @param maxSize
+     *            maximum number of sessions
+     * @param maxWait
+     *            maximum time in ms to wait for a free session
+     */
+    private DbSessionPool(int maxSize, long maxWait) {
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     *
+     * @return True if database sessions are pooled
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.getDbPoolSize() > 0 && DbConstant.admin != null
+                && DbConstant.admin.isActive();
+    }
+
+    /**
+     *
+     * @return the pool from the configuration, null if not active
+     */
+    public static synchronized DbSessionPool getInstance() {
+        if (pool == null && isActive()) {
+            pool = new DbSessionPool(Configuration.configuration.getDbPoolSize(),
+                    Configuration.configuration.getDbPoolWait());
+        }
+        return pool;
+    }
+
+    /**
+     * Lease one database session: from the pool if active, else a new one
+     *
+     * @return the leased session
+     * @throws WaarpDatabaseNoConnectionException
+     *             if no pool and no new session can be opened
+     */
+    public static DbSession lease() throws WaarpDatabaseNoConnectionException {
+        DbSessionPool current = getInstance();
+        if (current == null) {
+            return new DbSession(DbConstant.admin, false);
+        }
+        return current.leaseSession(current.maxWait);
+    }
+
+    /**
+     * Lease one database session as lease, but without waiting for a free session when all
+     * sessions of the pool are leased
+     *
+     * @return the leased session, the default session of DbConstant.admin if the pool is exhausted
+     * @throws WaarpDatabaseNoConnectionException
+     *             if no pool and no new session can be opened
+     */
+    public static DbSession tryLease() throws WaarpDatabaseNoConnectionException {
+        DbSessionPool current = getInstance();
+        if (current == null) {
+            return new DbSession(DbConstant.admin, false);
+        }
+        return current.leaseSession(0);
+    }
+
+    /**
+     * Release one session obtained from lease: back to the pool if active, else closed
+     *
+     * @param session
+     */
+    public static void release(DbSession session) {
+        if (session == null || DbConstant.admin == null || session.equals(DbConstant.admin.getSession())) {
+            return;
+        }
+        DbSessionPool current;
+        synchronized (DbSessionPool.class) {
+            current = pool;
+        }
+        if (current == null) {
+            session.forceDisconnect();
+            return;
+        }
+        current.releaseSession(session);
+    }
+
+    /**
+     * Close all free sessions of the pool, leased ones being closed when released
+     */
+    public static void stop() {
+        DbSessionPool current;
+        synchronized (DbSessionPool.class) {
+            current = pool;
+            pool = null;
+        }
+        if (current != null) {
+            logger.info("DbSessionPool closed: " + current.toString());
+            current.close();
+        }
+    }
+
+    private DbSession leaseSession(long maxWait) {
+        nbLeased.incrementAndGet();
+        long limit = System.currentTimeMillis() + maxWait;
+        boolean waited = false;
+        while (true) {
+            DbSession session = null;
+            boolean create = false;
+            synchronized (this) {
+                while (!closed && idle.isEmpty() && size >= maxSize) {
+                    long wait = limit - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    if (!waited) {
+                        waited = true;
+                        nbWaited.incrementAndGet();
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (closed) {
+                    return DbConstant.admin.getSession();
+                }
+                session = idle.poll();
+                if (session == null) {
+                    if (size >= maxSize) {
+                        nbTimeout.incrementAndGet();
+                        if (!exhausted) {
+                            exhausted = true;
+                            logger.warn("No free database session in the pool, use default database connection: "
+                                    + toString());
+                        } else {
+                            logger.debug("No free database session in the pool, use default database connection");
+                        }
+                        return DbConstant.admin.getSession();
+                    }
+                    size++;
+                    create = true;
+                }
+            }
+            if (create) {
+                try {
+                    session = new DbSession(DbConstant.admin, false);
+                    // kept in use by the pool until closed
+                    session.useConnection();
+                    nbCreated.incrementAndGet();
+                    return session;
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    removeSession(null);
+                    logger.warn("Use default database connection: " + e.getMessage());
+                    return DbConstant.admin.getSession();
+                }
+            }
+            if (isValid(session)) {
+                return session;
+            }
+            nbInvalid.incrementAndGet();
+            removeSession(session);
+        }
+    }
+
+    private boolean isValid(DbSession session) {
+        try {
+            DbConstant.admin.getDbModel().validConnection(session);
+            return true;
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.debug("Invalid pooled database session", e);
+            return false;
+        }
+    }
+
+    private void releaseSession(DbSession session) {
+        synchronized (this) {
+            if (!closed) {
+                idle.push(session);
+                if (exhausted) {
+                    exhausted = false;
+                    logger.info("Free database session back in the pool: " + toString());
+                }
+                notify();
+                return;
+            }
+        }
+        removeSession(session);
+    }
+
+    private void removeSession(DbSession session) {
+        if (session != null) {
+            session.forceDisconnect();
+        }
+        synchronized (this) {
+            size--;
+            notify();
+        }
+    }
+
+    private void close() {
+        DbSession[] sessions;
+        synchronized (this) {
+            closed = true;
+            sessions = idle.toArray(new DbSession[idle.size()]);
+            idle.clear();
+            notifyAll();
+        }
+        for (DbSession session : sessions) {
+            removeSession(session);
+        }
+    }
+
+    /**
+     * @return the current number of opened sessions of the pool
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the current number of free sessions of the pool
+     */
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of leases so far
+     */
+    public long getNbLeased() {
+        return nbLeased.get();
+    }
+
+    /**
+     * @return the number of sessions opened so far
+     */
+    public long getNbCreated() {
+        return nbCreated.get();
+    }
+
+    /**
+     * @return the number of free sessions found invalid and replaced so far
+     */
+    public long getNbInvalid() {
+        return nbInvalid.get();
+    }
+
+    /**
+     * @return the number of leases that had to wait for a free session so far
+     */
+    public long getNbWaited() {
+        return nbWaited.get();
+    }
+
+    /**
+     * @return the number of leases that got the default session (pool exhausted) so far
+     */
+    public long getNbTimeout() {
+        return nbTimeout.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DbSessionPool: [size: " + getSize() + "/" + maxSize + " idle: " + getIdle() + " leased: "
+                + getNbLeased() + " created: " + getNbCreated() + " invalid: " + getNbInvalid() + " waited: "
+                + getNbWaited() + " timeout: " + getNbTimeout() + "]";
+    }
+}
@@ -47,6 +47,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.t3c.anchel.openr66.configuration.RuleFileBasedConfiguration;
 import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.TaskPlan;
+import com.t3c.anchel.openr66.context.task.TaskTemplate;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner.TASKSTEP;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolBusinessException;
@@ -277,6 +279,22 @@ public class DbRule extends AbstractDbData {
     private int updatedInfo = UpdatedInfo.UNKNOWN
             .ordinal();
 
+    /**
+     * Maximum number of compiled task arguments kept by rule
+     */
+    private static final int MAX_TASK_TEMPLATES = 256;
+
+    /**
+     * The compiled task arguments, shared by the copies of this rule, renewed on each read of the
+     * rule from the database
+     */
+    private ConcurrentHashMap<String, TaskTemplate> taskTemplates = new ConcurrentHashMap<String, TaskTemplate>();
+
+    /**
+     * The resolved tasks, in the order rpre, rpost, rerror, spre, spost, serror
+     */
+    private TaskPlan[] taskPlans = new TaskPlan[6];
+
     // ALL TABLE SHOULD IMPLEMENT THIS
     public static final int NBPRKEY = 1;
 
@@ -488,6 +506,9 @@ public class DbRule extends AbstractDbData {
         setSpreTasksArray(getTasksRule(spreTasks));
         setSpostTasksArray(getTasksRule(spostTasks));
         setSerrorTasksArray(getTasksRule(serrorTasks));
+        // the copies made before keep the previous ones
+        taskTemplates = new ConcurrentHashMap<String, TaskTemplate>();
+        initTaskPlans();
         checkPath();
     }
 
@@ -524,6 +545,8 @@ public class DbRule extends AbstractDbData {
         setSpreTasksArray(source.getSpreTasksArray());
         setSpostTasksArray(source.getSpostTasksArray());
         setSerrorTasksArray(source.getSerrorTasksArray());
+        taskTemplates = source.taskTemplates;
+        taskPlans = source.taskPlans.clone();
         checkPath();
     }
 
@@ -1510,6 +1533,68 @@ public class DbRule extends AbstractDbData {
         return serrorTasksArray;
     }
 
+    /**
+     * Resolve the tasks of this rule (done when the rule is loaded or updated from the database,
+     * as by the Commander)
+     */
+    private void initTaskPlans() {
+        for (String[][] tasks : getAllTasksArrays()) {
+            if (tasks != null) {
+                getTaskPlan(tasks);
+            }
+        }
+    }
+
+    private String[][][] getAllTasksArrays() {
+        return new String[][][] {
+                rpreTasksArray, rpostTasksArray, rerrorTasksArray,
+                spreTasksArray, spostTasksArray, serrorTasksArray };
+    }
+
+    /**
+     * 
+     * @param tasks
+     *            one of the tasks arrays of this rule
+     * @return the resolved tasks, resolved again only if the tasks of the rule changed
+     */
+    public TaskPlan getTaskPlan(String[][] tasks) {
+        String[][][] tasksArrays = getAllTasksArrays();
+        for (int i = 0; i < tasksArrays.length; i++) {
+            if (tasksArrays[i] == tasks) {
+                TaskPlan plan = taskPlans[i];
+                if (plan == null || plan.getTasks() != tasks) {
+                    plan = new TaskPlan(tasks, this);
+                    taskPlans[i] = plan;
+                }
+                return plan;
+            }
+        }
+        return new TaskPlan(tasks, this);
+    }
+
+    /**
+     * 
+     * @param arg
+     *            the argument of one task
+     * @return the compiled argument, compiled once for this rule (all of them being compiled again
+     *         when the maximum number is reached)
+     */
+    public TaskTemplate getTaskTemplate(String arg) {
+        ConcurrentHashMap<String, TaskTemplate> templates = taskTemplates;
+        TaskTemplate template = templates.get(arg);
+        if (template == null) {
+            template = new TaskTemplate(arg);
+            if (templates.size() >= MAX_TASK_TEMPLATES) {
+                templates.clear();
+            }
+            TaskTemplate previous = templates.putIfAbsent(arg, template);
+            if (previous != null) {
+                template = previous;
+            }
+        }
+        return template;
+    }
+
     /**
      * @param serrorTasksArray the serrorTasksArray to set
      */
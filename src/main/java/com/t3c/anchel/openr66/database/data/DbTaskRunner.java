@@ -23,9 +23,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -65,11 +67,15 @@ import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.context.R66Session;
 import com.t3c.anchel.openr66.context.filesystem.R66Dir;
 import com.t3c.anchel.openr66.context.filesystem.R66File;
+import com.t3c.anchel.openr66.context.filesystem.R66Manifest;
+import com.t3c.anchel.openr66.context.filesystem.R66Stripe;
 import com.t3c.anchel.openr66.context.task.AbstractTask;
 import com.t3c.anchel.openr66.context.task.TaskType;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerEndTasksException;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
 import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.DbSessionPool;
+import com.t3c.anchel.openr66.database.model.DbModelRunnerClaim;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.configuration.PartnerConfiguration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolBusinessException;
@@ -78,13 +84,14 @@ import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalTransaction;
+import com.t3c.anchel.openr66.protocol.localhandler.TransferStatistics;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.ErrorPacket;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
 import com.t3c.anchel.openr66.protocol.utils.NbAndSpecialId;
 import com.t3c.anchel.openr66.protocol.utils.R66Future;
-import com.t3c.anchel.storageregistration.Implements.StorageAwsImpl;
+import com.t3c.anchel.openr66.protocol.utils.StorageOffload;
 
 /**
  * Task Runner from pre operation to transfer to post operation, except in case
@@ -100,6 +107,8 @@ public class DbTaskRunner extends AbstractDbData {
 
 	public static final String JSON_RESCHEDULE = "RESCHEDULE";
 
+	public static final String JSON_STRIPE = "STRIPE";
+
 	/**
 	 * Internal Logger
 	 */
@@ -177,6 +186,18 @@ public class DbTaskRunner extends AbstractDbData {
 
 	private R66Session session;
 	volatile DbPreparedStatement preparedStatementUpdate = null;
+	volatile DbPreparedStatement preparedStatementUpdateProgress = null;
+	volatile DbPreparedStatement preparedStatementUpdateStatus = null;
+
+	/**
+	 * Values of otherFields as last saved in database, null if unknown (next update will be full)
+	 */
+	private Object[] savedValues = null;
+
+	/**
+	 * Stripe of a striped transfer, null if not striped
+	 */
+	private R66Stripe stripe = null;
 
 	/**
 	 * Last step
@@ -273,6 +294,32 @@ public class DbTaskRunner extends AbstractDbData {
 
 	protected static final String insertAllValues = " (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) ";
 
+	/**
+	 * Columns changed while a block is transferred
+	 */
+	protected static final Columns[] progressColumns = { Columns.RANK, Columns.STOPTRANS };
+
+	/**
+	 * Columns changed by a step or status change
+	 */
+	protected static final Columns[] statusColumns = { Columns.GLOBALSTEP, Columns.GLOBALLASTSTEP, Columns.STEP,
+			Columns.RANK, Columns.STEPSTATUS, Columns.STOPTRANS, Columns.INFOSTATUS, Columns.UPDATEDINFO };
+
+	protected static final String updateProgressFields = getUpdateFields(progressColumns);
+
+	protected static final String updateStatusFields = getUpdateFields(statusColumns);
+
+	private static String getUpdateFields(Columns[] columns) {
+		StringBuilder builder = new StringBuilder();
+		for (Columns column : columns) {
+			if (builder.length() > 0) {
+				builder.append(',');
+			}
+			builder.append(column.name()).append("=?");
+		}
+		return builder.toString();
+	}
+
 	@Override
 	protected void initObject() {
 		primaryKey = new DbValue[] { new DbValue(ownerRequest, Columns.OWNERREQ.name()),
@@ -378,6 +425,7 @@ public class DbTaskRunner extends AbstractDbData {
 		requestedHostId = (String) allFields[Columns.REQUESTED.ordinal()].getValue();
 		specialId = (Long) allFields[Columns.SPECIALID.ordinal()].getValue();
 		originalSize = getOriginalSizeTransferMap();
+		stripe = getStripeTransferMap();
 	}
 
 	/**
@@ -472,6 +520,25 @@ public class DbTaskRunner extends AbstractDbData {
 	 */
 	public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender, RequestPacket requestPacket,
 			String requested, Timestamp startTime) throws WaarpDatabaseException {
+		this(dbSession, rule, isSender, requestPacket, requested, startTime, true);
+	}
+
+	/**
+	 * Constructor for submission (no transfer session), from database, created
+	 * only if asked (else it is to be submitted later through submitBatch)
+	 * 
+	 * @param dbSession
+	 * @param rule
+	 * @param isSender
+	 * @param requestPacket
+	 * @param requested
+	 * @param startTime
+	 * @param create
+	 *            True to create it now in database
+	 * @throws WaarpDatabaseException
+	 */
+	public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender, RequestPacket requestPacket,
+			String requested, Timestamp startTime, boolean create) throws WaarpDatabaseException {
 		super(dbSession);
 		this.session = null;
 		this.rule = rule;
@@ -487,6 +554,7 @@ public class DbTaskRunner extends AbstractDbData {
 		mode = requestPacket.getMode();
 		originalSize = requestPacket.getOriginalSize();
 		setOriginalSizeTransferMap(originalSize);
+		setStripe(R66Stripe.fromString(requestPacket.getStripe()));
 		// itself but according to SSL
 		requesterHostId = Configuration.configuration.getHostId(dbSession, requested);
 		// given one
@@ -515,7 +583,9 @@ public class DbTaskRunner extends AbstractDbData {
 			}
 		}
 		checkThroughMode();
-		create();
+		if (create) {
+			create();
+		}
 		requestPacket.setSpecialId(specialId);
 	}
 
@@ -548,6 +618,7 @@ public class DbTaskRunner extends AbstractDbData {
 		mode = requestPacket.getMode();
 		originalSize = requestPacket.getOriginalSize();
 		setOriginalSizeTransferMap(originalSize);
+		setStripe(R66Stripe.fromString(requestPacket.getStripe()));
 		requesterHostId = getRequester(session, requestPacket);
 		requestedHostId = getRequested(session, requestPacket);
 		// always itself
@@ -903,6 +974,7 @@ public class DbTaskRunner extends AbstractDbData {
 			return;
 		}
 		super.delete();
+		TransferStatistics.registry.removed(getKey());
 	}
 
 	private void addNoDb() {
@@ -958,6 +1030,8 @@ public class DbTaskRunner extends AbstractDbData {
 			setPrimaryKey();
 		}
 		super.insert();
+		setSavedValues();
+		savedStatistics(true);
 	}
 
 	/**
@@ -1177,6 +1251,8 @@ public class DbTaskRunner extends AbstractDbData {
 			return;
 		}
 		super.select();
+		setSavedValues();
+		loadedStatistics();
 		if (rule == null) {
 			try {
 				rule = new DbRule(this.dbSession, ruleId);
@@ -1243,25 +1319,154 @@ public class DbTaskRunner extends AbstractDbData {
 	}
 
 	/**
-	 * Update Runner using special PreparedStatement
+	 * 
+	 * @return the current state to count in TransferStatistics, null if not counted (not owned by
+	 *         this host)
+	 */
+	private TransferStatistics.State getStatisticsState() {
+		if (ownerRequest == null || !ownerRequest.equals(Configuration.configuration.getHOST_ID())) {
+			return null;
+		}
+		return new TransferStatistics.State(updatedInfo, globalstep, status, infostatus,
+				isLocalHostId(requestedHostId), isLocalHostId(requesterHostId),
+				start != null ? start.getTime() : System.currentTimeMillis());
+	}
+
+	private static boolean isLocalHostId(String hostId) {
+		return hostId != null && (hostId.equals(Configuration.configuration.getHOST_ID())
+				|| hostId.equals(Configuration.configuration.getHOST_SSLID()));
+	}
+
+	/**
+	 * Account the saved state in TransferStatistics
+	 * 
+	 * @param isNew
+	 *            True if just inserted
+	 */
+	private void savedStatistics(boolean isNew) {
+		TransferStatistics.registry.saved(getKey(), getStatisticsState(), isNew);
+	}
+
+	/**
+	 * Account the state just read from database in TransferStatistics
+	 */
+	private void loadedStatistics() {
+		TransferStatistics.registry.loaded(getKey(), getStatisticsState());
+	}
+
+	/**
+	 * Remember the current values of otherFields as the ones saved in database
+	 */
+	private void setSavedValues() {
+		if (savedValues == null) {
+			savedValues = new Object[otherFields.length];
+		}
+		for (int i = 0; i < otherFields.length; i++) {
+			savedValues[i] = otherFields[i].getValue();
+		}
+	}
+
+	/**
+	 * 
+	 * @param columns
+	 * @return True if only the given columns differ from the last saved values
+	 */
+	private boolean isDirtyOnly(Columns[] columns) {
+		if (savedValues == null) {
+			return false;
+		}
+		for (int i = 0; i < otherFields.length; i++) {
+			Object value = otherFields[i].getValue();
+			Object saved = savedValues[i];
+			if (value == saved || (value != null && value.equals(saved))) {
+				continue;
+			}
+			boolean allowed = false;
+			for (Columns column : columns) {
+				if (column.ordinal() == i) {
+					allowed = true;
+					break;
+				}
+			}
+			if (!allowed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param columns
+	 * @return the values (columns then primary key) to set for a partial update
+	 */
+	private DbValue[] getPartialValues(Columns[] columns) {
+		DbValue[] values = new DbValue[columns.length + primaryKey.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = allFields[columns[i].ordinal()];
+		}
+		for (int i = 0; i < primaryKey.length; i++) {
+			values[columns.length + i] = primaryKey[i];
+		}
+		return values;
+	}
+
+	/**
+	 * 
+	 * @param fields
+	 * @return a new long term PreparedStatement updating the given fields
+	 * @throws WaarpDatabaseNoConnectionException
+	 * @throws WaarpDatabaseSqlException
+	 */
+	private DbPreparedStatement createUpdatePreparedStatement(String fields)
+			throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+		DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession);
+		preparedStatement.createPrepareStatement(
+				"UPDATE " + getTable() + " SET " + fields + " WHERE " + getWherePrimaryKey());
+		dbSession.addLongTermPreparedStatement(preparedStatement);
+		return preparedStatement;
+	}
+
+	/**
+	 * Update Runner using special PreparedStatement: only the progress columns or the status
+	 * columns are written when nothing else changed since last save, else all columns
 	 * 
 	 * @throws WaarpDatabaseException
 	 */
 	protected void optimizedUpdate() throws WaarpDatabaseException {
+		// full state saved now, so any pending progress is obsolete
+		DbTaskRunnerWriteBehind.discard(this);
 		setToArray();
 		// getting the preparedStatement
-		if (preparedStatementUpdate == null) {
-			preparedStatementUpdate = new DbPreparedStatement(dbSession);
-			preparedStatementUpdate.createPrepareStatement(
-					"UPDATE " + getTable() + " SET " + getUpdateAllFields() + " WHERE " + getWherePrimaryKey());
-			dbSession.addLongTermPreparedStatement(preparedStatementUpdate);
+		DbPreparedStatement preparedStatement;
+		DbValue[] values;
+		if (isDirtyOnly(progressColumns)) {
+			if (preparedStatementUpdateProgress == null) {
+				preparedStatementUpdateProgress = createUpdatePreparedStatement(updateProgressFields);
+			}
+			preparedStatement = preparedStatementUpdateProgress;
+			values = getPartialValues(progressColumns);
+		} else if (isDirtyOnly(statusColumns)) {
+			if (preparedStatementUpdateStatus == null) {
+				preparedStatementUpdateStatus = createUpdatePreparedStatement(updateStatusFields);
+			}
+			preparedStatement = preparedStatementUpdateStatus;
+			values = getPartialValues(statusColumns);
+		} else {
+			if (preparedStatementUpdate == null) {
+				preparedStatementUpdate = createUpdatePreparedStatement(getUpdateAllFields());
+			}
+			preparedStatement = preparedStatementUpdate;
+			values = allFields;
 		}
 		try {
-			setValues(preparedStatementUpdate, allFields);
-			int count = preparedStatementUpdate.executeUpdate();
+			setValues(preparedStatement, values);
+			int count = preparedStatement.executeUpdate();
 			if (count <= 0) {
 				throw new WaarpDatabaseNoDataException("No row found");
 			}
+			setSavedValues();
+			savedStatistics(false);
 			isSaved = true;
 		} finally {
 			// preparedStatement.realClose();
@@ -1269,11 +1474,19 @@ public class DbTaskRunner extends AbstractDbData {
 	}
 
 	public void clean() {
-		if (dbSession != null && preparedStatementUpdate != null) {
-			dbSession.removeLongTermPreparedStatements(preparedStatementUpdate);
-			preparedStatementUpdate.realClose();
-			preparedStatementUpdate = null;
+		if (dbSession != null) {
+			preparedStatementUpdate = cleanPreparedStatement(preparedStatementUpdate);
+			preparedStatementUpdateProgress = cleanPreparedStatement(preparedStatementUpdateProgress);
+			preparedStatementUpdateStatus = cleanPreparedStatement(preparedStatementUpdateStatus);
+		}
+	}
+
+	private DbPreparedStatement cleanPreparedStatement(DbPreparedStatement preparedStatement) {
+		if (preparedStatement != null) {
+			dbSession.removeLongTermPreparedStatements(preparedStatement);
+			preparedStatement.realClose();
 		}
+		return null;
 	}
 
 	/**
@@ -1298,6 +1511,126 @@ public class DbTaskRunner extends AbstractDbData {
 		return false;
 	}
 
+	/**
+	 * Submit new Runners built without creation: the ones saved in database are
+	 * inserted directly as TOSUBMIT in one batch and one transaction, using a
+	 * dedicated session (leased from DbSessionPool), the others (and all of
+	 * them if the batch fails or no dedicated session is available) as for a
+	 * single submission (create, TOSUBMIT then forced save or special submit).
+	 * 
+	 * @param dbSession
+	 * @param runners
+	 * @return the submitted Runners
+	 */
+	public static List<DbTaskRunner> submitBatch(DbSession dbSession, List<DbTaskRunner> runners) {
+		List<DbTaskRunner> submitted = new ArrayList<DbTaskRunner>(runners.size());
+		List<DbTaskRunner> batch = new ArrayList<DbTaskRunner>(runners.size());
+		List<DbTaskRunner> single = new ArrayList<DbTaskRunner>();
+		for (DbTaskRunner runner : runners) {
+			if (dbSession != null && runner.dbSession != null && !runner.isSaved && !runner.shallIgnoreSave()) {
+				batch.add(runner);
+			} else {
+				single.add(runner);
+			}
+		}
+		if (!batch.isEmpty()) {
+			DbSession batchSession = null;
+			try {
+				batchSession = DbSessionPool.lease();
+			} catch (WaarpDatabaseNoConnectionException e) {
+				logger.warn("Cannot submit Runners in batch, so one by one: " + e.getMessage());
+			}
+			if (batchSession == null || batchSession.equals(DbConstant.admin.getSession())) {
+				// never change the transaction mode of the shared session
+				single.addAll(batch);
+			} else {
+				try {
+					insertBatch(batchSession, batch);
+					submitted.addAll(batch);
+				} catch (WaarpDatabaseException e) {
+					logger.warn("Cannot submit Runners in batch, so one by one: " + e.getMessage());
+					single.addAll(batch);
+				} finally {
+					DbSessionPool.release(batchSession);
+				}
+			}
+		}
+		for (DbTaskRunner runner : single) {
+			try {
+				runner.create();
+				runner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+				if (runner.forceSaveStatus() || runner.specialSubmit()) {
+					submitted.add(runner);
+				} else {
+					logger.warn("Cannot submit Runner: " + runner.toShortString());
+				}
+			} catch (WaarpDatabaseException e) {
+				logger.warn("Cannot submit Runner: " + runner.toShortString() + " : " + e.getMessage());
+			}
+		}
+		return submitted;
+	}
+
+	/**
+	 * Insert the Runners as TOSUBMIT in one batch and one transaction, with new
+	 * specialIds (still one from the sequence for each Runner)
+	 * 
+	 * @param dbSession
+	 *            dedicated session, its auto commit being disabled during the
+	 *            batch
+	 * @param runners
+	 * @throws WaarpDatabaseException
+	 *             if the batch failed (so nothing is inserted)
+	 */
+	private static void insertBatch(DbSession dbSession, List<DbTaskRunner> runners)
+			throws WaarpDatabaseException {
+		for (DbTaskRunner runner : runners) {
+			if (runner.specialId == DbConstant.ILLEGALVALUE) {
+				runner.specialId = dbSession.getAdmin().getDbModel().nextSequence(dbSession);
+				runner.setPrimaryKey();
+			}
+			runner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+			runner.setToArray();
+		}
+		boolean committed = false;
+		try {
+			dbSession.getConn().setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new WaarpDatabaseSqlException("Cannot start transaction", e);
+		}
+		try {
+			DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession,
+					"INSERT INTO " + table + " (" + selectAllFields + ") VALUES " + insertAllValues);
+			try {
+				for (DbTaskRunner runner : runners) {
+					runner.setValues(preparedStatement, runner.allFields);
+					preparedStatement.getPreparedStatement().addBatch();
+				}
+				preparedStatement.getPreparedStatement().executeBatch();
+			} finally {
+				preparedStatement.realClose();
+			}
+			dbSession.getConn().commit();
+			committed = true;
+		} catch (SQLException e) {
+			throw new WaarpDatabaseSqlException("Cannot insert Runners", e);
+		} finally {
+			try {
+				if (!committed) {
+					dbSession.getConn().rollback();
+				}
+				dbSession.getConn().setAutoCommit(true);
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+		for (DbTaskRunner runner : runners) {
+			runner.isSaved = true;
+			runner.setSavedValues();
+			runner.savedStatistics(true);
+		}
+	}
+
 	/**
 	 * Partial set from another runner (infostatus, rank, status, step, stop,
 	 * filename, globallastep, globalstep, isFileMoved)
@@ -1366,6 +1699,8 @@ public class DbTaskRunner extends AbstractDbData {
 		DbTaskRunner dbTaskRunner = new DbTaskRunner(preparedStatement.getDbSession());
 		dbTaskRunner.getValues(preparedStatement, dbTaskRunner.allFields);
 		dbTaskRunner.setFromArray();
+		dbTaskRunner.setSavedValues();
+		dbTaskRunner.loadedStatistics();
 		if (dbTaskRunner.rule == null) {
 			try {
 				dbTaskRunner.rule = new DbRule(dbTaskRunner.dbSession, dbTaskRunner.ruleId);
@@ -1392,6 +1727,8 @@ public class DbTaskRunner extends AbstractDbData {
 		DbTaskRunner dbTaskRunner = new DbTaskRunner(preparedStatement.getDbSession());
 		dbTaskRunner.getValues(preparedStatement, dbTaskRunner.allFields);
 		dbTaskRunner.setFromArray();
+		dbTaskRunner.setSavedValues();
+		dbTaskRunner.loadedStatistics();
 		if (dbTaskRunner.rule == null) {
 			try {
 				dbTaskRunner.rule = new DbRule(dbTaskRunner.dbSession, dbTaskRunner.ruleId);
@@ -1738,6 +2075,264 @@ public class DbTaskRunner extends AbstractDbData {
 		return pstt;
 	}
 
+	/**
+	 * Claim up to limit Runners to submit (TOSUBMIT and start time reached) owned by this host,
+	 * changing them to RUNNING in one database round, if the Database Model supports it
+	 * 
+	 * @param session
+	 *            a session dedicated to the caller (its autocommit mode could be changed)
+	 * @param limit
+	 * @return the claimed Runners (already RUNNING in the database), or null if the Database
+	 *         Model does not support bulk claim
+	 * @throws WaarpDatabaseNoConnectionException
+	 * @throws WaarpDatabaseSqlException
+	 */
+	public static List<DbTaskRunner> claimToSubmit(DbSession session, int limit)
+			throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+		if (!(session.getAdmin().getDbModel() instanceof DbModelRunnerClaim)) {
+			return null;
+		}
+		return ((DbModelRunnerClaim) session.getAdmin().getDbModel()).claimTaskRunners(session, limit);
+	}
+
+	/**
+	 * Claim this Runner found as TOSUBMIT, changing it to RUNNING in the database only if it is
+	 * still TOSUBMIT there, so that neither a stale copy nor another server sharing the database
+	 * can launch it once more
+	 * 
+	 * @return True if claimed by this call (now RUNNING)
+	 * @throws WaarpDatabaseException
+	 */
+	public boolean claimToRun() throws WaarpDatabaseException {
+		if (dbSession == null || dbSession.isDisActive()) {
+			changeUpdatedInfo(UpdatedInfo.RUNNING);
+			return forceSaveStatus();
+		}
+		setPrimaryKey();
+		DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession, "UPDATE " + table + " SET "
+				+ Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.RUNNING.ordinal() + " WHERE "
+				+ getWherePrimaryKey() + " AND " + Columns.UPDATEDINFO.name() + " = "
+				+ UpdatedInfo.TOSUBMIT.ordinal());
+		try {
+			setValues(preparedStatement, primaryKey);
+			if (preparedStatement.executeUpdate() != 1) {
+				logger.debug("Runner already claimed: {}", this);
+				return false;
+			}
+		} finally {
+			preparedStatement.realClose();
+		}
+		// the other columns and the statistics as for any change of status
+		changeUpdatedInfo(UpdatedInfo.RUNNING);
+		forceSaveStatus();
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param session
+	 * @param major
+	 * @param minor
+	 * @return True if the version of the database of this session is at least major.minor
+	 */
+	public static boolean isDatabaseVersionAtLeast(DbSession session, int major, int minor) {
+		try {
+			DatabaseMetaData metaData = session.getConn().getMetaData();
+			int dbMajor = metaData.getDatabaseMajorVersion();
+			return dbMajor > major || (dbMajor == major && metaData.getDatabaseMinorVersion() >= minor);
+		} catch (SQLException e) {
+			logger.warn("Cannot get the version of the database: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the where condition (with start time as first argument) of Runners to claim
+	 */
+	public static String getClaimWhereCondition() {
+		return Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.TOSUBMIT.ordinal() + " AND "
+				+ Columns.STARTTRANS.name() + " <= ? AND " + getLimitWhereCondition();
+	}
+
+	/**
+	 * 
+	 * @return the request selecting all fields of Runners to claim, without limit nor lock
+	 */
+	public static String getClaimSelectRequest() {
+		return "SELECT " + selectAllFields + " FROM " + table + " WHERE " + getClaimWhereCondition();
+	}
+
+	/**
+	 * 
+	 * @return the fields list for a RETURNING clause or equivalent
+	 */
+	public static String getAllFieldsList() {
+		return selectAllFields;
+	}
+
+	/**
+	 * Claim Runners using a request that already changed them to RUNNING and returns all fields
+	 * (as UPDATE ... RETURNING). Claimed Runners whose rule cannot be found are changed to
+	 * INERROR, not left RUNNING.
+	 * 
+	 * @param session
+	 * @param request
+	 *            with start time as first argument
+	 * @return the claimed Runners
+	 * @throws WaarpDatabaseNoConnectionException
+	 * @throws WaarpDatabaseSqlException
+	 */
+	public static List<DbTaskRunner> claimFromUpdateReturning(DbSession session, String request)
+			throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+		List<DbTaskRunner> list = new ArrayList<DbTaskRunner>();
+		List<DbTaskRunner> unresolved = new ArrayList<DbTaskRunner>();
+		DbPreparedStatement preparedStatement = new DbPreparedStatement(session, request);
+		try {
+			finishSelectOrCountPrepareStatement(preparedStatement);
+			preparedStatement.executeQuery();
+			while (preparedStatement.getNext()) {
+				DbTaskRunner runner = getClaimedFromStatement(preparedStatement, unresolved);
+				if (runner != null) {
+					list.add(runner);
+				}
+			}
+		} finally {
+			preparedStatement.realClose();
+		}
+		try {
+			updateClaimed(session, unresolved, UpdatedInfo.INERROR);
+		} catch (SQLException e) {
+			logger.error("Cannot set in error Runners without rule: " + unresolved.size(), e);
+		}
+		return list;
+	}
+
+	/**
+	 * Claim Runners using a locking select (as SELECT ... FOR UPDATE SKIP LOCKED) followed by one
+	 * batch update to RUNNING, both in one transaction. Runners whose rule cannot be found are
+	 * changed to INERROR in the same transaction.
+	 * 
+	 * @param session
+	 * @param request
+	 *            with start time as first argument
+	 * @param limit
+	 *            maximum number of rows read (and so locked) from the cursor, for databases where
+	 *            the limit cannot be set in the locking request itself
+	 * @return the claimed Runners
+	 * @throws WaarpDatabaseNoConnectionException
+	 * @throws WaarpDatabaseSqlException
+	 */
+	public static List<DbTaskRunner> claimFromLockingSelect(DbSession session, String request, int limit)
+			throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+		List<DbTaskRunner> list = new ArrayList<DbTaskRunner>();
+		List<DbTaskRunner> unresolved = new ArrayList<DbTaskRunner>();
+		boolean committed = false;
+		try {
+			session.getConn().setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new WaarpDatabaseSqlException("Cannot start transaction", e);
+		}
+		try {
+			DbPreparedStatement preparedStatement = new DbPreparedStatement(session, request);
+			try {
+				finishSelectOrCountPrepareStatement(preparedStatement);
+				preparedStatement.getPreparedStatement().setFetchSize(limit);
+				preparedStatement.executeQuery();
+				int read = 0;
+				while (read < limit && preparedStatement.getNext()) {
+					read++;
+					DbTaskRunner runner = getClaimedFromStatement(preparedStatement, unresolved);
+					if (runner != null) {
+						list.add(runner);
+					}
+				}
+			} finally {
+				preparedStatement.realClose();
+			}
+			updateClaimed(session, list, UpdatedInfo.RUNNING);
+			updateClaimed(session, unresolved, UpdatedInfo.INERROR);
+			session.getConn().commit();
+			committed = true;
+		} catch (SQLException e) {
+			throw new WaarpDatabaseSqlException("Cannot claim Runners", e);
+		} finally {
+			try {
+				if (!committed) {
+					session.getConn().rollback();
+					list.clear();
+				}
+				session.getConn().setAutoCommit(true);
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Batch update of the UpdatedInfo of claimed Runners
+	 * 
+	 * @param session
+	 * @param runners
+	 * @param info
+	 * @throws WaarpDatabaseNoConnectionException
+	 * @throws WaarpDatabaseSqlException
+	 * @throws SQLException
+	 */
+	private static void updateClaimed(DbSession session, List<DbTaskRunner> runners, UpdatedInfo info)
+			throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException, SQLException {
+		if (runners.isEmpty()) {
+			return;
+		}
+		DbPreparedStatement preparedStatement = new DbPreparedStatement(session, "UPDATE " + table + " SET "
+				+ Columns.UPDATEDINFO.name() + " = " + info.ordinal() + " WHERE "
+				+ runners.get(0).getWherePrimaryKey());
+		try {
+			for (DbTaskRunner runner : runners) {
+				runner.setPrimaryKey();
+				runner.setValues(preparedStatement, runner.primaryKey);
+				preparedStatement.getPreparedStatement().addBatch();
+			}
+			preparedStatement.getPreparedStatement().executeBatch();
+		} finally {
+			preparedStatement.realClose();
+		}
+	}
+
+	/**
+	 * The claimed Runner is attached to the admin session, not to the claiming one
+	 * 
+	 * @param unresolved
+	 *            where the Runners whose rule cannot be found are added
+	 * @return the claimed Runner or null if its rule cannot be found
+	 */
+	private static DbTaskRunner getClaimedFromStatement(DbPreparedStatement preparedStatement,
+			List<DbTaskRunner> unresolved) throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+		DbTaskRunner runner = new DbTaskRunner(DbConstant.admin.getSession());
+		runner.getValues(preparedStatement, runner.allFields);
+		runner.setFromArray();
+		try {
+			runner.rule = new DbRule(runner.dbSession, runner.ruleId);
+		} catch (WaarpDatabaseNoDataException e) {
+			logger.warn("DbTaskRunner cannot be loaded, so set in error: " + e.getMessage());
+			unresolved.add(runner);
+			return null;
+		} catch (WaarpDatabaseException e) {
+			throw new WaarpDatabaseSqlException("Rule cannot be found for DbTaskRunner: " + runner.asJson(), e);
+		}
+		runner.checkThroughMode();
+		// claimed from TOSUBMIT (the row read could already be RUNNING)
+		runner.updatedInfo = UpdatedInfo.TOSUBMIT.ordinal();
+		runner.loadedStatistics();
+		runner.updatedInfo = UpdatedInfo.RUNNING.ordinal();
+		runner.allFields[Columns.UPDATEDINFO.ordinal()].setValue(runner.updatedInfo);
+		runner.setSavedValues();
+		runner.savedStatistics(false);
+		runner.isSaved = true;
+		return runner;
+	}
+
 	/**
 	 * 
 	 * @param session
@@ -2563,6 +3158,18 @@ public class DbTaskRunner extends AbstractDbData {
 		setTransferMap(map);
 	}
 
+	/**
+	 * 
+	 * @return the stripe set in TransferMap, null if none
+	 */
+	private R66Stripe getStripeTransferMap() {
+		Object value = getTransferMap().get(JSON_STRIPE);
+		if (value == null) {
+			return null;
+		}
+		return R66Stripe.fromString(value.toString());
+	}
+
 	/**
 	 * 
 	 * @return the size set in TransferMap
@@ -2888,7 +3495,13 @@ public class DbTaskRunner extends AbstractDbData {
 		if (tasks.length <= step) {
 			throw new OpenR66RunnerEndTasksException();
 		}
-		AbstractTask task = getTask(tasks[step], tempSession);
+		AbstractTask task;
+		try {
+			task = this.rule.getTaskPlan(tasks).newTask(step, tempSession);
+		} catch (OpenR66RunnerErrorException e) {
+			logger.warn(e.getMessage() + ": " + this.toShortString());
+			throw e;
+		}
 		logger.debug(this.toLogRunStep() + " Task: " + task.getClass().getName());
 		task.run();
 		try {
@@ -3070,6 +3683,10 @@ public class DbTaskRunner extends AbstractDbData {
 			this.session = localChannelReference.getSession();
 		}
 		if (status) {
+			// file to upload once the transfer is checked and its post tasks done
+			String amazonUpload = null;
+			// file deleted by the upload itself once done
+			String uploadedFile = null;
 			// First move the file
 			if (this.isSender()) {
 				// Nothing to do since it is the original file
@@ -3083,6 +3700,75 @@ public class DbTaskRunner extends AbstractDbData {
 				this.saveStatus();
 				// in case of error
 				R66Result error = new R66Result(this.session, finalValue.isAnswered(), ErrorCode.FinalOp, this);
+				File stripeFile = null;
+				if (stripe != null && !isRecvThrough() && poststep == 0) {
+					boolean allReceived;
+					try {
+						stripeFile = file.getTrueFile();
+						allReceived = stripe.received(stripeFile);
+					} catch (IOException e) {
+						OpenR66RunnerErrorException e1 = new OpenR66RunnerErrorException(
+								"Cannot record the received stripe: " + stripe, e);
+						R66Result result = new R66Result(e1, session, false, ErrorCode.FinalOp, this);
+						result.setFile(file);
+						result.setRunner(this);
+						if (localChannelReference != null) {
+							localChannelReference.invalidateRequest(result);
+						}
+						errorTransfer(error, file, localChannelReference);
+						throw e1;
+					}
+					if (!allReceived) {
+						// Other stripes still running: the last one will move the file and run post tasks
+						logger.info("Stripe {} received for {}", stripe, file);
+						this.setAllDone();
+						this.saveStatus();
+						if (localChannelReference != null) {
+							localChannelReference.validateEndTransfer(finalValue);
+						}
+						return;
+					}
+					// Last stripe: the whole file must be there
+					long length = -1;
+					try {
+						length = file.length();
+					} catch (CommandAbstractException e) {
+					}
+					if (originalSize >= 0 && length != originalSize) {
+						OpenR66RunnerErrorException e = new OpenR66RunnerErrorException(
+								"Bad final size on striped receive operation: " + length + " vs " + originalSize);
+						R66Result result = new R66Result(e, session, false, ErrorCode.FinalOp, this);
+						result.setFile(file);
+						result.setRunner(this);
+						if (localChannelReference != null) {
+							localChannelReference.invalidateRequest(result);
+						}
+						errorTransfer(error, file, localChannelReference);
+						throw e;
+					}
+					if (stripe.getHash() != null) {
+						// whole file hash given by the sender, since each stripe only checks its blocks
+						String hash = null;
+						try {
+							hash = FilesystemBasedDigest.getHex(FilesystemBasedDigest.getHash(stripeFile, true,
+									stripe.getAlgo()));
+						} catch (IOException e) {
+							logger.warn("Cannot compute the hash of the striped file: " + e.getMessage());
+						}
+						if (!stripe.getHash().equalsIgnoreCase(hash)) {
+							OpenR66RunnerErrorException e = new OpenR66RunnerErrorException(
+									"Bad final digest on striped receive operation");
+							R66Result result = new R66Result(e, session, false, ErrorCode.FinalOp, this);
+							result.setFile(file);
+							result.setRunner(this);
+							if (localChannelReference != null) {
+								localChannelReference.invalidateRequest(result);
+							}
+							errorTransfer(error, file, localChannelReference);
+							throw e;
+						}
+					}
+				}
 				if (!isRecvThrough()) {
 					if (this.globalstep == TASKSTEP.TRANSFERTASK.ordinal()
 							|| (this.globalstep == TASKSTEP.POSTTASK.ordinal() && poststep == 0)) {
@@ -3123,14 +3809,16 @@ public class DbTaskRunner extends AbstractDbData {
 							throw (OpenR66RunnerErrorException) result.getException();
 						}
 						logger.debug("File finally moved: {}", file);
+						if (stripeFile != null) {
+							R66Stripe.clearReceived(stripeFile);
+						}
 
 						// TODO Integration to s3
 
 						String amazonFile = Configuration.configuration.getBaseDirectory() + "/in/"
 								+ file.getBasename();
 						if (new File(amazonFile).exists() && mode == 1) {
-							logger.debug("File is uploading into s3 :" +amazonFile );
-							new StorageAwsImpl().sendFile(amazonFile);
+							amazonUpload = amazonFile;
 						}
 						try {
 							this.setFilename(file.getFile());
@@ -3141,6 +3829,40 @@ public class DbTaskRunner extends AbstractDbData {
 						if (localChannelReference.isPartialHash()) {
 							hash = null; // ignore
 						}
+						R66Manifest manifest = session != null ? session.getManifest() : null;
+						int recheck = Configuration.configuration.getDigestRecheck();
+						if (recheck == 0) {
+							// digest computed while receiving the same data is kept as is
+							hash = null;
+						} else if (recheck == 2 && manifest != null) {
+							// parallel check of each block, even after a restart
+							hash = null;
+							try {
+								if (!manifest.check(file.getTrueFile(), getRank(), getBlocksize())) {
+									R66Result result = new R66Result(
+											new OpenR66RunnerErrorException("Bad final digest on receive operation"),
+											session, false, ErrorCode.FinalOp, this);
+									result.setFile(file);
+									result.setRunner(this);
+									if (localChannelReference != null) {
+										localChannelReference.invalidateRequest(result);
+									}
+									errorTransfer(error, file, localChannelReference);
+									throw (OpenR66RunnerErrorException) result.getException();
+								}
+							} catch (IOException e) {
+								R66Result result = new R66Result(
+										new OpenR66RunnerErrorException("Bad final digest on receive operation", e),
+										session, false, ErrorCode.FinalOp, this);
+								result.setFile(file);
+								result.setRunner(this);
+								if (localChannelReference != null) {
+									localChannelReference.invalidateRequest(result);
+								}
+								errorTransfer(error, file, localChannelReference);
+								throw (OpenR66RunnerErrorException) result.getException();
+							}
+						}
 						if (hash != null) {
 							// we can compute it once more
 							try {
@@ -3219,11 +3941,20 @@ public class DbTaskRunner extends AbstractDbData {
 
 			logger.info("Transfer done on {} at RANK {}", file != null ? file : "no file", rank);
 
+			if (amazonUpload != null) {
+				logger.debug("File is uploading into s3 :" + amazonUpload);
+				// a gateway file is deleted only once uploaded, not below
+				boolean gateway = amazonUpload.contains("T0");
+				StorageOffload.upload(amazonUpload, gateway);
+				if (gateway) {
+					uploadedFile = new File(amazonUpload).getAbsolutePath();
+				}
+			}
 			// TODO Daleting gateway file
 			try {
 				String gatewayfile = file.getFile();
 				boolean result = gatewayfile.contains("T0");
-				if (result == true && mode == 1) {
+				if (result == true && mode == 1 && !new File(gatewayfile).getAbsolutePath().equals(uploadedFile)) {
 					new File(gatewayfile).delete();
 				}
 				boolean result1 = gatewayfile.contains("out");
@@ -3350,6 +4081,13 @@ public class DbTaskRunner extends AbstractDbData {
 			modulo = 100; // Bug in JDBC MariaDB/MySQL which tends to consume
 							// more memory
 		}
+		if (DbTaskRunnerWriteBehind.isActive() && dbSession != null && !shallIgnoreSave()
+				&& (!isSelfRequest() || RequestPacket.isCompatibleMode(mode, isSender
+						? RequestPacket.TRANSFERMODE.RECVMODE.ordinal() : RequestPacket.TRANSFERMODE.SENDMODE.ordinal()))) {
+			// Progress only: saved later in batch by the write-behind queue
+			DbTaskRunnerWriteBehind.enqueue(this);
+			return;
+		}
 		if (rank % modulo == 0) {
 			// Save each 10 blocks
 			try {
@@ -3713,6 +4451,14 @@ public class DbTaskRunner extends AbstractDbData {
 		return this.requesterHostId;
 	}
 
+	/**
+	 * 
+	 * @return the owner of the request
+	 */
+	public String getOwnerRequest() {
+		return this.ownerRequest;
+	}
+
 	/**
 	 * @return the start
 	 */
@@ -3748,8 +4494,12 @@ public class DbTaskRunner extends AbstractDbData {
 		} else {
 			sep = PartnerConfiguration.getSeparator(this.requestedHostId);
 		}
-		return new RequestPacket(ruleId, mode, originalFilename, blocksize, rank, specialId, fileInformation,
-				originalSize, sep);
+		RequestPacket request = new RequestPacket(ruleId, mode, originalFilename, blocksize, rank, specialId,
+				fileInformation, originalSize, sep);
+		if (stripe != null) {
+			request.setStripe(stripe.toString());
+		}
+		return request;
 	}
 
 	/**
@@ -4353,6 +5103,31 @@ public class DbTaskRunner extends AbstractDbData {
 		}
 	}
 
+	/**
+	 * @return the stripe of this transfer, null if not a striped transfer
+	 */
+	public R66Stripe getStripe() {
+		return stripe;
+	}
+
+	/**
+	 * @param stripe
+	 *            the stripe to set, null if not a striped transfer
+	 */
+	public void setStripe(R66Stripe stripe) {
+		if (this.stripe == null && stripe == null) {
+			return;
+		}
+		this.stripe = stripe;
+		Map<String, Object> map = getTransferMap();
+		if (stripe == null) {
+			map.remove(JSON_STRIPE);
+		} else {
+			map.put(JSON_STRIPE, stripe.toString());
+		}
+		setTransferMap(map);
+	}
+
 	/**
 	 * @return the originalSize
 	 */
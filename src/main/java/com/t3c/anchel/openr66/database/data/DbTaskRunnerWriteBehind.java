@@ -0,0 +1,235 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.database.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner.Columns;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+
+/**
+ * Write-behind queue for the progress (rank) of running transfers.<br>
+ * <br>
+ * Instead of one UPDATE on RUNNER every few blocks from the transfer thread, the latest rank of
+ * each runner is kept in memory (one entry per runner, newer ranks replacing older ones) and a
+ * background task writes all pending entries in one JDBC batch at a fixed interval.<br>
+ * Only RANK and STOPTRANS are written from here, and only forward (RANK < new value), so a late
+ * batch can never override a status change saved synchronously through DbTaskRunner.update().
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DbTaskRunnerWriteBehind {
+	private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(DbTaskRunnerWriteBehind.class);
+
+	private static final String updateProgress = "UPDATE " + DbTaskRunner.table + " SET " + Columns.RANK.name()
+			+ " = ?, " + Columns.STOPTRANS.name() + " = ? WHERE " + Columns.OWNERREQ.name() + " = ? AND "
+			+ Columns.REQUESTER.name() + " = ? AND " + Columns.REQUESTED.name() + " = ? AND "
+			+ Columns.SPECIALID.name() + " = ? AND " + Columns.RANK.name() + " < ?";
+
+	/**
+	 * Latest progress by runner key
+	 */
+	private static final ConcurrentHashMap<String, Progress> pending = new ConcurrentHashMap<String, Progress>();
+
+	private static volatile boolean started = false;
+
+	private static DbSession dbSession = null;
+
+	private static DbPreparedStatement preparedStatement = null;
+
+	private DbTaskRunnerWriteBehind() {
+	}
+
+	/**
+	 * Snapshot of the progress of one runner
+	 */
+	private static class Progress {
+		private final String ownerRequest;
+		private final String requesterHostId;
+		private final String requestedHostId;
+		private final long specialId;
+		private final int rank;
+		private final Timestamp stop;
+
+		private Progress(DbTaskRunner runner) {
+			this.ownerRequest = runner.getOwnerRequest();
+			this.requesterHostId = runner.getRequester();
+			this.requestedHostId = runner.getRequested();
+			this.specialId = runner.getSpecialId();
+			this.rank = runner.getRank();
+			this.stop = new Timestamp(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 *
+	 * @return True if the write-behind mode is active
+	 */
+	public static boolean isActive() {
+		return Configuration.configuration.getRunnerProgressDelay() > 0 && DbConstant.admin != null
+				&& DbConstant.admin.isActive();
+	}
+
+	/**
+	 * Queue the current rank of this runner, replacing any previous pending value
+	 *
+	 * @param runner
+	 */
+	public static void enqueue(DbTaskRunner runner) {
+		pending.put(runner.getKey(), new Progress(runner));
+		if (!started) {
+			start();
+		}
+	}
+
+	/**
+	 * Forget any pending progress of this runner (called when the full runner is saved
+	 * synchronously)
+	 *
+	 * @param runner
+	 */
+	public static void discard(DbTaskRunner runner) {
+		if (!pending.isEmpty()) {
+			pending.remove(runner.getKey());
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of runners having a pending progress
+	 */
+	public static int size() {
+		return pending.size();
+	}
+
+	private static synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		Configuration.configuration.launchInFixedDelay(new FlushProgress(),
+				Configuration.configuration.getRunnerProgressDelay(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write all pending progress in one batch
+	 *
+	 * @return the number of runners written
+	 */
+	public static synchronized int flush() {
+		if (pending.isEmpty()) {
+			return 0;
+		}
+		List<Progress> batch = new ArrayList<Progress>(pending.size());
+		Iterator<Progress> iterator = pending.values().iterator();
+		while (iterator.hasNext()) {
+			batch.add(iterator.next());
+			iterator.remove();
+		}
+		try {
+			if (preparedStatement == null) {
+				if (dbSession == null || dbSession.isDisActive()) {
+					try {
+						dbSession = new DbSession(DbConstant.admin, false);
+					} catch (WaarpDatabaseNoConnectionException e) {
+						dbSession = DbConstant.admin.getSession();
+					}
+				}
+				preparedStatement = new DbPreparedStatement(dbSession, updateProgress);
+			}
+			PreparedStatement statement = preparedStatement.getPreparedStatement();
+			for (Progress progress : batch) {
+				statement.setInt(1, progress.rank);
+				statement.setTimestamp(2, progress.stop);
+				statement.setString(3, progress.ownerRequest);
+				statement.setString(4, progress.requesterHostId);
+				statement.setString(5, progress.requestedHostId);
+				statement.setLong(6, progress.specialId);
+				statement.setInt(7, progress.rank);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			if (!dbSession.isAutoCommit()) {
+				dbSession.commit();
+			}
+			return batch.size();
+		} catch (SQLException e) {
+			logger.warn("Cannot update Runners progress: {}", e.getMessage());
+		} catch (WaarpDatabaseNoConnectionException e) {
+			logger.warn("Cannot update Runners progress: {}", e.getMessage());
+		} catch (WaarpDatabaseSqlException e) {
+			logger.warn("Cannot update Runners progress: {}", e.getMessage());
+		}
+		// statement will be recreated on next flush
+		release();
+		return 0;
+	}
+
+	/**
+	 * Flush pending progress and release the database resources
+	 */
+	public static synchronized void stop() {
+		flush();
+		release();
+	}
+
+	private static void release() {
+		if (preparedStatement != null) {
+			preparedStatement.realClose();
+			preparedStatement = null;
+		}
+		if (dbSession != null && dbSession != DbConstant.admin.getSession()) {
+			dbSession.forceDisconnect();
+		}
+		dbSession = null;
+	}
+
+	private static class FlushProgress extends Thread {
+
+		@Override
+		public void run() {
+			int nb = flush();
+			if (nb > 0) {
+				logger.debug("Runners progress saved: " + nb);
+			}
+			try {
+				Configuration.configuration.launchInFixedDelay(this,
+						Configuration.configuration.getRunnerProgressDelay(), TimeUnit.MILLISECONDS);
+			} catch (java.util.concurrent.RejectedExecutionException e) {
+				// shutting down
+			}
+		}
+
+	}
+}
@@ -18,6 +18,7 @@
 package com.t3c.anchel.openr66.database.model;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.DbRequest;
@@ -44,7 +45,7 @@ import com.t3c.anchel.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
+public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 implements DbModelRunnerClaim {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -511,4 +512,22 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
         return false;
     }
 
+    /**
+     * FOR UPDATE with LIMIT is supported by all versions of H2
+     */
+    @Override
+    public boolean isRunnerClaimSupported(DbSession session) {
+        return DbTaskRunner.isDatabaseVersionAtLeast(session, 1, 0);
+    }
+
+    /**
+     * SELECT ... FOR UPDATE (H2 has no SKIP LOCKED, concurrent claimers wait) then batch UPDATE in
+     * one transaction
+     */
+    @Override
+    public List<DbTaskRunner> claimTaskRunners(DbSession session, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = DbTaskRunner.getClaimSelectRequest() + " LIMIT " + limit + " FOR UPDATE";
+        return DbTaskRunner.claimFromLockingSelect(session, request, limit);
+    }
 }
@@ -18,6 +18,7 @@
 package com.t3c.anchel.openr66.database.model;
 
 import java.sql.SQLException;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.waarp.common.database.DbPreparedStatement;
@@ -45,7 +46,7 @@ import com.t3c.anchel.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelMariadb extends org.waarp.common.database.model.DbModelMariadb {
+public class DbModelMariadb extends org.waarp.common.database.model.DbModelMariadb implements DbModelRunnerClaim {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -559,4 +560,21 @@ public class DbModelMariadb extends org.waarp.common.database.model.DbModelMaria
         return false;
     }
 
+    /**
+     * SKIP LOCKED since MariaDB 10.6
+     */
+    @Override
+    public boolean isRunnerClaimSupported(DbSession session) {
+        return DbTaskRunner.isDatabaseVersionAtLeast(session, 10, 6);
+    }
+
+    /**
+     * SELECT ... FOR UPDATE SKIP LOCKED (MariaDB 10.6+) then batch UPDATE in one transaction
+     */
+    @Override
+    public List<DbTaskRunner> claimTaskRunners(DbSession session, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = DbTaskRunner.getClaimSelectRequest() + " LIMIT " + limit + " FOR UPDATE SKIP LOCKED";
+        return DbTaskRunner.claimFromLockingSelect(session, request, limit);
+    }
 }
@@ -18,6 +18,7 @@
 package com.t3c.anchel.openr66.database.model;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.DbRequest;
@@ -44,7 +45,7 @@ import com.t3c.anchel.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle {
+public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle implements DbModelRunnerClaim {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -494,4 +495,23 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
         return false;
     }
 
+    /**
+     * SKIP LOCKED since Oracle 11g
+     */
+    @Override
+    public boolean isRunnerClaimSupported(DbSession session) {
+        return DbTaskRunner.isDatabaseVersionAtLeast(session, 11, 0);
+    }
+
+    /**
+     * SELECT ... FOR UPDATE SKIP LOCKED then batch UPDATE in one transaction
+     */
+    @Override
+    public List<DbTaskRunner> claimTaskRunners(DbSession session, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        // ROWNUM would be applied before SKIP LOCKED (possibly returning nothing while unlocked
+        // rows remain) and FETCH FIRST is not allowed with FOR UPDATE: limit on the cursor
+        String request = DbTaskRunner.getClaimSelectRequest() + " FOR UPDATE SKIP LOCKED";
+        return DbTaskRunner.claimFromLockingSelect(session, request, limit);
+    }
 }
@@ -18,10 +18,12 @@
 package com.t3c.anchel.openr66.database.model;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.DbRequest;
 import org.waarp.common.database.DbSession;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
@@ -44,7 +46,7 @@ import com.t3c.anchel.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPostgresql {
+public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPostgresql implements DbModelRunnerClaim {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -513,4 +515,26 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
         return false;
     }
 
+    /**
+     * SKIP LOCKED since PostgreSQL 9.5
+     */
+    @Override
+    public boolean isRunnerClaimSupported(DbSession session) {
+        return DbTaskRunner.isDatabaseVersionAtLeast(session, 9, 5);
+    }
+
+    /**
+     * One UPDATE ... RETURNING on rows selected with FOR UPDATE SKIP LOCKED (PostgreSQL 9.5+)
+     */
+    @Override
+    public List<DbTaskRunner> claimTaskRunners(DbSession session, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String primaryKey = DbTaskRunner.Columns.OWNERREQ.name() + ", " + DbTaskRunner.Columns.REQUESTER.name()
+                + ", " + DbTaskRunner.Columns.REQUESTED.name() + ", " + DbTaskRunner.Columns.SPECIALID.name();
+        String request = "UPDATE " + DbTaskRunner.table + " SET " + DbTaskRunner.Columns.UPDATEDINFO.name()
+                + " = " + UpdatedInfo.RUNNING.ordinal() + " WHERE (" + primaryKey + ") IN (SELECT " + primaryKey
+                + " FROM " + DbTaskRunner.table + " WHERE " + DbTaskRunner.getClaimWhereCondition()
+                + " LIMIT " + limit + " FOR UPDATE SKIP LOCKED) RETURNING " + DbTaskRunner.getAllFieldsList();
+        return DbTaskRunner.claimFromUpdateReturning(session, request);
+    }
 }
@@ -0,0 +1,55 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.database.model;
+
+import java.util.List;
+
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+
+import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+
+/**
+ * Database Model able to claim in one statement several Runners to submit, so that several servers
+ * sharing the same database never start the same Runner
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public interface DbModelRunnerClaim {
+    /**
+     * 
+     * @param session
+     * @return True if the version of the database supports the claim requests of this Model
+     */
+    public boolean isRunnerClaimSupported(DbSession session);
+
+    /**
+     * Claim up to limit Runners to submit owned by this host, changing them to RUNNING
+     * 
+     * @param session
+     *            a session dedicated to the caller (its autocommit mode could be changed)
+     * @param limit
+     * @return the claimed Runners
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public List<DbTaskRunner> claimTaskRunners(DbSession session, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException;
+}
@@ -32,6 +32,9 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.EventLoopGroup;
@@ -60,7 +63,6 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.role.RoleDefault;
 import org.waarp.common.utility.SystemPropertyUtil;
-import org.waarp.common.utility.WaarpNettyUtil;
 import org.waarp.common.utility.WaarpShutdownHook;
 import org.waarp.common.utility.WaarpShutdownHook.ShutdownConfiguration;
 import org.waarp.common.utility.WaarpThreadFactory;
@@ -78,6 +80,7 @@ import com.t3c.anchel.openr66.context.task.localexec.LocalExecClient;
 import com.t3c.anchel.openr66.database.DbConstant;
 import com.t3c.anchel.openr66.database.data.DbHostAuth;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+import com.t3c.anchel.openr66.database.data.DbTaskRunnerWriteBehind;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolNoDataException;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import com.t3c.anchel.openr66.protocol.http.HttpInitializer;
@@ -85,18 +88,21 @@ import com.t3c.anchel.openr66.protocol.http.adminssl.HttpReponsiveSslInitializer
 import com.t3c.anchel.openr66.protocol.http.adminssl.HttpSslHandler;
 import com.t3c.anchel.openr66.protocol.http.adminssl.HttpSslInitializer;
 import com.t3c.anchel.openr66.protocol.http.rest.HttpRestR66Handler;
+import com.t3c.anchel.openr66.protocol.localhandler.DataBlockPipeline;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalTransaction;
 import com.t3c.anchel.openr66.protocol.localhandler.Monitoring;
 import com.t3c.anchel.openr66.protocol.networkhandler.ChannelTrafficHandler;
 import com.t3c.anchel.openr66.protocol.networkhandler.GlobalTrafficHandler;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkServerInitializer;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
+import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransport;
 import com.t3c.anchel.openr66.protocol.networkhandler.R66ConstraintLimitHandler;
 import com.t3c.anchel.openr66.protocol.networkhandler.ssl.NetworkSslServerInitializer;
 import com.t3c.anchel.openr66.protocol.snmp.R66PrivateMib;
 import com.t3c.anchel.openr66.protocol.snmp.R66VariableFactory;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
 import com.t3c.anchel.openr66.protocol.utils.R66ShutdownHook;
+import com.t3c.anchel.openr66.protocol.utils.StorageOffload;
 import com.t3c.anchel.openr66.protocol.utils.Version;
 import com.t3c.anchel.openr66.thrift.R66ThriftServerService;
 
@@ -578,6 +584,44 @@ public class Configuration {
 
     private long timeLimitCache = 180000;
 
+    private int sendWindow = 1;
+
+    private boolean sendFileRegion = false;
+
+    private ByteBufAllocator byteBufAllocator = new UnpooledByteBufAllocator(false);
+
+    private boolean localDirectDispatch = false;
+
+    private int flushDataEvery = 1;
+
+    private long runnerProgressDelay = 0;
+
+    private boolean commanderBulkClaim = false;
+
+    private long statisticsReconcileDelay = 0;
+
+    private boolean transferManifest = false;
+
+    private int digestRecheck = 1;
+
+    private int storageWorkers = 0;
+
+    private int storageRetry = 3;
+
+    private boolean digestPipeline = false;
+
+    private boolean blockCrc = false;
+
+    private boolean transportEpoll = false;
+
+    private int transportAcceptors = 1;
+
+    private int dbPoolSize = 0;
+
+    private long dbPoolWait = 2000;
+
+    private boolean sendAsync = false;
+
     public Configuration() {
         // Init signal handler
         getShutdownConfiguration().timeout = getTIMEOUTCON();
@@ -614,6 +658,24 @@ public class Configuration {
         if (getTimeLimitCache() < 1000) {
             setTimeLimitCache(1000);
         }
+        setSendWindow(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_SEND_WINDOW, 1));
+        setSendFileRegion(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_SENDFILE, false));
+        setLocalDirectDispatch(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_LOCAL_DIRECTDISPATCH, false));
+        setFlushDataEvery(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_FLUSH_DATA_EVERY, 1));
+        setRunnerProgressDelay(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_RUNNER_PROGRESS_DELAY, 0));
+        setCommanderBulkClaim(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_COMMANDER_BULKCLAIM, false));
+        setStatisticsReconcileDelay(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_MONITORING_RECONCILE_DELAY, 0));
+        setTransferManifest(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_TRANSFER_MANIFEST, false));
+        setDigestRecheck(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_DIGEST_RECHECK, 1));
+        setStorageWorkers(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_STORAGE_WORKERS, 0));
+        setStorageRetry(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_STORAGE_RETRY, 3));
+        setDigestPipeline(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_DIGEST_PIPELINE, false));
+        setBlockCrc(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_BLOCK_CRC, false));
+        setTransportEpoll(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_TRANSPORT_EPOLL, false));
+        setTransportAcceptors(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_TRANSPORT_ACCEPTORS, 1));
+        setDbPoolSize(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_DB_POOL_SIZE, 0));
+        setDbPoolWait(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_DB_POOL_WAIT, 2000));
+        setSendAsync(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_SEND_ASYNC, false));
         DbTaskRunner.createLruCache(getLimitCache(), getTimeLimitCache());
         if (getLimitCache() > 0 && getTimeLimitCache() > 1000) {
             launchInFixedDelay(new CleanLruCache(), getTimeLimitCache(), TimeUnit.MILLISECONDS);
@@ -652,7 +714,7 @@ public class Configuration {
         if (configured) {
             return;
         }
-        workerGroup = new NioEventLoopGroup(getCLIENT_THREAD(), new WaarpThreadFactory("Worker"));
+        workerGroup = NetworkTransport.newEventLoopGroup(getCLIENT_THREAD(), new WaarpThreadFactory("Worker"));
         handlerGroup = new NioEventLoopGroup(getCLIENT_THREAD(), new WaarpThreadFactory("Handler"));
         subTaskGroup = new NioEventLoopGroup(getCLIENT_THREAD(), new WaarpThreadFactory("SubTask"));
         localBossGroup = new NioEventLoopGroup(getCLIENT_THREAD(), new WaarpThreadFactory("LocalBoss"));
@@ -674,9 +736,10 @@ public class Configuration {
     }
 
     public void serverPipelineInit() {
-        bossGroup = new NioEventLoopGroup(getSERVER_THREAD(), new WaarpThreadFactory("Boss", false));
-        httpBossGroup = new NioEventLoopGroup(getSERVER_THREAD(), new WaarpThreadFactory("HttpBoss"));
-        httpWorkerGroup = new NioEventLoopGroup(getSERVER_THREAD() * 10, new WaarpThreadFactory("HttpWorker"));
+        bossGroup = NetworkTransport.newEventLoopGroup(getSERVER_THREAD(), new WaarpThreadFactory("Boss", false));
+        httpBossGroup = NetworkTransport.newEventLoopGroup(getSERVER_THREAD(), new WaarpThreadFactory("HttpBoss"));
+        httpWorkerGroup = NetworkTransport.newEventLoopGroup(getSERVER_THREAD() * 10,
+                new WaarpThreadFactory("HttpWorker"));
     }
 
     /**
@@ -731,13 +794,13 @@ public class Configuration {
         serverChannelGroup = new DefaultChannelGroup("OpenR66", subTaskGroup.next());
         if (isUseNOSSL()) {
             serverBootstrap = new ServerBootstrap();
-            WaarpNettyUtil.setServerBootstrap(serverBootstrap, bossGroup, workerGroup, (int) getTIMEOUTCON());
+            NetworkTransport.setServerBootstrap(serverBootstrap, bossGroup, workerGroup, (int) getTIMEOUTCON());
             networkServerInitializer = new NetworkServerInitializer(true);
             serverBootstrap.childHandler(networkServerInitializer);
-            ChannelFuture future = serverBootstrap.bind(new InetSocketAddress(getSERVER_PORT())).awaitUninterruptibly();
+            ChannelFuture future = NetworkTransport.bind(serverBootstrap, new InetSocketAddress(getSERVER_PORT()),
+                    serverChannelGroup);
             if (future.isSuccess()) {
                 bindNoSSL = future.channel();
-                serverChannelGroup.add(bindNoSSL);
             } else {
                 logger.warn(Messages.getString("Configuration.NOSSLDeactivated")); //$NON-NLS-1$
             }
@@ -748,14 +811,13 @@ public class Configuration {
 
         if (isUseSSL() && getHOST_SSLID() != null) {
             serverSslBootstrap = new ServerBootstrap();
-            WaarpNettyUtil.setServerBootstrap(serverSslBootstrap, bossGroup, workerGroup, (int) getTIMEOUTCON());
+            NetworkTransport.setServerBootstrap(serverSslBootstrap, bossGroup, workerGroup, (int) getTIMEOUTCON());
             networkSslServerInitializer = new NetworkSslServerInitializer(false);
             serverSslBootstrap.childHandler(networkSslServerInitializer);
-            ChannelFuture future = serverSslBootstrap.bind(new InetSocketAddress(getSERVER_SSLPORT()))
-                    .awaitUninterruptibly();
+            ChannelFuture future = NetworkTransport.bind(serverSslBootstrap,
+                    new InetSocketAddress(getSERVER_SSLPORT()), serverChannelGroup);
             if (future.isSuccess()) {
                 bindSSL = future.channel();
-                serverChannelGroup.add(bindSSL);
             } else {
                 logger.warn(Messages.getString("Configuration.SSLMODEDeactivated")); //$NON-NLS-1$
             }
@@ -772,6 +834,11 @@ public class Configuration {
         // Now start the InternalRunner
         internalRunner = new InternalRunner();
 
+        if (StorageOffload.isActive()) {
+            // uploads not done before last stop are queued again
+            StorageOffload.getInstance();
+        }
+
         if (getThriftport() > 0) {
             setThriftService(new R66ThriftServerService(new WaarpFuture(true), getThriftport()));
             execOtherWorker.execute(getThriftService());
@@ -788,21 +855,18 @@ public class Configuration {
         httpChannelGroup = new DefaultChannelGroup("HttpOpenR66", subTaskGroup.next());
         // Configure the server.
         httpBootstrap = new ServerBootstrap();
-        WaarpNettyUtil.setServerBootstrap(httpBootstrap, httpBossGroup, httpWorkerGroup, (int) getTIMEOUTCON());
+        NetworkTransport.setServerBootstrap(httpBootstrap, httpBossGroup, httpWorkerGroup, (int) getTIMEOUTCON());
         // Set up the event pipeline factory.
         httpBootstrap.childHandler(new HttpInitializer(isUseHttpCompression()));
         // Bind and start to accept incoming connections.
         if (getSERVER_HTTPPORT() > 0) {
-            ChannelFuture future = httpBootstrap.bind(new InetSocketAddress(getSERVER_HTTPPORT())).awaitUninterruptibly();
-            if (future.isSuccess()) {
-                httpChannelGroup.add(future.channel());
-            }
+            NetworkTransport.bind(httpBootstrap, new InetSocketAddress(getSERVER_HTTPPORT()), httpChannelGroup);
         }
         // Now start the HTTPS support
         // Configure the server.
         httpsBootstrap = new ServerBootstrap();
         // Set up the event pipeline factory.
-        WaarpNettyUtil.setServerBootstrap(httpsBootstrap, httpBossGroup, httpWorkerGroup, (int) getTIMEOUTCON());
+        NetworkTransport.setServerBootstrap(httpsBootstrap, httpBossGroup, httpWorkerGroup, (int) getTIMEOUTCON());
         if (getHttpModel() == 0) {
             httpsBootstrap.childHandler(new HttpSslInitializer(isUseHttpCompression()));
         } else {
@@ -811,10 +875,7 @@ public class Configuration {
         }
         // Bind and start to accept incoming connections.
         if (getSERVER_HTTPSPORT() > 0) {
-            ChannelFuture future = httpsBootstrap.bind(new InetSocketAddress(getSERVER_HTTPSPORT())).awaitUninterruptibly();
-            if (future.isSuccess()) {
-                httpChannelGroup.add(future.channel());
-            }
+            NetworkTransport.bind(httpsBootstrap, new InetSocketAddress(getSERVER_HTTPSPORT()), httpChannelGroup);
         }
     }
 
@@ -953,6 +1014,9 @@ public class Configuration {
         if (internalRunner != null) {
             internalRunner.stopInternalRunner();
         }
+        DbTaskRunnerWriteBehind.stop();
+        StorageOffload.stop();
+        DataBlockPipeline.stop();
         if (scheduledExecutorService != null) {
             scheduledExecutorService.shutdown();
         }
@@ -986,6 +1050,9 @@ public class Configuration {
         if (!Configuration.configuration.isServer()) {
             ChannelUtils.stopLogger();
         }
+        DbTaskRunnerWriteBehind.stop();
+        StorageOffload.stop();
+        DataBlockPipeline.stop();
         if (scheduledExecutorService != null) {
             scheduledExecutorService.shutdown();
         }
@@ -1304,6 +1371,13 @@ public class Configuration {
         } catch (Exception e) {
             logger.warn("Issue while debugging", e);
         }
+        try {
+            if (configuration.internalRunner != null) {
+                result += configuration.internalRunner.hashStatus() + "\n";
+            }
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
         try {
             result += NetworkTransaction.hashStatus();
         } catch (Exception e) {
@@ -2362,6 +2436,282 @@ public class Configuration {
         this.timeLimitCache = timeLimitCache;
     }
 
+    /**
+     * @return the sendWindow (number of DataPacket that could be in flight for one transfer)
+     */
+    public int getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * @param sendWindow the sendWindow to set (minimum 1)
+     */
+    public void setSendWindow(int sendWindow) {
+        this.sendWindow = sendWindow < 1 ? 1 : sendWindow;
+    }
+
+    /**
+     * @return True if data could be sent directly from the file (sendfile) when neither MD5 mode, global
+     *         digest nor SSL are in use
+     */
+    public boolean isSendFileRegion() {
+        return sendFileRegion;
+    }
+
+    /**
+     * @param sendFileRegion the sendFileRegion to set
+     */
+    public void setSendFileRegion(boolean sendFileRegion) {
+        this.sendFileRegion = sendFileRegion;
+    }
+
+    /**
+     * @return the ByteBufAllocator to use for packet headers and keys
+     */
+    public ByteBufAllocator getByteBufAllocator() {
+        return byteBufAllocator;
+    }
+
+    /**
+     * Set the ByteBufAllocator to use for packet headers and keys
+     * 
+     * @param pooled
+     *            True to use a PooledByteBufAllocator (with per thread caches)
+     * @param direct
+     *            True to prefer direct memory
+     */
+    public void setByteBufAllocator(boolean pooled, boolean direct) {
+        if (pooled) {
+            this.byteBufAllocator = new PooledByteBufAllocator(direct);
+        } else {
+            this.byteBufAllocator = new UnpooledByteBufAllocator(direct);
+        }
+    }
+
+    /**
+     * @return True if packets from network are dispatched directly to the local handler (decoded once)
+     */
+    public boolean isLocalDirectDispatch() {
+        return localDirectDispatch;
+    }
+
+    /**
+     * @param localDirectDispatch the localDirectDispatch to set
+     */
+    public void setLocalDirectDispatch(boolean localDirectDispatch) {
+        this.localDirectDispatch = localDirectDispatch;
+    }
+
+    /**
+     * @return the number of DataPackets written before a flush of the network channel
+     */
+    public int getFlushDataEvery() {
+        return flushDataEvery;
+    }
+
+    /**
+     * @param flushDataEvery the flushDataEvery to set (minimum 1)
+     */
+    public void setFlushDataEvery(int flushDataEvery) {
+        this.flushDataEvery = flushDataEvery < 1 ? 1 : flushDataEvery;
+    }
+
+    /**
+     * @return the delay in ms between two batched saves of transfer progress (0 if saved by the transfer itself)
+     */
+    public long getRunnerProgressDelay() {
+        return runnerProgressDelay;
+    }
+
+    /**
+     * @param runnerProgressDelay the runnerProgressDelay to set (0 or negative to disable)
+     */
+    public void setRunnerProgressDelay(long runnerProgressDelay) {
+        this.runnerProgressDelay = runnerProgressDelay < 0 ? 0 : runnerProgressDelay;
+    }
+
+    /**
+     * @return True if the Commander claims Runners to submit by batch
+     */
+    public boolean isCommanderBulkClaim() {
+        return commanderBulkClaim;
+    }
+
+    /**
+     * @param commanderBulkClaim the commanderBulkClaim to set
+     */
+    public void setCommanderBulkClaim(boolean commanderBulkClaim) {
+        this.commanderBulkClaim = commanderBulkClaim;
+    }
+
+    /**
+     * @return the delay in ms between two reconciliations of the Monitoring counters (0 if disabled)
+     */
+    public long getStatisticsReconcileDelay() {
+        return statisticsReconcileDelay;
+    }
+
+    /**
+     * @param statisticsReconcileDelay the statisticsReconcileDelay to set (0 or negative to disable)
+     */
+    public void setStatisticsReconcileDelay(long statisticsReconcileDelay) {
+        this.statisticsReconcileDelay = statisticsReconcileDelay < 0 ? 0 : statisticsReconcileDelay;
+    }
+
+    /**
+     * @return True if a manifest of the block hashes is kept for each transfer
+     */
+    public boolean isTransferManifest() {
+        return transferManifest;
+    }
+
+    /**
+     * @param transferManifest the transferManifest to set
+     */
+    public void setTransferManifest(boolean transferManifest) {
+        this.transferManifest = transferManifest;
+    }
+
+    /**
+     * @return the check of the received file against its digest (0 none, 1 full read, 2 parallel check against the manifest)
+     */
+    public int getDigestRecheck() {
+        return digestRecheck;
+    }
+
+    /**
+     * @param digestRecheck the digestRecheck to set (from 0 to 2)
+     */
+    public void setDigestRecheck(int digestRecheck) {
+        this.digestRecheck = digestRecheck < 0 ? 0 : (digestRecheck > 2 ? 2 : digestRecheck);
+    }
+
+    /**
+     * @return the number of object storage workers (0 if the storage is called by the transfer itself)
+     */
+    public int getStorageWorkers() {
+        return storageWorkers;
+    }
+
+    /**
+     * @param storageWorkers the storageWorkers to set (0 or negative to disable)
+     */
+    public void setStorageWorkers(int storageWorkers) {
+        this.storageWorkers = storageWorkers < 0 ? 0 : storageWorkers;
+    }
+
+    /**
+     * @return the number of retries of an object storage operation in error
+     */
+    public int getStorageRetry() {
+        return storageRetry;
+    }
+
+    /**
+     * @param storageRetry the storageRetry to set (minimum 0)
+     */
+    public void setStorageRetry(int storageRetry) {
+        this.storageRetry = storageRetry < 0 ? 0 : storageRetry;
+    }
+
+    /**
+     * @return True if received blocks are checked and written by a pool of threads instead of the network threads
+     */
+    public boolean isDigestPipeline() {
+        return digestPipeline;
+    }
+
+    /**
+     * @param digestPipeline the digestPipeline to set
+     */
+    public void setDigestPipeline(boolean digestPipeline) {
+        this.digestPipeline = digestPipeline;
+    }
+
+    /**
+     * @return True if blocks are checked with a CRC32 in MD5 mode (when the partner uses it too)
+     */
+    public boolean isBlockCrc() {
+        return blockCrc;
+    }
+
+    /**
+     * @param blockCrc the blockCrc to set
+     */
+    public void setBlockCrc(boolean blockCrc) {
+        this.blockCrc = blockCrc;
+    }
+
+    /**
+     * @return True if the native epoll transport is used when available
+     */
+    public boolean isTransportEpoll() {
+        return transportEpoll;
+    }
+
+    /**
+     * @param transportEpoll the transportEpoll to set
+     */
+    public void setTransportEpoll(boolean transportEpoll) {
+        this.transportEpoll = transportEpoll;
+    }
+
+    /**
+     * @return the number of server channels bound on each port (epoll transport only)
+     */
+    public int getTransportAcceptors() {
+        return transportAcceptors;
+    }
+
+    /**
+     * @param transportAcceptors the transportAcceptors to set (minimum 1)
+     */
+    public void setTransportAcceptors(int transportAcceptors) {
+        this.transportAcceptors = transportAcceptors < 1 ? 1 : transportAcceptors;
+    }
+
+    /**
+     * @return the maximum number of database sessions in the pool (0 for no pool)
+     */
+    public int getDbPoolSize() {
+        return dbPoolSize;
+    }
+
+    /**
+     * @param dbPoolSize the dbPoolSize to set
+     */
+    public void setDbPoolSize(int dbPoolSize) {
+        this.dbPoolSize = dbPoolSize < 0 ? 0 : dbPoolSize;
+    }
+
+    /**
+     * @return the maximum time in ms to wait for a free database session of the pool
+     */
+    public long getDbPoolWait() {
+        return dbPoolWait;
+    }
+
+    /**
+     * @param dbPoolWait the dbPoolWait to set
+     */
+    public void setDbPoolWait(long dbPoolWait) {
+        this.dbPoolWait = dbPoolWait;
+    }
+
+    /**
+     * @return True if files are sent without one thread per transfer
+     */
+    public boolean isSendAsync() {
+        return sendAsync;
+    }
+
+    /**
+     * @param sendAsync the sendAsync to set
+     */
+    public void setSendAsync(boolean sendAsync) {
+        this.sendAsync = sendAsync;
+    }
+
     /**
      * @param r66BusinessFactory the r66BusinessFactory to set
      */
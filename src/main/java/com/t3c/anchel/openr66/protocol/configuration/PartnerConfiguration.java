@@ -68,7 +68,7 @@ public class PartnerConfiguration {
     public static enum FIELDS {
         HOSTID("nohostid"), VERSION(R66Versions.V2_4_12.getVersion()),
         DIGESTALGO(DigestAlgo.MD5.name), FILESIZE(false), FINALHASH(false),
-        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD);
+        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD), STRIPE(false), MANIFEST(false), BLOCKCRC(false);
 
         String name;
         Object defaultValue;
@@ -110,6 +110,9 @@ public class PartnerConfiguration {
         }
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, (Boolean) FIELDS.PROXIFIED.defaultValue);
+        JsonHandler.setValue(root, FIELDS.STRIPE, (Boolean) FIELDS.STRIPE.defaultValue);
+        JsonHandler.setValue(root, FIELDS.MANIFEST, (Boolean) FIELDS.MANIFEST.defaultValue);
+        JsonHandler.setValue(root, FIELDS.BLOCKCRC, (Boolean) FIELDS.BLOCKCRC.defaultValue);
         String sep = getSEPARATOR_FIELD();
         if (!isVersion2GEQVersion1(R66Versions.V2_4_13.getVersion(), version)) {
             sep = BLANK_SEPARATOR_FIELD;
@@ -153,6 +156,10 @@ public class PartnerConfiguration {
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, Configuration.configuration.isHostProxyfied());
         JsonHandler.setValue(root, FIELDS.SEPARATOR, getSEPARATOR_FIELD());
+        JsonHandler.setValue(root, FIELDS.STRIPE, true);
+        JsonHandler.setValue(root, FIELDS.MANIFEST, Configuration.configuration.isTransferManifest()
+                && Configuration.configuration.isGlobalDigest());
+        JsonHandler.setValue(root, FIELDS.BLOCKCRC, Configuration.configuration.isBlockCrc());
         useJson = true;
         logger.debug("Info HostId: " + root.toString());
     }
@@ -214,6 +221,30 @@ public class PartnerConfiguration {
         return root.path(FIELDS.SEPARATOR.name).asText();
     }
 
+    /**
+     * 
+     * @return True if this Host accepts striped transfers
+     */
+    public boolean useStripe() {
+        return useJson && root.path(FIELDS.STRIPE.name).asBoolean((Boolean) FIELDS.STRIPE.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host keeps a manifest of the block hashes of its transfers
+     */
+    public boolean useManifest() {
+        return useJson && root.path(FIELDS.MANIFEST.name).asBoolean((Boolean) FIELDS.MANIFEST.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host checks blocks with a CRC32 in MD5 mode
+     */
+    public boolean useBlockCrc() {
+        return useJson && root.path(FIELDS.BLOCKCRC.name).asBoolean((Boolean) FIELDS.BLOCKCRC.defaultValue);
+    }
+
     /**
      * @return the useJson
      */
@@ -90,5 +90,96 @@ public class R66SystemProperties {
      * Minimal value is 1000 ms (1s). If set to 1000, the value will not be regularly deleted.
      */
     public static final String OPENR66_CACHE_TIMELIMIT = "openr66.cache.timelimit";
+    /**
+     * Number of data blocks a sender could have in flight for one transfer before waiting for the oldest write
+     * (default = 1, meaning one block at a time). Higher values help on high latency links without changing the blocksize.
+     */
+    public static final String OPENR66_SEND_WINDOW = "openr66.send.window";
+    /**
+     * Shall the sender use sendfile (FileRegion) for data blocks when neither MD5 mode, global digest nor SSL are used
+     * (default = false).
+     */
+    public static final String OPENR66_SENDFILE = "openr66.sendfile";
+    /**
+     * Shall packets received from the network be decoded once and dispatched directly to the local handler, instead of
+     * going through the in-VM LocalChannel transport and a second decoding (default = false).
+     */
+    public static final String OPENR66_LOCAL_DIRECTDISPATCH = "openr66.local.directdispatch";
+    /**
+     * Number of DataPackets written before the network channel is flushed (default = 1, each block is flushed). The
+     * channel is also flushed when it is no more writable or when the sender waits for a write. Other packets are always
+     * flushed immediately.
+     */
+    public static final String OPENR66_FLUSH_DATA_EVERY = "openr66.flush.data.every";
+    /**
+     * Delay in ms between two batched saves of the rank of running transfers (default = 0, rank saved by the transfer
+     * itself every 10 blocks). Status changes are always saved immediately.
+     */
+    public static final String OPENR66_RUNNER_PROGRESS_DELAY = "openr66.runner.progress.delay";
+    /**
+     * True to let the Commander claim Runners to submit by batch with one database statement (default = false). Needs
+     * SKIP LOCKED support (PostgreSQL 9.5, MySQL 8, MariaDB 10.6, Oracle) or H2.
+     */
+    public static final String OPENR66_COMMANDER_BULKCLAIM = "openr66.commander.bulkclaim";
+    /**
+     * Delay in ms between two reconciliations with the database of the in memory transfer counters used by Monitoring
+     * (default = 0, Monitoring runs its COUNT requests on each refresh).
+     */
+    public static final String OPENR66_MONITORING_RECONCILE_DELAY = "openr66.monitoring.reconcile.delay";
+    /**
+     * True to keep a manifest of the hash of each block, allowing a verified restart and a final check of
+     * the whole file after a restart (default = false, only with global digest and partners using it).
+     */
+    public static final String OPENR66_TRANSFER_MANIFEST = "openr66.transfer.manifest";
+    /**
+     * Check of the received file once moved against the digest computed during the transfer: 0 = none (the
+     * digest computed while receiving is trusted), 1 = full read of the file (default), 2 = parallel check of
+     * each block (memory mapped) against the manifest of the transfer (see openr66.transfer.manifest), else as 1.
+     */
+    public static final String OPENR66_DIGEST_RECHECK = "openr66.digest.recheck";
+    /**
+     * Number of workers uploading received files to (or downloading files to send from) the object storage (default = 0,
+     * the storage is called directly by the transfer itself).
+     */
+    public static final String OPENR66_STORAGE_WORKERS = "openr66.storage.workers";
+    /**
+     * Number of retries of an object storage upload or download in error, when storage workers are used (default = 3).
+     */
+    public static final String OPENR66_STORAGE_RETRY = "openr66.storage.retry";
+    /**
+     * True to check the hash of each received block and update the global digest in a pool of threads (one per core),
+     * blocks of one transfer being still written in order, instead of in the network threads (default = false).
+     */
+    public static final String OPENR66_DIGEST_PIPELINE = "openr66.digest.pipeline";
+    /**
+     * True to check each block in MD5 mode with a CRC32 instead of the digest, when the partner uses it too, the digest
+     * being still used for the global hash of the file (default = false).
+     */
+    public static final String OPENR66_BLOCK_CRC = "openr66.block.crc";
+    /**
+     * True to use the native epoll transport of Netty (Linux only, the native library being in the classpath) for the
+     * network connections, NIO being used if not available (default = false).
+     */
+    public static final String OPENR66_TRANSPORT_EPOLL = "openr66.transport.epoll";
+    /**
+     * Number of server channels bound on the same port with SO_REUSEPORT, each accepting connections in its own
+     * thread (epoll transport only, default = 1).
+     */
+    public static final String OPENR66_TRANSPORT_ACCEPTORS = "openr66.transport.acceptors";
+    /**
+     * Maximum number of database sessions in the pool, leased by each transfer instead of one session opened by network
+     * connection (default = 0, no pool).
+     */
+    public static final String OPENR66_DB_POOL_SIZE = "openr66.db.pool.size";
+    /**
+     * Maximum time in ms to wait for a free database session of the pool, the default session being used after
+     * (default = 2000). Transfers never wait: they use the default session at once when the pool is exhausted.
+     */
+    public static final String OPENR66_DB_POOL_WAIT = "openr66.db.pool.wait";
+    /**
+     * True to send files without one thread per transfer: blocks are read and written by a small pool of threads (one per
+     * core) when the network channel is writable, the end of the transfer being handled when done (default = false).
+     */
+    public static final String OPENR66_SEND_ASYNC = "openr66.send.async";
 
 }
@@ -37,7 +37,6 @@ import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpNettyUtil;
 import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.gateway.kernel.exception.HttpInvalidAuthenticationException;
 import org.waarp.gateway.kernel.rest.HttpRestHandler;
@@ -60,6 +59,7 @@ import com.t3c.anchel.openr66.protocol.http.rest.handler.HttpRestInformationR66H
 import com.t3c.anchel.openr66.protocol.http.rest.handler.HttpRestLogR66Handler;
 import com.t3c.anchel.openr66.protocol.http.rest.handler.HttpRestServerR66Handler;
 import com.t3c.anchel.openr66.protocol.localhandler.ServerActions;
+import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransport;
 
 /**
  * Handler for Rest HTTP support for R66
@@ -357,7 +357,7 @@ public class HttpRestR66Handler extends HttpRestHandler {
         }
         // Configure the server.
         ServerBootstrap httpBootstrap = new ServerBootstrap();
-        WaarpNettyUtil.setServerBootstrap(httpBootstrap, Configuration.configuration.getHttpBossGroup(),
+        NetworkTransport.setServerBootstrap(httpBootstrap, Configuration.configuration.getHttpBossGroup(),
                 Configuration.configuration.getHttpWorkerGroup(), (int) Configuration.configuration.getTIMEOUTCON());
         // Set up the event pipeline factory.
         if (restConfiguration.REST_SSL) {
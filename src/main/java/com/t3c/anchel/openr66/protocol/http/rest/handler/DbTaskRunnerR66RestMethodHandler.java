@@ -24,6 +24,7 @@ import java.sql.Timestamp;
 
 import org.joda.time.DateTime;
 import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.data.DbValue;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
@@ -43,6 +44,7 @@ import org.waarp.gateway.kernel.rest.RestConfiguration;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.t3c.anchel.openr66.commander.InternalRunner;
 import com.t3c.anchel.openr66.context.R66Session;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner.Columns;
@@ -117,7 +119,13 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         ObjectNode arg = arguments.getUriArgs().deepCopy();
         arg.setAll(arguments.getBody());
         try {
-            return new DbTaskRunner(handler.getDbSession(), arg);
+            DbTaskRunner runner = new DbTaskRunner(handler.getDbSession(), arg);
+            if (runner.getUpdatedInfo() == UpdatedInfo.TOSUBMIT) {
+                // insert now (next insert being then ignored) to start it without waiting for the Commander
+                runner.insert();
+                InternalRunner.signalSubmit(runner);
+            }
+            return runner;
         } catch (WaarpDatabaseException e) {
             throw new HttpIncorrectRequestException("Issue while inserting into database", e);
         }
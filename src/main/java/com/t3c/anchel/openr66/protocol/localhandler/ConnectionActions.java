@@ -297,6 +297,7 @@ public abstract class ConnectionActions {
         session.newState(STARTUP);
         localChannelReference.validateStartup(true);
         session.setLocalChannelReference(localChannelReference);
+        localChannelReference.setServerLocalChannel(channel);
         channel.writeAndFlush(packet);
         session.setStatus(41);
     }
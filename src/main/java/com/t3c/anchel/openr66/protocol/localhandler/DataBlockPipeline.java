@@ -0,0 +1,252 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.localhandler;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.DataPacket;
+import com.t3c.anchel.openr66.protocol.networkhandler.NetworkChannelReference;
+
+/**
+ * Pipeline of the received blocks of one transfer, out of the network threads.<br>
+ * <br>
+ * The hash of each block (MD5 mode) is checked by a first pool of threads (one per core), all
+ * blocks in parallel. The second stage (wait for this check, update of the global digest, write
+ * and rank increment) runs for one transfer one block at a time and in the order of reception, on
+ * a second pool of threads, so that different transfers still run in parallel.<br>
+ * The network thread never waits when too many blocks of the transfer are pending: the reading of
+ * the network channel is suspended instead, until half of them are done. It only waits at the end
+ * of the transfer (or on a bad rank) for the last pending blocks to be written.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DataBlockPipeline {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(DataBlockPipeline.class);
+
+    /**
+     * Maximum number of blocks of one transfer pending in the pipeline
+     */
+    private static final int MAX_PENDING = 64;
+
+    private static ExecutorService hashExecutor = null;
+    private static ExecutorService writeExecutor = null;
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    private boolean running = false;
+    private int pending = 0;
+    private int nextRank = 0;
+    private volatile boolean failed = false;
+    /**
+     * Network channel to suspend while too many blocks are pending, might be null
+     */
+    private final NetworkChannelReference networkChannel;
+    private boolean readSuspended = false;
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            Runnable next;
+            synchronized (DataBlockPipeline.this) {
+                next = queue.poll();
+            }
+            try {
+                next.run();
+            } catch (Throwable e) {
+                logger.warn("Block in error", e);
+                failed = true;
+            }
+            boolean resume = false;
+            synchronized (DataBlockPipeline.this) {
+                pending--;
+                if (queue.isEmpty()) {
+                    running = false;
+                } else {
+                    // one block at a time, other transfers could go on
+                    try {
+                        writeExecutor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        // stopped
+                        failed = true;
+                        pending -= queue.size();
+                        queue.clear();
+                        running = false;
+                    }
+                }
+                if (readSuspended && pending <= MAX_PENDING / 2) {
+                    readSuspended = false;
+                    resume = true;
+                }
+                DataBlockPipeline.this.notifyAll();
+            }
+            if (resume) {
+                networkChannel.resumeRead();
+            }
+        }
+    };
+
+    /**
+     *
+     * @return True if received blocks go through a pipeline
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.isDigestPipeline();
+    }
+
+    /**
+     * @param networkChannel
+     *            network channel of the transfer, suspended while too many blocks are pending
+     *            (might be null)
+     */
+    public DataBlockPipeline(NetworkChannelReference networkChannel) {
+        this.networkChannel = networkChannel;
+        initExecutors();
+    }
+
+    private static synchronized void initExecutors() {
+        if (hashExecutor == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            hashExecutor = Executors.newFixedThreadPool(cores, new WaarpThreadFactory("BlockDigest"));
+            writeExecutor = Executors.newFixedThreadPool(cores, new WaarpThreadFactory("BlockWrite"));
+        }
+    }
+
+    /**
+     * Stop the pools of threads of all pipelines
+     */
+    public static synchronized void stop() {
+        if (hashExecutor != null) {
+            hashExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+            hashExecutor = null;
+            writeExecutor = null;
+        }
+    }
+
+    /**
+     *
+     * @param currentRank
+     *            the current rank of the transfer
+     * @return the rank expected for the next received block
+     */
+    public synchronized int getExpectedRank(int currentRank) {
+        if (pending == 0) {
+            nextRank = currentRank;
+        }
+        return nextRank;
+    }
+
+    /**
+     * Check the hash of the block in the hashing threads
+     *
+     * @param packet
+     * @param algo
+     * @param useCrc
+     *            True if the key is a CRC32
+     * @return the future result of the check
+     */
+    public Future<Boolean> verify(final DataPacket packet, final DigestAlgo algo, final boolean useCrc) {
+        return hashExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return packet.isKeyValid(algo, useCrc);
+            }
+        });
+    }
+
+    /**
+     * Add the second stage of one block, run after those of the previous blocks. Never waits: the
+     * reading of the network channel is suspended when too many blocks are pending.
+     *
+     * @param rank
+     *            the rank of the block
+     * @param stage
+     */
+    public void execute(int rank, Runnable stage) {
+        boolean suspend = false;
+        synchronized (this) {
+            pending++;
+            nextRank = rank + 1;
+            queue.add(stage);
+            if (!running) {
+                running = true;
+                try {
+                    writeExecutor.execute(drainer);
+                } catch (RejectedExecutionException e) {
+                    // stopped
+                    failed = true;
+                    pending -= queue.size();
+                    queue.clear();
+                    running = false;
+                    notifyAll();
+                    return;
+                }
+            }
+            if (networkChannel != null && !readSuspended && pending >= MAX_PENDING) {
+                readSuspended = true;
+                suspend = true;
+            }
+        }
+        if (suspend) {
+            logger.debug("Too many pending blocks, stop reading the network channel");
+            networkChannel.suspendRead();
+        }
+    }
+
+    /**
+     * Wait for all pending blocks to be done
+     */
+    public synchronized void drain() {
+        while (pending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Mark this pipeline in error, next blocks being ignored
+     */
+    public void setFailed() {
+        failed = true;
+    }
+
+    /**
+     * @return True if one block was in error
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package com.t3c.anchel.openr66.protocol.localhandler;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
@@ -34,12 +35,16 @@ import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.context.R66Session;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
 import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.DbSessionPool;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.configuration.PartnerConfiguration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66Exception;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.AbstractLocalPacket;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.LocalPacketCodec;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkChannelReference;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkServerHandler;
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkServerInitializer;
@@ -157,9 +162,14 @@ public class LocalChannelReference {
      */
     private volatile PartnerConfiguration partner;
     /**
-     * DbSession for Database that do not support concurrency in access
+     * DbSession leased for this transfer (pool of sessions or Database that do not support
+     * concurrency in access)
      */
     private volatile DbSession noconcurrencyDbSession = null;
+    /**
+     * Server side of the LocalChannel (where LocalServerHandler runs), used in direct dispatch mode
+     */
+    private volatile Channel serverLocalChannel = null;
 
     /**
      * 
@@ -186,9 +196,11 @@ public class LocalChannelReference {
         }
         cts = (ChannelTrafficShapingHandler) networkChannelRef.channel().pipeline()
                 .get(NetworkServerInitializer.LIMITCHANNEL);
-        if (DbConstant.admin.isActive() && !DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+        if (DbConstant.admin.isActive()
+                && (DbSessionPool.isActive() || !DbConstant.admin.isCompatibleWithThreadSharedConnexion())) {
             try {
-                this.noconcurrencyDbSession = new DbSession(DbConstant.admin, false);
+                // never wait for a free session on the network thread
+                this.noconcurrencyDbSession = DbSessionPool.tryLease();
             } catch (WaarpDatabaseNoConnectionException e) {
                 // Cannot connect so use default connection
                 logger.warn("Use default database connection");
@@ -218,9 +230,8 @@ public class LocalChannelReference {
     public void close() {
         Configuration.configuration.getLocalTransaction().remove(this);
         // Now force the close of the database after a wait
-        if (noconcurrencyDbSession != null && DbConstant.admin != null && DbConstant.admin.getSession() != null
-                && !noconcurrencyDbSession.equals(DbConstant.admin.getSession())) {
-            noconcurrencyDbSession.forceDisconnect();
+        if (noconcurrencyDbSession != null) {
+            DbSessionPool.release(noconcurrencyDbSession);
             noconcurrencyDbSession = null;
         }
     }
@@ -232,6 +243,52 @@ public class LocalChannelReference {
         return localChannel;
     }
 
+    /**
+     * @return the server side of the LocalChannel (null until startup is done)
+     */
+    public Channel getServerLocalChannel() {
+        return serverLocalChannel;
+    }
+
+    /**
+     * @param serverLocalChannel
+     *            the server side of the LocalChannel
+     */
+    public void setServerLocalChannel(Channel serverLocalChannel) {
+        this.serverLocalChannel = serverLocalChannel;
+    }
+
+    /**
+     * Dispatch a buffer received from the network to the local handler. In direct dispatch mode and
+     * once startup is done, the buffer is decoded once and handed to the LocalServerHandler pipeline,
+     * running on the server LocalChannel event loop (preserving the order of packets), without going
+     * through the LocalChannel transport and its second decoding.
+     * 
+     * @param buf
+     */
+    public void dispatchToLocal(ByteBuf buf) {
+        Channel serverChannel = serverLocalChannel;
+        if (serverChannel == null || !Configuration.configuration.isLocalDirectDispatch()) {
+            localChannel.writeAndFlush(buf);
+            return;
+        }
+        AbstractLocalPacket packet;
+        try {
+            packet = LocalPacketCodec.decodeNetworkPacket(buf);
+        } catch (OpenR66ProtocolPacketException e) {
+            buf.release();
+            serverChannel.pipeline().fireExceptionCaught(e);
+            return;
+        }
+        if (packet == null) {
+            // Incomplete packet (should not be), let the LocalChannel handle it
+            localChannel.writeAndFlush(buf);
+            return;
+        }
+        buf.release();
+        serverChannel.pipeline().fireChannelRead(packet);
+    }
+
     /**
      * @return the networkChannelRef
      */
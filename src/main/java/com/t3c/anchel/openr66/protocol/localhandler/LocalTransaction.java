@@ -181,12 +181,10 @@ public class LocalTransaction {
                         localChannelReference.setRemoteId(remoteId);
                     }
                     NetworkPacket networkPacket = packets.poll();
-                    LocalChannel localChannel = localChannelReference.getLocalChannel();
                     while (networkPacket != null) {
-                        localChannel.write(networkPacket.getBuffer());
+                        localChannelReference.dispatchToLocal(networkPacket.getBuffer());
                         networkPacket = packets.poll();
                     }
-                    localChannel.flush();
                     sendLaters.remove(localId);
                 } else {
                     step ++;
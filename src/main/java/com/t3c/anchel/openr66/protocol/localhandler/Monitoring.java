@@ -416,176 +416,16 @@ public class Monitoring implements WaarpInterfaceMonitor {
                 currentLimit = limitDate;
                 // Update value
                 try {
-                    // Overall status including past, future and current transfers
-                    nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.UNKNOWN, limitDate);
-                    nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.NOTUPDATED, limitDate);
-                    nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INTERRUPTED, limitDate);
-                    nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.TOSUBMIT, limitDate);
-                    nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INERROR, limitDate);
-                    nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.RUNNING, limitDate);
-                    nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.DONE, limitDate);
-
-                    // Current situation of all transfers, running or not
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
-                            limitDate);
-                    nbInActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
-                            limitDate);
-                    nbOutActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
-                            limitDate);
-                    nbInTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInTotalTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
-                            limitDate);
-                    nbOutTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutTotalTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
-                            limitDate);
-                    nbOutErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutErrorTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
-                            limitDate);
-                    nbInErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInErrorTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
-                            limitDate);
-                    nbCountStepAllTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
-                    nbCountStepNotask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepNotask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
-                    nbCountStepPretask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPretask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
-                    nbCountStepTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
-                    nbCountStepPosttask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPosttask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
-                    nbCountStepAllDone = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllDone);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
-                    nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
-
-                    DbTaskRunner
-                            .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
-                    nbCountAllRunningStep = DbTaskRunner
-                            .getResultCountPrepareStatement(countAllRunningStep);
-
-                    if (detail) {
-                        // First on Running Transfers only
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
-                                limitDate);
-                        nbCountRunningStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countRunningStep);
-                        DbTaskRunner
-                                .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
-                        nbCountInitOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countInitOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
-                                limitDate);
-                        nbCountPreProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPreProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
-                                limitDate);
-                        nbCountTransferOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countTransferOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
-                                limitDate);
-                        nbCountPostProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPostProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
-                                limitDate);
-                        nbCountCompleteOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countCompleteOkStep);
-
-                        // Error Status on all transfers
-                        nbCountStatusConnectionImpossible = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ConnectionImpossible, limitDate);
-                        nbCountStatusServerOverloaded = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ServerOverloaded, limitDate);
-                        nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.BadAuthent, limitDate);
-                        nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.ExternalOp, limitDate);
-                        nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.TransferError, limitDate);
-                        nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.MD5Error, limitDate);
-                        nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Disconnection, limitDate);
-                        nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FinalOp, limitDate);
-                        nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unimplemented, limitDate);
-                        nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Internal, limitDate);
-                        nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Warning, limitDate);
-                        nbCountStatusQueryAlreadyFinished = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryAlreadyFinished, limitDate);
-                        nbCountStatusQueryStillRunning = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryStillRunning, limitDate);
-                        nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.NotKnownHost, limitDate);
-                        nbCountStatusQueryRemotelyUnknown = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryRemotelyUnknown, limitDate);
-                        nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CommandNotFound, limitDate);
-                        nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.PassThroughMode, limitDate);
-                        nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteShutdown, limitDate);
-                        nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Shutdown, limitDate);
-                        nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteError, limitDate);
-                        nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.StoppedTransfer, limitDate);
-                        nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CanceledTransfer, limitDate);
-                        nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FileNotFound, limitDate);
-                        nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unknown, limitDate);
+                    if (TransferStatistics.isActive() && nbSecond <= 0) {
+                        if (TransferStatistics.registry.needReconciliation()) {
+                            countFromDatabase(limitDate, true);
+                            reconcileStatistics(limitDate);
+                        } else {
+                            TransferStatistics.registry.expire(limitDate);
+                            loadFromStatistics();
+                        }
+                    } else {
+                        countFromDatabase(limitDate, detail);
                     }
                 } catch (WaarpDatabaseNoConnectionException e) {
                 } catch (WaarpDatabaseSqlException e) {
@@ -594,6 +434,360 @@ public class Monitoring implements WaarpInterfaceMonitor {
         }
     }
 
+    /**
+     * Update values using COUNT requests on the database
+     * 
+     * @param limitDate
+     * @param detail
+     *            as to get detailed information
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private void countFromDatabase(long limitDate, boolean detail)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        // Overall status including past, future and current transfers
+        nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.UNKNOWN, limitDate);
+        nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.NOTUPDATED, limitDate);
+        nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.INTERRUPTED, limitDate);
+        nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.TOSUBMIT, limitDate);
+        nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.INERROR, limitDate);
+        nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.RUNNING, limitDate);
+        nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                UpdatedInfo.DONE, limitDate);
+
+        // Current situation of all transfers, running or not
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
+                limitDate);
+        nbInActiveTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countInActiveTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
+                limitDate);
+        nbOutActiveTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countOutActiveTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
+                limitDate);
+        nbInTotalTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countInTotalTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
+                limitDate);
+        nbOutTotalTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countOutTotalTransfer);
+
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
+                limitDate);
+        nbOutErrorTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countOutErrorTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
+                limitDate);
+        nbInErrorTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countInErrorTransfer);
+
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
+                limitDate);
+        nbCountStepAllTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countStepAllTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
+        nbCountStepNotask = DbTaskRunner
+                .getResultCountPrepareStatement(countStepNotask);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
+        nbCountStepPretask = DbTaskRunner
+                .getResultCountPrepareStatement(countStepPretask);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
+        nbCountStepTransfer = DbTaskRunner
+                .getResultCountPrepareStatement(countStepTransfer);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
+        nbCountStepPosttask = DbTaskRunner
+                .getResultCountPrepareStatement(countStepPosttask);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
+        nbCountStepAllDone = DbTaskRunner
+                .getResultCountPrepareStatement(countStepAllDone);
+        DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
+        nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
+
+        DbTaskRunner
+                .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
+        nbCountAllRunningStep = DbTaskRunner
+                .getResultCountPrepareStatement(countAllRunningStep);
+
+        if (detail) {
+            // First on Running Transfers only
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
+                    limitDate);
+            nbCountRunningStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countRunningStep);
+            DbTaskRunner
+                    .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
+            nbCountInitOkStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countInitOkStep);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
+                    limitDate);
+            nbCountPreProcessingOkStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countPreProcessingOkStep);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
+                    limitDate);
+            nbCountTransferOkStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countTransferOkStep);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
+                    limitDate);
+            nbCountPostProcessingOkStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countPostProcessingOkStep);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
+                    limitDate);
+            nbCountCompleteOkStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countCompleteOkStep);
+
+            // Error Status on all transfers
+            nbCountStatusConnectionImpossible = DbTaskRunner
+                    .getResultCountPrepareStatement(countStatus,
+                            ErrorCode.ConnectionImpossible, limitDate);
+            nbCountStatusServerOverloaded = DbTaskRunner
+                    .getResultCountPrepareStatement(countStatus,
+                            ErrorCode.ServerOverloaded, limitDate);
+            nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.BadAuthent, limitDate);
+            nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.ExternalOp, limitDate);
+            nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.TransferError, limitDate);
+            nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.MD5Error, limitDate);
+            nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Disconnection, limitDate);
+            nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.FinalOp, limitDate);
+            nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Unimplemented, limitDate);
+            nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Internal, limitDate);
+            nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Warning, limitDate);
+            nbCountStatusQueryAlreadyFinished = DbTaskRunner
+                    .getResultCountPrepareStatement(countStatus,
+                            ErrorCode.QueryAlreadyFinished, limitDate);
+            nbCountStatusQueryStillRunning = DbTaskRunner
+                    .getResultCountPrepareStatement(countStatus,
+                            ErrorCode.QueryStillRunning, limitDate);
+            nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.NotKnownHost, limitDate);
+            nbCountStatusQueryRemotelyUnknown = DbTaskRunner
+                    .getResultCountPrepareStatement(countStatus,
+                            ErrorCode.QueryRemotelyUnknown, limitDate);
+            nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.CommandNotFound, limitDate);
+            nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.PassThroughMode, limitDate);
+            nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.RemoteShutdown, limitDate);
+            nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Shutdown, limitDate);
+            nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.RemoteError, limitDate);
+            nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.StoppedTransfer, limitDate);
+            nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.CanceledTransfer, limitDate);
+            nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.FileNotFound, limitDate);
+            nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
+                    countStatus,
+                    ErrorCode.Unknown, limitDate);
+        }
+    }
+
+    /**
+     * Reset TransferStatistics from the values just computed from the database
+     * 
+     * @param limitDate
+     *            the limit date used by the COUNT requests
+     */
+    private void reconcileStatistics(long limitDate) {
+        TransferStatistics statistics = TransferStatistics.registry;
+        statistics.setInfo(UpdatedInfo.UNKNOWN, nbCountInfoUnknown);
+        statistics.setInfo(UpdatedInfo.NOTUPDATED, nbCountInfoNotUpdated);
+        statistics.setInfo(UpdatedInfo.INTERRUPTED, nbCountInfoInterrupted);
+        statistics.setInfo(UpdatedInfo.TOSUBMIT, nbCountInfoToSubmit);
+        statistics.setInfo(UpdatedInfo.INERROR, nbCountInfoError);
+        statistics.setInfo(UpdatedInfo.RUNNING, nbCountInfoRunning);
+        statistics.setInfo(UpdatedInfo.DONE, nbCountInfoDone);
+
+        statistics.setInOut(true, true, nbInActiveTransfer);
+        statistics.setInOut(false, true, nbOutActiveTransfer);
+        statistics.setInOut(true, false, nbInTotalTransfer);
+        statistics.setInOut(false, false, nbOutTotalTransfer);
+        statistics.setInOutError(true, nbInErrorTransfer);
+        statistics.setInOutError(false, nbOutErrorTransfer);
+
+        statistics.setStep(null, nbCountStepAllTransfer);
+        statistics.setStep(TASKSTEP.NOTASK, nbCountStepNotask);
+        statistics.setStep(TASKSTEP.PRETASK, nbCountStepPretask);
+        statistics.setStep(TASKSTEP.TRANSFERTASK, nbCountStepTransfer);
+        statistics.setStep(TASKSTEP.POSTTASK, nbCountStepPosttask);
+        statistics.setStep(TASKSTEP.ALLDONETASK, nbCountStepAllDone);
+        statistics.setStep(TASKSTEP.ERRORTASK, nbCountStepError);
+
+        statistics.setRunningStatus(null, nbCountAllRunningStep);
+        statistics.setRunningStatus(ErrorCode.Running, nbCountRunningStep);
+        statistics.setRunningStatus(ErrorCode.InitOk, nbCountInitOkStep);
+        statistics.setRunningStatus(ErrorCode.PreProcessingOk, nbCountPreProcessingOkStep);
+        statistics.setRunningStatus(ErrorCode.TransferOk, nbCountTransferOkStep);
+        statistics.setRunningStatus(ErrorCode.PostProcessingOk, nbCountPostProcessingOkStep);
+        statistics.setRunningStatus(ErrorCode.CompleteOk, nbCountCompleteOkStep);
+
+        statistics.setInfoStatus(ErrorCode.ConnectionImpossible, nbCountStatusConnectionImpossible);
+        statistics.setInfoStatus(ErrorCode.ServerOverloaded, nbCountStatusServerOverloaded);
+        statistics.setInfoStatus(ErrorCode.BadAuthent, nbCountStatusBadAuthent);
+        statistics.setInfoStatus(ErrorCode.ExternalOp, nbCountStatusExternalOp);
+        statistics.setInfoStatus(ErrorCode.TransferError, nbCountStatusTransferError);
+        statistics.setInfoStatus(ErrorCode.MD5Error, nbCountStatusMD5Error);
+        statistics.setInfoStatus(ErrorCode.Disconnection, nbCountStatusDisconnection);
+        statistics.setInfoStatus(ErrorCode.FinalOp, nbCountStatusFinalOp);
+        statistics.setInfoStatus(ErrorCode.Unimplemented, nbCountStatusUnimplemented);
+        statistics.setInfoStatus(ErrorCode.Internal, nbCountStatusInternal);
+        statistics.setInfoStatus(ErrorCode.Warning, nbCountStatusWarning);
+        statistics.setInfoStatus(ErrorCode.QueryAlreadyFinished, nbCountStatusQueryAlreadyFinished);
+        statistics.setInfoStatus(ErrorCode.QueryStillRunning, nbCountStatusQueryStillRunning);
+        statistics.setInfoStatus(ErrorCode.NotKnownHost, nbCountStatusNotKnownHost);
+        statistics.setInfoStatus(ErrorCode.QueryRemotelyUnknown, nbCountStatusQueryRemotelyUnknown);
+        statistics.setInfoStatus(ErrorCode.CommandNotFound, nbCountStatusCommandNotFound);
+        statistics.setInfoStatus(ErrorCode.PassThroughMode, nbCountStatusPassThroughMode);
+        statistics.setInfoStatus(ErrorCode.RemoteShutdown, nbCountStatusRemoteShutdown);
+        statistics.setInfoStatus(ErrorCode.Shutdown, nbCountStatusShutdown);
+        statistics.setInfoStatus(ErrorCode.RemoteError, nbCountStatusRemoteError);
+        statistics.setInfoStatus(ErrorCode.StoppedTransfer, nbCountStatusStopped);
+        statistics.setInfoStatus(ErrorCode.CanceledTransfer, nbCountStatusCanceled);
+        statistics.setInfoStatus(ErrorCode.FileNotFound, nbCountStatusFileNotFound);
+        statistics.setInfoStatus(ErrorCode.Unknown, nbCountStatusUnknown);
+        statistics.reconciled(limitDate);
+    }
+
+    /**
+     * Update values from TransferStatistics
+     */
+    private void loadFromStatistics() {
+        TransferStatistics statistics = TransferStatistics.registry;
+        nbCountInfoUnknown = statistics.getInfo(UpdatedInfo.UNKNOWN);
+        nbCountInfoNotUpdated = statistics.getInfo(UpdatedInfo.NOTUPDATED);
+        nbCountInfoInterrupted = statistics.getInfo(UpdatedInfo.INTERRUPTED);
+        nbCountInfoToSubmit = statistics.getInfo(UpdatedInfo.TOSUBMIT);
+        nbCountInfoError = statistics.getInfo(UpdatedInfo.INERROR);
+        nbCountInfoRunning = statistics.getInfo(UpdatedInfo.RUNNING);
+        nbCountInfoDone = statistics.getInfo(UpdatedInfo.DONE);
+
+        nbInActiveTransfer = statistics.getInOut(true, true);
+        nbOutActiveTransfer = statistics.getInOut(false, true);
+        nbInTotalTransfer = statistics.getInOut(true, false);
+        nbOutTotalTransfer = statistics.getInOut(false, false);
+        nbInErrorTransfer = statistics.getInOutError(true);
+        nbOutErrorTransfer = statistics.getInOutError(false);
+
+        nbCountStepAllTransfer = statistics.getStep(null);
+        nbCountStepNotask = statistics.getStep(TASKSTEP.NOTASK);
+        nbCountStepPretask = statistics.getStep(TASKSTEP.PRETASK);
+        nbCountStepTransfer = statistics.getStep(TASKSTEP.TRANSFERTASK);
+        nbCountStepPosttask = statistics.getStep(TASKSTEP.POSTTASK);
+        nbCountStepAllDone = statistics.getStep(TASKSTEP.ALLDONETASK);
+        nbCountStepError = statistics.getStep(TASKSTEP.ERRORTASK);
+
+        nbCountAllRunningStep = statistics.getRunningStatus(null);
+        nbCountRunningStep = statistics.getRunningStatus(ErrorCode.Running);
+        nbCountInitOkStep = statistics.getRunningStatus(ErrorCode.InitOk);
+        nbCountPreProcessingOkStep = statistics.getRunningStatus(ErrorCode.PreProcessingOk);
+        nbCountTransferOkStep = statistics.getRunningStatus(ErrorCode.TransferOk);
+        nbCountPostProcessingOkStep = statistics.getRunningStatus(ErrorCode.PostProcessingOk);
+        nbCountCompleteOkStep = statistics.getRunningStatus(ErrorCode.CompleteOk);
+
+        nbCountStatusConnectionImpossible = statistics.getInfoStatus(ErrorCode.ConnectionImpossible);
+        nbCountStatusServerOverloaded = statistics.getInfoStatus(ErrorCode.ServerOverloaded);
+        nbCountStatusBadAuthent = statistics.getInfoStatus(ErrorCode.BadAuthent);
+        nbCountStatusExternalOp = statistics.getInfoStatus(ErrorCode.ExternalOp);
+        nbCountStatusTransferError = statistics.getInfoStatus(ErrorCode.TransferError);
+        nbCountStatusMD5Error = statistics.getInfoStatus(ErrorCode.MD5Error);
+        nbCountStatusDisconnection = statistics.getInfoStatus(ErrorCode.Disconnection);
+        nbCountStatusFinalOp = statistics.getInfoStatus(ErrorCode.FinalOp);
+        nbCountStatusUnimplemented = statistics.getInfoStatus(ErrorCode.Unimplemented);
+        nbCountStatusInternal = statistics.getInfoStatus(ErrorCode.Internal);
+        nbCountStatusWarning = statistics.getInfoStatus(ErrorCode.Warning);
+        nbCountStatusQueryAlreadyFinished = statistics.getInfoStatus(ErrorCode.QueryAlreadyFinished);
+        nbCountStatusQueryStillRunning = statistics.getInfoStatus(ErrorCode.QueryStillRunning);
+        nbCountStatusNotKnownHost = statistics.getInfoStatus(ErrorCode.NotKnownHost);
+        nbCountStatusQueryRemotelyUnknown = statistics.getInfoStatus(ErrorCode.QueryRemotelyUnknown);
+        nbCountStatusCommandNotFound = statistics.getInfoStatus(ErrorCode.CommandNotFound);
+        nbCountStatusPassThroughMode = statistics.getInfoStatus(ErrorCode.PassThroughMode);
+        nbCountStatusRemoteShutdown = statistics.getInfoStatus(ErrorCode.RemoteShutdown);
+        nbCountStatusShutdown = statistics.getInfoStatus(ErrorCode.Shutdown);
+        nbCountStatusRemoteError = statistics.getInfoStatus(ErrorCode.RemoteError);
+        nbCountStatusStopped = statistics.getInfoStatus(ErrorCode.StoppedTransfer);
+        nbCountStatusCanceled = statistics.getInfoStatus(ErrorCode.CanceledTransfer);
+        nbCountStatusFileNotFound = statistics.getInfoStatus(ErrorCode.FileNotFound);
+        nbCountStatusUnknown = statistics.getInfoStatus(ErrorCode.Unknown);
+    }
+
+    /**
+     * For SNMP: refresh the values from TransferStatistics (reconciling it with the database when
+     * needed)
+     * 
+     * @return True if the values come from TransferStatistics, False if COUNT requests are needed
+     */
+    private boolean useStatistics() {
+        if (!TransferStatistics.isActive() || dbSession == null || dbSession.isDisActive()) {
+            return false;
+        }
+        if (TransferStatistics.registry.needReconciliation()) {
+            currentLimit = System.currentTimeMillis() - pastLimit;
+            try {
+                countFromDatabase(currentLimit, true);
+            } catch (WaarpDatabaseNoConnectionException e) {
+                return false;
+            } catch (WaarpDatabaseSqlException e) {
+                return false;
+            }
+            reconcileStatistics(currentLimit);
+        } else {
+            TransferStatistics.registry.expire(System.currentTimeMillis() - pastLimit);
+            loadFromStatistics();
+        }
+        return true;
+    }
+
+    /**
+     * 
+     * @param fromStatistics
+     *            True to get the value from TransferStatistics
+     * @param code
+     * @param limitDate
+     * @return the number of transfers with this Info Status
+     */
+    private long countStatus(boolean fromStatistics, ErrorCode code, long limitDate) {
+        if (fromStatistics) {
+            return TransferStatistics.registry.getInfoStatus(code);
+        }
+        return DbTaskRunner.getResultCountPrepareStatement(countStatus, code, limitDate);
+    }
+
     /**
      * @param detail
      * @return The XML representation of the current status
@@ -986,7 +1180,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
         synchronized (trafficCounter) {
             long val = 0;
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            boolean fromStatistics = useStatistics();
+            if (fromStatistics || dbSession == null || dbSession.isDisActive()) {
                 switch (entry) {
                     case applUptime:
                         return;
@@ -1044,15 +1239,19 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbCountInfoInterrupted);
                         return;
                     case nbInfoToSubmit:
-                        nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        if (!fromStatistics) {
+                            nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoToSubmit);
                         return;
                     case nbInfoError:
                         updateGlobalValue(entry.ordinal(), nbCountInfoError);
                         return;
                     case nbInfoRunning:
-                        nbCountInfoRunning = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (!fromStatistics) {
+                            nbCountInfoRunning = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoRunning);
                         return;
                     case nbInfoDone:
@@ -1228,7 +1427,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
     protected void run(long nbMs, WaarpDetailedValuesIndex entry) {
         synchronized (trafficCounter) {
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            boolean fromStatistics = useStatistics();
+            if (fromStatistics || dbSession == null || dbSession.isDisActive()) {
                 switch (entry) {
                     case nbStepNotask:
                         updateDetailedValue(entry.ordinal(), nbCountStepNotask);
@@ -1249,8 +1449,10 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateDetailedValue(entry.ordinal(), nbCountStepError);
                         return;
                     case nbAllRunningStep:
-                        nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (!fromStatistics) {
+                            nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateDetailedValue(entry.ordinal(), nbCountAllRunningStep);
                         return;
                     case nbRunningStep:
@@ -1393,148 +1595,129 @@ public class Monitoring implements WaarpInterfaceMonitor {
     protected void run(long nbMs, WaarpErrorValuesIndex entry) {
         synchronized (trafficCounter) {
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            boolean fromStatistics = useStatistics();
+            if (!fromStatistics && (dbSession == null || dbSession.isDisActive())) {
                 return;
             }
             // Error
             switch (entry) {
                 case nbStatusConnectionImpossible:
-                    nbCountStatusConnectionImpossible = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.ConnectionImpossible, limitDate);
+                    nbCountStatusConnectionImpossible = countStatus(fromStatistics,
+                            ErrorCode.ConnectionImpossible, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusConnectionImpossible);
                     return;
                 case nbStatusServerOverloaded:
-                    nbCountStatusServerOverloaded = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusServerOverloaded = countStatus(fromStatistics,
                             ErrorCode.ServerOverloaded, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusServerOverloaded);
                     return;
                 case nbStatusBadAuthent:
-                    nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusBadAuthent = countStatus(fromStatistics,
                             ErrorCode.BadAuthent, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusBadAuthent);
                     return;
                 case nbStatusExternalOp:
-                    nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusExternalOp = countStatus(fromStatistics,
                             ErrorCode.ExternalOp, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusExternalOp);
                     return;
                 case nbStatusTransferError:
-                    nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusTransferError = countStatus(fromStatistics,
                             ErrorCode.TransferError, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusTransferError);
                     return;
                 case nbStatusMD5Error:
-                    nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusMD5Error = countStatus(fromStatistics,
                             ErrorCode.MD5Error, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusMD5Error);
                     return;
                 case nbStatusDisconnection:
-                    nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusDisconnection = countStatus(fromStatistics,
                             ErrorCode.Disconnection, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusDisconnection);
                     return;
                 case nbStatusFinalOp:
-                    nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(countStatus,
+                    nbCountStatusFinalOp = countStatus(fromStatistics,
                             ErrorCode.FinalOp, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusFinalOp);
                     return;
                 case nbStatusUnimplemented:
-                    nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusUnimplemented = countStatus(fromStatistics,
                             ErrorCode.Unimplemented, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusUnimplemented);
                     return;
                 case nbStatusInternal:
-                    nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusInternal = countStatus(fromStatistics,
                             ErrorCode.Internal, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusInternal);
                     return;
                 case nbStatusWarning:
-                    nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(countStatus,
+                    nbCountStatusWarning = countStatus(fromStatistics,
                             ErrorCode.Warning, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusWarning);
                     return;
                 case nbStatusQueryAlreadyFinished:
-                    nbCountStatusQueryAlreadyFinished = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.QueryAlreadyFinished, limitDate);
+                    nbCountStatusQueryAlreadyFinished = countStatus(fromStatistics,
+                            ErrorCode.QueryAlreadyFinished, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryAlreadyFinished);
                     return;
                 case nbStatusQueryStillRunning:
-                    nbCountStatusQueryStillRunning = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusQueryStillRunning = countStatus(fromStatistics,
                             ErrorCode.QueryStillRunning, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryStillRunning);
                     return;
                 case nbStatusNotKnownHost:
-                    nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusNotKnownHost = countStatus(fromStatistics,
                             ErrorCode.NotKnownHost, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusNotKnownHost);
                     return;
                 case nbStatusQueryRemotelyUnknown:
-                    nbCountStatusQueryRemotelyUnknown = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.QueryRemotelyUnknown, limitDate);
+                    nbCountStatusQueryRemotelyUnknown = countStatus(fromStatistics,
+                            ErrorCode.QueryRemotelyUnknown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryRemotelyUnknown);
                     return;
                 case nbStatusCommandNotFound:
-                    nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusCommandNotFound = countStatus(fromStatistics,
                             ErrorCode.CommandNotFound, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusCommandNotFound);
                     return;
                 case nbStatusPassThroughMode:
-                    nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusPassThroughMode = countStatus(fromStatistics,
                             ErrorCode.PassThroughMode, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusPassThroughMode);
                     return;
                 case nbStatusRemoteShutdown:
-                    nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusRemoteShutdown = countStatus(fromStatistics,
                             ErrorCode.RemoteShutdown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusRemoteShutdown);
                     return;
                 case nbStatusShutdown:
-                    nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusShutdown = countStatus(fromStatistics,
                             ErrorCode.Shutdown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusShutdown);
                     return;
                 case nbStatusRemoteError:
-                    nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusRemoteError = countStatus(fromStatistics,
                             ErrorCode.RemoteError, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusRemoteError);
                     return;
                 case nbStatusStopped:
-                    nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(countStatus,
+                    nbCountStatusStopped = countStatus(fromStatistics,
                             ErrorCode.StoppedTransfer, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusStopped);
                     return;
                 case nbStatusCanceled:
-                    nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusCanceled = countStatus(fromStatistics,
                             ErrorCode.CanceledTransfer, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusCanceled);
                     return;
                 case nbStatusFileNotFound:
-                    nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusFileNotFound = countStatus(fromStatistics,
                             ErrorCode.FileNotFound, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusFileNotFound);
                     return;
                 case nbStatusUnknown:
-                    nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(countStatus,
+                    nbCountStatusUnknown = countStatus(fromStatistics,
                             ErrorCode.Unknown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusUnknown);
                     return;
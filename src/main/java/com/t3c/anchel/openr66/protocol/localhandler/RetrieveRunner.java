@@ -54,13 +54,15 @@ public class RetrieveRunner extends Thread {
      */
     private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(RetrieveRunner.class);
 
-    private final R66Session session;
+    protected final R66Session session;
 
-    private final LocalChannelReference localChannelReference;
+    protected final LocalChannelReference localChannelReference;
 
-    private final LocalChannel channel;
+    protected final LocalChannel channel;
 
-    private boolean done = false;
+    protected boolean done = false;
+
+    protected boolean requestValidDone = false;
 
     protected AtomicBoolean running = new AtomicBoolean(true);
 
@@ -92,7 +94,6 @@ public class RetrieveRunner extends Thread {
 
     @Override
     public void run() {
-        boolean requestValidDone = false;
         try {
             Thread.currentThread().setName("RetrieveRunner: " + channel.id());
             try {
@@ -130,124 +131,130 @@ public class RetrieveRunner extends Thread {
             if (localChannelReference.getFutureEndTransfer().isDone() &&
                     localChannelReference.getFutureEndTransfer().isSuccess()) {
                 // send a validation
-                requestValidDone = true;
-                localChannelReference.sessionNewState(R66FiniteDualStates.ENDREQUESTS);
-                EndRequestPacket validPacket = new EndRequestPacket(ErrorCode.CompleteOk.ordinal());
-                if (session.getExtendedProtocol() &&
-                        session.getBusinessObject() != null &&
-                        session.getBusinessObject().getInfo(session) != null) {
-                    validPacket.setOptional(session.getBusinessObject().getInfo(session));
-                }
-                try {
-                    ChannelUtils.writeAbstractLocalPacket(localChannelReference, validPacket, true);
-                } catch (OpenR66ProtocolPacketException e) {
-                }
+                sendValidation();
                 if (!localChannelReference.getFutureRequest().awaitUninterruptibly(
                         Configuration.configuration.getTIMEOUTCON())) {
                     // valid it however
-                    session.getRunner().setAllDone();
-                    try {
-                        session.getRunner().saveStatus();
-                    } catch (OpenR66RunnerErrorException e) {
-                        // ignore
-                    }
-                    localChannelReference.validateRequest(localChannelReference
-                            .getFutureEndTransfer().getResult());
-                }
-                if (session.getRunner() != null && session.getRunner().isSelfRequested()) {
-                    ChannelUtils.close(localChannelReference.getLocalChannel());
+                    forceValidation();
                 }
+                closeIfSelfRequested();
                 done = true;
             } else {
                 if (localChannelReference.getFutureEndTransfer().isDone()) {
                     // Done and Not Success => error
-                    if (!localChannelReference.getFutureEndTransfer().getResult().isAnswered()) {
-                        localChannelReference.sessionNewState(R66FiniteDualStates.ERROR);
-                        ErrorPacket error = new ErrorPacket(
-                                localChannelReference.getErrorMessage(),
-                                localChannelReference.getFutureEndTransfer().getResult().getCode()
-                                        .getCode(),
-                                ErrorPacket.FORWARDCLOSECODE);
-                        try {
-                            ChannelUtils.writeAbstractLocalPacket(localChannelReference, error,
-                                    true);
-                        } catch (OpenR66ProtocolPacketException e) {
-                        }
-                    }
+                    sendError();
                 }
                 if (!localChannelReference.getFutureRequest().isDone()) {
-                    R66Result result = localChannelReference.getFutureEndTransfer().getResult();
-                    if (result == null) {
-                        result =
-                                new R66Result(session, false, ErrorCode.TransferError,
-                                        session.getRunner());
-                    }
-                    localChannelReference.invalidateRequest(result);
+                    invalidate();
                 }
                 done = true;
                 logger.info("End Retrieve in Error");
             }
         } finally {
+            endRunner();
+        }
+    }
+
+    /**
+     * Finish the runner: if not done yet (unexpected error), valid or invalid the request
+     * according to the EndTransfer status
+     */
+    protected void endRunner() {
+        try {
             if (!done) {
                 if (localChannelReference.getFutureEndTransfer().isDone() &&
                         localChannelReference.getFutureEndTransfer().isSuccess()) {
                     if (!requestValidDone) {
-                        localChannelReference.sessionNewState(R66FiniteDualStates.ENDREQUESTS);
-                        EndRequestPacket validPacket = new EndRequestPacket(
-                                ErrorCode.CompleteOk.ordinal());
-                        if (session.getExtendedProtocol() &&
-                                session.getBusinessObject() != null &&
-                                session.getBusinessObject().getInfo(session) != null) {
-                            validPacket.setOptional(session.getBusinessObject().getInfo(session));
-                        }
-                        try {
-                            ChannelUtils.writeAbstractLocalPacket(localChannelReference,
-                                    validPacket, true);
-                        } catch (OpenR66ProtocolPacketException e) {
-                        }
-                    }
-                    session.getRunner().setAllDone();
-                    try {
-                        session.getRunner().saveStatus();
-                    } catch (OpenR66RunnerErrorException e) {
-                        // ignore
-                    }
-                    localChannelReference.validateRequest(localChannelReference
-                            .getFutureEndTransfer().getResult());
-                    if (session.getRunner() != null && session.getRunner().isSelfRequested()) {
-                        ChannelUtils.close(localChannelReference.getLocalChannel());
+                        sendValidation();
                     }
+                    forceValidation();
+                    closeIfSelfRequested();
                 } else {
                     if (localChannelReference.getFutureEndTransfer().isDone()) {
-                        if (!localChannelReference.getFutureEndTransfer().getResult().isAnswered()) {
-                            localChannelReference.sessionNewState(R66FiniteDualStates.ERROR);
-                            ErrorPacket error = new ErrorPacket(
-                                    localChannelReference.getErrorMessage(),
-                                    localChannelReference.getFutureEndTransfer().getResult().getCode()
-                                            .getCode(),
-                                    ErrorPacket.FORWARDCLOSECODE);
-                            try {
-                                ChannelUtils.writeAbstractLocalPacket(localChannelReference, error,
-                                        true);
-                            } catch (OpenR66ProtocolPacketException e) {
-                            }
-                        }
+                        sendError();
                     } else {
-                        R66Result result = localChannelReference.getFutureEndTransfer().getResult();
-                        if (result == null) {
-                            result =
-                                    new R66Result(session, false, ErrorCode.TransferError,
-                                            session.getRunner());
-                        }
-                        localChannelReference.invalidateRequest(result);
+                        invalidate();
                     }
                 }
             }
+        } finally {
             NetworkTransaction.normalEndRetrieve(localChannelReference);
         }
     }
 
-    private void transferInError(OpenR66Exception e) {
+    /**
+     * Send the validation of the request once the EndTransfer is done
+     */
+    protected void sendValidation() {
+        requestValidDone = true;
+        localChannelReference.sessionNewState(R66FiniteDualStates.ENDREQUESTS);
+        EndRequestPacket validPacket = new EndRequestPacket(ErrorCode.CompleteOk.ordinal());
+        if (session.getExtendedProtocol() &&
+                session.getBusinessObject() != null &&
+                session.getBusinessObject().getInfo(session) != null) {
+            validPacket.setOptional(session.getBusinessObject().getInfo(session));
+        }
+        try {
+            ChannelUtils.writeAbstractLocalPacket(localChannelReference, validPacket, true);
+        } catch (OpenR66ProtocolPacketException e) {
+        }
+    }
+
+    /**
+     * Valid the request even if the remote validation is not received
+     */
+    protected void forceValidation() {
+        session.getRunner().setAllDone();
+        try {
+            session.getRunner().saveStatus();
+        } catch (OpenR66RunnerErrorException e) {
+            // ignore
+        }
+        localChannelReference.validateRequest(localChannelReference
+                .getFutureEndTransfer().getResult());
+    }
+
+    /**
+     * Close the local channel if the request is self requested
+     */
+    protected void closeIfSelfRequested() {
+        if (session.getRunner() != null && session.getRunner().isSelfRequested()) {
+            ChannelUtils.close(localChannelReference.getLocalChannel());
+        }
+    }
+
+    /**
+     * Send the error if not already answered
+     */
+    protected void sendError() {
+        if (!localChannelReference.getFutureEndTransfer().getResult().isAnswered()) {
+            localChannelReference.sessionNewState(R66FiniteDualStates.ERROR);
+            ErrorPacket error = new ErrorPacket(
+                    localChannelReference.getErrorMessage(),
+                    localChannelReference.getFutureEndTransfer().getResult().getCode()
+                            .getCode(),
+                    ErrorPacket.FORWARDCLOSECODE);
+            try {
+                ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
+            } catch (OpenR66ProtocolPacketException e) {
+            }
+        }
+    }
+
+    /**
+     * Invalid the request
+     */
+    protected void invalidate() {
+        R66Result result = localChannelReference.getFutureEndTransfer().getResult();
+        if (result == null) {
+            result =
+                    new R66Result(session, false, ErrorCode.TransferError,
+                            session.getRunner());
+        }
+        localChannelReference.invalidateRequest(result);
+    }
+
+    protected void transferInError(OpenR66Exception e) {
         R66Result result = new R66Result(e, session, true,
                 ErrorCode.TransferError, session.getRunner());
         logger.error("Transfer in error", e);
@@ -277,7 +284,26 @@ public class RetrieveRunner extends Thread {
             DataBlock block, LocalChannelReference localChannelReference)
             throws OpenR66ProtocolPacketException, OpenR66RunnerErrorException,
             OpenR66ProtocolSystemException {
-        return ChannelUtils.writeBackDataBlock(localChannelReference, block);
+        return writeWhenPossible(block, localChannelReference, true);
+    }
+
+    /**
+     * Write the next block, flushing the network channel only if asked
+     * 
+     * @param block
+     * @param localChannelReference
+     * @param flush
+     *            if False, the caller must flush the network channel before waiting for the future
+     * @return the ChannelFuture on the write operation
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolSystemException
+     */
+    public static ChannelFuture writeWhenPossible(
+            DataBlock block, LocalChannelReference localChannelReference, boolean flush)
+            throws OpenR66ProtocolPacketException, OpenR66RunnerErrorException,
+            OpenR66ProtocolSystemException {
+        return ChannelUtils.writeBackDataBlock(localChannelReference, block, flush);
         // XXX Keep this in case the bug comes back
         /*
          * // Test if channel is writable in order to prevent OOM if (!
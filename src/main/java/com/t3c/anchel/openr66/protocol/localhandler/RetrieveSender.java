@@ -0,0 +1,243 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.localhandler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.channel.local.LocalChannel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner.TASKSTEP;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66Exception;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
+import com.t3c.anchel.openr66.protocol.utils.R66Future;
+
+/**
+ * Retrieve transfer without one thread per transfer: same steps as RetrieveRunner, but each step
+ * is a continuation run by a small pool of threads once its condition is met, instead of a thread
+ * waiting for it.<br>
+ * <br>
+ * The file is sent by R66File.retrieveAsync, then the validation is sent once the EndTransfer is
+ * done, then the runner ends once the request is validated by the remote host (or after the
+ * connection timeout).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class RetrieveSender extends RetrieveRunner {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(RetrieveSender.class);
+
+    private static volatile ExecutorService executor = null;
+
+    private final AtomicBoolean validated = new AtomicBoolean(false);
+
+    /**
+     *
+     * @return True if files are sent without one thread per transfer
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.isSendAsync();
+    }
+
+    /**
+     *
+     * @param session
+     * @param channel
+     *            local channel
+     */
+    public RetrieveSender(R66Session session, LocalChannel channel) {
+        super(session, channel);
+        initExecutor();
+    }
+
+    private static synchronized void initExecutor() {
+        if (executor == null || executor.isShutdown()) {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            executor = Executors.newFixedThreadPool(threads, new WaarpThreadFactory("RetrieveSender"));
+        }
+    }
+
+    /**
+     * Stop the threads of all RetrieveSenders
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Start the retrieve operation
+     */
+    public void startSender() {
+        execute(this);
+    }
+
+    /**
+     * Run this step in the threads of the RetrieveSenders, ending the runner if not possible
+     *
+     * @param step
+     */
+    private void execute(final Runnable step) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        step.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Retrieve in error", e);
+                        endRunner();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // in shutdown
+            endRunner();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (session.getRunner().getGloballaststep() == TASKSTEP.POSTTASK.ordinal()) {
+            logger.debug("Restart from POSTTASK: EndTransfer");
+            // restart from PostTask global step so just end now
+            try {
+                ChannelUtils.writeEndTransfer(localChannelReference);
+            } catch (OpenR66ProtocolPacketException e) {
+                transferInError(e);
+                logger.error("End Retrieve in Error");
+                endRunner();
+                return;
+            }
+            awaitEndTransfer();
+            return;
+        }
+        logger.debug("Start retrieve operation (send)");
+        final R66Future sent = new R66Future(true);
+        sent.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (sent.isSuccess()) {
+                    awaitEndTransfer();
+                    return;
+                }
+                Throwable cause = sent.getCause();
+                transferInError(cause instanceof OpenR66Exception ? (OpenR66Exception) cause
+                        : new OpenR66ProtocolSystemException(cause));
+                logger.info("End Retrieve in Error");
+                endRunner();
+            }
+        });
+        session.getFile().retrieveAsync(running, executor, sent);
+    }
+
+    /**
+     * Continue once the EndTransfer is done
+     */
+    private void awaitEndTransfer() {
+        Runnable endTransfer = new Runnable() {
+            @Override
+            public void run() {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        endTransfer();
+                    }
+                });
+            }
+        };
+        if (running.get()) {
+            localChannelReference.getFutureEndTransfer().addListener(endTransfer);
+        } else {
+            endTransfer.run();
+        }
+    }
+
+    private void endTransfer() {
+        logger.debug("Future End Transfer done: " +
+                localChannelReference.getFutureEndTransfer().isSuccess());
+        if (localChannelReference.getFutureEndTransfer().isDone() &&
+                localChannelReference.getFutureEndTransfer().isSuccess()) {
+            // send a validation
+            sendValidation();
+            // then wait for the validation of the request, forced after the timeout
+            final Timeout timeout = Configuration.configuration.getTimerClose().newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    endRequest(true);
+                }
+            }, Configuration.configuration.getTIMEOUTCON(), TimeUnit.MILLISECONDS);
+            localChannelReference.getFutureRequest().addListener(new Runnable() {
+                @Override
+                public void run() {
+                    timeout.cancel();
+                    endRequest(false);
+                }
+            });
+        } else {
+            if (localChannelReference.getFutureEndTransfer().isDone()) {
+                // Done and Not Success => error
+                sendError();
+            }
+            if (!localChannelReference.getFutureRequest().isDone()) {
+                invalidate();
+            }
+            done = true;
+            logger.info("End Retrieve in Error");
+            endRunner();
+        }
+    }
+
+    private void endRequest(final boolean timedOut) {
+        if (!validated.compareAndSet(false, true)) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (timedOut && !localChannelReference.getFutureRequest().isDone()) {
+                        // valid it however
+                        forceValidation();
+                    }
+                    closeIfSelfRequested();
+                    done = true;
+                } finally {
+                    endRunner();
+                }
+            }
+        });
+    }
+}
@@ -50,6 +50,7 @@ import org.waarp.common.utility.WaarpStringUtils;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.t3c.anchel.openr66.commander.InternalRunner;
 import com.t3c.anchel.openr66.configuration.AuthenticationFileBasedConfiguration;
 import com.t3c.anchel.openr66.configuration.RuleFileBasedConfiguration;
 import com.t3c.anchel.openr66.context.ErrorCode;
@@ -2359,6 +2360,7 @@ public class ServerActions extends ConnectionActions {
                 return new R66Result(session, false, ErrorCode.CommandNotFound,
                         runner);
             }
+            InternalRunner.signalSubmit(runner);
             R66Result result = new R66Result(session, false, ErrorCode.InitOk,
                     runner);
             try {
@@ -30,8 +30,11 @@ import static com.t3c.anchel.openr66.context.R66FiniteDualStates.REQUESTR;
 import static com.t3c.anchel.openr66.context.R66FiniteDualStates.VALID;
 
 import java.io.File;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -46,6 +49,8 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import com.t3c.anchel.common.DbConfiguration;
 import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Result;
+import com.t3c.anchel.openr66.context.filesystem.R66Manifest;
+import com.t3c.anchel.openr66.context.filesystem.R66Stripe;
 import com.t3c.anchel.openr66.context.task.AbstractTask;
 import com.t3c.anchel.openr66.context.task.TaskType;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
@@ -77,10 +82,11 @@ import com.t3c.anchel.openr66.protocol.localhandler.packet.json.RequestJsonPacke
 import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
 import com.t3c.anchel.openr66.protocol.utils.ChannelCloseTimer;
 import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
+import com.t3c.anchel.openr66.protocol.utils.FileBundle;
 import com.t3c.anchel.openr66.protocol.utils.FileUtils;
 import com.t3c.anchel.openr66.protocol.utils.R66Future;
+import com.t3c.anchel.openr66.protocol.utils.StorageOffload;
 import com.t3c.anchel.storageregistration.Implements.AccessClass;
-import com.t3c.anchel.storageregistration.Implements.StorageAwsImpl;
 
 import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
@@ -98,6 +104,11 @@ public class TransferActions extends ServerActions {
 	 */
 	private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(TransferActions.class);
 
+	/**
+	 * Pipeline of received blocks if used
+	 */
+	private DataBlockPipeline dataPipeline = null;
+
 	public TransferActions() {
 	}
 
@@ -229,9 +240,31 @@ public class TransferActions extends ServerActions {
 			if (Configuration.configuration.getBLOCKSIZE() < blocksize) {
 				blocksize = Configuration.configuration.getBLOCKSIZE();
 				String sep = localChannelReference.getPartner().getSeperator();
+				int rank = packet.getRank();
+				String stripe = packet.getStripe();
+				if (stripe != null) {
+					R66Stripe r66Stripe = R66Stripe.fromString(stripe);
+					if (r66Stripe != null) {
+						rank = r66Stripe.getStartRank(blocksize);
+					}
+				}
 				packet = new RequestPacket(packet.getRulename(), packet.getMode(), packet.getFilename(), blocksize,
-						packet.getRank(), packet.getSpecialId(), packet.getFileInformation(), packet.getOriginalSize(),
+						rank, packet.getSpecialId(), packet.getFileInformation(), packet.getOriginalSize(),
 						sep);
+				packet.setStripe(stripe);
+			}
+			if (packet.getStripe() != null) {
+				// a stripe must start and end (except the last one) on a block boundary
+				R66Stripe r66Stripe = R66Stripe.fromString(packet.getStripe());
+				if (r66Stripe == null || !r66Stripe.isAligned(blocksize)
+						|| (r66Stripe.getIndex() < r66Stripe.getCount() - 1 && r66Stripe.getEnd() % blocksize != 0)) {
+					session.setStatus(49);
+					endInitRequestInError(channel, ErrorCode.Unimplemented, null,
+							new OpenR66ProtocolBusinessException(
+									"Stripe not compatible with block size: " + packet.getStripe()),
+							packet);
+					return;
+				}
 			}
 		}
 		if (!RequestPacket.isCompatibleMode(rule.getMode(), packet.getMode())) {
@@ -263,7 +296,9 @@ public class TransferActions extends ServerActions {
 						String outdirpath = session.getDir().getFullPath() + "out" + File.separator;
 						String filename = new File(runner.getFilename()).getName();
 						String outDirFile = outdirpath.concat(filename);
-						new StorageAwsImpl().GetById(outDirFile);
+						if (!StorageOffload.download(outDirFile)) {
+							logger.warn("File not available from storage: " + outDirFile);
+						}
 					}
 
 					boolean ignoreSave = runner.shallIgnoreSave();
@@ -605,7 +640,7 @@ public class TransferActions extends ServerActions {
 	 * @throws OpenR66ProtocolBusinessException
 	 * @throws OpenR66ProtocolPacketException
 	 */
-	public void data(Channel channel, DataPacket packet) throws OpenR66ProtocolNotAuthenticatedException,
+	public void data(final Channel channel, final DataPacket packet) throws OpenR66ProtocolNotAuthenticatedException,
 			OpenR66ProtocolBusinessException, OpenR66ProtocolPacketException {
 		if (!session.isAuthenticated()) {
 			logger.debug("Not authenticated while Data received");
@@ -634,7 +669,26 @@ public class TransferActions extends ServerActions {
 			packet.clear();
 			return;
 		}
-		if (packet.getPacketRank() != session.getRunner().getRank()) {
+		if (dataPipeline == null && DataBlockPipeline.isActive()) {
+			dataPipeline = new DataBlockPipeline(localChannelReference.getNetworkChannelObject());
+		}
+		int expectedRank = session.getRunner().getRank();
+		if (dataPipeline != null) {
+			if (dataPipeline.isFailed()) {
+				packet.clear();
+				return;
+			}
+			// blocks still in the pipeline are not yet counted in the rank
+			expectedRank = dataPipeline.getExpectedRank(expectedRank);
+		}
+		if (packet.getPacketRank() != expectedRank) {
+			if (dataPipeline != null) {
+				dataPipeline.drain();
+				if (dataPipeline.isFailed()) {
+					packet.clear();
+					return;
+				}
+			}
 			logger.debug("Issue on rank: " + packet.getPacketRank() + ":" + session.getRunner().getRank());
 			if (!session.addError()) {
 				// cannot continue
@@ -685,10 +739,59 @@ public class TransferActions extends ServerActions {
 			}
 		}
 		// if MD5 check MD5
-		if (RequestPacket.isMD5Mode(session.getRunner().getMode())) {
+		boolean md5Mode = RequestPacket.isMD5Mode(session.getRunner().getMode());
+		if (md5Mode) {
 			logger.debug("AlgoDigest: " + (localChannelReference.getPartner() != null
 					? localChannelReference.getPartner().getDigestAlgo() : "usual algo"));
-			if (!packet.isKeyValid(localChannelReference.getPartner().getDigestAlgo())) {
+		}
+		boolean useCrc = FileUtils.useBlockCrc(localChannelReference);
+		if (dataPipeline != null) {
+			final Future<Boolean> keyValid = md5Mode
+					? dataPipeline.verify(packet, localChannelReference.getPartner().getDigestAlgo(), useCrc) : null;
+			dataPipeline.execute(packet.getPacketRank(), new Runnable() {
+				@Override
+				public void run() {
+					if (dataPipeline.isFailed() || !session.getRunner().continueTransfer()) {
+						packet.clear();
+						return;
+					}
+					try {
+						if (!writeData(channel, packet, keyValid == null || keyValid.get())) {
+							dataPipeline.setFailed();
+						}
+					} catch (InterruptedException e) {
+						packet.clear();
+						dataPipeline.setFailed();
+					} catch (ExecutionException e) {
+						packet.clear();
+						dataPipeline.setFailed();
+						logger.warn("Block digest in error", e.getCause());
+					} catch (OpenR66ProtocolPacketException e) {
+						dataPipeline.setFailed();
+						logger.warn("Block in error", e);
+					}
+				}
+			});
+			return;
+		}
+		writeData(channel, packet,
+				!md5Mode || packet.isKeyValid(localChannelReference.getPartner().getDigestAlgo(), useCrc));
+	}
+
+	/**
+	 * Second part of the reception of a data block, once checked: global digest and write
+	 * 
+	 * @param channel
+	 * @param packet
+	 * @param keyValid
+	 *            result of the check of the hash of the block (MD5 mode)
+	 * @return True if the block is written, False if the transfer is in error
+	 * @throws OpenR66ProtocolPacketException
+	 */
+	private boolean writeData(Channel channel, DataPacket packet, boolean keyValid)
+			throws OpenR66ProtocolPacketException {
+		if (RequestPacket.isMD5Mode(session.getRunner().getMode())) {
+			if (!keyValid) {
 				// Wrong packet
 				logger.error(Messages.getString("LocalServerHandler.17"), packet, //$NON-NLS-1$
 						localChannelReference.getPartner().getDigestAlgo().name);
@@ -697,15 +800,17 @@ public class TransferActions extends ServerActions {
 								+ localChannelReference.getPartner().getDigestAlgo().name + ")",
 						ErrorCode.MD5Error, channel, 21);
 				packet.clear();
-				return;
+				return false;
 			}
 		}
-		if (Configuration.configuration.isGlobalDigest()) {
+		// with a manifest, the root hash of the block hashes replaces the global digest, so each
+		// block is hashed only once
+		if (Configuration.configuration.isGlobalDigest() && session.getManifest() == null) {
 			if (globalDigest == null) {
 				try {
 					// check if first block, since if not, digest will be only
-					// partial
-					if (session.getRunner().getRank() > 0) {
+					// partial (always the case for a stripe)
+					if (session.getRunner().getRank() > 0 || session.getRunner().getStripe() != null) {
 						localChannelReference.setPartialHash();
 					}
 					if (localChannelReference.getPartner() != null) {
@@ -743,21 +848,58 @@ public class TransferActions extends ServerActions {
 				packet.clear();
 			}
 		} else {
+			R66Manifest manifest = session.getManifest();
+			byte[] blockHash = null;
+			if (manifest != null) {
+				blockHash = manifest.hash(packet.getData());
+			}
 			dataBlock.setBlock(packet.getData());
 			try {
 				session.getFile().writeDataBlock(dataBlock);
+				if (blockHash != null) {
+					manifest.setBlockHash(session.getRunner().getRank(), blockHash);
+				}
 				session.getRunner().incrementRank();
 				if (packet.getPacketRank() % 100 == 1) {
 					logger.debug("Good RANK: " + packet.getPacketRank() + " : " + session.getRunner().getRank());
 				}
 			} catch (FileTransferException e) {
 				errorToSend("Transfer in error", ErrorCode.TransferError, channel, 22);
-				return;
+				return false;
 			} finally {
 				dataBlock.clear();
 				packet.clear();
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Bad global Hash at the end of the transfer
+	 * 
+	 * @param channel
+	 */
+	private void globalHashError(Channel channel) {
+		// session.getRunner().setRankAtStartup(0);
+		R66Result result = new R66Result(
+				new OpenR66RunnerErrorException(Messages.getString("LocalServerHandler.19") + //$NON-NLS-1$
+						localChannelReference.getPartner().getDigestAlgo().name + ")"),
+				session, true, ErrorCode.MD5Error, session.getRunner());
+		try {
+			session.setFinalizeTransfer(false, result);
+		} catch (OpenR66RunnerErrorException e) {
+		} catch (OpenR66ProtocolSystemException e) {
+		}
+		ErrorPacket error = new ErrorPacket(
+				"Global Hash in error, transfer in error and rank should be reset to 0 (using "
+						+ localChannelReference.getPartner().getDigestAlgo().name + ")",
+				ErrorCode.MD5Error.getCode(), ErrorPacket.FORWARDCLOSECODE);
+		try {
+			ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
+		} catch (OpenR66ProtocolPacketException e) {
+		}
+		session.setStatus(23);
+		ChannelCloseTimer.closeFutureChannel(channel);
 	}
 
 	/**
@@ -774,6 +916,13 @@ public class TransferActions extends ServerActions {
 		if (!session.isAuthenticated()) {
 			throw new OpenR66ProtocolNotAuthenticatedException("Not authenticated while EndTransfer received");
 		}
+		if (dataPipeline != null) {
+			// last blocks must be written first
+			dataPipeline.drain();
+			if (dataPipeline.isFailed()) {
+				return;
+			}
+		}
 		// Check end of transfer
 		long originalSize = session.getRunner().getOriginalSize();
 		logger.debug("OSize: " + originalSize + " isSender: " + session.getRunner().isSender());
@@ -781,8 +930,12 @@ public class TransferActions extends ServerActions {
 			// check if possible originalSize
 			if (originalSize > 0) {
 				try {
-					if (!session.getRunner().isRecvThrough() && session.getFile().length() != originalSize
-							|| session.getFile().length() == 0) {
+					// a stripe only needs its own range to be written
+					R66Stripe stripe = session.getRunner().getStripe();
+					long expectedSize = stripe != null ? Math.min(stripe.getEnd(), originalSize) : originalSize;
+					long length = session.getFile().length();
+					if (!session.getRunner().isRecvThrough()
+							&& (stripe != null ? length < expectedSize : length != expectedSize) || length == 0) {
 						R66Result result = new R66Result(
 								new OpenR66RunnerErrorException(Messages.getString("LocalServerHandler.18")), //$NON-NLS-1$
 								session, true, ErrorCode.TransferError, session.getRunner());
@@ -810,31 +963,51 @@ public class TransferActions extends ServerActions {
 			String hash = packet.getOptional();
 			logger.debug("GlobalDigest: " + localChannelReference.getPartner().getDigestAlgo() + " different? "
 					+ (localDigest != null) + " remoteHash? " + (hash != null));
+			R66Manifest manifest = session.getManifest();
+			if (hash != null && hash.startsWith(R66Manifest.ROOT_PREFIX)) {
+				// root hash of the block manifests, valid even after a restart
+				String localroot = null;
+				if (manifest != null) {
+					int rank = session.getRunner().getRank();
+					localroot = manifest.getRootHash(rank);
+					if (localroot == null) {
+						// incomplete manifest: missing entries computed again from the file
+						logger.info("Local manifest incomplete, missing blocks hashed from the file: {}",
+								session.getRunner());
+						localroot = manifest.getRootHash(session.getFile().getTrueFile(), rank,
+								session.getRunner().getBlocksize());
+					}
+				}
+				if (localroot == null || !localroot.equalsIgnoreCase(hash)) {
+					logger.error("Root hash cannot be checked or is different: {}", session.getRunner());
+					globalHashError(channel);
+					return;
+				}
+				// not a hash of the file itself
+				localChannelReference.setPartialHash();
+				hash = null;
+			} else if (hash != null && manifest != null && globalDigest == null) {
+				// sender without root hash: no global digest computed here, so full check of the file
+				String localhash = null;
+				try {
+					localhash = FilesystemBasedDigest.getHex(FilesystemBasedDigest.getHash(
+							session.getFile().getTrueFile(), true, R66Manifest.getAlgo(session)));
+				} catch (IOException e) {
+					logger.warn("Cannot compute the hash of the file: " + e.getMessage());
+				}
+				if (localhash == null || !localhash.equalsIgnoreCase(hash)) {
+					globalHashError(channel);
+					return;
+				}
+				// already checked
+				localChannelReference.setPartialHash();
+				hash = null;
+			}
 			if (hash != null && globalDigest != null) {
 				String localhash = FilesystemBasedDigest.getHex(globalDigest.Final());
 				globalDigest = null;
 				if (!localhash.equalsIgnoreCase(hash)) {
-					// bad global Hash
-					// session.getRunner().setRankAtStartup(0);
-					R66Result result = new R66Result(
-							new OpenR66RunnerErrorException(Messages.getString("LocalServerHandler.19") + //$NON-NLS-1$
-									localChannelReference.getPartner().getDigestAlgo().name + ")"),
-							session, true, ErrorCode.MD5Error, session.getRunner());
-					try {
-						session.setFinalizeTransfer(false, result);
-					} catch (OpenR66RunnerErrorException e) {
-					} catch (OpenR66ProtocolSystemException e) {
-					}
-					ErrorPacket error = new ErrorPacket(
-							"Global Hash in error, transfer in error and rank should be reset to 0 (using "
-									+ localChannelReference.getPartner().getDigestAlgo().name + ")",
-							ErrorCode.MD5Error.getCode(), ErrorPacket.FORWARDCLOSECODE);
-					try {
-						ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
-					} catch (OpenR66ProtocolPacketException e) {
-					}
-					session.setStatus(23);
-					ChannelCloseTimer.closeFutureChannel(channel);
+					globalHashError(channel);
 					return;
 				} else {
 					if (localDigest != null) {
@@ -987,6 +1160,13 @@ public class TransferActions extends ServerActions {
 				// ignore
 			}
 			runner.clean();
+			if (runner.isSender() && session.getFile() != null) {
+				// a bundle sent (as submitted) is no more needed once the transfer is all done
+				File bundle = session.getFile().getTrueFile();
+				if (FileBundle.isBundle(bundle)) {
+					FileBundle.delete(bundle);
+				}
+			}
 		}
 		String optional = null;
 		if (session.getExtendedProtocol()) {
@@ -0,0 +1,371 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.localhandler;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+
+import com.t3c.anchel.openr66.context.ErrorCode;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner.TASKSTEP;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+
+/**
+ * In memory registry of the transfer counters used by Monitoring.<br>
+ * <br>
+ * Counters are changed on each state transition of a Runner saved in database (insert, update,
+ * delete), so that Monitoring does not need to run its COUNT requests on each refresh. The last
+ * counted state of each Runner is kept here by its key (requested, requester and specialId), so
+ * that several DbTaskRunner instances of the same transfer share it. Runners started before the
+ * past limit window of Monitoring are removed from the counters when the window moves.<br>
+ * Counters are reset from the database (reconciliation) by Monitoring at a fixed interval, which
+ * also corrects any drift (bulk updates done directly in database, Runners counted by the
+ * reconciliation but never seen by this server, other servers sharing the same database).
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TransferStatistics {
+    /**
+     * The registry
+     */
+    public static final TransferStatistics registry = new TransferStatistics();
+
+    /**
+     * State of one Runner as counted in the registry
+     */
+    public static class State {
+        private final int updatedInfo;
+        private final int globalstep;
+        private final int stepStatus;
+        private final int infoStatus;
+        private final boolean in;
+        private final boolean out;
+        private final long start;
+
+        /**
+         * @param updatedInfo
+         * @param globalstep
+         * @param stepStatus
+         * @param infoStatus
+         * @param in
+         *            True if this host is the requested one
+         * @param out
+         *            True if this host is the requester one
+         * @param start
+         *            start time of the Runner
+         */
+        public State(int updatedInfo, int globalstep, ErrorCode stepStatus, ErrorCode infoStatus,
+                boolean in, boolean out, long start) {
+            this.updatedInfo = updatedInfo;
+            this.globalstep = globalstep;
+            this.stepStatus = stepStatus.ordinal();
+            this.infoStatus = infoStatus.ordinal();
+            this.in = in;
+            this.out = out;
+            this.start = start;
+        }
+
+        private boolean sameAs(State other) {
+            return other != null && updatedInfo == other.updatedInfo && globalstep == other.globalstep
+                    && stepStatus == other.stepStatus && infoStatus == other.infoStatus && in == other.in
+                    && out == other.out && start == other.start;
+        }
+    }
+
+    private final AtomicLongArray info = new AtomicLongArray(UpdatedInfo.values().length);
+    private final AtomicLongArray step = new AtomicLongArray(TASKSTEP.values().length);
+    private final AtomicLongArray runningStatus = new AtomicLongArray(ErrorCode.values().length);
+    private final AtomicLongArray infoStatus = new AtomicLongArray(ErrorCode.values().length);
+    private final AtomicLong all = new AtomicLong();
+    private final AtomicLong allRunning = new AtomicLong();
+    private final AtomicLong inAll = new AtomicLong();
+    private final AtomicLong outAll = new AtomicLong();
+    private final AtomicLong inRunning = new AtomicLong();
+    private final AtomicLong outRunning = new AtomicLong();
+    private final AtomicLong inError = new AtomicLong();
+    private final AtomicLong outError = new AtomicLong();
+
+    /**
+     * Last counted state of each Runner by its key
+     */
+    private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
+
+    private volatile long lastReconciliation = 0;
+    private volatile long limitDate = 0;
+
+    private TransferStatistics() {
+    }
+
+    /**
+     *
+     * @return True if Monitoring shall use this registry instead of COUNT requests
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.getStatisticsReconcileDelay() > 0;
+    }
+
+    /**
+     *
+     * @return True if the last reconciliation is older than the reconciliation delay
+     */
+    public boolean needReconciliation() {
+        return System.currentTimeMillis() - lastReconciliation >= Configuration.configuration
+                .getStatisticsReconcileDelay();
+    }
+
+    /**
+     * Mark the registry as just reconciled with the database, forgetting the Runners started
+     * before the limit date (not counted by the reconciliation)
+     *
+     * @param limitDate
+     *            start of the past limit window used by the reconciliation
+     */
+    public void reconciled(long limitDate) {
+        this.limitDate = limitDate;
+        Iterator<State> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().start < limitDate) {
+                iterator.remove();
+            }
+        }
+        lastReconciliation = System.currentTimeMillis();
+    }
+
+    /**
+     * Remove from the counters the Runners started before the new limit date
+     *
+     * @param limitDate
+     *            start of the current past limit window
+     */
+    public void expire(long limitDate) {
+        if (limitDate <= this.limitDate) {
+            return;
+        }
+        this.limitDate = limitDate;
+        for (Entry<String, State> entry : states.entrySet()) {
+            State state = entry.getValue();
+            if (state.start < limitDate && states.remove(entry.getKey(), state)) {
+                apply(state, -1);
+            }
+        }
+    }
+
+    /**
+     * Account the state of one Runner just saved in database
+     *
+     * @param key
+     *            key of the Runner
+     * @param current
+     *            the new state, null if not counted
+     * @param isNew
+     *            True if just inserted in database
+     */
+    public void saved(String key, State current, boolean isNew) {
+        change(key, current, isNew);
+    }
+
+    /**
+     * Account the state of one Runner just read from database. If not known yet, it is supposed
+     * to be already counted by the last reconciliation.
+     *
+     * @param key
+     *            key of the Runner
+     * @param current
+     *            the read state, null if not counted
+     */
+    public void loaded(String key, State current) {
+        change(key, current, false);
+    }
+
+    /**
+     * Account the removal of one Runner from database
+     *
+     * @param key
+     *            key of the Runner
+     */
+    public void removed(String key) {
+        change(key, null, false);
+    }
+
+    /**
+     * Replace atomically the last counted state of the Runner and apply the transition
+     *
+     * @param key
+     * @param current
+     * @param countNew
+     *            True to count the Runner if not known yet
+     */
+    private void change(String key, State current, boolean countNew) {
+        if (!isActive()) {
+            return;
+        }
+        if (current != null && current.start < limitDate) {
+            // out of the past limit window
+            current = null;
+        }
+        for (;;) {
+            State previous = states.get(key);
+            if (previous == null) {
+                if (current == null) {
+                    return;
+                }
+                if (states.putIfAbsent(key, current) == null) {
+                    if (countNew) {
+                        apply(current, 1);
+                    }
+                    return;
+                }
+            } else if (current == null) {
+                if (states.remove(key, previous)) {
+                    apply(previous, -1);
+                    return;
+                }
+            } else if (states.replace(key, previous, current)) {
+                if (!previous.sameAs(current)) {
+                    apply(previous, -1);
+                    apply(current, 1);
+                }
+                return;
+            }
+        }
+    }
+
+    private void apply(State state, long delta) {
+        all.addAndGet(delta);
+        info.addAndGet(state.updatedInfo, delta);
+        step.addAndGet(state.globalstep, delta);
+        infoStatus.addAndGet(state.infoStatus, delta);
+        if (state.in) {
+            inAll.addAndGet(delta);
+        }
+        if (state.out) {
+            outAll.addAndGet(delta);
+        }
+        if (state.updatedInfo == UpdatedInfo.RUNNING.ordinal()) {
+            allRunning.addAndGet(delta);
+            runningStatus.addAndGet(state.stepStatus, delta);
+            if (state.in) {
+                inRunning.addAndGet(delta);
+            }
+            if (state.out) {
+                outRunning.addAndGet(delta);
+            }
+        } else if (state.updatedInfo == UpdatedInfo.INERROR.ordinal()) {
+            if (state.in) {
+                inError.addAndGet(delta);
+            }
+            if (state.out) {
+                outError.addAndGet(delta);
+            }
+        }
+    }
+
+    public long getInfo(UpdatedInfo updatedInfo) {
+        return info.get(updatedInfo.ordinal());
+    }
+
+    public void setInfo(UpdatedInfo updatedInfo, long value) {
+        info.set(updatedInfo.ordinal(), value);
+    }
+
+    /**
+     * @param taskstep
+     *            null for all transfers
+     */
+    public long getStep(TASKSTEP taskstep) {
+        return taskstep == null ? all.get() : step.get(taskstep.ordinal());
+    }
+
+    /**
+     * @param taskstep
+     *            null for all transfers
+     */
+    public void setStep(TASKSTEP taskstep, long value) {
+        if (taskstep == null) {
+            all.set(value);
+        } else {
+            step.set(taskstep.ordinal(), value);
+        }
+    }
+
+    /**
+     * @param code
+     *            null for all running transfers
+     */
+    public long getRunningStatus(ErrorCode code) {
+        return code == null ? allRunning.get() : runningStatus.get(code.ordinal());
+    }
+
+    /**
+     * @param code
+     *            null for all running transfers
+     */
+    public void setRunningStatus(ErrorCode code, long value) {
+        if (code == null) {
+            allRunning.set(value);
+        } else {
+            runningStatus.set(code.ordinal(), value);
+        }
+    }
+
+    public long getInfoStatus(ErrorCode code) {
+        return infoStatus.get(code.ordinal());
+    }
+
+    public void setInfoStatus(ErrorCode code, long value) {
+        infoStatus.set(code.ordinal(), value);
+    }
+
+    /**
+     * @param in
+     * @param running
+     *            True for running transfers only
+     */
+    public long getInOut(boolean in, boolean running) {
+        if (running) {
+            return in ? inRunning.get() : outRunning.get();
+        }
+        return in ? inAll.get() : outAll.get();
+    }
+
+    /**
+     * @param in
+     * @param running
+     *            True for running transfers only
+     */
+    public void setInOut(boolean in, boolean running, long value) {
+        if (running) {
+            (in ? inRunning : outRunning).set(value);
+        } else {
+            (in ? inAll : outAll).set(value);
+        }
+    }
+
+    public long getInOutError(boolean in) {
+        return in ? inError.get() : outError.get();
+    }
+
+    public void setInOutError(boolean in, long value) {
+        (in ? inError : outError).set(value);
+    }
+}
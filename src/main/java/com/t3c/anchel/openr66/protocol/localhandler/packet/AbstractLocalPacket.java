@@ -17,6 +17,7 @@
  */
 package com.t3c.anchel.openr66.protocol.localhandler.packet;
 
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 
@@ -89,7 +90,7 @@ public abstract class AbstractLocalPacket {
      * @throws OpenR66ProtocolPacketException
      */
     public ByteBuf getLocalPacket(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        final ByteBuf buf = Unpooled.buffer(4 * 3 + 1);// 3 header
+        final ByteBuf buf = Configuration.configuration.getByteBufAllocator().buffer(4 * 3 + 1);// 3 header
         // lengths+type
         if (header == null) {
             createHeader(lcr);
@@ -102,7 +103,7 @@ public abstract class AbstractLocalPacket {
         }
         final ByteBuf newMiddle = middle != null ? middle
                 : Unpooled.EMPTY_BUFFER;
-        final int middleLength = newMiddle.readableBytes();
+        final int middleLength = getMiddleLength(newMiddle);
         if (end == null) {
             createEnd(lcr);
         }
@@ -118,6 +119,15 @@ public abstract class AbstractLocalPacket {
         return ByteBuf;
     }
 
+    /**
+     * @param newMiddle
+     *            the Middle buffer in use
+     * @return the length of the Middle part as announced in the header
+     */
+    protected int getMiddleLength(ByteBuf newMiddle) {
+        return newMiddle.readableBytes();
+    }
+
     public void clear() {
         if (header != null) {
             if (header.release()) {
@@ -19,8 +19,11 @@ package com.t3c.anchel.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+
 import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 import com.t3c.anchel.openr66.protocol.utils.FileUtils;
@@ -41,6 +44,11 @@ public class DataPacket extends AbstractLocalPacket {
 
     private ByteBuf key;
 
+    /**
+     * If not null, data comes directly from the file (sender side only, no key)
+     */
+    private FileRegion fileRegion = null;
+
     /**
      * @param headerLength
      * @param middleLength
@@ -83,6 +91,20 @@ public class DataPacket extends AbstractLocalPacket {
         lengthPacket = data.readableBytes();
     }
 
+    /**
+     * Sender side only: data will be sent from the file through the FileRegion (sendfile)
+     * 
+     * @param packetRank
+     * @param fileRegion
+     */
+    public DataPacket(int packetRank, FileRegion fileRegion) {
+        this.packetRank = packetRank;
+        this.data = Unpooled.EMPTY_BUFFER;
+        this.key = Unpooled.EMPTY_BUFFER;
+        this.fileRegion = fileRegion;
+        lengthPacket = (int) fileRegion.count();
+    }
+
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         end = key;
@@ -90,7 +112,7 @@ public class DataPacket extends AbstractLocalPacket {
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.buffer(4);
+        header = Configuration.configuration.getByteBufAllocator().buffer(4);
         header.writeInt(packetRank);
     }
 
@@ -99,6 +121,14 @@ public class DataPacket extends AbstractLocalPacket {
         middle = data;
     }
 
+    @Override
+    protected int getMiddleLength(ByteBuf newMiddle) {
+        if (fileRegion != null) {
+            return lengthPacket;
+        }
+        return super.getMiddleLength(newMiddle);
+    }
+
     @Override
     public byte getType() {
         return LocalPacketFactory.DATAPACKET;
@@ -130,6 +160,13 @@ public class DataPacket extends AbstractLocalPacket {
         return data;
     }
 
+    /**
+     * @return the FileRegion if data comes directly from the file, else null
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
     /**
      * @return the key
      */
@@ -151,6 +188,26 @@ public class DataPacket extends AbstractLocalPacket {
         return check;
     }
 
+    /**
+     * 
+     * @param algo
+     * @param useCrc
+     *            True if the key is a CRC32 instead of a hash
+     * @return True if the key is valid (or no key is set)
+     */
+    public boolean isKeyValid(DigestAlgo algo, boolean useCrc) {
+        if (!useCrc) {
+            return isKeyValid(algo);
+        }
+        if (key == null || key == Unpooled.EMPTY_BUFFER) {
+            return true;
+        }
+        ByteBuf newbufkey = FileUtils.getCrc(data);
+        boolean check = key.equals(newbufkey);
+        newbufkey.release();
+        return check;
+    }
+
     public void clear() {
         super.clear();
         if (data != null) {
@@ -57,7 +57,7 @@ public class RequestPacket extends AbstractLocalPacket {
     }
 
     protected static enum FIELDS {
-        rule, mode, filename, block, rank, id, code, length
+        rule, mode, filename, block, rank, id, code, length, stripe
     }
 
     protected static final byte REQVALIDATE = 0;
@@ -84,6 +84,8 @@ public class RequestPacket extends AbstractLocalPacket {
 
     protected final String fileInformation;
 
+    protected String stripe = null;
+
     protected String separator = PartnerConfiguration.getSEPARATOR_FIELD();
 
     /**
@@ -231,12 +233,17 @@ public class RequestPacket extends AbstractLocalPacket {
             logger.debug("Request is using JSON");
             ObjectNode map = JsonHandler.getFromString(sheader);
             ObjectNode map2 = JsonHandler.getFromString(smiddle);
-            return new RequestPacket(map.path(FIELDS.rule.name()).asText(), map.path(FIELDS.mode.name()).asInt(),
+            RequestPacket requestPacket = new RequestPacket(map.path(FIELDS.rule.name()).asText(),
+                    map.path(FIELDS.mode.name()).asInt(),
                     map2.path(FIELDS.filename.name()).asText(), map2.path(FIELDS.block.name()).asInt(),
                     map2.path(FIELDS.rank.name()).asInt(), map2.path(FIELDS.id.name()).asLong(),
                     valid, send,
                     (char) map2.path(FIELDS.code.name()).asInt(), map2.path(FIELDS.length.name()).asLong(),
                     PartnerConfiguration.BAR_JSON_FIELD);
+            if (map2.has(FIELDS.stripe.name())) {
+                requestPacket.stripe = map2.path(FIELDS.stripe.name()).asText();
+            }
+            return requestPacket;
         }
 
         String[] aheader = sheader.split(PartnerConfiguration.BLANK_SEPARATOR_FIELD);
@@ -356,6 +363,9 @@ public class RequestPacket extends AbstractLocalPacket {
             JsonHandler.setValue(node, FIELDS.id, specialId);
             JsonHandler.setValue(node, FIELDS.code, code);
             JsonHandler.setValue(node, FIELDS.length, originalSize);
+            if (stripe != null) {
+                JsonHandler.setValue(node, FIELDS.stripe, stripe);
+            }
             middle = Unpooled.wrappedBuffer(away, JsonHandler.writeAsString(node).getBytes());
         } else {
             middle = Unpooled.wrappedBuffer(away, filename.getBytes(),
@@ -378,7 +388,8 @@ public class RequestPacket extends AbstractLocalPacket {
     public String toString() {
         return "RequestPacket: " + rulename + " : " + mode + " : " + filename +
                 " : " + fileInformation + " : " + blocksize + " : " + rank +
-                " : " + way + " : " + code + " : " + originalSize;
+                " : " + way + " : " + code + " : " + originalSize +
+                (stripe != null ? " : " + stripe : "");
     }
 
     /**
@@ -492,6 +503,23 @@ public class RequestPacket extends AbstractLocalPacket {
         this.filename = filename;
     }
 
+    /**
+     * @return the stripe (as R66Stripe.toString()) or null if not a striped transfer
+     */
+    public String getStripe() {
+        return stripe;
+    }
+
+    /**
+     * Only sent to partners using Json
+     * 
+     * @param stripe
+     *            the stripe to set (as R66Stripe.toString()), null if not a striped transfer
+     */
+    public void setStripe(String stripe) {
+        this.stripe = stripe;
+    }
+
     /**
      * @return the code
      */
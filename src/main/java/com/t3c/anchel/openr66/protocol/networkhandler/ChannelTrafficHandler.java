@@ -43,7 +43,7 @@ public class ChannelTrafficHandler extends ChannelTrafficShapingHandler {
             return super.calculateSize(msg);
         }
         NetworkPacket packet = (NetworkPacket) msg;
-        int size = packet.getBuffer().readableBytes() + 13;
+        int size = packet.getBuffer().readableBytes() + packet.getFileRegionLength() + 13;
         return size;
     }
 
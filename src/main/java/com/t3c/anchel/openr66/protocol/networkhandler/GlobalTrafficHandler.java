@@ -50,7 +50,7 @@ public class GlobalTrafficHandler extends GlobalChannelTrafficShapingHandler {
             return super.calculateSize(msg);
         }
         NetworkPacket packet = (NetworkPacket) msg;
-        int size = packet.getBuffer().readableBytes() + 13;
+        int size = packet.getBuffer().readableBytes() + packet.getFileRegionLength() + 13;
         return size;
     }
 
@@ -0,0 +1,140 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.networkhandler;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.future.WaarpLock;
+
+/**
+ * Locks of remote addresses, keyed by the address itself (not its hashCode, so that two addresses
+ * never share a lock) and created without any global lock.<br>
+ * <br>
+ * A lock is removed from the map only by a thread holding it, once its address has no more
+ * NetworkChannelReference and nobody waits for it. So a thread that acquired a lock checks that
+ * this lock is still the one of its address, else it retries with the current one: two threads can
+ * never be in the critical section of the same address with two different locks, and a
+ * NetworkChannelReference (created while holding the lock) always keeps the lock of its address as
+ * long as it is registered.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class NetworkChannelLocks {
+    private final ConcurrentHashMap<SocketAddress, WaarpLock> locks = new ConcurrentHashMap<SocketAddress, WaarpLock>();
+
+    /**
+     *
+     * @param address
+     * @return the current lock associated with this address (not locked)
+     */
+    private WaarpLock getLock(SocketAddress address) {
+        WaarpLock lock = locks.get(address);
+        if (lock == null) {
+            WaarpLock newLock = new WaarpLock(true);
+            lock = locks.putIfAbsent(address, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Lock the address
+     *
+     * @param address
+     * @return the lock associated with this address, held by the current thread
+     */
+    public WaarpLock lock(SocketAddress address) {
+        while (true) {
+            WaarpLock lock = getLock(address);
+            lock.lock();
+            if (locks.get(address) == lock) {
+                return lock;
+            }
+            // removed in between: retry with the current one
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lock the address, waiting at most timeout for each try
+     *
+     * @param address
+     * @param timeout
+     * @param unit
+     * @return the lock associated with this address, possibly not held by the current thread if
+     *         the timeout occurs (as WaarpLock.lock(timeout, unit))
+     */
+    public WaarpLock lock(SocketAddress address, long timeout, TimeUnit unit) {
+        while (true) {
+            WaarpLock lock = getLock(address);
+            lock.lock(timeout, unit);
+            if (!lock.isHeldByCurrentThread() || locks.get(address) == lock) {
+                return lock;
+            }
+            // removed in between: retry with the current one
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lock the address only if its lock exists and is free
+     *
+     * @param address
+     * @return the lock associated with this address, held by the current thread, or null if none
+     *         or in use
+     */
+    public WaarpLock tryLock(SocketAddress address) {
+        WaarpLock lock = locks.get(address);
+        if (lock == null || !lock.tryLock()) {
+            return null;
+        }
+        if (locks.get(address) != lock) {
+            lock.unlock();
+            return null;
+        }
+        return lock;
+    }
+
+    /**
+     * Remove the lock of this address, the caller holding it (as returned by lock()), if nobody
+     * waits for it. The caller must have checked that the address has no more
+     * NetworkChannelReference while holding the lock.
+     *
+     * @param address
+     * @param lock
+     *            the lock held by the caller
+     */
+    public void removeLock(SocketAddress address, WaarpLock lock) {
+        if (lock.isHeldByCurrentThread() && !lock.hasQueuedThreads()) {
+            locks.remove(address, lock);
+        }
+    }
+
+    /**
+     *
+     * @return the number of locks
+     */
+    public int size() {
+        return locks.size();
+    }
+}
@@ -20,6 +20,7 @@ package com.t3c.anchel.openr66.protocol.networkhandler;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
@@ -83,13 +84,23 @@ public class NetworkChannelReference {
      */
     protected ClientNetworkChannels clientNetworkChannels;
     /**
-     * Associated lock
+     * Associated lock, the one of the address as long as this reference is registered (see
+     * NetworkChannelLocks)
      */
     protected final WaarpLock lock;
     /**
      * Last Time in ms this channel was used by a LocalChannel
      */
     private long lastTimeUsed = System.currentTimeMillis();
+    /**
+     * Tasks waiting for this Network Channel to be writable again
+     */
+    private final ConcurrentLinkedQueue<Runnable> writabilityWaiters = new ConcurrentLinkedQueue<Runnable>();
+    /**
+     * Number of transfers asking to stop reading this Network Channel (too many received blocks
+     * pending)
+     */
+    private int readSuspended = 0;
 
     public NetworkChannelReference(Channel networkChannel, WaarpLock lock) {
         this.channel = networkChannel;
@@ -192,6 +203,52 @@ public class NetworkChannelReference {
         toCloseLater.clear();
     }
 
+    /**
+     * Run this task once the Network Channel is writable (immediately if already writable or
+     * closed). The task must not block since it could run in the network thread.
+     * 
+     * @param task
+     */
+    public void whenWritable(Runnable task) {
+        writabilityWaiters.add(task);
+        if (channel == null || !channel.isActive() || channel.isWritable()) {
+            notifyWritable();
+        }
+    }
+
+    /**
+     * Run all tasks waiting for the Network Channel to be writable
+     */
+    public void notifyWritable() {
+        Runnable task;
+        while ((task = writabilityWaiters.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Stop reading this Network Channel until all callers have called resumeRead. Does not block.
+     */
+    public synchronized void suspendRead() {
+        readSuspended++;
+        if (readSuspended == 1 && channel != null) {
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Read again this Network Channel if no other caller asked to stop reading it
+     */
+    public synchronized void resumeRead() {
+        if (readSuspended <= 0) {
+            return;
+        }
+        readSuspended--;
+        if (readSuspended == 0 && channel != null) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
     public int nbLocalChannels() {
         return localChannelReferences.size();
     }
@@ -224,19 +281,19 @@ public class NetworkChannelReference {
 
     /**
      * 
-     * @return the hashcode for the global remote networkaddress
+     * @return the global remote networkaddress
      */
-    public int getSocketHashCode() {
-        return this.networkAddress.hashCode();
+    public SocketAddress getSocketAddress() {
+        return this.networkAddress;
     }
 
     /**
      * Used for BlackList
      * 
-     * @return the hashcode for the address
+     * @return the remote IP address
      */
-    public int getAddressHashCode() {
-        return this.hostAddress.hashCode();
+    public String getHostAddress() {
+        return this.hostAddress;
     }
 
     /**
@@ -20,7 +20,6 @@ package com.t3c.anchel.openr66.protocol.networkhandler;
 import java.net.BindException;
 import java.net.SocketAddress;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -34,6 +33,7 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 
 import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.DbSessionPool;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66Exception;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ExceptionTrappedFactory;
@@ -117,6 +117,8 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                 }
             }
             NetworkTransaction.closedNetworkChannel(networkChannelReference);
+            // senders waiting for writability will see the closed channel
+            networkChannelReference.notifyWritable();
         } else {
             if (remoteAddress == null) {
                 remoteAddress = ctx.channel().remoteAddress();
@@ -159,7 +161,10 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
         }
         try {
             if (DbConstant.admin.isActive()) {
-                if (DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+                if (DbSessionPool.isActive()) {
+                    logger.debug("DbSession will be leased on LocalChannelReference");
+                    this.dbSession = DbConstant.admin.getSession();
+                } else if (DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
                     this.dbSession = new DbSession(DbConstant.admin, false);
                     this.dbSession.useConnection();
                 } else {
@@ -175,6 +180,14 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
         logger.debug("Network Channel Connected: {} ", ctx.channel().id());
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (this.networkChannelReference != null && ctx.channel().isWritable()) {
+            this.networkChannelReference.notifyWritable();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (Configuration.configuration.isShutdown())
@@ -360,8 +373,7 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
             packet.clear();
             return;
         }
-        ByteBuf buf = packet.getBuffer();
-        localChannelReference.getLocalChannel().writeAndFlush(buf);
+        localChannelReference.dispatchToLocal(packet.getBuffer());
     }
 
     @Override
@@ -27,7 +27,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
@@ -48,14 +47,13 @@ import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.future.WaarpLock;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.lru.SynchronizedLruCache;
-import org.waarp.common.utility.WaarpNettyUtil;
 import org.waarp.common.utility.WaarpThreadFactory;
 
 import com.t3c.anchel.openr66.context.ErrorCode;
 import com.t3c.anchel.openr66.context.R66Result;
 import com.t3c.anchel.openr66.context.R66Session;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
+import com.t3c.anchel.openr66.database.DbSessionPool;
 import com.t3c.anchel.openr66.database.data.DbHostAuth;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66Exception;
@@ -68,6 +66,7 @@ import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownEx
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 import com.t3c.anchel.openr66.protocol.localhandler.RetrieveRunner;
+import com.t3c.anchel.openr66.protocol.localhandler.RetrieveSender;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.AuthentPacket;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.ConnectionErrorPacket;
 import com.t3c.anchel.openr66.protocol.networkhandler.packet.NetworkPacket;
@@ -93,30 +92,25 @@ public class NetworkTransaction {
      */
     private static final WaarpLock emptyLock = new WaarpLock();
     /**
-     * Lock for Lock management operations
+     * Locks based on remote address
      */
-    private static final ReentrantLock lockOfLock = new ReentrantLock();
+    private static final NetworkChannelLocks channelLocks = new NetworkChannelLocks();
     /**
-     * Hashmap for lock based on remote address
+     * Hashmap for Currently Shutdown remote host based on socketAddress
      */
-    private static final SynchronizedLruCache<Integer, WaarpLock> reentrantLockOnSocketAddressConcurrentHashMap =
-            new SynchronizedLruCache<Integer, WaarpLock>(20000, 180000);
+    private static final ConcurrentHashMap<SocketAddress, NetworkChannelReference> networkChannelShutdownOnSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<SocketAddress, NetworkChannelReference>();
     /**
-     * Hashmap for Currently Shutdown remote host based on socketAddress.hashCode()
+     * Hashmap for Currently blacklisted remote host based on IP address(String)
      */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelShutdownOnSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
-    /**
-     * Hashmap for Currently blacklisted remote host based on IP address(String).hashCode()
-     */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
+    private static final ConcurrentHashMap<String, NetworkChannelReference> networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<String, NetworkChannelReference>();
 
     /**
-     * Hashmap for currently active remote host based on socketAddress.hashCode()
+     * Hashmap for currently active remote host based on socketAddress
      */
-    private static final ConcurrentHashMap<Integer, NetworkChannelReference> networkChannelOnSocketAddressConcurrentHashMap =
-            new ConcurrentHashMap<Integer, NetworkChannelReference>();
+    private static final ConcurrentHashMap<SocketAddress, NetworkChannelReference> networkChannelOnSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<SocketAddress, NetworkChannelReference>();
     /**
      * Remote Client NetworkChannels: used to centralize remote requester hosts (possible different address used)
      */
@@ -143,13 +137,13 @@ public class NetworkTransaction {
                 .next());
         NetworkServerInitializer networkServerInitializer = new NetworkServerInitializer(false);
         clientBootstrap = new Bootstrap();
-        WaarpNettyUtil.setBootstrap(clientBootstrap, Configuration.configuration.getNetworkWorkerGroup(),
+        NetworkTransport.setBootstrap(clientBootstrap, Configuration.configuration.getNetworkWorkerGroup(),
                 (int) Configuration.configuration.getTIMEOUTCON());
         clientBootstrap.handler(networkServerInitializer);
         clientSslBootstrap = new Bootstrap();
         if (Configuration.configuration.isUseSSL() && Configuration.configuration.getHOST_SSLID() != null) {
             NetworkSslServerInitializer networkSslServerInitializer = new NetworkSslServerInitializer(true);
-            WaarpNettyUtil.setBootstrap(clientSslBootstrap, Configuration.configuration.getNetworkWorkerGroup(),
+            NetworkTransport.setBootstrap(clientSslBootstrap, Configuration.configuration.getNetworkWorkerGroup(),
                     (int) Configuration.configuration.getTIMEOUTCON());
             clientSslBootstrap.handler(networkSslServerInitializer);
         } else {
@@ -177,69 +171,62 @@ public class NetworkTransaction {
             nb += ncr.nbLocalChannels();
         }
         partial += "\n NetworkChannels: " + networkChannelOnSocketAddressConcurrentHashMap.size() +
-                " LockOnSocketAddress: " + reentrantLockOnSocketAddressConcurrentHashMap.size() +
+                " LockOnSocketAddress: " + channelLocks.size() +
                 " Sum of NetworkChannels LocalClients: " + nb + "] ";
         return partial;
     }
 
-    private static final WaarpLock getLockNCR(SocketAddress sa) {
-        return reentrantLockOnSocketAddressConcurrentHashMap.get(sa.hashCode());
-    }
-
-    private static final void addLockNCR(SocketAddress sa, WaarpLock lock) {
-        reentrantLockOnSocketAddressConcurrentHashMap.put(sa.hashCode(), lock);
-    }
-
     private static final void addNCR(NetworkChannelReference ncr) {
-        networkChannelOnSocketAddressConcurrentHashMap.put(ncr.getSocketHashCode(), ncr);
+        networkChannelOnSocketAddressConcurrentHashMap.put(ncr.getSocketAddress(), ncr);
     }
 
-    private static final NetworkChannelReference removeNCR(NetworkChannelReference ncr) {
-        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode());
+    private static final boolean removeNCR(NetworkChannelReference ncr) {
+        // only this one, not a newer one for the same address
+        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketAddress(), ncr);
     }
 
     private static final NetworkChannelReference getNCR(SocketAddress sa) {
-        return networkChannelOnSocketAddressConcurrentHashMap.get(sa.hashCode());
+        return networkChannelOnSocketAddressConcurrentHashMap.get(sa);
     }
 
     private static final boolean containsNCR(SocketAddress address) {
-        return networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode());
+        return networkChannelOnSocketAddressConcurrentHashMap.containsKey(address);
     }
 
     private static final void addShutdownNCR(NetworkChannelReference ncr) {
-        networkChannelShutdownOnSocketAddressConcurrentHashMap.put(ncr.getSocketHashCode(), ncr);
+        networkChannelShutdownOnSocketAddressConcurrentHashMap.put(ncr.getSocketAddress(), ncr);
     }
 
     private static final NetworkChannelReference removeShutdownNCR(NetworkChannelReference ncr) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode());
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.remove(ncr.getSocketAddress());
     }
 
     private static final boolean containsShutdownNCR(NetworkChannelReference ncr) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(ncr.getSocketHashCode());
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(ncr.getSocketAddress());
     }
 
     private static final boolean containsShutdownNCR(SocketAddress sa) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(sa.hashCode());
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.containsKey(sa);
     }
 
     private static final NetworkChannelReference getShutdownNCR(SocketAddress sa) {
-        return networkChannelShutdownOnSocketAddressConcurrentHashMap.get(sa.hashCode());
+        return networkChannelShutdownOnSocketAddressConcurrentHashMap.get(sa);
     }
 
     private static final void addBlacklistNCR(NetworkChannelReference ncr) {
-        networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.put(ncr.getAddressHashCode(), ncr);
+        networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.put(ncr.getHostAddress(), ncr);
     }
 
     private static final NetworkChannelReference removeBlacklistNCR(NetworkChannelReference ncr) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.remove(ncr.getAddressHashCode());
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.remove(ncr.getHostAddress());
     }
 
     private static final boolean containsBlacklistNCR(NetworkChannelReference ncr) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(ncr.getAddressHashCode());
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(ncr.getHostAddress());
     }
 
     private static final boolean containsBlacklistNCR(SocketAddress address) {
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.containsKey(address.hashCode());
+        return getBlacklistNCR(address) != null;
     }
 
     private static final NetworkChannelReference getBlacklistNCR(SocketAddress sa) {
@@ -248,37 +235,70 @@ public class NetworkTransaction {
             return null;
         }
 
-        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.get(
-                address.getHostAddress().hashCode()
-        );
+        return networkChannelBlacklistedOnInetSocketAddressConcurrentHashMap.get(address.getHostAddress());
     }
 
-    private static final WaarpLock getChannelLock(SocketAddress socketAddress) {
-        lockOfLock.lock();
-        try {
-            if (socketAddress == null) {
-                // should not
-                logger.info("SocketAddress empty here !");
-                return emptyLock;
-            }
-            WaarpLock socketLock = getLockNCR(socketAddress);
-            if (socketLock == null) {
-                socketLock = new WaarpLock(true);
-            }
-            // update TTL
-            addLockNCR(socketAddress, socketLock);
-            return socketLock;
-        } finally {
-            lockOfLock.unlock();
+    /**
+     * 
+     * @param socketAddress
+     * @return the lock of this address, held by the current thread
+     */
+    private static final WaarpLock lockChannel(SocketAddress socketAddress) {
+        if (socketAddress == null) {
+            // should not
+            logger.info("SocketAddress empty here !");
+            emptyLock.lock();
+            return emptyLock;
+        }
+        return channelLocks.lock(socketAddress);
+    }
+
+    /**
+     * 
+     * @param socketAddress
+     * @param timeout
+     * @return the lock of this address, held by the current thread unless timeout occurs
+     */
+    private static final WaarpLock lockChannel(SocketAddress socketAddress, long timeout) {
+        if (socketAddress == null) {
+            // should not
+            logger.info("SocketAddress empty here !");
+            emptyLock.lock(timeout, TimeUnit.MILLISECONDS);
+            return emptyLock;
         }
+        return channelLocks.lock(socketAddress, timeout, TimeUnit.MILLISECONDS);
     }
 
-    private static void removeChannelLock() {
-        lockOfLock.lock();
+    /**
+     * Remove the lock of this address if not used anymore, without waiting for it
+     * 
+     * @param socketAddress
+     */
+    private static void removeChannelLock(SocketAddress socketAddress) {
+        if (socketAddress == null) {
+            return;
+        }
+        WaarpLock socketLock = channelLocks.tryLock(socketAddress);
+        if (socketLock == null) {
+            // in use or already removed
+            return;
+        }
         try {
-            reentrantLockOnSocketAddressConcurrentHashMap.forceClearOldest();
+            removeChannelLock(socketAddress, socketLock);
         } finally {
-            lockOfLock.unlock();
+            socketLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the lock of this address if not used anymore, to be called while holding it
+     * 
+     * @param socketAddress
+     * @param socketLock
+     */
+    private static void removeChannelLock(SocketAddress socketAddress, WaarpLock socketLock) {
+        if (socketAddress != null && !containsNCR(socketAddress) && !containsShutdownNCR(socketAddress)) {
+            channelLocks.removeLock(socketAddress, socketLock);
         }
     }
 
@@ -419,9 +439,8 @@ public class NetworkTransaction {
             throws OpenR66ProtocolNetworkException,
             OpenR66ProtocolRemoteShutdownException,
             OpenR66ProtocolNoConnectionException {
-        WaarpLock socketLock = getChannelLock(socketServerAddress);
         NetworkChannelReference networkChannelReference;
-        socketLock.lock();
+        WaarpLock socketLock = lockChannel(socketServerAddress);
         try {
             try {
                 networkChannelReference = getRemoteChannel(socketServerAddress);
@@ -495,6 +514,7 @@ public class NetworkTransaction {
             throw new OpenR66ProtocolNetworkException(
                     "Cannot connect to remote server", channelFuture.cause());
         } finally {
+            removeChannelLock(socketServerAddress, socketLock);
             socketLock.unlock();
         }
     }
@@ -659,9 +679,7 @@ public class NetworkTransaction {
     public static NetworkChannelReference addNetworkChannel(Channel channel)
             throws OpenR66ProtocolRemoteShutdownException {
         SocketAddress socketAddress = channel.remoteAddress();
-        WaarpLock socketLock = getChannelLock(socketAddress);
-        //socketLock.lock(Configuration.WAITFORNETOP, TimeUnit.MILLISECONDS);
-        socketLock.lock();
+        WaarpLock socketLock = lockChannel(socketAddress);
         try {
             NetworkChannelReference nc = null;
             try {
@@ -685,8 +703,7 @@ public class NetworkTransaction {
      * @param socketAddress
      */
     public static void proposeShutdownNetworkChannel(SocketAddress socketAddress) {
-        WaarpLock lock = getChannelLock(socketAddress);
-        lock.lock(Configuration.WAITFORNETOP, TimeUnit.MILLISECONDS);
+        WaarpLock lock = lockChannel(socketAddress, Configuration.WAITFORNETOP);
         try {
             logger.info("Seem Shutdown: {}", socketAddress);
             if (containsShutdownNCR(socketAddress)) {
@@ -841,8 +858,12 @@ public class NetworkTransaction {
         if (networkChannelReference != null && requester != null) {
             ClientNetworkChannels clientNetworkChannels = clientNetworkChannelsPerHostId.get(requester);
             if (clientNetworkChannels == null) {
-                clientNetworkChannels = new ClientNetworkChannels(requester);
-                clientNetworkChannelsPerHostId.put(requester, clientNetworkChannels);
+                ClientNetworkChannels newClientNetworkChannels = new ClientNetworkChannels(requester);
+                clientNetworkChannels = clientNetworkChannelsPerHostId.putIfAbsent(requester,
+                        newClientNetworkChannels);
+                if (clientNetworkChannels == null) {
+                    clientNetworkChannels = newClientNetworkChannels;
+                }
             }
             clientNetworkChannels.add(networkChannelReference);
             logger.debug("AddClient: add count? " + clientNetworkChannels.size() + " for " + requester);
@@ -899,7 +920,7 @@ public class NetworkTransaction {
                 }
             }
         } finally {
-            removeChannelLock();
+            removeChannelLock(networkChannelReference.getSocketAddress());
         }
     }
 
@@ -913,7 +934,7 @@ public class NetworkTransaction {
             return;
         }
         NetworkChannelReference networkChannelReference =
-                networkChannelOnSocketAddressConcurrentHashMap.get(address.hashCode());
+                networkChannelOnSocketAddressConcurrentHashMap.get(address);
         closedNetworkChannel(networkChannelReference);
     }
 
@@ -1009,9 +1030,9 @@ public class NetworkTransaction {
      */
     public static int nbAttachedConnection(SocketAddress address, String host) {
         logger.debug("nbAttachedConnection: "
-                + networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode()) + ":"
+                + networkChannelOnSocketAddressConcurrentHashMap.containsKey(address) + ":"
                 + getNumberClients(host));
-        return (networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode()) ? 1
+        return (networkChannelOnSocketAddressConcurrentHashMap.containsKey(address) ? 1
                 : 0)
                 + getNumberClients(host);
     }
@@ -1152,6 +1173,7 @@ public class NetworkTransaction {
             if (ncr.channel != null) {
                 inShutdownRunning.remove(ncr.channel.id());
             }
+            removeChannelLock(ncr.getSocketAddress());
         }
     }
 
@@ -1170,6 +1192,13 @@ public class NetworkTransaction {
      * @param channel
      */
     public static void runRetrieve(R66Session session, LocalChannel channel) {
+        if (RetrieveSender.isActive()) {
+            RetrieveSender retrieveSender = new RetrieveSender(session, channel);
+            retrieveRunnerConcurrentHashMap.put(session.getLocalChannelReference().getLocalId(),
+                    retrieveSender);
+            retrieveSender.startSender();
+            return;
+        }
         RetrieveRunner retrieveRunner = new RetrieveRunner(session, channel);
         retrieveRunnerConcurrentHashMap.put(session.getLocalChannelReference().getLocalId(),
                 retrieveRunner);
@@ -1204,6 +1233,7 @@ public class NetworkTransaction {
      */
     public static void closeRetrieveExecutors() {
         retrieveExecutor.shutdownNow();
+        RetrieveSender.shutdown();
     }
 
     /**
@@ -1226,6 +1256,7 @@ public class NetworkTransaction {
             Thread.sleep(Configuration.WAITFORNETOP);
         } catch (InterruptedException e) {
         }
+        DbSessionPool.stop();
         DbAdmin.closeAllConnection();
         Configuration.configuration.clientStop(quickShutdown);
         if (!Configuration.configuration.isServer()) {
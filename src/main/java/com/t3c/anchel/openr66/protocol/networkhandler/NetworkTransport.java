@@ -0,0 +1,183 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.networkhandler;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadFactory;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpNettyUtil;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+
+/**
+ * Choice of the network transport: Netty native epoll transport on Linux when asked and
+ * available, else NIO.<br>
+ * <br>
+ * With epoll, server channels use SO_REUSEPORT, so that several server channels (acceptors) could
+ * be bound on the same port, and channels are in edge-triggered mode. Event loop groups and
+ * bootstraps of network connections must all be created from here, since a channel can only be
+ * registered on an event loop of the same transport.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class NetworkTransport {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(NetworkTransport.class);
+
+    private static Boolean epoll = null;
+
+    private NetworkTransport() {
+    }
+
+    /**
+     *
+     * @return True if the epoll transport is used (asked and available)
+     */
+    public static synchronized boolean isEpoll() {
+        if (epoll == null) {
+            boolean available = false;
+            if (Configuration.configuration.isTransportEpoll()) {
+                try {
+                    available = Epoll.isAvailable();
+                    if (!available) {
+                        logger.warn("Epoll transport not available, NIO is used: "
+                                + Epoll.unavailabilityCause());
+                    }
+                } catch (Throwable e) {
+                    // native transport not in the classpath
+                    logger.warn("Epoll transport not available, NIO is used: " + e.getMessage());
+                }
+            }
+            epoll = available;
+        }
+        return epoll;
+    }
+
+    /**
+     *
+     * @param nbThreads
+     * @param threadFactory
+     * @return a new EventLoopGroup for network channels
+     */
+    public static EventLoopGroup newEventLoopGroup(int nbThreads, ThreadFactory threadFactory) {
+        if (isEpoll()) {
+            return new EpollEventLoopGroup(nbThreads, threadFactory);
+        }
+        return new NioEventLoopGroup(nbThreads, threadFactory);
+    }
+
+    /**
+     * Set the server bootstrap, as WaarpNettyUtil does for NIO
+     *
+     * @param bootstrap
+     * @param groupBoss
+     * @param groupWorker
+     * @param timeout
+     */
+    public static void setServerBootstrap(ServerBootstrap bootstrap, EventLoopGroup groupBoss,
+            EventLoopGroup groupWorker, int timeout) {
+        if (!isEpoll()) {
+            WaarpNettyUtil.setServerBootstrap(bootstrap, groupBoss, groupWorker, timeout);
+            return;
+        }
+        bootstrap.channel(EpollServerSocketChannel.class);
+        bootstrap.group(groupBoss, groupWorker);
+        bootstrap.option(ChannelOption.SO_REUSEADDR, true);
+        bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        bootstrap.childOption(ChannelOption.SO_REUSEADDR, true);
+        bootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
+        bootstrap.childOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout);
+    }
+
+    /**
+     * Set the client bootstrap, as WaarpNettyUtil does for NIO
+     *
+     * @param bootstrap
+     * @param group
+     * @param timeout
+     */
+    public static void setBootstrap(Bootstrap bootstrap, EventLoopGroup group, int timeout) {
+        if (!isEpoll()) {
+            WaarpNettyUtil.setBootstrap(bootstrap, group, timeout);
+            return;
+        }
+        bootstrap.channel(EpollSocketChannel.class);
+        bootstrap.group(group);
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        bootstrap.option(ChannelOption.SO_REUSEADDR, true);
+        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout);
+    }
+
+    /**
+     * Bind the server bootstrap, several times on the same address with epoll (SO_REUSEPORT) if
+     * more than one acceptor is configured
+     *
+     * @param bootstrap
+     * @param address
+     * @param group
+     *            where the bound channels are added, if not null
+     * @return the future of the first bind
+     */
+    public static ChannelFuture bind(ServerBootstrap bootstrap, SocketAddress address, ChannelGroup group) {
+        ChannelFuture future = bootstrap.bind(address).awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            return future;
+        }
+        if (group != null) {
+            group.add(future.channel());
+        }
+        if (isEpoll()) {
+            for (int i = 1; i < Configuration.configuration.getTransportAcceptors(); i++) {
+                ChannelFuture other = bootstrap.bind(address).awaitUninterruptibly();
+                if (other.isSuccess()) {
+                    if (group != null) {
+                        group.add(other.channel());
+                    }
+                } else {
+                    logger.warn("Cannot bind one more acceptor on " + address, other.cause());
+                    break;
+                }
+            }
+        }
+        return future;
+    }
+}
@@ -17,12 +17,15 @@
  */
 package com.t3c.anchel.openr66.protocol.networkhandler.packet;
 
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 import com.t3c.anchel.openr66.protocol.localhandler.packet.AbstractLocalPacket;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.DataPacket;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 
 /**
  * Network Packet A Packet is composed of one global length field, two Id (4 bytes x 2) and a
@@ -40,6 +43,11 @@ public class NetworkPacket {
 
     private final byte code;
 
+    /**
+     * Data part coming directly from the file (sendfile), following the buffer
+     */
+    private FileRegion fileRegion = null;
+
     /**
      * @param localId
      * @param remoteId
@@ -68,6 +76,9 @@ public class NetworkPacket {
         this.localId = localId;
         code = packet.getType();
         buffer = packet.getLocalPacket(lcr);
+        if (packet instanceof DataPacket) {
+            fileRegion = ((DataPacket) packet).getFileRegion();
+        }
     }
 
     /**
@@ -99,11 +110,25 @@ public class NetworkPacket {
     }
 
     /**
-     * @return The corresponding ByteBuf
+     * @return the FileRegion following the buffer if any
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
+    /**
+     * @return the length of the FileRegion following the buffer (0 if none)
+     */
+    public int getFileRegionLength() {
+        return fileRegion == null ? 0 : (int) fileRegion.count();
+    }
+
+    /**
+     * @return The corresponding ByteBuf (without the FileRegion if any)
      */
     public ByteBuf getNetworkPacket() {
-        final ByteBuf buf = Unpooled.buffer(13);
-        buf.writeInt(buffer.readableBytes() + 9);
+        final ByteBuf buf = Configuration.configuration.getByteBufAllocator().buffer(13);
+        buf.writeInt(buffer.readableBytes() + getFileRegionLength() + 9);
         buf.writeInt(remoteId);
         buf.writeInt(localId);
         buf.writeByte(code);
@@ -113,7 +138,7 @@ public class NetworkPacket {
     @Override
     public String toString() {
         return "RId: " + remoteId + " LId: " + localId + " Code: " + code +
-                " Length: " + buffer.readableBytes();
+                " Length: " + (buffer.readableBytes() + getFileRegionLength());
     }
 
     public void clear() {
@@ -17,88 +17,17 @@
  */
 package com.t3c.anchel.openr66.protocol.networkhandler.packet;
 
-import java.util.List;
-
-import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
-import com.t3c.anchel.openr66.protocol.localhandler.packet.KeepAlivePacket;
-import com.t3c.anchel.openr66.protocol.localhandler.packet.LocalPacketCodec;
-import com.t3c.anchel.openr66.protocol.localhandler.packet.LocalPacketFactory;
-import com.t3c.anchel.openr66.protocol.localhandler.packet.NoOpPacket;
-import com.t3c.anchel.openr66.protocol.networkhandler.NetworkChannelReference;
-import com.t3c.anchel.openr66.protocol.networkhandler.NetworkServerHandler;
-import com.t3c.anchel.openr66.protocol.networkhandler.NetworkTransaction;
-import com.t3c.anchel.openr66.protocol.utils.ChannelUtils;
-
-import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.channel.CombinedChannelDuplexHandler;
 
 /**
- * Packet Decoder
+ * Packet Codec
  * 
  * @author Frederic Bregier
  */
-public class NetworkPacketCodec extends ByteToMessageCodec<NetworkPacket> {
-
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
-        // Make sure if the length field was received.
-        if (buf.readableBytes() < 4) {
-            // The length field was not received yet - return null.
-            // This method will be invoked again when more packets are
-            // received and appended to the buffer.
-            return;
-        }
-        // Mark the current buffer position
-        buf.markReaderIndex();
-        // Read the length field
-        final int length = buf.readInt();
-        if (length < 9) {
-            throw new OpenR66ProtocolPacketException("Incorrect decode first field in Network Packet: " + length
-                    + " < 9");
-        }
-        if (buf.readableBytes() < length) {
-            buf.resetReaderIndex();
-            return;
-        }
-        // Now we can read the two Ids
-        final int localId = buf.readInt();
-        final int remoteId = buf.readInt();
-        final byte code = buf.readByte();
-        int readerInder = buf.readerIndex();
-        ByteBuf buffer = buf.slice(readerInder, length - 9);
-        buffer.retain();
-        buf.skipBytes(length - 9);
-        NetworkPacket networkPacket = new NetworkPacket(localId, remoteId, code, buffer);
-        if (code == LocalPacketFactory.KEEPALIVEPACKET) {
-            KeepAlivePacket keepAlivePacket = (KeepAlivePacket)
-                    LocalPacketCodec.decodeNetworkPacket(networkPacket.getBuffer());
-            if (keepAlivePacket.isToValidate()) {
-                keepAlivePacket.validate();
-                NetworkPacket response =
-                        new NetworkPacket(ChannelUtils.NOCHANNEL,
-                                ChannelUtils.NOCHANNEL, keepAlivePacket, null);
-                NetworkChannelReference nc = NetworkTransaction.getImmediateNetworkChannel(ctx.channel());
-                if (nc != null) {
-                    nc.useIfUsed();
-                }
-                ctx.writeAndFlush(response.getNetworkPacket());
-            }
-            // Replaced by a NoOp packet
-            networkPacket = new NetworkPacket(localId, remoteId, new NoOpPacket(), null);
-            NetworkServerHandler nsh = (NetworkServerHandler) ctx.pipeline().last();
-            nsh.setKeepAlivedSent();
-        }
-        out.add(networkPacket);
-    }
+public class NetworkPacketCodec extends CombinedChannelDuplexHandler<NetworkPacketDecoder, NetworkPacketEncoder> {
 
-    @Override
-    protected void encode(ChannelHandlerContext ctx, NetworkPacket msg, ByteBuf out) throws Exception {
-        final NetworkPacket packet = (NetworkPacket) msg;
-        final ByteBuf finalBuf = packet.getNetworkPacket();
-        out.writeBytes(finalBuf);
-        finalBuf.release();
-        //msg.getBuffer().release();
+    public NetworkPacketCodec() {
+        super(new NetworkPacketDecoder(), new NetworkPacketEncoder());
     }
 
 }
@@ -0,0 +1,43 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.networkhandler.packet;
+
+import java.util.List;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+/**
+ * Packet Encoder: header and data are passed as separate buffers to the transport (no copy), and
+ * the FileRegion if any is passed as is (sendfile)
+ * 
+ * @author Frederic Bregier
+ */
+public class NetworkPacketEncoder extends MessageToMessageEncoder<NetworkPacket> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, NetworkPacket msg, List<Object> out) throws Exception {
+        out.add(msg.getNetworkPacket());
+        final FileRegion region = msg.getFileRegion();
+        if (region != null) {
+            out.add(region);
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FileRegion;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.ChannelGroupFutureListener;
 import io.netty.channel.local.LocalChannel;
@@ -43,6 +44,7 @@ import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
 import com.t3c.anchel.openr66.context.R66FiniteDualStates;
 import com.t3c.anchel.openr66.context.task.localexec.LocalExecClient;
 import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.DbSessionPool;
 import com.t3c.anchel.openr66.database.data.DbTaskRunner;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.configuration.Messages;
@@ -210,16 +212,57 @@ public class ChannelUtils extends Thread {
     public static ChannelFuture writeBackDataBlock(
             LocalChannelReference localChannelReference, DataBlock block)
             throws OpenR66ProtocolPacketException {
+        return writeBackDataBlock(localChannelReference, block, true);
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @param block
+     * @param flush
+     *            if False, the write is not flushed and the caller is responsible to flush the network
+     *            channel before waiting for the returned future
+     * @return the ChannelFuture of this write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static ChannelFuture writeBackDataBlock(
+            LocalChannelReference localChannelReference, DataBlock block, boolean flush)
+            throws OpenR66ProtocolPacketException {
         ByteBuf md5 = Unpooled.EMPTY_BUFFER;
         DbTaskRunner runner = localChannelReference.getSession().getRunner();
         if (RequestPacket.isMD5Mode(runner.getMode())) {
-            md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest());
+            if (FileUtils.useBlockCrc(localChannelReference)) {
+                md5 = FileUtils.getCrc(block.getBlock());
+            } else {
+                md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest());
+            }
         }
         if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
             localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
         }
         DataPacket data = new DataPacket(runner.getRank(), block.getBlock(), md5);// was block.getBlock().copy()
-        ChannelFuture future = writeAbstractLocalPacket(localChannelReference, data, false);
+        ChannelFuture future = writeDataPacket(localChannelReference, data, flush);
+        runner.incrementRank();
+        return future;
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @param region
+     *            the part of the file to send directly (sendfile)
+     * @return the ChannelFuture of this write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static ChannelFuture writeBackDataRegion(
+            LocalChannelReference localChannelReference, FileRegion region, boolean flush)
+            throws OpenR66ProtocolPacketException {
+        DbTaskRunner runner = localChannelReference.getSession().getRunner();
+        if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
+            localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
+        }
+        DataPacket data = new DataPacket(runner.getRank(), region);
+        ChannelFuture future = writeDataPacket(localChannelReference, data, flush);
         runner.incrementRank();
         return future;
     }
@@ -290,6 +333,33 @@ public class ChannelUtils extends Thread {
         }
     }
 
+    /**
+     * Write a DataPacket to the network Channel, flushing it only if asked
+     * 
+     * @param localChannelReference
+     * @param packet
+     * @param flush
+     * @return the ChannelFuture on write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    private static ChannelFuture writeDataPacket(
+            LocalChannelReference localChannelReference, DataPacket packet, boolean flush)
+            throws OpenR66ProtocolPacketException {
+        if (flush) {
+            return writeAbstractLocalPacket(localChannelReference, packet, false);
+        }
+        final NetworkPacket networkPacket;
+        try {
+            networkPacket = new NetworkPacket(localChannelReference
+                    .getLocalId(), localChannelReference.getRemoteId(), packet, localChannelReference);
+        } catch (OpenR66ProtocolPacketException e) {
+            logger.error(Messages.getString("ChannelUtils.6") + packet.toString(), //$NON-NLS-1$
+                    e);
+            throw e;
+        }
+        return localChannelReference.getNetworkChannel().write(networkPacket);
+    }
+
     /**
      * Write an AbstractLocalPacket to the Local Channel
      * 
@@ -410,6 +480,7 @@ public class ChannelUtils extends Thread {
         logger.info("Exit Shutdown Command");
         terminateCommandChannels();
         logger.info("Exit Shutdown Db Connection");
+        DbSessionPool.stop();
         DbAdmin.closeAllConnection();
         logger.info("Exit Shutdown ServerStop");
         Configuration.configuration.serverStop();
@@ -0,0 +1,428 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+
+/**
+ * Bundle of many small files sent as one transfer (one runner, one request and one end of
+ * request instead of one by file).<br>
+ * <br>
+ * The bundle is a simple framing: a header (magic and version), then for each file a marker, its
+ * name, length and modification time followed by its content, then an end marker. Only the name
+ * of the file is kept (no path). An extracted file never replaces a file not extracted from this
+ * bundle (nor its index): it is then extracted under the name of the bundle, a rank and its
+ * name.<br>
+ * The index (sidecar file with the extension ".idx") keeps the identity and the result of each
+ * file: on the sender, the original path of each file; on the receiver, the extracted file and the
+ * result of its post-task hook, so that a bundle extracted again only handles the files not yet
+ * done.<br>
+ * Once sent successfully, a bundle and its index are deleted (at the end of the request of the
+ * sender); a bundle not sent keeps its index with the error status, for a restart.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class FileBundle {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(FileBundle.class);
+
+    /**
+     * Extension of the bundles
+     */
+    public static final String EXTENSION = ".r66b";
+    /**
+     * Extension of the index of one bundle
+     */
+    public static final String INDEX_EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x52363642; // R66B
+    private static final int VERSION = 1;
+    private static final int BUFFER = 65536;
+
+    /**
+     * Status of a file in the bundle: bundled, not handled yet
+     */
+    public static final char BUNDLED = 'B';
+    /**
+     * Status of a file in the bundle: extracted and handled
+     */
+    public static final char DONE = 'D';
+    /**
+     * Status of a file in the bundle: extracted but in error
+     */
+    public static final char ERROR = 'E';
+
+    /**
+     * One file of a bundle
+     */
+    public static class Entry {
+        /**
+         * Name in the bundle
+         */
+        public final String name;
+        public final long length;
+        public final long lastModified;
+        /**
+         * Original path on the sender, extracted path on the receiver
+         */
+        public String path;
+        public char status = BUNDLED;
+
+        Entry(String name, long length, long lastModified, String path) {
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return status + "\t" + length + "\t" + lastModified + "\t" + name + "\t" + path;
+        }
+    }
+
+    /**
+     * Called for each extracted file
+     */
+    public static interface EntryHandler {
+        /**
+         *
+         * @param entry
+         *            with its extracted path
+         * @return True if the file is handled
+         */
+        public boolean handle(Entry entry);
+    }
+
+    private FileBundle() {
+    }
+
+    /**
+     *
+     * @param bundle
+     * @return the index file of this bundle
+     */
+    public static File getIndexFile(File bundle) {
+        return new File(bundle.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Create the bundle from the files, and its index
+     *
+     * @param bundle
+     * @param files
+     * @return the entries of the bundle
+     * @throws IOException
+     */
+    public static List<Entry> create(File bundle, List<File> files) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>(files.size());
+        Set<String> names = new HashSet<String>(files.size() * 2);
+        byte[] buffer = new byte[BUFFER];
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bundle), BUFFER));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (File file : files) {
+                String name = file.getName();
+                if (!names.add(name)) {
+                    // same name from another directory
+                    name = entries.size() + "_" + name;
+                    names.add(name);
+                }
+                long length = file.length();
+                Entry entry = new Entry(name, length, file.lastModified(), file.getAbsolutePath());
+                out.writeBoolean(true);
+                out.writeUTF(name);
+                out.writeLong(length);
+                out.writeLong(entry.lastModified);
+                InputStream in = new FileInputStream(file);
+                try {
+                    copy(in, out, length, buffer);
+                } finally {
+                    in.close();
+                }
+                entries.add(entry);
+            }
+            out.writeBoolean(false);
+        } catch (IOException e) {
+            out.close();
+            bundle.delete();
+            throw e;
+        }
+        out.close();
+        writeIndex(getIndexFile(bundle), entries);
+        return entries;
+    }
+
+    /**
+     * Extract the bundle in the directory, calling the handler for each extracted file. Files
+     * already done according to the index of this extraction are skipped.
+     *
+     * @param bundle
+     * @param directory
+     * @param handler
+     *            might be null
+     * @return the entries of the bundle, with their extracted path and status, also written in
+     *         the index in the directory
+     * @throws IOException
+     */
+    public static List<Entry> extract(File bundle, File directory, EntryHandler handler) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the directory: " + directory);
+        }
+        File index = getIndexFile(new File(directory, bundle.getName()));
+        Map<String, Entry> previous = new HashMap<String, Entry>();
+        if (index.exists()) {
+            for (Entry entry : readIndex(index)) {
+                previous.put(entry.name, entry);
+            }
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        // names not to be used by the extracted files
+        Set<String> used = new HashSet<String>();
+        used.add(bundle.getName());
+        used.add(index.getName());
+        byte[] buffer = new byte[BUFFER];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bundle), BUFFER));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a bundle: " + bundle);
+            }
+            while (in.readBoolean()) {
+                // never outside the directory
+                String name = new File(in.readUTF()).getName();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                Entry done = previous.get(name);
+                File file = getTarget(directory, bundle.getName(), name, done, used);
+                Entry entry = new Entry(name, length, lastModified, file.getAbsolutePath());
+                entries.add(entry);
+                if (done != null && done.status == DONE) {
+                    skip(in, length);
+                    entry.status = DONE;
+                    continue;
+                }
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    copy(in, out, length, buffer);
+                } finally {
+                    out.close();
+                }
+                if (lastModified > 0) {
+                    file.setLastModified(lastModified);
+                }
+                entry.status = DONE;
+                if (handler != null) {
+                    try {
+                        if (!handler.handle(entry)) {
+                            entry.status = ERROR;
+                        }
+                    } catch (RuntimeException e) {
+                        logger.warn("Error while handling " + file, e);
+                        entry.status = ERROR;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+            writeIndex(index, entries);
+        }
+        return entries;
+    }
+
+    /**
+     *
+     * @param directory
+     * @param bundleName
+     * @param name
+     *            name in the bundle
+     * @param previous
+     *            the entry of the previous extraction, null if none
+     * @param used
+     *            names already used by this extraction, updated
+     * @return the file where to extract this entry: the one of the previous extraction, else the
+     *         name in the bundle if free, else a new name from the bundle name and a rank
+     */
+    private static File getTarget(File directory, String bundleName, String name, Entry previous,
+            Set<String> used) {
+        if (previous != null && previous.path != null) {
+            File file = new File(previous.path);
+            if (directory.getAbsoluteFile().equals(file.getParentFile()) && used.add(file.getName())) {
+                return file;
+            }
+        }
+        String target = name;
+        int rank = 0;
+        while (used.contains(target) || new File(directory, target).exists()) {
+            target = bundleName + "_" + rank + "_" + name;
+            rank++;
+        }
+        used.add(target);
+        return new File(directory, target);
+    }
+
+    /**
+     * Write the index
+     *
+     * @param index
+     * @param entries
+     * @throws IOException
+     */
+    public static void writeIndex(File index, List<Entry> entries) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(index),
+                WaarpStringUtils.UTF8));
+        try {
+            for (Entry entry : entries) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read the index, ignoring incomplete lines
+     *
+     * @param index
+     * @return the entries of the index
+     * @throws IOException
+     */
+    public static List<Entry> readIndex(File index) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index),
+                WaarpStringUtils.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 5 || fields[0].length() != 1) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            fields[4]);
+                    entry.status = fields[0].charAt(0);
+                    entries.add(entry);
+                } catch (NumberFormatException e) {
+                    logger.debug("Incorrect line in index: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Set the status of all files of the index of the bundle (as the result of its transfer)
+     *
+     * @param bundle
+     * @param status
+     */
+    public static void setStatus(File bundle, char status) {
+        File index = getIndexFile(bundle);
+        if (!index.exists()) {
+            return;
+        }
+        try {
+            List<Entry> entries = readIndex(index);
+            for (Entry entry : entries) {
+                entry.status = status;
+            }
+            writeIndex(index, entries);
+        } catch (IOException e) {
+            logger.warn("Cannot update the index: " + index + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @return True if this file is a bundle with its index (as created by the sender)
+     */
+    public static boolean isBundle(File file) {
+        return file != null && file.getName().endsWith(EXTENSION) && getIndexFile(file).isFile();
+    }
+
+    /**
+     * Delete the bundle and its index, once the bundle is correctly transferred
+     *
+     * @param bundle
+     */
+    public static void delete(File bundle) {
+        File index = getIndexFile(bundle);
+        if (bundle.exists() && !bundle.delete()) {
+            logger.warn("Cannot delete the bundle: " + bundle);
+            return;
+        }
+        if (index.exists() && !index.delete()) {
+            logger.warn("Cannot delete the index: " + index);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length, byte[] buffer) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static void skip(DataInputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of bundle");
+            }
+            remaining -= skipped;
+        }
+    }
+}
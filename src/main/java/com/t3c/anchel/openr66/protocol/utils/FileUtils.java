@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -43,6 +44,7 @@ import com.t3c.anchel.openr66.context.filesystem.R66File;
 import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
 import com.t3c.anchel.openr66.protocol.configuration.Configuration;
 import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import com.t3c.anchel.openr66.protocol.localhandler.LocalChannelReference;
 
 /**
  * File Utils
@@ -509,7 +511,40 @@ public class FileUtils {
         } catch (IOException e) {
             return Unpooled.EMPTY_BUFFER;
         }
-        return Unpooled.wrappedBuffer(newkey);
+        ByteBuf key = Configuration.configuration.getByteBufAllocator().buffer(newkey.length);
+        key.writeBytes(newkey);
+        return key;
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return True if blocks in MD5 mode are checked with a CRC32 (both partners using it)
+     */
+    public final static boolean useBlockCrc(LocalChannelReference localChannelReference) {
+        return Configuration.configuration.isBlockCrc() && localChannelReference.getPartner() != null
+                && localChannelReference.getPartner().useBlockCrc();
+    }
+
+    /**
+     * 
+     * @param buffer
+     *            not consumed
+     * @return the CRC32 (4 bytes) of the given Buffer
+     */
+    public final static ByteBuf getCrc(ByteBuf buffer) {
+        CRC32 crc32 = new CRC32();
+        int length = buffer.readableBytes();
+        if (buffer.hasArray()) {
+            crc32.update(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.getBytes(buffer.readerIndex(), bytes);
+            crc32.update(bytes, 0, length);
+        }
+        ByteBuf key = Configuration.configuration.getByteBufAllocator().buffer(4);
+        key.writeInt((int) crc32.getValue());
+        return key;
     }
 
     /**
@@ -17,6 +17,9 @@
  */
 package com.t3c.anchel.openr66.protocol.utils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.waarp.common.future.WaarpFuture;
 
 import com.t3c.anchel.openr66.context.R66Result;
@@ -36,6 +39,11 @@ public class R66Future extends WaarpFuture {
      */
     private DbTaskRunner runner = null;
     private long filesize = 0;
+    /**
+     * Listeners called once done
+     */
+    private final List<Runnable> listeners = new ArrayList<Runnable>(1);
+    private boolean notified = false;
 
     /**
      *
@@ -65,6 +73,69 @@ public class R66Future extends WaarpFuture {
         this.result = result;
     }
 
+    /**
+     * Add a listener called once this future is done (immediately if already done), in the thread
+     * that sets it done, so that the listener must not block
+     * 
+     * @param listener
+     */
+    public void addListener(Runnable listener) {
+        synchronized (listeners) {
+            if (!notified && !isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void notifyListeners() {
+        Runnable[] toCall;
+        synchronized (listeners) {
+            notified = true;
+            toCall = listeners.toArray(new Runnable[listeners.size()]);
+            listeners.clear();
+        }
+        for (Runnable listener : toCall) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public boolean setSuccess() {
+        boolean set = super.setSuccess();
+        if (set) {
+            notifyListeners();
+        }
+        return set;
+    }
+
+    @Override
+    public boolean setFailure(Throwable cause) {
+        boolean set = super.setFailure(cause);
+        if (set) {
+            notifyListeners();
+        }
+        return set;
+    }
+
+    @Override
+    public boolean cancel() {
+        boolean set = super.cancel();
+        if (set) {
+            notifyListeners();
+        }
+        return set;
+    }
+
+    @Override
+    public void reset() {
+        synchronized (listeners) {
+            super.reset();
+            notified = false;
+        }
+    }
+
     @Override
     public String toString() {
         return "Future: " + isDone() + " " + isSuccess() + " " +
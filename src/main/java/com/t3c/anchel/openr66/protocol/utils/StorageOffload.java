@@ -0,0 +1,447 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.storageregistration.Implements.StorageAwsImpl;
+
+/**
+ * Uploads and downloads of files to or from the object storage done by a bounded pool of workers,
+ * instead of the transfer itself.<br>
+ * <br>
+ * Uploads are asynchronous: they are written in a journal (working directory) when queued and
+ * when done, so that pending uploads are queued again at the next startup. An upload still in
+ * error after all retries is journaled as failed but stays pending, and so is queued again at the
+ * next startup. The local file can be deleted once uploaded (and only then), even after a
+ * restart. Downloads are still
+ * awaited by the transfer (the file is needed to be sent) but are done by the workers, a second
+ * request for the same file waiting for the current download.<br>
+ * Operations in error are retried with an increasing delay. The number of queued uploads is
+ * limited (backpressure): when full, the caller waits for a free place.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class StorageOffload {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(StorageOffload.class);
+
+    private static final String JOURNAL = "storage-offload.journal";
+    private static final String UPLOAD = "U ";
+    private static final String UPLOAD_DELETE = "R ";
+    private static final String DONE = "D ";
+    private static final String FAILED = "F ";
+    private static final int PENDING_BY_WORKER = 64;
+    private static final long RETRY_DELAY = 1000;
+
+    /**
+     * Object storage used by the workers
+     */
+    public static interface ObjectStorage {
+        /**
+         * Upload the file to the storage
+         *
+         * @param path
+         * @throws Exception
+         */
+        public void upload(String path) throws Exception;
+
+        /**
+         * Download the file from the storage
+         *
+         * @param path
+         * @throws Exception
+         */
+        public void download(String path) throws Exception;
+    }
+
+    /**
+     * The default Object storage
+     */
+    public static class AwsStorage implements ObjectStorage {
+        @Override
+        public void upload(String path) throws Exception {
+            new StorageAwsImpl().sendFile(path);
+        }
+
+        @Override
+        public void download(String path) throws Exception {
+            new StorageAwsImpl().GetById(path);
+        }
+    }
+
+    private static StorageOffload offload = null;
+
+    private final ObjectStorage storage;
+    private final int retry;
+    private final long retryDelay;
+    private final File journal;
+    private final ScheduledExecutorService executor;
+    private final Semaphore pendingUploads;
+    private final AtomicInteger running = new AtomicInteger();
+    private final LinkedHashSet<String> journalPending = new LinkedHashSet<String>();
+    private final ConcurrentHashMap<String, FutureTask<Boolean>> downloads = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+
+    /**
+     * @param storage
+     * @param workers
+     *            number of workers (minimum 1)
+     * @param retry
+     *            number of retries of an operation in error
+     * @param retryDelay
+     *            delay in ms before the first retry (doubled on each retry)
+     * @param journal
+     *            the journal of uploads, null for none
+     */
+    public StorageOffload(ObjectStorage storage, int workers, int retry, long retryDelay, File journal) {
+        if (workers < 1) {
+            workers = 1;
+        }
+        this.storage = storage;
+        this.retry = retry;
+        this.retryDelay = retryDelay;
+        this.journal = journal;
+        this.pendingUploads = new Semaphore(workers * PENDING_BY_WORKER);
+        this.executor = Executors.newScheduledThreadPool(workers, new WaarpThreadFactory("StorageOffload"));
+        replay();
+    }
+
+    /**
+     *
+     * @return True if the object storage is called by workers
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.getStorageWorkers() > 0;
+    }
+
+    /**
+     *
+     * @return the StorageOffload from the configuration (pending uploads of the journal being
+     *         queued again at first call)
+     */
+    public static synchronized StorageOffload getInstance() {
+        if (offload == null) {
+            File journal = new File(new File(Configuration.configuration.getBaseDirectory(),
+                    Configuration.configuration.getWorkingPath()), JOURNAL);
+            offload = new StorageOffload(new AwsStorage(), Configuration.configuration.getStorageWorkers(),
+                    Configuration.configuration.getStorageRetry(), RETRY_DELAY, journal);
+        }
+        return offload;
+    }
+
+    /**
+     * Upload this file to the object storage, asynchronously if workers are used
+     *
+     * @param path
+     */
+    public static void upload(String path) {
+        upload(path, false);
+    }
+
+    /**
+     * Upload this file to the object storage, asynchronously if workers are used
+     *
+     * @param path
+     * @param delete
+     *            True to delete the local file once uploaded
+     */
+    public static void upload(String path, boolean delete) {
+        if (!isActive()) {
+            new StorageAwsImpl().sendFile(path);
+            if (delete) {
+                deleteUploaded(path);
+            }
+            return;
+        }
+        getInstance().queueUpload(path, delete);
+    }
+
+    /**
+     * Download this file from the object storage, through the workers if used
+     *
+     * @param path
+     * @return True if the file is available
+     */
+    public static boolean download(String path) {
+        if (!isActive()) {
+            new StorageAwsImpl().GetById(path);
+            return new File(path).exists();
+        }
+        return getInstance().awaitDownload(path);
+    }
+
+    /**
+     * Stop the workers if any, pending uploads staying in the journal
+     */
+    public static synchronized void stop() {
+        if (offload != null) {
+            offload.shutdown();
+            offload = null;
+        }
+    }
+
+    /**
+     * Queue one upload, waiting if too many are already queued
+     *
+     * @param path
+     */
+    public void queueUpload(String path) {
+        queueUpload(path, false);
+    }
+
+    /**
+     * Queue one upload, waiting if too many are already queued
+     *
+     * @param path
+     * @param delete
+     *            True to delete the local file once uploaded
+     */
+    public void queueUpload(String path, boolean delete) {
+        pendingUploads.acquireUninterruptibly();
+        journal(delete ? UPLOAD_DELETE : UPLOAD, path);
+        running.incrementAndGet();
+        executor.execute(new Upload(path, delete, 0));
+    }
+
+    /**
+     * Download one file (or wait for the current download of the same file)
+     *
+     * @param path
+     * @return True if the file is available
+     */
+    public boolean awaitDownload(final String path) {
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i <= retry; i++) {
+                    try {
+                        storage.download(path);
+                        if (new File(path).exists()) {
+                            return;
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Download in error: " + path + " since " + e.getMessage());
+                    }
+                    if (i < retry) {
+                        try {
+                            Thread.sleep(retryDelay << i);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, Boolean.TRUE);
+        FutureTask<Boolean> previous = downloads.putIfAbsent(path, task);
+        if (previous != null) {
+            task = previous;
+        } else {
+            executor.execute(task);
+        }
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Download in error: " + path, e.getCause());
+        } finally {
+            downloads.remove(path, task);
+        }
+        return new File(path).exists();
+    }
+
+    /**
+     *
+     * @return the number of uploads not done yet
+     */
+    public int getPendingUploads() {
+        return running.get();
+    }
+
+    /**
+     * Wait for all queued uploads to be done (for tests and shutdown)
+     *
+     * @param timeout
+     *            in ms
+     * @return True if all uploads are done
+     */
+    public boolean awaitIdle(long timeout) {
+        long limit = System.currentTimeMillis() + timeout;
+        while (running.get() > 0) {
+            if (System.currentTimeMillis() > limit) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the workers, pending uploads staying in the journal
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void deleteUploaded(String path) {
+        File file = new File(path);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Cannot delete uploaded file: " + path);
+        }
+    }
+
+    private class Upload implements Runnable {
+        private final String path;
+        private final boolean delete;
+        private final int attempt;
+
+        private Upload(String path, boolean delete, int attempt) {
+            this.path = path;
+            this.delete = delete;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                storage.upload(path);
+                journal(DONE, path);
+                if (delete) {
+                    deleteUploaded(path);
+                }
+            } catch (Exception e) {
+                if (attempt < retry) {
+                    logger.warn("Upload in error, will retry: " + path + " since " + e.getMessage());
+                    executor.schedule(new Upload(path, delete, attempt + 1), retryDelay << attempt,
+                            TimeUnit.MILLISECONDS);
+                    return;
+                }
+                // still pending in the journal, so queued again at next startup
+                logger.error("Upload in error, kept pending until next startup: " + path, e);
+                journal(FAILED, path);
+            }
+            running.decrementAndGet();
+            pendingUploads.release();
+        }
+    }
+
+    /**
+     * Queue again the uploads not done from the journal
+     */
+    private void replay() {
+        if (journal == null || !journal.exists()) {
+            return;
+        }
+        // path and delete once uploaded
+        Map<String, Boolean> pending = new LinkedHashMap<String, Boolean>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(journal));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(UPLOAD)) {
+                    pending.put(line.substring(UPLOAD.length()), Boolean.FALSE);
+                } else if (line.startsWith(UPLOAD_DELETE)) {
+                    pending.put(line.substring(UPLOAD_DELETE.length()), Boolean.TRUE);
+                } else if (line.startsWith(DONE)) {
+                    pending.remove(line.substring(DONE.length()));
+                }
+                // FAILED: still pending
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read storage journal: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        synchronized (journalPending) {
+            journal.delete();
+        }
+        for (Map.Entry<String, Boolean> entry : pending.entrySet()) {
+            String path = entry.getKey();
+            if (new File(path).exists()) {
+                logger.info("Upload queued again from journal: " + path);
+                queueUpload(path, entry.getValue());
+            }
+        }
+    }
+
+    private void journal(String operation, String path) {
+        if (journal == null) {
+            return;
+        }
+        synchronized (journalPending) {
+            if (UPLOAD.equals(operation) || UPLOAD_DELETE.equals(operation)) {
+                journalPending.add(path);
+            } else if (DONE.equals(operation)) {
+                journalPending.remove(path);
+                if (journalPending.isEmpty()) {
+                    // nothing pending: the journal is restarted
+                    journal.delete();
+                    return;
+                }
+            }
+            Writer writer = null;
+            try {
+                writer = new FileWriter(journal, true);
+                writer.write(operation + path + "\n");
+            } catch (IOException e) {
+                logger.warn("Cannot write storage journal: " + e.getMessage());
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.t3c.anchel.openr66.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.t3c.anchel.openr66.client.SpooledDirectoryWatcher.SpooledCommand;
+import com.t3c.anchel.openr66.client.SpooledDirectoryWatcher.SpooledFile;
+
+public class SpooledDirectoryWatcherTest {
+
+    /**
+     * Records the transfers and removals, failing the transfers if asked
+     */
+    private static class RecordingCommand implements SpooledCommand {
+        private final List<String> sent = new ArrayList<String>();
+        private final List<String> removed = new ArrayList<String>();
+        private boolean fail = false;
+
+        @Override
+        public boolean transfer(SpooledFile file) {
+            if (fail) {
+                return false;
+            }
+            sent.add(file.file.getName());
+            file.specialId = sent.size();
+            return true;
+        }
+
+        @Override
+        public void removed(SpooledFile file) {
+            removed.add(file.file.getName());
+        }
+    }
+
+    private File dir;
+    private File spool;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "spoolwatcher" + System.nanoTime());
+        spool = new File(dir, "spool");
+        assertTrue(spool.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : spool.listFiles()) {
+            file.delete();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private SpooledDirectoryWatcher newWatcher(RecordingCommand command) {
+        SpooledDirectoryWatcher watcher = new SpooledDirectoryWatcher("test", new File(dir, "status.json"),
+                new File(dir, "stop"), spool, 10, 60000, ".*\\.txt", 1, false, command, false, 0);
+        assertTrue(watcher.initialized());
+        return watcher;
+    }
+
+    @Test
+    public void testSentOnceStable() throws IOException {
+        write(new File(spool, "a.txt"), "content");
+        write(new File(spool, "b.dat"), "content");
+        RecordingCommand command = new RecordingCommand();
+        SpooledDirectoryWatcher watcher = newWatcher(command);
+        try {
+            watcher.check();
+            // first seen: not yet known as stable
+            assertTrue(command.sent.isEmpty());
+            watcher.check();
+            assertEquals(1, command.sent.size());
+            assertEquals("a.txt", command.sent.get(0));
+            watcher.check();
+            assertEquals(1, command.sent.size());
+            assertEquals(1, watcher.getSent());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void testEmptyFileWaits() throws IOException {
+        write(new File(spool, "a.txt"), "");
+        RecordingCommand command = new RecordingCommand();
+        SpooledDirectoryWatcher watcher = newWatcher(command);
+        try {
+            watcher.check();
+            watcher.check();
+            assertTrue(command.sent.isEmpty());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void testJournalReplay() throws IOException {
+        write(new File(spool, "a.txt"), "content");
+        RecordingCommand command = new RecordingCommand();
+        SpooledDirectoryWatcher watcher = newWatcher(command);
+        watcher.check();
+        watcher.check();
+        watcher.stop();
+        assertEquals(1, command.sent.size());
+        assertTrue(new File(dir, "status.json" + SpooledDirectoryWatcher.JOURNAL_EXTENSION).exists());
+
+        RecordingCommand restarted = new RecordingCommand();
+        watcher = newWatcher(restarted);
+        try {
+            watcher.check();
+            watcher.check();
+            // already sent before the restart
+            assertTrue(restarted.sent.isEmpty());
+            assertTrue(new File(spool, "a.txt").delete());
+            watcher.check();
+            assertEquals(1, restarted.removed.size());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void testRetryAfterError() throws IOException {
+        write(new File(spool, "a.txt"), "content");
+        RecordingCommand command = new RecordingCommand();
+        command.fail = true;
+        SpooledDirectoryWatcher watcher = newWatcher(command);
+        try {
+            watcher.check();
+            watcher.check();
+            assertEquals(1, watcher.getError());
+            command.fail = false;
+            watcher.check();
+            watcher.check();
+            assertEquals(1, command.sent.size());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void testLockedJournal() {
+        RecordingCommand command = new RecordingCommand();
+        SpooledDirectoryWatcher watcher = newWatcher(command);
+        try {
+            SpooledDirectoryWatcher second = new SpooledDirectoryWatcher("test", new File(dir, "status.json"),
+                    new File(dir, "stop"), spool, 10, 60000, null, 0, false, command, false, 0);
+            assertFalse(second.initialized());
+        } finally {
+            watcher.stop();
+        }
+    }
+}
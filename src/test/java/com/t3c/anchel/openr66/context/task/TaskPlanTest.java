@@ -0,0 +1,40 @@
+package com.t3c.anchel.openr66.context.task;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
+
+public class TaskPlanTest {
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, new TaskPlan(new String[0][0], null).size());
+        assertEquals(0, new TaskPlan(null, null).size());
+    }
+
+    @Test
+    public void testMalformedOnlyWhenReached() {
+        String[][] tasks = new String[][] {
+                { "LOG", "first", "0" },
+                { "UNKNOWN", "second", "0" },
+                { "LOG", "third", "notanumber" } };
+        TaskPlan plan = new TaskPlan(tasks, null);
+        assertEquals(3, plan.size());
+        assertSame(tasks, plan.getTasks());
+        try {
+            plan.newTask(1, new R66Session());
+            fail("Unknown task type");
+        } catch (OpenR66RunnerErrorException e) {
+            // ok
+        }
+        try {
+            plan.newTask(2, new R66Session());
+            fail("Malformed delay");
+        } catch (OpenR66RunnerErrorException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.t3c.anchel.openr66.context.task;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.t3c.anchel.openr66.context.R66Session;
+
+public class TaskTemplateTest {
+
+    @Test
+    public void testLiteral() {
+        TaskTemplate template = new TaskTemplate("no variable at all");
+        assertFalse(template.isNoWait());
+        assertFalse(template.isLocalExec());
+        assertEquals("no variable at all", template.expand(new R66Session()));
+        assertEquals("", new TaskTemplate("").expand(new R66Session()));
+    }
+
+    @Test
+    public void testFlags() {
+        TaskTemplate template = new TaskTemplate("#NOWAIT#command #LOCALEXEC#arg");
+        assertTrue(template.isNoWait());
+        assertTrue(template.isLocalExec());
+        assertEquals("command arg", template.expand(new R66Session()));
+    }
+
+    @Test
+    public void testVariablesWithoutTransfer() {
+        TaskTemplate template = new TaskTemplate(
+                "cmd #TRUEFULLPATH# #FILESIZE# #RULE# #UNKNOWN# # #REMOTEHOSTADDR#");
+        // no file, no runner and no remote address in this session
+        assertEquals("cmd nofile 0 #RULE# #UNKNOWN# # unknown", template.expand(new R66Session()));
+    }
+
+    @Test
+    public void testAdjacentSharps() {
+        TaskTemplate template = new TaskTemplate("##TRUEFILENAME##FILESIZE#");
+        assertEquals("#nofile0", template.expand(new R66Session()));
+        assertEquals("##TRUEFILENAME##FILESIZE#", template.getArg());
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.DataPacket;
+import com.t3c.anchel.openr66.protocol.networkhandler.packet.NetworkPacket;
+import com.t3c.anchel.openr66.protocol.networkhandler.packet.NetworkPacketCodec;
+
+/**
+ * Benchmark of DataPacket writes over a loopback TCP connection, flushing every packet (previous
+ * behavior) then every N packets, reporting the number of flushes (syscalls) and the throughput.<br>
+ * <br>
+ * Usage: TestFlushCoalescing [nb packets] [flush every N]
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TestFlushCoalescing {
+    private static WaarpLogger logger;
+
+    private static final AtomicLong flushes = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        logger = WaarpLoggerFactory.getLogger(TestFlushCoalescing.class);
+        int nb = 100000;
+        int every = 16;
+        if (args.length > 0) {
+            nb = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            every = Integer.parseInt(args[1]);
+        }
+        EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            ServerBootstrap serverBootstrap = new ServerBootstrap();
+            serverBootstrap.group(group).channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    ReferenceCountUtil.release(msg);
+                                }
+                            });
+                        }
+                    });
+            Channel server = serverBootstrap.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(group).channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            ch.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+                                @Override
+                                public void flush(ChannelHandlerContext ctx) throws Exception {
+                                    flushes.incrementAndGet();
+                                    super.flush(ctx);
+                                }
+                            });
+                            ch.pipeline().addLast("codec", new NetworkPacketCodec());
+                        }
+                    });
+            Channel client = bootstrap.connect(server.localAddress()).sync().channel();
+            ByteBuf block = Unpooled.wrappedBuffer(new byte[Configuration.BUFFERSIZEDEFAULT]);
+            run(client, block, nb / 10, 1);
+            run(client, block, nb, 1);
+            run(client, block, nb / 10, every);
+            run(client, block, nb, every);
+            client.close().sync();
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    private static void run(Channel client, ByteBuf block, int nb, int every) throws Exception {
+        flushes.set(0);
+        long time1 = System.nanoTime();
+        ChannelFuture future = null;
+        for (int i = 0; i < nb; i++) {
+            block.retain();
+            NetworkPacket packet = new NetworkPacket(1, 2, new DataPacket(i, block, null), null);
+            if ((i + 1) % every == 0) {
+                future = client.writeAndFlush(packet);
+            } else {
+                future = client.write(packet);
+            }
+            if (!client.isWritable()) {
+                client.flush();
+                future.await();
+            }
+        }
+        client.flush();
+        future.await();
+        long time2 = System.nanoTime();
+        long bytes = (long) nb * block.readableBytes();
+        logger.warn("Flush every: " + every + " Packets: " + nb + " Flushes: " + flushes.get() +
+                " MB/s: " + (bytes * 1000 / (time2 - time1)));
+    }
+}
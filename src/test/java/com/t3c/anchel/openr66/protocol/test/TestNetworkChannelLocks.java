@@ -0,0 +1,204 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.waarp.common.future.WaarpLock;
+import org.waarp.common.lru.SynchronizedLruCache;
+
+import com.t3c.anchel.openr66.protocol.networkhandler.NetworkChannelLocks;
+
+/**
+ * Contention benchmark of the network channel registry under connection churn: each operation
+ * takes the lock of one remote address, registers then unregisters a channel for it, and releases
+ * the lock, with many threads over many addresses.<br>
+ * It compares the previous registry (global lock of locks, LRU cache of locks and maps keyed by
+ * address hashCode) with the current one (NetworkChannelLocks and maps keyed by address), and
+ * reports the number of addresses lost by hashCode collisions.<br>
+ * <br>
+ * Usage: TestNetworkChannelLocks [nb addresses (10000)] [nb threads (4 x cores)] [nb operations
+ * by thread (200000)]
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestNetworkChannelLocks {
+    private static interface Registry {
+        void connect(SocketAddress address);
+    }
+
+    /**
+     * Registry as previously done in NetworkTransaction
+     */
+    private static class HashCodeRegistry implements Registry {
+        private final ReentrantLock lockOfLock = new ReentrantLock();
+        private final SynchronizedLruCache<Integer, WaarpLock> locks =
+                new SynchronizedLruCache<Integer, WaarpLock>(20000, 180000);
+        private final ConcurrentHashMap<Integer, SocketAddress> channels =
+                new ConcurrentHashMap<Integer, SocketAddress>();
+
+        private WaarpLock getLock(SocketAddress address) {
+            lockOfLock.lock();
+            try {
+                WaarpLock lock = locks.get(address.hashCode());
+                if (lock == null) {
+                    lock = new WaarpLock(true);
+                }
+                locks.put(address.hashCode(), lock);
+                return lock;
+            } finally {
+                lockOfLock.unlock();
+            }
+        }
+
+        public void connect(SocketAddress address) {
+            WaarpLock lock = getLock(address);
+            lock.lock();
+            try {
+                if (channels.get(address.hashCode()) == null) {
+                    channels.put(address.hashCode(), address);
+                }
+            } finally {
+                lock.unlock();
+            }
+            channels.remove(address.hashCode());
+            lockOfLock.lock();
+            try {
+                locks.forceClearOldest();
+            } finally {
+                lockOfLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Registry as now done in NetworkTransaction
+     */
+    private static class AddressRegistry implements Registry {
+        private final NetworkChannelLocks locks = new NetworkChannelLocks();
+        private final ConcurrentHashMap<SocketAddress, SocketAddress> channels =
+                new ConcurrentHashMap<SocketAddress, SocketAddress>();
+
+        public void connect(SocketAddress address) {
+            WaarpLock lock = locks.lock(address);
+            try {
+                if (channels.get(address) == null) {
+                    channels.put(address, address);
+                }
+            } finally {
+                lock.unlock();
+            }
+            channels.remove(address, address);
+            lock = locks.tryLock(address);
+            if (lock != null) {
+                try {
+                    if (!channels.containsKey(address)) {
+                        locks.removeLock(address, lock);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nbAddresses = 10000;
+        int nbThreads = Runtime.getRuntime().availableProcessors() * 4;
+        int nbOperations = 200000;
+        if (args.length > 0) {
+            nbAddresses = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            nbThreads = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            nbOperations = Integer.parseInt(args[2]);
+        }
+        SocketAddress[] addresses = createAddresses(nbAddresses);
+        HashSet<Integer> hashCodes = new HashSet<Integer>();
+        for (SocketAddress address : addresses) {
+            hashCodes.add(address.hashCode());
+        }
+        System.out.println("Addresses: " + nbAddresses + " distinct hashCodes: " + hashCodes.size()
+                + " (addresses overwritten by collision: " + (nbAddresses - hashCodes.size()) + ")");
+        // warmup then measure
+        run("HashCode+LockOfLock", new HashCodeRegistry(), addresses, nbThreads, nbOperations / 10);
+        run("Address+LockFree", new AddressRegistry(), addresses, nbThreads, nbOperations / 10);
+        run("HashCode+LockOfLock", new HashCodeRegistry(), addresses, nbThreads, nbOperations);
+        run("Address+LockFree", new AddressRegistry(), addresses, nbThreads, nbOperations);
+    }
+
+    /**
+     * Addresses of several hosts of a network, each using several ports, as for client connections
+     */
+    private static SocketAddress[] createAddresses(int nb) throws UnknownHostException {
+        SocketAddress[] addresses = new SocketAddress[nb];
+        int nbHosts = (int) Math.sqrt(nb) + 1;
+        for (int i = 0; i < nb; i++) {
+            int host = i % nbHosts;
+            byte[] ip = new byte[] { 10, 0, (byte) (host >> 8), (byte) host };
+            addresses[i] = new InetSocketAddress(InetAddress.getByAddress(ip), 40000 + i / nbHosts);
+        }
+        return addresses;
+    }
+
+    private static void run(String name, final Registry registry, final SocketAddress[] addresses,
+            int nbThreads, final int nbOperations) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(nbThreads);
+        final AtomicLong done = new AtomicLong();
+        for (int i = 0; i < nbThreads; i++) {
+            final long seed = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int j = 0; j < nbOperations; j++) {
+                            registry.connect(addresses[random.nextInt(addresses.length)]);
+                        }
+                        done.addAndGet(nbOperations);
+                    } catch (InterruptedException e) {
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        long time1 = System.nanoTime();
+        start.countDown();
+        end.await();
+        long time2 = System.nanoTime();
+        System.out.println(name + ": " + nbThreads + " threads " + done.get() + " connections in "
+                + ((time2 - time1) / 1000000) + " ms = " + (done.get() * 1000000000L / (time2 - time1))
+                + " connections/s");
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.test;
+
+import java.lang.management.ManagementFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.DataPacket;
+import com.t3c.anchel.openr66.protocol.networkhandler.packet.NetworkPacket;
+import com.t3c.anchel.openr66.protocol.utils.FileUtils;
+
+/**
+ * Allocation benchmark of DataPacket creation and encoding (headers and keys) using unpooled heap
+ * buffers (previous behavior) then pooled direct buffers.<br>
+ * <br>
+ * Usage: TestPacketAllocation [nb packets] [md5 true/false]
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TestPacketAllocation {
+    private static WaarpLogger logger;
+
+    public static void main(String[] args) throws OpenR66ProtocolPacketException {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        logger = WaarpLoggerFactory.getLogger(TestPacketAllocation.class);
+        int nb = 1000000;
+        boolean md5 = false;
+        if (args.length > 0) {
+            nb = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            md5 = Boolean.parseBoolean(args[1]);
+        }
+        ByteBuf block = Unpooled.wrappedBuffer(new byte[Configuration.BUFFERSIZEDEFAULT]);
+        Configuration.configuration.setByteBufAllocator(false, false);
+        run(block, nb / 10, md5);
+        run(block, nb, md5);
+        Configuration.configuration.setByteBufAllocator(true, true);
+        run(block, nb / 10, md5);
+        run(block, nb, md5);
+    }
+
+    private static void run(ByteBuf block, int nb, boolean md5) throws OpenR66ProtocolPacketException {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long gcs = countGc();
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        long time1 = System.nanoTime();
+        for (int i = 0; i < nb; i++) {
+            ByteBuf key = md5 ? FileUtils.getHash(block, DigestAlgo.MD5) : Unpooled.EMPTY_BUFFER;
+            block.retain();
+            DataPacket packet = new DataPacket(i, block, key);
+            NetworkPacket networkPacket = new NetworkPacket(1, 2, packet, null);
+            networkPacket.getNetworkPacket().release();
+        }
+        long time2 = System.nanoTime();
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+        gcs = countGc() - gcs;
+        logger.warn("Allocator: " + Configuration.configuration.getByteBufAllocator().getClass().getSimpleName() +
+                " Packets: " + nb + " Heap bytes/packet: " + (allocated / nb) + " GC: " + gcs +
+                " ns/packet: " + ((time2 - time1) / nb));
+    }
+
+    private static long countGc() {
+        long count = 0;
+        for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+}
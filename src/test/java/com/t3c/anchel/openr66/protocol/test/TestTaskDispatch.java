@@ -0,0 +1,149 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.t3c.anchel.openr66.protocol.test;
+
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+
+import com.t3c.anchel.openr66.configuration.FileBasedConfiguration;
+import com.t3c.anchel.openr66.context.ErrorCode;
+import com.t3c.anchel.openr66.context.R66Session;
+import com.t3c.anchel.openr66.context.task.AbstractExecJavaTask;
+import com.t3c.anchel.openr66.context.task.AbstractTask;
+import com.t3c.anchel.openr66.context.task.TaskPlan;
+import com.t3c.anchel.openr66.context.task.TaskType;
+import com.t3c.anchel.openr66.context.task.exception.OpenR66RunnerErrorException;
+import com.t3c.anchel.openr66.database.DbConstant;
+import com.t3c.anchel.openr66.database.data.DbRule;
+import com.t3c.anchel.openr66.database.data.DbTaskRunner;
+import com.t3c.anchel.openr66.protocol.configuration.Configuration;
+import com.t3c.anchel.openr66.protocol.configuration.PartnerConfiguration;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket;
+import com.t3c.anchel.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Benchmark of the dispatch of a chain of tasks of a rule (8 pre-tasks: LOG and EXECJAVA without
+ * action), creating and running each task as done for every transfer.<br>
+ * It compares the dispatch by task name (type and delay parsed at each step, as
+ * DbTaskRunner.getTask) with the per-rule TaskPlan (type, delay and compiled argument resolved
+ * once). Both run the tasks the same way, sharing the class cache of ExecJavaTask and the argument
+ * templates of the rule, so only the dispatch itself is compared, not the cost of the tasks before
+ * these caches.<br>
+ * <br>
+ * Usage: TestTaskDispatch configuration [nb chains (100000)]
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class TestTaskDispatch {
+    /**
+     * ExecJava task without action
+     */
+    public static class NoopExecJavaTask extends AbstractExecJavaTask {
+        @Override
+        public void run() {
+            this.status = 0;
+        }
+    }
+
+    private static final String ARG_LOG = "LOG #TRANSFERID# #REMOTEHOST# #ORIGINALFILENAME# #RULE# #DATE# #HOUR#";
+    private static final String ARG_JAVA = NoopExecJavaTask.class.getName() + " #TRANSFERID# #TRUEFILENAME#";
+
+    public static void main(String[] args) throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
+        if (args.length < 1) {
+            System.err.println("Need config [nb chains]");
+            return;
+        }
+        if (!FileBasedConfiguration
+                .setClientConfigurationFromXml(Configuration.configuration, args[0])) {
+            System.err.println("Needs a correct configuration file as first argument");
+            return;
+        }
+        int nbChains = 100000;
+        if (args.length > 1) {
+            nbChains = Integer.parseInt(args[1]);
+        }
+        StringBuilder tasks = new StringBuilder("<tasks>");
+        for (int i = 0; i < 4; i++) {
+            tasks.append("<task><type>LOG</type><path>").append(ARG_LOG).append("</path><delay>0</delay></task>");
+            tasks.append("<task><type>EXECJAVA</type><path>").append(ARG_JAVA)
+                    .append("</path><delay>0</delay></task>");
+        }
+        tasks.append("</tasks>");
+        String argTransfer = "basic information";
+        R66Session session = new R66Session();
+        DbRule rule = new DbRule(null, "idRule", (String) null, TRANSFERMODE.SENDMODE.ordinal(), null, null, null,
+                null, null, null, null, tasks.toString(), null, null);
+        RequestPacket requestPacket = new RequestPacket(rule.getIdRule(), rule.getMode(), "filename",
+                Configuration.BUFFERSIZEDEFAULT, 1, 1, argTransfer, 0, PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        DbConstant.admin = new DbAdmin();
+        session.getAuth().specialNoSessionAuth(false, "false");
+        DbTaskRunner runner = null;
+        try {
+            runner = new DbTaskRunner(null, session, rule, false, requestPacket);
+        } catch (WaarpDatabaseException e) {
+        }
+        session.setBadRunner(runner, ErrorCode.QueryAlreadyFinished);
+        String[][] chain = rule.getSpreTasksArray();
+        System.out.println("Chain of " + chain.length + " tasks");
+        // warmup then measure
+        runByName(session, chain, nbChains / 10);
+        runByPlan(session, rule, chain, nbChains / 10);
+        runByName(session, chain, nbChains);
+        runByPlan(session, rule, chain, nbChains);
+    }
+
+    /**
+     * Dispatch by name, as previously done in DbTaskRunner
+     */
+    private static void runByName(R66Session session, String[][] chain, int nbChains)
+            throws OpenR66RunnerErrorException {
+        long time1 = System.nanoTime();
+        for (int i = 0; i < nbChains; i++) {
+            for (String[] task : chain) {
+                AbstractTask abstractTask = TaskType.getTaskFromId(task[0], task[1], Integer.parseInt(task[2]),
+                        session);
+                abstractTask.run();
+            }
+        }
+        print("ByName", chain.length, nbChains, System.nanoTime() - time1);
+    }
+
+    /**
+     * Dispatch as now done in DbTaskRunner
+     */
+    private static void runByPlan(R66Session session, DbRule rule, String[][] chain, int nbChains)
+            throws OpenR66RunnerErrorException {
+        long time1 = System.nanoTime();
+        for (int i = 0; i < nbChains; i++) {
+            TaskPlan plan = rule.getTaskPlan(chain);
+            for (int step = 0; step < plan.size(); step++) {
+                plan.newTask(step, session).run();
+            }
+        }
+        print("ByPlan", chain.length, nbChains, System.nanoTime() - time1);
+    }
+
+    private static void print(String name, int nbTasks, int nbChains, long nanos) {
+        System.out.println(name + ": " + nbChains + " chains in " + (nanos / 1000000) + " ms = "
+                + (nanos / ((long) nbChains * nbTasks)) + " ns/task");
+    }
+}
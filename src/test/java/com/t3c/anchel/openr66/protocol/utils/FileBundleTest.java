@@ -0,0 +1,215 @@
+package com.t3c.anchel.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.t3c.anchel.openr66.protocol.utils.FileBundle.Entry;
+
+public class FileBundleTest {
+    private File dir;
+    private File source;
+    private File target;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "filebundle" + System.nanoTime());
+        source = new File(dir, "source");
+        target = new File(dir, "target");
+        assertTrue(source.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (File sub : new File[] { source, target }) {
+            File[] files = sub.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            sub.delete();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        FileReader reader = new FileReader(file);
+        try {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[256];
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private List<File> createFiles(int nb) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < nb; i++) {
+            File file = new File(source, "file" + i + ".txt");
+            write(file, "content of file " + i);
+            files.add(file);
+        }
+        // empty file
+        File empty = new File(source, "empty.txt");
+        write(empty, "");
+        files.add(empty);
+        return files;
+    }
+
+    @Test
+    public void testCreateAndExtract() throws IOException {
+        List<File> files = createFiles(10);
+        File bundle = new File(dir, "test" + FileBundle.EXTENSION);
+        List<Entry> entries = FileBundle.create(bundle, files);
+        assertEquals(files.size(), entries.size());
+        List<Entry> index = FileBundle.readIndex(FileBundle.getIndexFile(bundle));
+        assertEquals(files.size(), index.size());
+        assertEquals(files.get(0).getAbsolutePath(), index.get(0).path);
+        assertEquals(FileBundle.BUNDLED, index.get(0).status);
+
+        final List<String> handled = new ArrayList<String>();
+        List<Entry> extracted = FileBundle.extract(bundle, target, new FileBundle.EntryHandler() {
+            @Override
+            public boolean handle(Entry entry) {
+                handled.add(entry.name);
+                return true;
+            }
+        });
+        assertEquals(files.size(), extracted.size());
+        assertEquals(files.size(), handled.size());
+        for (File file : files) {
+            assertEquals(read(file), read(new File(target, file.getName())));
+        }
+        assertEquals(0, new File(target, "empty.txt").length());
+    }
+
+    @Test
+    public void testSameNames() throws IOException {
+        File other = new File(dir, "file0.txt");
+        write(other, "other");
+        List<File> files = createFiles(1);
+        files.add(other);
+        File bundle = new File(dir, "same" + FileBundle.EXTENSION);
+        FileBundle.create(bundle, files);
+        List<Entry> extracted = FileBundle.extract(bundle, target, null);
+        assertEquals(3, extracted.size());
+        assertEquals("other", read(new File(extracted.get(2).path)));
+        assertEquals("content of file 0", read(new File(target, "file0.txt")));
+    }
+
+    @Test
+    public void testNoOverwrite() throws IOException {
+        List<File> files = createFiles(1);
+        File index = new File(source, "collide" + FileBundle.EXTENSION + FileBundle.INDEX_EXTENSION);
+        write(index, "not an index");
+        files.add(index);
+        File bundle = new File(dir, "collide" + FileBundle.EXTENSION);
+        FileBundle.create(bundle, files);
+        assertTrue(target.mkdirs());
+        File existing = new File(target, "file0.txt");
+        write(existing, "existing");
+        List<Entry> extracted = FileBundle.extract(bundle, target, null);
+        assertEquals("existing", read(existing));
+        assertFalse(existing.getAbsolutePath().equals(extracted.get(0).path));
+        assertEquals("content of file 0", read(new File(extracted.get(0).path)));
+        assertEquals("not an index", read(new File(extracted.get(2).path)));
+        assertEquals(3, FileBundle.readIndex(FileBundle.getIndexFile(new File(target, bundle.getName()))).size());
+        // extracted again at the same place
+        int nb = target.listFiles().length;
+        extracted = FileBundle.extract(bundle, target, null);
+        assertEquals(nb, target.listFiles().length);
+        assertEquals("content of file 0", read(new File(extracted.get(0).path)));
+    }
+
+    @Test
+    public void testExtractAgainOnlyErrors() throws IOException {
+        List<File> files = createFiles(5);
+        File bundle = new File(dir, "retry" + FileBundle.EXTENSION);
+        FileBundle.create(bundle, files);
+        List<Entry> extracted = FileBundle.extract(bundle, target, new FileBundle.EntryHandler() {
+            @Override
+            public boolean handle(Entry entry) {
+                return !entry.name.equals("file2.txt");
+            }
+        });
+        assertEquals(FileBundle.ERROR, extracted.get(2).status);
+        final List<String> handled = new ArrayList<String>();
+        extracted = FileBundle.extract(bundle, target, new FileBundle.EntryHandler() {
+            @Override
+            public boolean handle(Entry entry) {
+                handled.add(entry.name);
+                return true;
+            }
+        });
+        assertEquals(1, handled.size());
+        assertEquals("file2.txt", handled.get(0));
+        for (Entry entry : extracted) {
+            assertEquals(FileBundle.DONE, entry.status);
+        }
+    }
+
+    @Test
+    public void testNotABundle() throws IOException {
+        File file = new File(dir, "notbundle" + FileBundle.EXTENSION);
+        write(file, "not a bundle content");
+        try {
+            FileBundle.extract(file, target, null);
+            fail("Should not extract");
+        } catch (IOException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testSetStatus() throws IOException {
+        List<File> files = createFiles(3);
+        File bundle = new File(dir, "status" + FileBundle.EXTENSION);
+        FileBundle.create(bundle, files);
+        FileBundle.setStatus(bundle, FileBundle.DONE);
+        for (Entry entry : FileBundle.readIndex(FileBundle.getIndexFile(bundle))) {
+            assertEquals(FileBundle.DONE, entry.status);
+        }
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        List<File> files = createFiles(2);
+        File bundle = new File(dir, "delete" + FileBundle.EXTENSION);
+        FileBundle.create(bundle, files);
+        assertTrue(FileBundle.isBundle(bundle));
+        FileBundle.delete(bundle);
+        assertFalse(bundle.exists());
+        assertFalse(FileBundle.getIndexFile(bundle).exists());
+        assertFalse(FileBundle.isBundle(bundle));
+        for (File file : files) {
+            assertTrue(file.exists());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.t3c.anchel.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.t3c.anchel.openr66.protocol.utils.StorageOffload.ObjectStorage;
+
+public class StorageOffloadTest {
+
+    /**
+     * Local stand-in of the object storage: a bucket directory, failing the first calls if asked
+     */
+    private static class LocalBucket implements ObjectStorage {
+        private final File bucket;
+        private final AtomicInteger failures;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private LocalBucket(File bucket, int failures) {
+            this.bucket = bucket;
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void upload(String path) throws Exception {
+            calls.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("Simulated failure");
+            }
+            File file = new File(path);
+            copy(file, new File(bucket, file.getName()));
+        }
+
+        @Override
+        public void download(String path) throws Exception {
+            calls.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("Simulated failure");
+            }
+            File file = new File(path);
+            copy(new File(bucket, file.getName()), file);
+        }
+    }
+
+    private File dir;
+    private File bucket;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "storageoffload" + System.nanoTime());
+        bucket = new File(dir, "bucket");
+        assertTrue(bucket.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : bucket.listFiles()) {
+            file.delete();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        FileOutputStream out = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private File createFile(String name) throws IOException {
+        File file = new File(dir, name);
+        FileWriter writer = new FileWriter(file);
+        writer.write("content of " + name);
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void testUploadWithRetry() throws IOException {
+        LocalBucket storage = new LocalBucket(bucket, 2);
+        File journal = new File(dir, "journal");
+        StorageOffload offload = new StorageOffload(storage, 2, 3, 10, journal);
+        File file = createFile("upload.dat");
+        offload.queueUpload(file.getAbsolutePath());
+        assertTrue(offload.awaitIdle(10000));
+        assertEquals(3, storage.calls.get());
+        assertTrue(new File(bucket, "upload.dat").exists());
+        assertFalse("journal should be emptied once all uploads are done", journal.exists());
+        offload.shutdown();
+    }
+
+    @Test
+    public void testPendingUploadsReplayedFromJournal() throws IOException {
+        File file = createFile("replay.dat");
+        File done = createFile("done.dat");
+        File journal = new File(dir, "journal");
+        FileWriter writer = new FileWriter(journal);
+        writer.write("U " + file.getAbsolutePath() + "\n");
+        writer.write("U " + done.getAbsolutePath() + "\n");
+        writer.write("D " + done.getAbsolutePath() + "\n");
+        writer.close();
+        LocalBucket storage = new LocalBucket(bucket, 0);
+        StorageOffload offload = new StorageOffload(storage, 1, 0, 10, journal);
+        assertTrue(offload.awaitIdle(10000));
+        assertTrue(new File(bucket, "replay.dat").exists());
+        assertFalse(new File(bucket, "done.dat").exists());
+        assertEquals(1, storage.calls.get());
+        offload.shutdown();
+    }
+
+    @Test
+    public void testFailedUploadKeptPending() throws IOException {
+        LocalBucket failing = new LocalBucket(bucket, 10);
+        File journal = new File(dir, "journal");
+        StorageOffload offload = new StorageOffload(failing, 1, 1, 10, journal);
+        File file = createFile("failed.dat");
+        offload.queueUpload(file.getAbsolutePath(), true);
+        assertTrue(offload.awaitIdle(10000));
+        assertEquals(2, failing.calls.get());
+        assertTrue("failed upload should stay in the journal", journal.exists());
+        assertTrue("file should not be deleted if not uploaded", file.exists());
+        offload.shutdown();
+        // next startup
+        LocalBucket storage = new LocalBucket(bucket, 0);
+        offload = new StorageOffload(storage, 1, 0, 10, journal);
+        assertTrue(offload.awaitIdle(10000));
+        assertTrue(new File(bucket, "failed.dat").exists());
+        assertFalse("file should be deleted once uploaded", file.exists());
+        assertFalse(journal.exists());
+        offload.shutdown();
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        createFile("remote.dat").renameTo(new File(bucket, "remote.dat"));
+        LocalBucket storage = new LocalBucket(bucket, 1);
+        StorageOffload offload = new StorageOffload(storage, 2, 1, 10, null);
+        File target = new File(dir, "remote.dat");
+        assertTrue(offload.awaitDownload(target.getAbsolutePath()));
+        assertTrue(target.exists());
+        assertFalse(offload.awaitDownload(new File(dir, "missing.dat").getAbsolutePath()));
+        offload.shutdown();
+    }
+}